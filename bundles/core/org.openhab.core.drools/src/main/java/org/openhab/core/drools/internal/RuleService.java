@@ -8,9 +8,6 @@
  */
 package org.openhab.core.drools.internal;
 
-import static org.openhab.core.events.EventConstants.TOPIC_PREFIX;
-import static org.openhab.core.events.EventConstants.TOPIC_SEPERATOR;
-
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -38,6 +35,8 @@ import org.drools.runtime.rule.FactHandle;
 import org.openhab.core.drools.event.CommandEvent;
 import org.openhab.core.drools.event.RuleEvent;
 import org.openhab.core.drools.event.StateEvent;
+import org.openhab.core.events.ItemEvent;
+import org.openhab.core.events.ItemEventSubscriber;
 import org.openhab.core.items.GenericItem;
 import org.openhab.core.items.Item;
 import org.openhab.core.items.ItemNotFoundException;
@@ -50,12 +49,10 @@ import org.openhab.core.types.EventType;
 import org.openhab.core.types.State;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedService;
-import org.osgi.service.event.Event;
-import org.osgi.service.event.EventHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class RuleService extends AbstractActiveService implements ManagedService, EventHandler, ItemRegistryChangeListener, StateChangeListener {
+public class RuleService extends AbstractActiveService implements ManagedService, ItemEventSubscriber, ItemRegistryChangeListener, StateChangeListener {
 
 	private static final String RULES_CHANGESET = "org/openhab/core/drools/changeset.xml";
 
@@ -291,20 +288,9 @@ public class RuleService extends AbstractActiveService implements ManagedService
 	/**
 	 * {@inheritDoc}
 	 */
-	public void handleEvent(Event event) {  
-		String itemName = (String) event.getProperty("item");
-		
-		String topic = event.getTopic();
-		String[] topicParts = topic.split(TOPIC_SEPERATOR);
-		
-		if(!(topicParts.length > 2) || !topicParts[0].equals(TOPIC_PREFIX)) {
-			return; // we have received an event with an invalid topic
-		}
-		String operation = topicParts[1];
-		
-		if(operation.equals(EventType.COMMAND.toString())) {
-			Command command = (Command) event.getProperty("command");
-			if(command!=null) receiveCommand(itemName, command);
+	public void receiveItemEvent(ItemEvent event) {
+		if(event.getType()==EventType.COMMAND) {
+			receiveCommand(event.getItemName(), event.getCommand());
 		}
 	}
 
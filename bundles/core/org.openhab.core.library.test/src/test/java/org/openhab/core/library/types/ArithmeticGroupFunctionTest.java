@@ -8,8 +8,10 @@
  */
 package org.openhab.core.library.types;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import junit.framework.Assert;
 
@@ -17,6 +19,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.openhab.core.items.GenericItem;
 import org.openhab.core.items.GroupFunction;
+import org.openhab.core.items.IncrementalGroupFunction;
 import org.openhab.core.items.Item;
 import org.openhab.core.library.items.DimmerItem;
 import org.openhab.core.library.items.SwitchItem;
@@ -205,6 +208,105 @@ public class ArithmeticGroupFunctionTest {
 		Assert.assertEquals(new DecimalType("234.95"), state);
 	}
 	
+	@Test
+	public void testAggregatesMatchCalculation() {
+		IncrementalGroupFunction[] functions = new IncrementalGroupFunction[] {
+				new ArithmeticGroupFunction.And(OnOffType.ON, OnOffType.OFF),
+				new ArithmeticGroupFunction.Or(OnOffType.ON, OnOffType.OFF),
+				new ArithmeticGroupFunction.NAnd(OnOffType.ON, OnOffType.OFF),
+				new ArithmeticGroupFunction.NOr(OnOffType.ON, OnOffType.OFF),
+				new ArithmeticGroupFunction.Sum(),
+				new ArithmeticGroupFunction.Avg(),
+				new ArithmeticGroupFunction.Min(),
+				new ArithmeticGroupFunction.Max() };
+		Random random = new Random(42);
+		for (IncrementalGroupFunction incrementalFunction : functions) {
+			items.clear();
+			IncrementalGroupFunction.Aggregate aggregate = incrementalFunction.createAggregate();
+			Assert.assertEquals(incrementalFunction.calculate(items), aggregate.getState());
+			for (int i = 0; i < 10; i++) {
+				TestItem item = new TestItem("TestItem" + i, randomState(random, incrementalFunction));
+				items.add(item);
+				aggregate.add(item);
+			}
+			for (int i = 0; i < 200; i++) {
+				TestItem item = (TestItem) items.get(random.nextInt(items.size()));
+				item.setState(randomState(random, incrementalFunction));
+				aggregate.update(item);
+				Assert.assertEquals(incrementalFunction.calculate(items), aggregate.getState());
+			}
+			Item removed = items.remove(0);
+			aggregate.remove(removed);
+			Assert.assertEquals(incrementalFunction.calculate(items), aggregate.getState());
+		}
+	}
+
+	@Test
+	public void testAggregatesMatchCalculationWithMixedScales() {
+		IncrementalGroupFunction[] functions = new IncrementalGroupFunction[] {
+				new ArithmeticGroupFunction.Sum(),
+				new ArithmeticGroupFunction.Avg(),
+				new ArithmeticGroupFunction.Min(),
+				new ArithmeticGroupFunction.Max() };
+		Random random = new Random(42);
+		for (IncrementalGroupFunction incrementalFunction : functions) {
+			items.clear();
+			IncrementalGroupFunction.Aggregate aggregate = incrementalFunction.createAggregate();
+			for (int i = 0; i < 5; i++) {
+				TestItem item = new TestItem("TestItem" + i, randomScaledState(random));
+				items.add(item);
+				aggregate.add(item);
+			}
+			for (int i = 0; i < 500; i++) {
+				TestItem item = (TestItem) items.get(random.nextInt(items.size()));
+				item.setState(randomScaledState(random));
+				aggregate.update(item);
+				// DecimalType.equals() ignores the scale, so the displayed values are compared as well
+				State expected = incrementalFunction.calculate(items);
+				State actual = aggregate.getState();
+				Assert.assertEquals(expected, actual);
+				Assert.assertEquals(expected.toString(), actual.toString());
+			}
+		}
+	}
+
+	@Test
+	public void testAvgAggregateAfterMemberWithLargerScale() {
+		function = new ArithmeticGroupFunction.Avg();
+		IncrementalGroupFunction.Aggregate aggregate = ((IncrementalGroupFunction) function).createAggregate();
+		TestItem item1 = new TestItem("TestItem1", new DecimalType("1.5"));
+		TestItem item2 = new TestItem("TestItem2", new DecimalType("2"));
+		items.add(item1);
+		items.add(item2);
+		aggregate.add(item1);
+		aggregate.add(item2);
+		item1.setState(new DecimalType("1"));
+		aggregate.update(item1);
+
+		Assert.assertEquals("2", function.calculate(items).toString());
+		Assert.assertEquals("2", aggregate.getState().toString());
+	}
+
+	private State randomScaledState(Random random) {
+		if (random.nextInt(8) == 0) {
+			return UnDefType.UNDEF;
+		}
+		// few distinct values, so that equal values of different scales meet
+		return new DecimalType(BigDecimal.valueOf(random.nextInt(5) - 2).setScale(random.nextInt(3)));
+	}
+
+	private State randomState(Random random, GroupFunction function) {
+		int value = random.nextInt(6);
+		if (value == 0) {
+			return UnDefType.UNDEF;
+		}
+		if (function instanceof ArithmeticGroupFunction.And || function instanceof ArithmeticGroupFunction.Or) {
+			// mostly ON, so that the 'and' functions also reach their active state
+			return value > 1 ? OnOffType.ON : OnOffType.OFF;
+		}
+		return new DecimalType(BigDecimal.valueOf(random.nextInt(1000) - 500, 1));
+	}
+	
 	class TestItem extends GenericItem {
 
 		public TestItem(String name, State state) {
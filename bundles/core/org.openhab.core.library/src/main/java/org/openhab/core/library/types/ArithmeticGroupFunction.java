@@ -10,9 +10,13 @@ package org.openhab.core.library.types;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.openhab.core.items.GroupFunction;
+import org.openhab.core.items.IncrementalGroupFunction;
 import org.openhab.core.items.Item;
 import org.openhab.core.types.State;
 import org.openhab.core.types.UnDefType;
@@ -21,6 +25,9 @@ import org.openhab.core.types.UnDefType;
  * This interface is only a container for functions that require the core type library
  * for its calculations.
  * 
+ * All functions are {@link IncrementalGroupFunction}s, so a group item can update its state
+ * from the changed member only, instead of recalculating it over all members.
+ * 
  * @author Kai Kreuzer
  * @since 0.7.0
  *
@@ -38,7 +45,7 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 	 * @since 0.7.0
 	 *
 	 */
-	static class And implements GroupFunction {
+	static class And implements IncrementalGroupFunction {
 		
 		protected final State activeState;
 		protected final State passiveState;
@@ -100,6 +107,28 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 			return count;
 			
 		}
+
+		/**
+		 * @{inheritDoc
+		 */
+		public Aggregate createAggregate() {
+			return new ActiveStateAggregate(activeState) {
+				protected State calculateState(int activeCount, int count) {
+					return And.this.calculateState(activeCount, count);
+				}
+			};
+		}
+
+		/**
+		 * Calculates the group state from the number of members in the active state.
+		 * 
+		 * @param activeCount the number of members in the active state
+		 * @param count the number of all members
+		 * @return the group state
+		 */
+		protected State calculateState(int activeCount, int count) {
+			return count>0 && activeCount==count ? activeState : passiveState;
+		}
 	}
 
 	/**
@@ -113,7 +142,7 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 	 * @since 0.7.0
 	 *
 	 */
-	static class Or implements GroupFunction {
+	static class Or implements IncrementalGroupFunction {
 
 		protected final State activeState;
 		protected final State passiveState;
@@ -167,6 +196,28 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 			}
 			return count;
 		}
+
+		/**
+		 * @{inheritDoc
+		 */
+		public Aggregate createAggregate() {
+			return new ActiveStateAggregate(activeState) {
+				protected State calculateState(int activeCount, int count) {
+					return Or.this.calculateState(activeCount, count);
+				}
+			};
+		}
+
+		/**
+		 * Calculates the group state from the number of members in the active state.
+		 * 
+		 * @param activeCount the number of members in the active state
+		 * @param count the number of all members
+		 * @return the group state
+		 */
+		protected State calculateState(int activeCount, int count) {
+			return activeCount>0 ? activeState : passiveState;
+		}
 	}
 	
 	/**
@@ -191,6 +242,11 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 			return notResult;
 		}
 		
+		protected State calculateState(int activeCount, int count) {
+			State result = super.calculateState(activeCount, count);
+			return result.equals(activeState) ? passiveState : activeState;
+		}
+		
 	}
 
 	/**
@@ -215,6 +271,11 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 			return notResult;
 		}
 		
+		protected State calculateState(int activeCount, int count) {
+			State result = super.calculateState(activeCount, count);
+			return result.equals(activeState) ? passiveState : activeState;
+		}
+		
 	}
 	
 	/**
@@ -224,10 +285,38 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 	 * @since 0.7.0
 	 *
 	 */
-	static class Avg implements GroupFunction {
+	static class Avg implements IncrementalGroupFunction {
 		
 		public Avg() {}
 
+		/**
+		 * @{inheritDoc
+		 */
+		public Aggregate createAggregate() {
+			return new NumericAggregate() {
+				private BigDecimal sum = BigDecimal.ZERO;
+				private int count = 0;
+
+				protected void addValue(BigDecimal value) {
+					sum = sum.add(value);
+					count++;
+				}
+
+				protected void removeValue(BigDecimal value) {
+					sum = sum.subtract(value);
+					count--;
+				}
+
+				protected State calculateState() {
+					if(count>0) {
+						return new DecimalType(getSum(sum).divide(new BigDecimal(count), RoundingMode.HALF_UP));
+					} else {
+						return UnDefType.UNDEF;
+					}
+				}
+			};
+		}
+
 		/**
 		 * @{inheritDoc
 		 */
@@ -270,10 +359,31 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 	 * @since 1.1.0
 	 *
 	 */
-	static class Sum implements GroupFunction {
+	static class Sum implements IncrementalGroupFunction {
 		
 		public Sum() {}
 
+		/**
+		 * @{inheritDoc
+		 */
+		public Aggregate createAggregate() {
+			return new NumericAggregate() {
+				private BigDecimal sum = BigDecimal.ZERO;
+
+				protected void addValue(BigDecimal value) {
+					sum = sum.add(value);
+				}
+
+				protected void removeValue(BigDecimal value) {
+					sum = sum.subtract(value);
+				}
+
+				protected State calculateState() {
+					return new DecimalType(getSum(sum));
+				}
+			};
+		}
+
 		/**
 		 * @{inheritDoc
 		 */
@@ -310,10 +420,17 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 	 * @since 0.7.0
 	 *
 	 */
-	static class Min implements GroupFunction {
+	static class Min implements IncrementalGroupFunction {
 		
 		public Min() {}
 
+		/**
+		 * @{inheritDoc
+		 */
+		public Aggregate createAggregate() {
+			return new ExtremeValueAggregate(false);
+		}
+
 		/**
 		 * @{inheritDoc
 		 */
@@ -323,7 +440,7 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 				for(Item item : items) {
 					DecimalType itemState = (DecimalType) item.getStateAs(DecimalType.class);
 					if(itemState!=null) {
-						if(min==null || min.compareTo(itemState.toBigDecimal()) > 0) {
+						if(min==null || ExtremeValueAggregate.isPreferred(itemState.toBigDecimal(), min, false)) {
 							min = itemState.toBigDecimal();
 						}
 					}
@@ -355,10 +472,17 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 	 * @since 0.7.0
 	 *
 	 */
-	static class Max implements GroupFunction {
+	static class Max implements IncrementalGroupFunction {
 		
 		public Max() {}
 
+		/**
+		 * @{inheritDoc
+		 */
+		public Aggregate createAggregate() {
+			return new ExtremeValueAggregate(true);
+		}
+
 		/**
 		 * @{inheritDoc
 		 */
@@ -368,7 +492,7 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 				for(Item item : items) {
 					DecimalType itemState = (DecimalType) item.getStateAs(DecimalType.class);
 					if(itemState!=null) {
-						if(max==null || max.compareTo(itemState.toBigDecimal()) < 0) {
+						if(max==null || ExtremeValueAggregate.isPreferred(itemState.toBigDecimal(), max, true)) {
 							max = itemState.toBigDecimal();
 						}
 					}
@@ -392,6 +516,259 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 			}
 		}
 	}
-	
-	
+
+	/**
+	 * Base class of the aggregates of the arithmetic group functions. It keeps the contribution
+	 * of each member to the group state, so that the contribution of a member can be replaced
+	 * when its state changes, without looking at the other members.
+	 * 
+	 * @since 1.6.0
+	 *
+	 * @param <T> the type of the contributions
+	 */
+	static abstract class MemberAggregate<T> implements IncrementalGroupFunction.Aggregate {
+
+		private final Map<Item, Contribution<T>> contributions = new IdentityHashMap<Item, Contribution<T>>();
+
+		/**
+		 * @{inheritDoc
+		 */
+		public synchronized void add(Item item) {
+			Contribution<T> contribution = contributions.get(item);
+			if(contribution==null) {
+				contribution = new Contribution<T>(valueOf(item));
+				contributions.put(item, contribution);
+			}
+			// an item can be a member of the same group several times
+			contribution.count++;
+			added(contribution.value);
+		}
+
+		/**
+		 * @{inheritDoc
+		 */
+		public synchronized void remove(Item item) {
+			Contribution<T> contribution = contributions.get(item);
+			if(contribution!=null) {
+				removed(contribution.value);
+				if(--contribution.count==0) {
+					contributions.remove(item);
+				}
+			}
+		}
+
+		/**
+		 * @{inheritDoc
+		 */
+		public synchronized void update(Item item) {
+			Contribution<T> contribution = contributions.get(item);
+			if(contribution!=null) {
+				T value = valueOf(item);
+				boolean unchanged = value==null ? contribution.value==null : value.equals(contribution.value);
+				if(!unchanged) {
+					for(int i = 0; i < contribution.count; i++) {
+						removed(contribution.value);
+						added(value);
+					}
+					contribution.value = value;
+				}
+			}
+		}
+
+		/**
+		 * @{inheritDoc
+		 */
+		public synchronized State getState() {
+			return calculateState();
+		}
+
+		/**
+		 * Determines the contribution of a member from its current state.
+		 */
+		protected abstract T valueOf(Item item);
+
+		protected abstract void added(T value);
+
+		protected abstract void removed(T value);
+
+		protected abstract State calculateState();
+
+		private static class Contribution<T> {
+
+			private T value;
+			private int count = 0;
+
+			public Contribution(T value) {
+				this.value = value;
+			}
+		}
+	}
+
+	/**
+	 * Counts the members which are in the active state of an 'and' or 'or' function.
+	 * 
+	 * @since 1.6.0
+	 */
+	static abstract class ActiveStateAggregate extends MemberAggregate<Boolean> {
+
+		private final State activeState;
+		private int activeCount = 0;
+		private int count = 0;
+
+		public ActiveStateAggregate(State activeState) {
+			this.activeState = activeState;
+		}
+
+		protected Boolean valueOf(Item item) {
+			return activeState.equals(item.getState());
+		}
+
+		protected void added(Boolean active) {
+			count++;
+			if(active) {
+				activeCount++;
+			}
+		}
+
+		protected void removed(Boolean active) {
+			count--;
+			if(active) {
+				activeCount--;
+			}
+		}
+
+		protected State calculateState() {
+			return calculateState(activeCount, count);
+		}
+
+		protected abstract State calculateState(int activeCount, int count);
+	}
+
+	/**
+	 * Base class of the aggregates over the decimal states of the members. Members which
+	 * do not have a decimal state are ignored.
+	 * 
+	 * @since 1.6.0
+	 */
+	static abstract class NumericAggregate extends MemberAggregate<BigDecimal> {
+
+		/** counts the scales of the member values; a running sum keeps the largest scale it ever had */
+		private final TreeMap<Integer, Integer> scales = new TreeMap<Integer, Integer>();
+
+		protected BigDecimal valueOf(Item item) {
+			DecimalType itemState = (DecimalType) item.getStateAs(DecimalType.class);
+			return itemState!=null ? itemState.toBigDecimal() : null;
+		}
+
+		protected final void added(BigDecimal value) {
+			if(value!=null) {
+				increment(scales, value.scale());
+				addValue(value);
+			}
+		}
+
+		protected final void removed(BigDecimal value) {
+			if(value!=null) {
+				decrement(scales, value.scale());
+				removeValue(value);
+			}
+		}
+
+		/**
+		 * Brings a running sum to the scale that adding up the current member values
+		 * to {@link BigDecimal#ZERO} results in. This is always exact, as no member value
+		 * has a larger scale.
+		 * 
+		 * @param sum the running sum of the current member values
+		 * @return the sum with the scale of the current member values
+		 */
+		protected BigDecimal getSum(BigDecimal sum) {
+			int scale = scales.isEmpty() ? 0 : Math.max(0, scales.lastKey());
+			return sum.setScale(scale);
+		}
+
+		protected abstract void addValue(BigDecimal value);
+
+		protected abstract void removeValue(BigDecimal value);
+
+		protected static void increment(Map<Integer, Integer> counts, Integer key) {
+			Integer count = counts.get(key);
+			counts.put(key, count==null ? 1 : count + 1);
+		}
+
+		protected static void decrement(Map<Integer, Integer> counts, Integer key) {
+			Integer count = counts.get(key);
+			if(count!=null) {
+				if(count==1) {
+					counts.remove(key);
+				} else {
+					counts.put(key, count - 1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Keeps the decimal member states sorted, so that the minimum or maximum can be
+	 * determined in O(log n). Equal values of different scales share an entry, which
+	 * counts the members per scale.
+	 * 
+	 * @since 1.6.0
+	 */
+	static class ExtremeValueAggregate extends NumericAggregate {
+
+		private final TreeMap<BigDecimal, TreeMap<Integer, Integer>> values = new TreeMap<BigDecimal, TreeMap<Integer, Integer>>();
+		private final boolean max;
+
+		public ExtremeValueAggregate(boolean max) {
+			this.max = max;
+		}
+
+		protected void addValue(BigDecimal value) {
+			TreeMap<Integer, Integer> scales = values.get(value);
+			if(scales==null) {
+				scales = new TreeMap<Integer, Integer>();
+				values.put(value, scales);
+			}
+			increment(scales, value.scale());
+		}
+
+		protected void removeValue(BigDecimal value) {
+			TreeMap<Integer, Integer> scales = values.get(value);
+			if(scales!=null) {
+				decrement(scales, value.scale());
+				if(scales.isEmpty()) {
+					values.remove(value);
+				}
+			}
+		}
+
+		protected State calculateState() {
+			if(values.isEmpty()) {
+				return UnDefType.UNDEF;
+			}
+			BigDecimal extreme = max ? values.lastKey() : values.firstKey();
+			// like calculate(), prefer the largest scale among equal values
+			return new DecimalType(extreme.setScale(values.get(extreme).lastKey()));
+		}
+
+		/**
+		 * Checks whether a value replaces the current minimum or maximum. Among equal values,
+		 * the one with the largest scale is preferred, so that the result does not depend on
+		 * the order of the members.
+		 * 
+		 * @param value the value to check
+		 * @param current the current minimum or maximum
+		 * @param max whether the maximum or the minimum is determined
+		 * @return true, if the value is the new minimum or maximum
+		 */
+		static boolean isPreferred(BigDecimal value, BigDecimal current, boolean max) {
+			int comparison = value.compareTo(current);
+			if(comparison==0) {
+				return value.scale() > current.scale();
+			}
+			return max ? comparison > 0 : comparison < 0;
+		}
+	}
+
 }
@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.core.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.core.items.Item;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.types.State;
+
+/**
+ * @since 1.6.0
+ */
+public class CachingPersistenceServiceTest {
+
+	private CountingPersistenceService service;
+	private CachingPersistenceService cache;
+
+	@Before
+	public void setUp() {
+		CachingPersistenceService.configure(100, 60000, 1000);
+		service = new CountingPersistenceService();
+		cache = CachingPersistenceService.getInstance(service);
+	}
+
+	@After
+	public void tearDown() {
+		CachingPersistenceService.removeInstance(service);
+		CachingPersistenceService.configure(CachingPersistenceService.DEFAULT_MAX_STATES,
+				CachingPersistenceService.DEFAULT_TIME_TO_LIVE, CachingPersistenceService.DEFAULT_RESOLUTION);
+	}
+
+	@Test
+	public void testRepeatedQueriesAreAnsweredFromTheCache() {
+		assertSame(cache, CachingPersistenceService.getInstance(service));
+		query("Item1", 10000, null);
+		query("Item1", 10500, null);
+		assertEquals(1, service.queries);
+		query("Item1", 11000, null);
+		query("Item2", 10000, null);
+		assertEquals(3, service.queries);
+		assertEquals(1, cache.getHits());
+		assertEquals(3, cache.getMisses());
+	}
+
+	@Test
+	public void testStoredStatesInvalidateAffectedResults() {
+		query("Item1", 10000, null);
+		query("Item1", 10000, new Date(20000));
+		query("Item2", 10000, null);
+
+		CachingPersistenceService.invalidate("counting", "Item1", new Date(30000));
+		query("Item1", 10000, null);
+		query("Item1", 10000, new Date(20000));
+		query("Item2", 10000, null);
+		assertEquals(4, service.queries);
+		assertEquals(1, cache.getInvalidations());
+	}
+
+	@Test
+	public void testStoredStatesAreCounted() {
+		long count = CachingPersistenceService.getStoredStates("Item1");
+		CachingPersistenceService.invalidate("counting", "Item1", new Date(30000));
+		CachingPersistenceService.invalidate("other", "Item1", new Date(30000));
+		assertEquals(count + 2, CachingPersistenceService.getStoredStates("Item1"));
+		assertEquals(0, CachingPersistenceService.getStoredStates("Unknown"));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedResultsAreEvicted() {
+		service.size = 40;
+		query("Item1", 0, null);
+		query("Item2", 0, null);
+		query("Item1", 0, null);
+		query("Item3", 0, null);
+		assertEquals(80, cache.getCachedStates());
+		assertEquals(1, cache.getEvictions());
+
+		query("Item1", 0, null);
+		query("Item2", 0, null);
+		assertEquals(4, service.queries);
+	}
+
+	@Test
+	public void testResultsAreNotCachedWhenDisabled() {
+		CachingPersistenceService.configure(0, 60000, 1000);
+		query("Item1", 10000, null);
+		query("Item1", 10000, null);
+		assertEquals(2, service.queries);
+	}
+
+	@Test
+	public void testLargeResultsAreNotCached() {
+		service.size = 150;
+		query("Item1", 0, null);
+		query("Item1", 0, null);
+		service.lazy = true;
+		query("Item2", 0, null);
+		query("Item2", 0, null);
+		assertEquals(4, service.queries);
+		assertEquals(0, cache.getCachedStates());
+	}
+
+	private void query(String itemName, long begin, Date end) {
+		FilterCriteria filter = new FilterCriteria();
+		filter.setItemName(itemName);
+		filter.setBeginDate(new Date(begin));
+		filter.setEndDate(end);
+		int count = 0;
+		for (HistoricItem historicItem : cache.query(filter)) {
+			assertEquals(itemName, historicItem.getName());
+			count++;
+		}
+		assertEquals(service.size, count);
+	}
+
+	private static class CountingPersistenceService implements QueryablePersistenceService {
+
+		private int size = 1;
+		private int queries = 0;
+		private boolean lazy = false;
+
+		public String getName() {
+			return "counting";
+		}
+
+		public void store(Item item) {
+		}
+
+		public void store(Item item, String alias) {
+		}
+
+		public Iterable<HistoricItem> query(final FilterCriteria filter) {
+			queries++;
+			List<HistoricItem> results = new ArrayList<HistoricItem>();
+			for (int i = 0; i < size; i++) {
+				final State state = new DecimalType(i);
+				results.add(new HistoricItem() {
+					public Date getTimestamp() {
+						return filter.getBeginDate();
+					}
+
+					public State getState() {
+						return state;
+					}
+
+					public String getName() {
+						return filter.getItemName();
+					}
+				});
+			}
+			final List<HistoricItem> list = Collections.unmodifiableList(results);
+			if (!lazy) {
+				return list;
+			}
+			return new Iterable<HistoricItem>() {
+				public Iterator<HistoricItem> iterator() {
+					return list.iterator();
+				}
+			};
+		}
+	}
+
+}
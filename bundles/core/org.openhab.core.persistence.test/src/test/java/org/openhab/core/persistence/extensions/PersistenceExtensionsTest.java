@@ -10,7 +10,10 @@ package org.openhab.core.persistence.extensions;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 import org.joda.time.DateMidnight;
@@ -18,9 +21,13 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.openhab.core.items.GenericItem;
+import org.openhab.core.items.Item;
 import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.persistence.AggregatingPersistenceService;
+import org.openhab.core.persistence.FilterCriteria;
 import org.openhab.core.persistence.HistoricItem;
 import org.openhab.core.persistence.PersistenceService;
+import org.openhab.core.persistence.QueryablePersistenceService;
 import org.openhab.core.persistence.test.TestPersistenceService;
 import org.openhab.core.types.Command;
 import org.openhab.core.types.State;
@@ -103,4 +110,111 @@ public class PersistenceExtensionsTest {
 		DecimalType average = PersistenceExtensions.averageSince(item, new DateMidnight(2003, 1, 1), "test");
 		assertEquals("2100", average.toString());
 	}
+
+	@Test
+	public void testStatesAreAggregatedPageByPage() {
+		PagedPersistenceService pagedService = new PagedPersistenceService(2500);
+		ext.addPersistenceService(pagedService);
+		try {
+			item.setState(new DecimalType(-1));
+			HistoricItem maximum = PersistenceExtensions.maximumSince(item, new DateMidnight(2000, 1, 1), "paged");
+			assertEquals("2499", maximum.getState().toString());
+			assertEquals(3, pagedService.queries);
+			
+			// (-1 + 0 + 1 + ... + 2499) / 2501
+			DecimalType average = PersistenceExtensions.averageSince(item, new DateMidnight(2000, 1, 1), "paged");
+			assertEquals(1249.0, average.doubleValue(), 0.0001);
+		} finally {
+			ext.removePersistenceService(pagedService);
+		}
+	}
+
+	@Test
+	public void testAggregatingServiceIsUsed() {
+		final HistoricItem minimum = new TestHistoricItem(new Date(0), 7);
+		PagedPersistenceService aggregatingService = new AggregatingTestPersistenceService(minimum);
+		ext.addPersistenceService(aggregatingService);
+		try {
+			item.setState(new DecimalType(10));
+			assertSame(minimum, PersistenceExtensions.minimumSince(item, new DateMidnight(2000, 1, 1), "aggregating"));
+			assertEquals("10", PersistenceExtensions.maximumSince(item, new DateMidnight(2000, 1, 1), "aggregating").getState().toString());
+			assertEquals(0, aggregatingService.queries);
+		} finally {
+			ext.removePersistenceService(aggregatingService);
+		}
+	}
+
+	/**
+	 * Returns the values 0, 1, 2, ... and supports paging.
+	 */
+	private static class PagedPersistenceService implements QueryablePersistenceService {
+		
+		private final int size;
+		private int queries = 0;
+		
+		public PagedPersistenceService(int size) {
+			this.size = size;
+		}
+		
+		public String getName() {
+			return "paged";
+		}
+		
+		public void store(Item item) {
+		}
+		
+		public void store(Item item, String alias) {
+		}
+		
+		public Iterable<HistoricItem> query(FilterCriteria filter) {
+			queries++;
+			List<HistoricItem> results = new ArrayList<HistoricItem>();
+			int start = filter.getPageNumber() * filter.getPageSize();
+			for (int i = start; i < size && i < start + filter.getPageSize(); i++) {
+				results.add(new TestHistoricItem(new Date(filter.getBeginDate().getTime() + i), i));
+			}
+			return results;
+		}
+	}
+
+	private static class AggregatingTestPersistenceService extends PagedPersistenceService implements AggregatingPersistenceService {
+		
+		private final HistoricItem result;
+		
+		public AggregatingTestPersistenceService(HistoricItem result) {
+			super(0);
+			this.result = result;
+		}
+		
+		public String getName() {
+			return "aggregating";
+		}
+		
+		public HistoricItem aggregate(FilterCriteria filter, Aggregation aggregation) {
+			return result;
+		}
+	}
+
+	private static class TestHistoricItem implements HistoricItem {
+		
+		private final Date timestamp;
+		private final DecimalType state;
+		
+		public TestHistoricItem(Date timestamp, int value) {
+			this.timestamp = timestamp;
+			this.state = new DecimalType(value);
+		}
+		
+		public Date getTimestamp() {
+			return timestamp;
+		}
+		
+		public State getState() {
+			return state;
+		}
+		
+		public String getName() {
+			return "Test";
+		}
+	}
 }
@@ -0,0 +1,201 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.core.persistence.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.openhab.core.items.GroupItem;
+import org.openhab.core.items.Item;
+import org.openhab.core.library.items.NumberItem;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.persistence.BatchPersistenceService;
+import org.openhab.core.persistence.PersistenceEntry;
+import org.openhab.core.persistence.PersistenceService;
+import org.openhab.core.persistence.internal.PersistenceWriter.OverflowPolicy;
+
+/**
+ * @since 1.6.0
+ */
+public class PersistenceWriterTest {
+
+	private PersistenceWriter writer;
+
+	@After
+	public void tearDown() {
+		if (writer != null) {
+			writer.shutdown(1000);
+		}
+	}
+
+	@Test
+	public void testEntriesAreWrittenInBatches() throws InterruptedException {
+		TestBatchService service = new TestBatchService();
+		writer = new PersistenceWriter(service);
+		writer.setBatchSize(10);
+		writer.setFlushInterval(60000);
+		NumberItem item = new NumberItem("Number1");
+		for (int i = 0; i < 10; i++) {
+			item.setState(new DecimalType(i));
+			writer.store(item, null);
+		}
+		writer.start();
+
+		List<PersistenceEntry> batch = service.batches.poll(5, TimeUnit.SECONDS);
+		assertEquals(10, batch.size());
+		// the states must have been captured when the store was requested
+		for (int i = 0; i < 10; i++) {
+			assertEquals(new DecimalType(i), batch.get(i).getState());
+		}
+	}
+
+	@Test
+	public void testIncompleteBatchIsFlushedAfterInterval() throws InterruptedException {
+		TestBatchService service = new TestBatchService();
+		writer = new PersistenceWriter(service);
+		writer.setBatchSize(100);
+		writer.setFlushInterval(50);
+		writer.start();
+		writer.store(new NumberItem("Number1"), "alias");
+
+		List<PersistenceEntry> batch = service.batches.poll(5, TimeUnit.SECONDS);
+		assertEquals(1, batch.size());
+		assertEquals("alias", batch.get(0).getName());
+	}
+
+	@Test
+	public void testOverflowPolicies() {
+		TestBatchService service = new TestBatchService();
+		writer = new PersistenceWriter(service, 2);
+		writer.setOverflowPolicy(OverflowPolicy.DROPNEWEST);
+		Item item = new NumberItem("Number1");
+		assertTrue(writer.store(item, "first"));
+		assertTrue(writer.store(item, "second"));
+		assertFalse(writer.store(item, "third"));
+		assertEquals(2, writer.getQueueDepth());
+
+		writer.setOverflowPolicy(OverflowPolicy.DROPOLDEST);
+		assertTrue(writer.store(item, "fourth"));
+		assertEquals(2, writer.getQueueDepth());
+		assertEquals(2, writer.getStatistics().getDropped());
+	}
+
+	@Test
+	public void testPlainServiceStoresStateOfRequest() throws InterruptedException {
+		TestPlainService service = new TestPlainService();
+		writer = new PersistenceWriter(service);
+		NumberItem item = new NumberItem("Number1");
+		item.setState(new DecimalType(1));
+		writer.store(item, null);
+		item.setState(new DecimalType(2));
+		writer.store(item, "alias");
+		item.setState(new DecimalType(3));
+		assertEquals(2, writer.getQueueDepth());
+		writer.start();
+
+		// the states must have been captured when the store was requested
+		assertEquals("NumberItem Number1=1", service.stored.poll(5, TimeUnit.SECONDS));
+		assertEquals("NumberItem alias=2", service.stored.poll(5, TimeUnit.SECONDS));
+		writer.shutdown(5000);
+		assertEquals(0, writer.getQueueDepth());
+		assertEquals(2, writer.getStatistics().getWritten());
+	}
+
+	@Test
+	public void testPlainServiceStoresGroupItemsRightAway() {
+		TestPlainService service = new TestPlainService();
+		writer = new PersistenceWriter(service);
+		GroupItem item = new GroupItem("Group1");
+		item.setState(new DecimalType(1));
+		writer.store(item, null);
+
+		assertEquals(0, writer.getQueueDepth());
+		assertEquals(Arrays.asList("GroupItem Group1=1"), new ArrayList<String>(service.stored));
+	}
+
+	@Test
+	public void testShutdownWritesQueuedEntries() throws InterruptedException {
+		TestBatchService service = new TestBatchService();
+		service.blocked = new CountDownLatch(1);
+		writer = new PersistenceWriter(service);
+		writer.setBatchSize(1);
+		writer.start();
+		Item item = new NumberItem("Number1");
+		for (int i = 0; i < 5; i++) {
+			writer.store(item, null);
+		}
+		service.blocked.countDown();
+		writer.shutdown(5000);
+
+		assertEquals(0, writer.getQueueDepth());
+		assertEquals(5, writer.getStatistics().getWritten());
+		assertEquals(5, service.batches.size());
+	}
+
+	private static class TestPlainService implements PersistenceService {
+
+		private final BlockingQueue<String> stored = new LinkedBlockingQueue<String>();
+
+		public String getName() {
+			return "plain";
+		}
+
+		public void store(Item item) {
+			store(item, null);
+		}
+
+		public void store(Item item, String alias) {
+			stored.add(item.getClass().getSimpleName() + " " + (alias != null ? alias : item.getName()) + "=" + item.getState());
+		}
+	}
+
+	private static class TestBatchService implements BatchPersistenceService {
+
+		private final BlockingQueue<List<PersistenceEntry>> batches = new LinkedBlockingQueue<List<PersistenceEntry>>();
+		private volatile CountDownLatch blocked;
+
+		public String getName() {
+			return "test";
+		}
+
+		public void store(Item item) {
+			store(item, null);
+		}
+
+		public void store(Item item, String alias) {
+			store(Collections.singletonList(new PersistenceEntry(item, alias, item.getState(), new Date())));
+		}
+
+		public void store(Collection<PersistenceEntry> entries) {
+			if (blocked != null) {
+				try {
+					blocked.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			batches.add(new ArrayList<PersistenceEntry>(entries));
+		}
+	}
+
+}
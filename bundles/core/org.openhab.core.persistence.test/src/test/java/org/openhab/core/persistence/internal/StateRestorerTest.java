@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.core.persistence.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.openhab.core.items.Item;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.persistence.BulkQueryablePersistenceService;
+import org.openhab.core.persistence.FilterCriteria;
+import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.persistence.QueryablePersistenceService;
+import org.openhab.core.types.State;
+
+/**
+ * @since 1.6.0
+ */
+public class StateRestorerTest {
+
+	@Test
+	public void testServicesAreQueriedInBatches() {
+		BulkService bulkService = new BulkService();
+		SingleService singleService = new SingleService();
+		Map<QueryablePersistenceService, List<String>> requests = new LinkedHashMap<QueryablePersistenceService, List<String>>();
+		requests.put(bulkService, itemNames(250));
+		requests.put(singleService, itemNames(30));
+
+		Map<String, Map<String, HistoricItem>> results = new StateRestorer(2, 100).queryLatest(requests);
+
+		// the bulk service does not know the items with an odd number
+		assertEquals(125, results.get("bulk").size());
+		assertEquals("Item0", results.get("bulk").get("Item0").getName());
+		assertEquals(3, bulkService.queries.get());
+		assertTrue(bulkService.maxConcurrentQueries.get() <= 2);
+
+		assertEquals(30, results.get("single").size());
+		assertEquals(30, singleService.queries.get());
+	}
+
+	@Test
+	public void testFailingServiceDoesNotAffectOthers() {
+		BulkService failingService = new BulkService() {
+			@Override
+			public Map<String, HistoricItem> queryLatest(Collection<String> itemNames) {
+				throw new IllegalStateException("not connected");
+			}
+		};
+		SingleService singleService = new SingleService();
+		Map<QueryablePersistenceService, List<String>> requests = new LinkedHashMap<QueryablePersistenceService, List<String>>();
+		requests.put(failingService, itemNames(10));
+		requests.put(singleService, itemNames(10));
+
+		Map<String, Map<String, HistoricItem>> results = new StateRestorer(4, 5).queryLatest(requests);
+
+		assertEquals(0, results.get("bulk").size());
+		assertEquals(10, results.get("single").size());
+	}
+
+	private static List<String> itemNames(int count) {
+		List<String> itemNames = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			itemNames.add("Item" + i);
+		}
+		return itemNames;
+	}
+
+	private static HistoricItem createHistoricItem(final String itemName) {
+		return new HistoricItem() {
+			public Date getTimestamp() {
+				return new Date(0);
+			}
+
+			public State getState() {
+				return new DecimalType(itemName.length());
+			}
+
+			public String getName() {
+				return itemName;
+			}
+		};
+	}
+
+	private static class SingleService implements QueryablePersistenceService {
+
+		protected final AtomicInteger queries = new AtomicInteger();
+
+		public String getName() {
+			return "single";
+		}
+
+		public void store(Item item) {
+		}
+
+		public void store(Item item, String alias) {
+		}
+
+		public Iterable<HistoricItem> query(FilterCriteria filter) {
+			queries.incrementAndGet();
+			assertEquals(1, filter.getPageSize());
+			return Collections.singletonList(createHistoricItem(filter.getItemName()));
+		}
+	}
+
+	private static class BulkService extends SingleService implements BulkQueryablePersistenceService {
+
+		private final AtomicInteger concurrentQueries = new AtomicInteger();
+		private final AtomicInteger maxConcurrentQueries = new AtomicInteger();
+
+		@Override
+		public String getName() {
+			return "bulk";
+		}
+
+		public Map<String, HistoricItem> queryLatest(Collection<String> itemNames) {
+			queries.incrementAndGet();
+			int concurrent = concurrentQueries.incrementAndGet();
+			if (concurrent > maxConcurrentQueries.get()) {
+				maxConcurrentQueries.set(concurrent);
+			}
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			Map<String, HistoricItem> results = new HashMap<String, HistoricItem>();
+			for (String itemName : itemNames) {
+				if (Integer.parseInt(itemName.substring(4)) % 2 == 0) {
+					results.put(itemName, createHistoricItem(itemName));
+				}
+			}
+			concurrentQueries.decrementAndGet();
+			return results;
+		}
+	}
+
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.core.persistence;
+
+/**
+ * A queryable persistence service which can aggregate the numeric states of an item
+ * itself, so that the states do not have to be loaded for this.
+ *
+ * @since 1.6.0
+ */
+public interface AggregatingPersistenceService extends QueryablePersistenceService {
+
+	/**
+	 * The aggregations which can be computed over the states of an item.
+	 */
+	public enum Aggregation {
+		/** the state with the smallest value */
+		MINIMUM,
+		/** the state with the largest value */
+		MAXIMUM,
+		/** the average of all values */
+		AVERAGE,
+		/** the sum of all values */
+		SUM,
+		/** the number of values */
+		COUNT,
+		/** the oldest state */
+		FIRST,
+		/** the most recent state */
+		LAST
+	}
+
+	/**
+	 * Aggregates the numeric states of the item of the filter between its begin and end
+	 * date. All other filter criteria are ignored.
+	 *
+	 * <p>For {@link Aggregation#MINIMUM}, {@link Aggregation#MAXIMUM}, {@link Aggregation#FIRST}
+	 * and {@link Aggregation#LAST} the persisted state is returned with its timestamp. For all
+	 * other aggregations the state is a <code>DecimalType</code> and the timestamp is the end
+	 * of the time range.</p>
+	 *
+	 * @param filter the item and the time range to aggregate
+	 * @param aggregation the aggregation to compute
+	 * @return the aggregated state or <code>null</code>, if there are no numeric states in the range
+	 * @throws UnsupportedOperationException if the service cannot compute the aggregation for this item
+	 */
+	HistoricItem aggregate(FilterCriteria filter, Aggregation aggregation);
+
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.core.persistence;
+
+import java.util.Collection;
+
+/**
+ * A persistence service which is able to store several item states at once, e.g.
+ * in a single database transaction or a single request to a remote service.
+ *
+ * <p>The persistence manager collects the states to store for each service in a
+ * queue. For a {@link BatchPersistenceService} the queued states are passed on in
+ * batches, which are written as soon as either the configured batch size is
+ * reached or the configured flush interval has elapsed.</p>
+ *
+ * @since 1.6.0
+ */
+public interface BatchPersistenceService extends PersistenceService {
+
+	/**
+	 * Stores the given item states.
+	 * <p>This method is always called from the same writer thread of the persistence
+	 * manager, with the entries in the order in which they have been requested. It may
+	 * block while the data is written, but it should not retry forever, as new entries
+	 * queue up in the meantime.</p>
+	 *
+	 * @param entries the item states to store
+	 */
+	void store(Collection<PersistenceEntry> entries);
+
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.core.persistence;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A queryable persistence service which can look up the most recent states of many
+ * items at once, e.g. with a single database query.
+ *
+ * <p>The persistence manager uses this to restore the states of all items with the
+ * "restoreOnStartup" strategy. For all other queryable services, the most recent
+ * state is queried item by item.</p>
+ *
+ * @since 1.6.0
+ */
+public interface BulkQueryablePersistenceService extends QueryablePersistenceService {
+
+	/**
+	 * Returns the most recently persisted state of each of the given items.
+	 * <p>This method may be called from several threads at once.</p>
+	 *
+	 * @param itemNames the names under which the items have been stored
+	 * @return the most recent state per item name; items without any persisted
+	 *         state are not contained
+	 */
+	Map<String, HistoricItem> queryLatest(Collection<String> itemNames);
+
+}
@@ -0,0 +1,555 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.core.persistence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openhab.core.items.Item;
+import org.openhab.core.persistence.FilterCriteria.Operator;
+import org.openhab.core.persistence.FilterCriteria.Ordering;
+import org.openhab.core.types.State;
+
+/**
+ * Caches the results of the queries of a {@link QueryablePersistenceService}, so that the same
+ * queries of rules and charts do not hit the database again and again.
+ *
+ * <p>Results are cached per filter criteria for a limited time. The cache is bounded by the
+ * total number of cached states; the least recently used results are evicted first. Whenever
+ * the state of an item is stored, all cached results of this item whose time range reaches
+ * up to the time of the stored state are dropped, so that the cache never hides new states.
+ * Results with more states than the whole cache may hold are not cached; they are not copied
+ * either, but passed on to the caller as the persistence service returns them.</p>
+ *
+ * <p>There is one cache per persistence service, which is shared by everybody who queries
+ * the service through {@link #getInstance(QueryablePersistenceService)}. The persistence
+ * manager invalidates it through {@link #invalidate(String, String, Date)} for all states
+ * it stores. Persistence services which write states later than they have been handed over,
+ * e.g. after a retry or from a write buffer, invalidate it again once the states have been
+ * written.</p>
+ *
+ * @since 1.6.0
+ */
+public class CachingPersistenceService implements AggregatingPersistenceService {
+
+	/** the default maximum number of cached states */
+	public static final int DEFAULT_MAX_STATES = 10000;
+
+	/** the default time in milliseconds a result is cached */
+	public static final long DEFAULT_TIME_TO_LIVE = 60000;
+
+	/** the default resolution in milliseconds of the begin and end dates of cached queries */
+	public static final long DEFAULT_RESOLUTION = 1000;
+
+	private static final ConcurrentMap<String, CachingPersistenceService> instances = new ConcurrentHashMap<String, CachingPersistenceService>();
+
+	/** the number of stored states per item name, of all persistence services */
+	private static final ConcurrentMap<String, AtomicLong> storedStates = new ConcurrentHashMap<String, AtomicLong>();
+
+	private static volatile int maxStates = DEFAULT_MAX_STATES;
+	private static volatile long timeToLive = DEFAULT_TIME_TO_LIVE;
+	private static volatile long resolution = DEFAULT_RESOLUTION;
+
+	private final QueryablePersistenceService service;
+
+	/** the cached results in the order of their last use, guarded by this */
+	private final LinkedHashMap<CacheKey, CacheEntry> entries = new LinkedHashMap<CacheKey, CacheEntry>(16, 0.75f, true);
+
+	/** the keys of the cached results per item name, guarded by this */
+	private final Map<String, Set<CacheKey>> itemKeys = new HashMap<String, Set<CacheKey>>();
+
+	/** counts the invalidations per item, so that results of concurrent queries are not cached; guarded by this */
+	private final Map<String, Long> itemVersions = new HashMap<String, Long>();
+
+	/** the number of states in the cached results, guarded by this */
+	private int cachedStates = 0;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	private CachingPersistenceService(QueryablePersistenceService service) {
+		this.service = service;
+	}
+
+	/**
+	 * Returns the cache of a persistence service. It is created if it does not exist yet.
+	 *
+	 * @param service the persistence service
+	 * @return the cache which queries the given service
+	 */
+	public static CachingPersistenceService getInstance(QueryablePersistenceService service) {
+		if (service instanceof CachingPersistenceService) {
+			return (CachingPersistenceService) service;
+		}
+		CachingPersistenceService instance = instances.get(service.getName());
+		if (instance == null || instance.service != service) {
+			synchronized (instances) {
+				instance = instances.get(service.getName());
+				if (instance == null || instance.service != service) {
+					instance = new CachingPersistenceService(service);
+					instances.put(service.getName(), instance);
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Drops the cache of a persistence service which is not available anymore.
+	 *
+	 * @param service the persistence service
+	 */
+	public static void removeInstance(PersistenceService service) {
+		CachingPersistenceService instance = instances.get(service.getName());
+		if (instance != null && (instance == service || instance.service == service)) {
+			instances.remove(service.getName(), instance);
+		}
+	}
+
+	/**
+	 * Drops the cached results of an item because a new state has been stored.
+	 *
+	 * @param serviceName the persistence service which has stored the state
+	 * @param itemName the name under which the state has been stored
+	 * @param timestamp the time of the stored state
+	 */
+	public static void invalidate(String serviceName, String itemName, Date timestamp) {
+		AtomicLong count = storedStates.get(itemName);
+		if (count == null) {
+			AtomicLong newCount = new AtomicLong();
+			count = storedStates.putIfAbsent(itemName, newCount);
+			if (count == null) {
+				count = newCount;
+			}
+		}
+		count.incrementAndGet();
+
+		CachingPersistenceService instance = instances.get(serviceName);
+		if (instance != null) {
+			instance.invalidate(itemName, timestamp);
+		}
+	}
+
+	/**
+	 * Returns the number of states of an item which have been stored by any persistence service,
+	 * see {@link #invalidate(String, String, Date)}. Results which have been derived from the stored
+	 * states elsewhere, e.g. chart images, are up to date as long as this number does not change.
+	 *
+	 * @param itemName the name under which the states have been stored
+	 * @return the number of stored states since startup
+	 */
+	public static long getStoredStates(String itemName) {
+		AtomicLong count = storedStates.get(itemName);
+		return count == null ? 0 : count.get();
+	}
+
+	/**
+	 * Changes the limits of all caches. The cached results are dropped.
+	 *
+	 * @param maxStates the maximum number of cached states per service, 0 disables the caches
+	 * @param timeToLive the time in milliseconds a result is cached
+	 * @param resolution the resolution in milliseconds of the begin and end dates of the cached
+	 *        queries; queries whose dates only differ within the resolution share their result
+	 */
+	public static void configure(int maxStates, long timeToLive, long resolution) {
+		CachingPersistenceService.maxStates = maxStates;
+		CachingPersistenceService.timeToLive = timeToLive;
+		CachingPersistenceService.resolution = Math.max(1, resolution);
+		for (CachingPersistenceService instance : instances.values()) {
+			instance.clear();
+		}
+	}
+
+	/**
+	 * @return the persistence service whose results are cached
+	 */
+	public QueryablePersistenceService getService() {
+		return service;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public String getName() {
+		return service.getName();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void store(Item item) {
+		store(item, null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void store(Item item, String alias) {
+		service.store(item, alias);
+		invalidate(alias != null ? alias : item.getName(), new Date());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public Iterable<HistoricItem> query(FilterCriteria filter) {
+		if (maxStates <= 0) {
+			return service.query(filter);
+		}
+		CacheKey key = new CacheKey(filter, null);
+		CacheEntry entry = get(key);
+		if (entry != null) {
+			return entry.items;
+		}
+
+		long version = getVersion(key.itemName);
+		Iterable<HistoricItem> result = service.query(filter);
+		if (result == null) {
+			return null;
+		}
+		int limit = maxStates;
+		if (result instanceof Collection && ((Collection<HistoricItem>) result).size() > limit) {
+			// too large to be cached anyway
+			return result;
+		}
+		// copy no more states than can be cached, large results are streamed to the caller
+		Iterator<HistoricItem> iterator = result.iterator();
+		List<HistoricItem> items = new ArrayList<HistoricItem>();
+		while (iterator.hasNext()) {
+			if (items.size() >= limit) {
+				return new PartialResult(items, iterator, result);
+			}
+			items.add(iterator.next());
+		}
+		items = Collections.unmodifiableList(items);
+		put(key, new CacheEntry(items, null, Math.max(1, items.size())), version);
+		return items;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws UnsupportedOperationException if the persistence service cannot aggregate states
+	 */
+	public HistoricItem aggregate(FilterCriteria filter, Aggregation aggregation) {
+		if (!(service instanceof AggregatingPersistenceService)) {
+			throw new UnsupportedOperationException("Persistence service '" + service.getName() + "' cannot aggregate states");
+		}
+		AggregatingPersistenceService aService = (AggregatingPersistenceService) service;
+		if (maxStates <= 0) {
+			return aService.aggregate(filter, aggregation);
+		}
+		CacheKey key = new CacheKey(filter, aggregation);
+		CacheEntry entry = get(key);
+		if (entry != null) {
+			return entry.aggregate;
+		}
+
+		long version = getVersion(key.itemName);
+		HistoricItem result = aService.aggregate(filter, aggregation);
+		put(key, new CacheEntry(null, result, 1), version);
+		return result;
+	}
+
+	/**
+	 * Drops the cached results of an item whose time range is open or ends at or after the given time.
+	 *
+	 * @param itemName the name of the item
+	 * @param timestamp the time of the new state
+	 */
+	public synchronized void invalidate(String itemName, Date timestamp) {
+		Long version = itemVersions.get(itemName);
+		itemVersions.put(itemName, version == null ? 1L : version + 1);
+		// queries for all items are affected by any item
+		Long allVersion = itemVersions.get(null);
+		itemVersions.put(null, allVersion == null ? 1L : allVersion + 1);
+
+		invalidate(itemKeys.get(itemName), timestamp.getTime());
+		invalidate(itemKeys.get(null), timestamp.getTime());
+	}
+
+	private void invalidate(Set<CacheKey> keys, long time) {
+		if (keys == null) {
+			return;
+		}
+		List<CacheKey> affected = new ArrayList<CacheKey>();
+		for (CacheKey key : keys) {
+			if (key.end == null || key.end + resolution > time) {
+				affected.add(key);
+			}
+		}
+		for (CacheKey key : affected) {
+			remove(key);
+			invalidations.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Drops all cached results.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		itemKeys.clear();
+		cachedStates = 0;
+	}
+
+	private synchronized CacheEntry get(CacheKey key) {
+		CacheEntry entry = entries.get(key);
+		if (entry != null && entry.expires - System.currentTimeMillis() <= 0) {
+			remove(key);
+			entry = null;
+		}
+		if (entry != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+		return entry;
+	}
+
+	private synchronized long getVersion(String itemName) {
+		Long version = itemVersions.get(itemName);
+		return version == null ? 0 : version;
+	}
+
+	/**
+	 * Caches a result, if the item has not been invalidated since the query has been started.
+	 */
+	private synchronized void put(CacheKey key, CacheEntry entry, long version) {
+		if (entry.size > maxStates || getVersion(key.itemName) != version) {
+			return;
+		}
+		remove(key);
+		entries.put(key, entry);
+		cachedStates += entry.size;
+		Set<CacheKey> keys = itemKeys.get(key.itemName);
+		if (keys == null) {
+			keys = new HashSet<CacheKey>();
+			itemKeys.put(key.itemName, keys);
+		}
+		keys.add(key);
+
+		// evict the least recently used results
+		Iterator<Map.Entry<CacheKey, CacheEntry>> iterator = entries.entrySet().iterator();
+		while (cachedStates > maxStates && iterator.hasNext()) {
+			Map.Entry<CacheKey, CacheEntry> eldest = iterator.next();
+			iterator.remove();
+			removed(eldest.getKey(), eldest.getValue());
+			evictions.incrementAndGet();
+		}
+	}
+
+	private void remove(CacheKey key) {
+		CacheEntry entry = entries.remove(key);
+		if (entry != null) {
+			removed(key, entry);
+		}
+	}
+
+	private void removed(CacheKey key, CacheEntry entry) {
+		cachedStates -= entry.size;
+		Set<CacheKey> keys = itemKeys.get(key.itemName);
+		if (keys != null) {
+			keys.remove(key);
+			if (keys.isEmpty()) {
+				itemKeys.remove(key.itemName);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of queries which have been answered from the cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of queries which have been passed on to the persistence service
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of results which have been dropped to make room for new ones
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return the number of results which have been dropped because new states have been stored
+	 */
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+
+	/**
+	 * @return the number of states in the cached results
+	 */
+	public synchronized int getCachedStates() {
+		return cachedStates;
+	}
+
+	@Override
+	public String toString() {
+		return "hits=" + hits.get() + ", misses=" + misses.get() + ", evictions=" + evictions.get()
+				+ ", invalidations=" + invalidations.get() + ", cachedStates=" + getCachedStates();
+	}
+
+	/**
+	 * The criteria of a query, with the dates rounded to the resolution of the cache.
+	 */
+	private static final class CacheKey {
+
+		private final String itemName;
+		private final Long begin;
+		private final Long end;
+		private final State state;
+		private final Operator operator;
+		private final Ordering ordering;
+		private final int pageSize;
+		private final int pageNumber;
+		private final Aggregation aggregation;
+		private final int hashCode;
+
+		private CacheKey(FilterCriteria filter, Aggregation aggregation) {
+			this.itemName = filter.getItemName();
+			this.begin = round(filter.getBeginDate());
+			this.end = round(filter.getEndDate());
+			this.state = filter.getState();
+			this.operator = filter.getOperator();
+			this.ordering = filter.getOrdering();
+			this.pageSize = filter.getPageSize();
+			this.pageNumber = filter.getPageNumber();
+			this.aggregation = aggregation;
+			this.hashCode = computeHashCode();
+		}
+
+		private static Long round(Date date) {
+			if (date == null) {
+				return null;
+			}
+			long time = date.getTime();
+			return time - (time % resolution);
+		}
+
+		private int computeHashCode() {
+			int result = itemName != null ? itemName.hashCode() : 0;
+			result = 31 * result + (begin != null ? begin.hashCode() : 0);
+			result = 31 * result + (end != null ? end.hashCode() : 0);
+			result = 31 * result + (state != null ? state.hashCode() : 0);
+			result = 31 * result + (operator != null ? operator.hashCode() : 0);
+			result = 31 * result + (ordering != null ? ordering.hashCode() : 0);
+			result = 31 * result + pageSize;
+			result = 31 * result + pageNumber;
+			result = 31 * result + (aggregation != null ? aggregation.hashCode() : 0);
+			return result;
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof CacheKey)) {
+				return false;
+			}
+			CacheKey other = (CacheKey) obj;
+			return hashCode == other.hashCode && equal(itemName, other.itemName) && equal(begin, other.begin)
+					&& equal(end, other.end) && equal(state, other.state) && operator == other.operator
+					&& ordering == other.ordering && pageSize == other.pageSize
+					&& pageNumber == other.pageNumber && aggregation == other.aggregation;
+		}
+
+		private static boolean equal(Object a, Object b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+
+	/**
+	 * A query result which is too large to be cached. The first iteration returns the states
+	 * which have been copied already and then the remaining states of the persistence service,
+	 * further iterations query the result of the persistence service again.
+	 */
+	private static final class PartialResult implements Iterable<HistoricItem> {
+
+		private final Iterable<HistoricItem> result;
+		private List<HistoricItem> head;
+		private Iterator<HistoricItem> tail;
+
+		private PartialResult(List<HistoricItem> head, Iterator<HistoricItem> tail, Iterable<HistoricItem> result) {
+			this.head = head;
+			this.tail = tail;
+			this.result = result;
+		}
+
+		public synchronized Iterator<HistoricItem> iterator() {
+			if (head == null) {
+				return result.iterator();
+			}
+			final Iterator<HistoricItem> headIterator = head.iterator();
+			final Iterator<HistoricItem> tailIterator = tail;
+			head = null;
+			tail = null;
+			return new Iterator<HistoricItem>() {
+				public boolean hasNext() {
+					return headIterator.hasNext() || tailIterator.hasNext();
+				}
+
+				public HistoricItem next() {
+					return headIterator.hasNext() ? headIterator.next() : tailIterator.next();
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
+
+	/**
+	 * A cached query result or aggregation.
+	 */
+	private static final class CacheEntry {
+
+		private final List<HistoricItem> items;
+		private final HistoricItem aggregate;
+		private final int size;
+		private final long expires;
+
+		private CacheEntry(List<HistoricItem> items, HistoricItem aggregate, int size) {
+			this.items = items;
+			this.aggregate = aggregate;
+			this.size = size;
+			this.expires = System.currentTimeMillis() + timeToLive;
+		}
+	}
+
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.core.persistence;
+
+import java.util.Date;
+
+import org.openhab.core.items.Item;
+import org.openhab.core.types.State;
+
+/**
+ * An item state which is waiting to be written by a {@link BatchPersistenceService}.
+ * The state and the timestamp are captured at the moment the store has been requested,
+ * so they do not change even if the item is updated before the entry is written.
+ *
+ * @since 1.6.0
+ */
+public class PersistenceEntry {
+
+	private final Item item;
+	private final String alias;
+	private final State state;
+	private final Date timestamp;
+
+	public PersistenceEntry(Item item, String alias, State state, Date timestamp) {
+		this.item = item;
+		this.alias = alias;
+		this.state = state;
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * @return the item to persist
+	 */
+	public Item getItem() {
+		return item;
+	}
+
+	/**
+	 * @return the alias under which the item should be persisted or <code>null</code>, if there is none
+	 */
+	public String getAlias() {
+		return alias;
+	}
+
+	/**
+	 * @return the name under which the item should be persisted, i.e. the alias if there is one
+	 */
+	public String getName() {
+		return alias != null ? alias : item.getName();
+	}
+
+	/**
+	 * @return the state of the item at the time the store has been requested
+	 */
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * @return the time the store has been requested
+	 */
+	public Date getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public String toString() {
+		return getName() + "=" + state + " (" + timestamp + ")";
+	}
+
+}
@@ -31,11 +31,14 @@ public interface PersistenceService {
 
 	/**
 	 * Stores the current value of the given item.
-	 * <p>Implementors should keep in mind that all registered 
-	 * {@link PersistenceService}s are called synchronously. Hence long running
-	 * operations should be processed asynchronously. E.g. <code>store</code>
-	 * adds things to a queue which is processed by some asynchronous workers
-	 * (Quartz Job, Thread, etc.).</p>  
+	 * <p>The persistence manager calls this method from a dedicated writer
+	 * thread for each {@link PersistenceService}, so a slow service does not 
+	 * block the thread that has updated the item. The given item is then a 
+	 * copy of the same type, whose state is the one at the time of the update; 
+	 * group items are passed on as they are by the updating thread. The queue  
+	 * of the writer thread is limited, so services should be able to keep up 
+	 * with the rate of updates; services that can write several states at once
+	 * should implement {@link BatchPersistenceService}.</p>  
 	 * 
 	 * @param item the item which state should be persisted.
 	 */
@@ -43,11 +46,14 @@ public interface PersistenceService {
 
 	/**
 	 * <p>Stores the current value of the given item under a specified alias.</p>
-	 * <p>Implementors should keep in mind that all registered 
-	 * {@link PersistenceService}s are called synchronously. Hence long running
-	 * operations should be processed asynchronously. E.g. <code>store</code>
-	 * adds things to a queue which is processed by some asynchronous workers
-	 * (Quartz Job, Thread, etc.).</p>  
+	 * <p>The persistence manager calls this method from a dedicated writer
+	 * thread for each {@link PersistenceService}, so a slow service does not 
+	 * block the thread that has updated the item. The given item is then a 
+	 * copy of the same type, whose state is the one at the time of the update; 
+	 * group items are passed on as they are by the updating thread. The queue  
+	 * of the writer thread is limited, so services should be able to keep up 
+	 * with the rate of updates; services that can write several states at once
+	 * should implement {@link BatchPersistenceService}.</p>  
 	 * 
 	 * @param item the item which state should be persisted.
 	 * @param alias the alias under which the item should be persisted.
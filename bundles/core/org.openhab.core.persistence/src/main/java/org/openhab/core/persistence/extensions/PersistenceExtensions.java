@@ -12,6 +12,7 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Dictionary;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -19,6 +20,9 @@ import java.util.Map;
 import org.joda.time.base.AbstractInstant;
 import org.openhab.core.items.Item;
 import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.persistence.AggregatingPersistenceService;
+import org.openhab.core.persistence.AggregatingPersistenceService.Aggregation;
+import org.openhab.core.persistence.CachingPersistenceService;
 import org.openhab.core.persistence.FilterCriteria;
 import org.openhab.core.persistence.HistoricItem;
 import org.openhab.core.persistence.PersistenceService;
@@ -34,6 +38,10 @@ import org.slf4j.LoggerFactory;
  * This class provides static methods that can be used in automation rules
  * for using persistence services
  * 
+ * <p>Minimum, maximum and average are computed by the persistence service itself, if it is an
+ * {@link AggregatingPersistenceService}. Otherwise the states are queried page by page, so that
+ * they do not have to be kept in memory all at once.</p>
+ * 
  * @author Thomas.Eichstaedt-Engelen
  * @author Kai Kreuzer
  * @author Chris Jackson
@@ -44,6 +52,9 @@ public class PersistenceExtensions implements ManagedService {
 	
 	private static final Logger logger = LoggerFactory.getLogger(PersistenceExtensions.class);
 	
+	/** the number of states which are queried at once, if a service cannot aggregate them itself */
+	private static final int AGGREGATION_PAGE_SIZE = 1000;
+	
 	private static Map<String, PersistenceService> services = new HashMap<String, PersistenceService>();
 	private static String defaultService = null; 
 	
@@ -52,11 +63,17 @@ public class PersistenceExtensions implements ManagedService {
 	}
 	
 	public void addPersistenceService(PersistenceService service) {
-		services.put(service.getName(), service);
+		if (service instanceof QueryablePersistenceService) {
+			// queries of rules are answered from the cache as long as no new states are stored
+			services.put(service.getName(), CachingPersistenceService.getInstance((QueryablePersistenceService) service));
+		} else {
+			services.put(service.getName(), service);
+		}
 	}
 	
 	public void removePersistenceService(PersistenceService service) {
 		services.remove(service.getName());
+		CachingPersistenceService.removeInstance(service);
 	}
 	
 	
@@ -240,41 +257,16 @@ public class PersistenceExtensions implements ManagedService {
 	 * @return a historic item with the maximum state value since the given point in time
 	 */
 	static public HistoricItem maximumSince(final Item item, AbstractInstant timestamp, String serviceName) {
-		Iterable<HistoricItem> result = getAllStatesSince(item, timestamp, serviceName);
-		Iterator<HistoricItem> it = result.iterator();
-		HistoricItem maximumHistoricItem = null;
+		HistoricItem maximumHistoricItem = aggregateSince(item, timestamp, serviceName, Aggregation.MAXIMUM).get(Aggregation.MAXIMUM);
 		DecimalType maximum = (DecimalType) item.getStateAs(DecimalType.class);
-		while(it.hasNext()) {
-			HistoricItem historicItem = it.next();
-			State state = historicItem.getState();
-			if (state instanceof DecimalType) {
-				DecimalType value = (DecimalType) state;
-				if(maximum==null || value.compareTo(maximum)>0) {
-					maximum = value;
-					maximumHistoricItem = historicItem;
-				}
+		if(maximumHistoricItem!=null && maximumHistoricItem.getState() instanceof DecimalType) {
+			DecimalType value = (DecimalType) maximumHistoricItem.getState();
+			if(maximum==null || value.compareTo(maximum)>0) {
+				return maximumHistoricItem;
 			}
 		}
-		if(maximumHistoricItem==null && maximum!=null) {
-			// the maximum state is the current one, so construct a historic item on the fly
-			final DecimalType state = maximum;
-			return new HistoricItem() {
-				
-				public Date getTimestamp() {
-					return Calendar.getInstance().getTime();
-				}
-				
-				public State getState() {
-					return state;
-				}
-				
-				public String getName() {
-					return item.getName();
-				}
-			};
-		} else {
-			return maximumHistoricItem;
-		}
+		// the maximum state is the current one, so construct a historic item on the fly
+		return maximum!=null ? createCurrentHistoricItem(item, maximum) : null;
 	} 
 
 	/**
@@ -305,43 +297,38 @@ public class PersistenceExtensions implements ManagedService {
 	 * @return the historic item with the minimum state value since the given point in time
 	 */
 	static public HistoricItem minimumSince(final Item item, AbstractInstant timestamp, String serviceName) {
-		Iterable<HistoricItem> result = getAllStatesSince(item, timestamp, serviceName);
-		Iterator<HistoricItem> it = result.iterator();
-		HistoricItem minimumHistoricItem = null;
+		HistoricItem minimumHistoricItem = aggregateSince(item, timestamp, serviceName, Aggregation.MINIMUM).get(Aggregation.MINIMUM);
 		DecimalType minimum = (DecimalType) item.getStateAs(DecimalType.class);
-		while(it.hasNext()) {
-			HistoricItem historicItem = it.next();
-			State state = historicItem.getState();
-			if (state instanceof DecimalType) {
-				DecimalType value = (DecimalType) state;
-				if(minimum==null || value.compareTo(minimum)<0) {
-					minimum = value;
-					minimumHistoricItem = historicItem;
-				}
+		if(minimumHistoricItem!=null && minimumHistoricItem.getState() instanceof DecimalType) {
+			DecimalType value = (DecimalType) minimumHistoricItem.getState();
+			if(minimum==null || value.compareTo(minimum)<0) {
+				return minimumHistoricItem;
 			}
 		}
-		if(minimumHistoricItem==null && minimum!=null) {
-			// the minimal state is the current one, so construct a historic item on the fly
-			final DecimalType state = minimum;
-			return new HistoricItem() {
-				
-				public Date getTimestamp() {
-					return Calendar.getInstance().getTime();
-				}
-				
-				public State getState() {
-					return state;
-				}
-				
-				public String getName() {
-					return item.getName();
-				}
-			};
-		} else {
-			return minimumHistoricItem;
-		}
+		// the minimal state is the current one, so construct a historic item on the fly
+		return minimum!=null ? createCurrentHistoricItem(item, minimum) : null;
 	} 
 	
+	/**
+	 * Creates a historic item for the current state of an item.
+	 */
+	static private HistoricItem createCurrentHistoricItem(final Item item, final DecimalType state) {
+		return new HistoricItem() {
+			
+			public Date getTimestamp() {
+				return Calendar.getInstance().getTime();
+			}
+			
+			public State getState() {
+				return state;
+			}
+			
+			public String getName() {
+				return item.getName();
+			}
+		};
+	}
+	
 	/**
 	 * Gets the average value of the state of a given <code>item</code> since a certain point in time. 
 	 * The default persistence service is used. 
@@ -368,8 +355,7 @@ public class PersistenceExtensions implements ManagedService {
 	 * @return the average state value since the given point in time
 	 */
 	static public DecimalType averageSince(Item item, AbstractInstant timestamp, String serviceName) {
-		Iterable<HistoricItem> result = getAllStatesSince(item, timestamp, serviceName);
-		Iterator<HistoricItem> it = result.iterator();
+		Map<Aggregation, HistoricItem> result = aggregateSince(item, timestamp, serviceName, Aggregation.SUM, Aggregation.COUNT);
 		
 		DecimalType value = (DecimalType) item.getStateAs(DecimalType.class);
 		if (value == null) {
@@ -377,20 +363,80 @@ public class PersistenceExtensions implements ManagedService {
 		}
 		
 		double average = value.doubleValue();
-		int quantity = 1;
-		while(it.hasNext()) {
-			State state = it.next().getState();
-			if (state instanceof DecimalType) {
-				value = (DecimalType) state;
-				average += value.doubleValue();
-				quantity++;
-			}
+		long quantity = 1;
+		HistoricItem sum = result.get(Aggregation.SUM);
+		HistoricItem count = result.get(Aggregation.COUNT);
+		if (sum != null && count != null) {
+			average += ((DecimalType) sum.getState()).doubleValue();
+			quantity += ((DecimalType) count.getState()).longValue();
 		}
 		average /= quantity;
 		
 		return new DecimalType(average);
 	} 
 	
+	/**
+	 * Aggregates the states of an item since a certain point in time. If the service cannot
+	 * compute all of the aggregations itself, they are computed in a single pass over the
+	 * states, which are queried page by page.
+	 * 
+	 * @return the results of the aggregations, <code>null</code> for those without any numeric states
+	 */
+	static private Map<Aggregation, HistoricItem> aggregateSince(Item item, AbstractInstant timestamp, String serviceName, Aggregation... aggregations) {
+		Map<Aggregation, HistoricItem> results = new EnumMap<Aggregation, HistoricItem>(Aggregation.class);
+		PersistenceService service = services.get(serviceName);
+		if (!(service instanceof QueryablePersistenceService)) {
+			logger.warn("There is no queryable persistence service registered with the name '{}'", serviceName);
+			return results;
+		}
+		FilterCriteria filter = new FilterCriteria();
+		filter.setBeginDate(timestamp.toDate());
+		filter.setItemName(item.getName());
+		filter.setOrdering(Ordering.ASCENDING);
+
+		if (service instanceof AggregatingPersistenceService) {
+			AggregatingPersistenceService aService = (AggregatingPersistenceService) service;
+			try {
+				for (Aggregation aggregation : aggregations) {
+					results.put(aggregation, aService.aggregate(filter, aggregation));
+				}
+				return results;
+			} catch (UnsupportedOperationException e) {
+				logger.debug("Persistence service '{}' cannot aggregate the states of '{}' itself: {}", 
+						new Object[] { serviceName, item.getName(), e.getMessage() });
+			}
+		}
+
+		StateAggregator aggregator = new StateAggregator(item.getName(), new Date());
+		QueryablePersistenceService qService = (QueryablePersistenceService) service;
+		filter.setPageSize(AGGREGATION_PAGE_SIZE);
+		Date lastTimestamp = null;
+		for (int page = 0; ; page++) {
+			filter.setPageNumber(page);
+			Iterator<HistoricItem> it = qService.query(filter).iterator();
+			int count = 0;
+			while (it.hasNext()) {
+				HistoricItem historicItem = it.next();
+				if (count == 0 && lastTimestamp != null && historicItem.getTimestamp().before(lastTimestamp)) {
+					// the service does not support paging and has returned the first page again
+					count = -1;
+					break;
+				}
+				aggregator.add(historicItem);
+				lastTimestamp = historicItem.getTimestamp();
+				count++;
+			}
+			// a shorter page is the last one, a longer one means that the service does not support paging
+			if (count != AGGREGATION_PAGE_SIZE) {
+				break;
+			}
+		}
+		for (Aggregation aggregation : aggregations) {
+			results.put(aggregation, aggregator.getResult(aggregation));
+		}
+		return results;
+	}
+	
 	static private Iterable<HistoricItem> getAllStatesSince(Item item, AbstractInstant timestamp, String serviceName) {
 		PersistenceService service = services.get(serviceName);
 		if (service instanceof QueryablePersistenceService) {
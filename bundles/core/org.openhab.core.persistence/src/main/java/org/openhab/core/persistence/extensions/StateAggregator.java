@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.core.persistence.extensions;
+
+import java.util.Date;
+
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.persistence.AggregatingPersistenceService.Aggregation;
+import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.types.State;
+
+/**
+ * Computes all {@link Aggregation}s of the numeric states of an item in a single pass,
+ * without keeping the states which have been added.
+ *
+ * @since 1.6.0
+ */
+class StateAggregator {
+
+	private final String itemName;
+	private final Date end;
+
+	private HistoricItem minimum;
+	private HistoricItem maximum;
+	private HistoricItem first;
+	private HistoricItem last;
+	private double sum = 0;
+	private long count = 0;
+
+	/**
+	 * @param itemName the name of the aggregated item
+	 * @param end the end of the aggregated time range
+	 */
+	StateAggregator(String itemName, Date end) {
+		this.itemName = itemName;
+		this.end = end;
+	}
+
+	/**
+	 * Adds a state, states which are no {@link DecimalType} are ignored.
+	 */
+	void add(HistoricItem historicItem) {
+		State state = historicItem.getState();
+		if (!(state instanceof DecimalType)) {
+			return;
+		}
+		DecimalType value = (DecimalType) state;
+		if (minimum == null || value.compareTo((DecimalType) minimum.getState()) < 0) {
+			minimum = historicItem;
+		}
+		if (maximum == null || value.compareTo((DecimalType) maximum.getState()) > 0) {
+			maximum = historicItem;
+		}
+		if (first == null || historicItem.getTimestamp().before(first.getTimestamp())) {
+			first = historicItem;
+		}
+		if (last == null || !historicItem.getTimestamp().before(last.getTimestamp())) {
+			last = historicItem;
+		}
+		sum += value.doubleValue();
+		count++;
+	}
+
+	/**
+	 * @return the result of the aggregation as described by
+	 *         {@link org.openhab.core.persistence.AggregatingPersistenceService#aggregate}
+	 */
+	HistoricItem getResult(Aggregation aggregation) {
+		if (count == 0) {
+			return null;
+		}
+		switch (aggregation) {
+			case MINIMUM:
+				return minimum;
+			case MAXIMUM:
+				return maximum;
+			case FIRST:
+				return first;
+			case LAST:
+				return last;
+			case AVERAGE:
+				return new AggregatedItem(new DecimalType(sum / count));
+			case SUM:
+				return new AggregatedItem(new DecimalType(sum));
+			case COUNT:
+				return new AggregatedItem(new DecimalType(count));
+			default:
+				return null;
+		}
+	}
+
+	private class AggregatedItem implements HistoricItem {
+
+		private final State state;
+
+		AggregatedItem(State state) {
+			this.state = state;
+		}
+
+		public Date getTimestamp() {
+			return end;
+		}
+
+		public State getState() {
+			return state;
+		}
+
+		public String getName() {
+			return itemName;
+		}
+	}
+
+}
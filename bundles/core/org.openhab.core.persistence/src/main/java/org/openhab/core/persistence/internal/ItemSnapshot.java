@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.core.persistence.internal;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.openhab.core.items.GenericItem;
+import org.openhab.core.items.GroupItem;
+import org.openhab.core.items.Item;
+import org.openhab.core.types.State;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates copies of items which keep the state an item had when it was queued for a
+ * {@link org.openhab.core.persistence.PersistenceService}, which only stores the current
+ * state of the items it is given.
+ *
+ * <p>A copy is an item of the same class with the same name, so that services can still
+ * check the type of the item. It does not belong to any groups. Group items cannot be
+ * copied, because their states are derived from their members.</p>
+ *
+ * @since 1.6.0
+ */
+final class ItemSnapshot {
+
+	private static final Logger logger = LoggerFactory.getLogger(ItemSnapshot.class);
+
+	/** the constructors which take the item name per item class */
+	private static final ConcurrentMap<Class<?>, Constructor<?>> constructors = new ConcurrentHashMap<Class<?>, Constructor<?>>();
+
+	/** the item classes which cannot be copied */
+	private static final ConcurrentMap<Class<?>, Boolean> unsupported = new ConcurrentHashMap<Class<?>, Boolean>();
+
+	private ItemSnapshot() {
+	}
+
+	/**
+	 * Copies an item with the given state.
+	 *
+	 * @param item the item to copy
+	 * @param state the state of the copy
+	 * @return the copy, or <code>null</code> if items of this class cannot be copied
+	 */
+	static Item create(Item item, State state) {
+		Constructor<?> constructor = getConstructor(item.getClass());
+		if (constructor == null) {
+			return null;
+		}
+		try {
+			GenericItem copy = (GenericItem) constructor.newInstance(item.getName());
+			copy.setState(state);
+			return copy;
+		} catch (Exception e) {
+			logger.debug("Cannot copy item '{}': {}", item.getName(), e.getMessage());
+			constructors.remove(item.getClass());
+			unsupported.put(item.getClass(), Boolean.TRUE);
+			return null;
+		}
+	}
+
+	private static Constructor<?> getConstructor(Class<?> itemClass) {
+		Constructor<?> constructor = constructors.get(itemClass);
+		if (constructor != null || unsupported.containsKey(itemClass)) {
+			return constructor;
+		}
+		if (GenericItem.class.isAssignableFrom(itemClass) && !GroupItem.class.isAssignableFrom(itemClass)) {
+			try {
+				constructor = itemClass.getConstructor(String.class);
+				constructors.put(itemClass, constructor);
+				return constructor;
+			} catch (NoSuchMethodException e) {
+				// items of this class are stored right away
+			}
+		}
+		unsupported.put(itemClass, Boolean.TRUE);
+		return null;
+	}
+
+}
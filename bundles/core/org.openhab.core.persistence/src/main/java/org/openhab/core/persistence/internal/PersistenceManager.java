@@ -12,17 +12,22 @@ import static org.quartz.JobBuilder.newJob;
 import static org.quartz.TriggerBuilder.newTrigger;
 
 import java.text.DateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.commons.lang.StringUtils;
 import org.eclipse.emf.ecore.EObject;
 import org.openhab.core.events.AbstractEventSubscriber;
 import org.openhab.core.items.GenericItem;
@@ -32,10 +37,11 @@ import org.openhab.core.items.ItemNotFoundException;
 import org.openhab.core.items.ItemRegistry;
 import org.openhab.core.items.ItemRegistryChangeListener;
 import org.openhab.core.items.StateChangeListener;
-import org.openhab.core.persistence.FilterCriteria;
+import org.openhab.core.persistence.CachingPersistenceService;
 import org.openhab.core.persistence.HistoricItem;
 import org.openhab.core.persistence.PersistenceService;
 import org.openhab.core.persistence.QueryablePersistenceService;
+import org.openhab.core.persistence.internal.PersistenceWriter.OverflowPolicy;
 import org.openhab.core.types.State;
 import org.openhab.core.types.UnDefType;
 import org.openhab.model.core.EventType;
@@ -49,6 +55,8 @@ import org.openhab.model.persistence.persistence.PersistenceConfiguration;
 import org.openhab.model.persistence.persistence.PersistenceModel;
 import org.openhab.model.persistence.persistence.Strategy;
 import org.openhab.model.persistence.scoping.GlobalStrategies;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
 import org.quartz.CronScheduleBuilder;
 import org.quartz.Job;
 import org.quartz.JobDetail;
@@ -64,15 +72,20 @@ import org.slf4j.LoggerFactory;
 /**
  * This class is the central part of the persistence management and delegation. It reads the persistence
  * models, schedules timers and manages the invocation of {@link PersistenceService}s upon events.
+ * The item states to store are passed on to the services through a {@link PersistenceWriter} per
+ * service, so that the threads which update the items are never blocked by a persistence service.
  * 
  * @author Kai Kreuzer
  * @since 1.0.0
  *
  */
-public class PersistenceManager extends AbstractEventSubscriber implements ModelRepositoryChangeListener, ItemRegistryChangeListener, StateChangeListener {
+public class PersistenceManager extends AbstractEventSubscriber implements ModelRepositoryChangeListener, ItemRegistryChangeListener, StateChangeListener, ManagedService {
 	
 	private static final Logger logger = LoggerFactory.getLogger(PersistenceManager.class);
 
+	/** the maximum time in milliseconds to wait for the queue of a persistence service to be written on shutdown */
+	private static final long SHUTDOWN_TIMEOUT = 5000;
+
 	private static PersistenceManager instance;
 	
 	// the scheduler used for timer events
@@ -84,6 +97,16 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 
 	/*default */ Map<String, PersistenceService> persistenceServices = new HashMap<String, PersistenceService>();
 	
+	/** keeps the writer which queues the item states to store for each persistence service */
+	private Map<String, PersistenceWriter> persistenceWriters = new ConcurrentHashMap<String, PersistenceWriter>();
+	
+	private int queueSize = PersistenceWriter.DEFAULT_QUEUE_SIZE;
+	private int batchSize = PersistenceWriter.DEFAULT_BATCH_SIZE;
+	private long flushInterval = PersistenceWriter.DEFAULT_FLUSH_INTERVAL;
+	private OverflowPolicy overflowPolicy = OverflowPolicy.DROPOLDEST;
+	private int restoreThreads = StateRestorer.DEFAULT_THREADS_PER_SERVICE;
+	private int restoreBatchSize = StateRestorer.DEFAULT_BATCH_SIZE;
+	
 	/** keeps a list of configurations for each persistence service */
 	protected Map<String, List<PersistenceConfiguration>> persistenceConfigurations = new ConcurrentHashMap<String, List<PersistenceConfiguration>>();
 
@@ -91,6 +114,12 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	protected Map<String, List<Strategy>> defaultStrategies = 
 			Collections.synchronizedMap(new HashMap<String, List<Strategy>>());
 	
+	/** the persistence configurations that apply to each item, rebuilt on demand after the models or items have changed */
+	private volatile RoutingTable routingTable = null;
+	
+	/** guards the creation and invalidation of the routing table */
+	private final Object routingTableLock = new Object();
+	
 	
 	public PersistenceManager() {
 		PersistenceManager.instance = this;
@@ -110,6 +139,87 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	}
 	
 	public void deactivate() {
+		for(String serviceName : persistenceWriters.keySet()) {
+			stopWriter(serviceName);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@SuppressWarnings("rawtypes")
+	public void updated(Dictionary config) throws ConfigurationException {
+		if (config != null) {
+			String queueSizeString = (String) config.get("queuesize");
+			if (StringUtils.isNotBlank(queueSizeString)) {
+				queueSize = parsePositiveInt("queuesize", queueSizeString);
+			}
+			String batchSizeString = (String) config.get("batchsize");
+			if (StringUtils.isNotBlank(batchSizeString)) {
+				batchSize = parsePositiveInt("batchsize", batchSizeString);
+			}
+			String flushIntervalString = (String) config.get("flushinterval");
+			if (StringUtils.isNotBlank(flushIntervalString)) {
+				flushInterval = parsePositiveInt("flushinterval", flushIntervalString);
+			}
+			String overflowPolicyString = (String) config.get("overflowpolicy");
+			if (StringUtils.isNotBlank(overflowPolicyString)) {
+				try {
+					overflowPolicy = OverflowPolicy.valueOf(overflowPolicyString.trim().toUpperCase());
+				} catch (IllegalArgumentException e) {
+					throw new ConfigurationException("overflowpolicy", "Unknown overflow policy '" + overflowPolicyString 
+							+ "', valid values are 'dropoldest' and 'dropnewest'");
+				}
+			}
+			for(Entry<String, PersistenceWriter> entry : persistenceWriters.entrySet()) {
+				PersistenceService persistenceService = persistenceServices.get(entry.getKey());
+				if(entry.getValue().getMaxQueueSize()!=queueSize && persistenceService!=null) {
+					// the capacity of a queue cannot be changed, so the writer is replaced
+					startWriter(persistenceService);
+				} else {
+					configureWriter(entry.getValue());
+				}
+			}
+
+			String restoreThreadsString = (String) config.get("restorethreads");
+			if (StringUtils.isNotBlank(restoreThreadsString)) {
+				restoreThreads = parsePositiveInt("restorethreads", restoreThreadsString);
+			}
+			String restoreBatchSizeString = (String) config.get("restorebatchsize");
+			if (StringUtils.isNotBlank(restoreBatchSizeString)) {
+				restoreBatchSize = parsePositiveInt("restorebatchsize", restoreBatchSizeString);
+			}
+
+			int cacheSize = CachingPersistenceService.DEFAULT_MAX_STATES;
+			long cacheTtl = CachingPersistenceService.DEFAULT_TIME_TO_LIVE;
+			long cacheResolution = CachingPersistenceService.DEFAULT_RESOLUTION;
+			String cacheSizeString = (String) config.get("cachesize");
+			if (StringUtils.isNotBlank(cacheSizeString)) {
+				// 0 disables the cache
+				cacheSize = "0".equals(cacheSizeString.trim()) ? 0 : parsePositiveInt("cachesize", cacheSizeString);
+			}
+			String cacheTtlString = (String) config.get("cachettl");
+			if (StringUtils.isNotBlank(cacheTtlString)) {
+				cacheTtl = parsePositiveInt("cachettl", cacheTtlString);
+			}
+			String cacheResolutionString = (String) config.get("cacheresolution");
+			if (StringUtils.isNotBlank(cacheResolutionString)) {
+				cacheResolution = parsePositiveInt("cacheresolution", cacheResolutionString);
+			}
+			CachingPersistenceService.configure(cacheSize, cacheTtl, cacheResolution);
+		}
+	}
+	
+	private int parsePositiveInt(String key, String value) throws ConfigurationException {
+		try {
+			int result = Integer.parseInt(value.trim());
+			if (result > 0) {
+				return result;
+			}
+		} catch (NumberFormatException e) {
+			// handled below
+		}
+		throw new ConfigurationException(key, "The value '" + value + "' must be a positive number");
 	}
 	
 	
@@ -145,15 +255,55 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	public void addPersistenceService(PersistenceService persistenceService) {
 		logger.debug("Initializing {} persistence service.", persistenceService.getName());
 		persistenceServices.put(persistenceService.getName(), persistenceService);
+		startWriter(persistenceService);
 		stopEventHandling(persistenceService.getName());
 		startEventHandling(persistenceService.getName());
 	}
 
 	public void removePersistenceService(PersistenceService persistenceService) {
 		stopEventHandling(persistenceService.getName());
+		stopWriter(persistenceService.getName());
 		persistenceServices.remove(persistenceService.getName());
 	}
 	
+	private void startWriter(PersistenceService persistenceService) {
+		PersistenceWriter writer = new PersistenceWriter(persistenceService, queueSize);
+		configureWriter(writer);
+		writer.start();
+		PersistenceWriter oldWriter = persistenceWriters.put(persistenceService.getName(), writer);
+		if(oldWriter!=null) {
+			oldWriter.shutdown(SHUTDOWN_TIMEOUT);
+		}
+	}
+	
+	private void stopWriter(String serviceName) {
+		PersistenceWriter writer = persistenceWriters.remove(serviceName);
+		if(writer!=null) {
+			writer.shutdown(SHUTDOWN_TIMEOUT);
+			logger.debug("Statistics of persistence service '{}': {}", serviceName, writer.getStatistics());
+		}
+	}
+	
+	private void configureWriter(PersistenceWriter writer) {
+		writer.setBatchSize(batchSize);
+		writer.setFlushInterval(flushInterval);
+		writer.setOverflowPolicy(overflowPolicy);
+	}
+
+	/**
+	 * Stores the current state of an item through the writer of a persistence service.
+	 * 
+	 * @param serviceName the name of the persistence service
+	 * @param item the item to store
+	 * @param alias the alias to store the item under, may be <code>null</code>
+	 */
+	/*default */ void store(String serviceName, Item item, String alias) {
+		PersistenceWriter writer = persistenceWriters.get(serviceName);
+		if(writer!=null) {
+			writer.store(item, alias);
+		}
+	}
+	
 	
 	public void modelChanged(String modelName, EventType type) {
 		if(modelName.endsWith(".persist")) {
@@ -180,13 +330,16 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 		if(model!=null) {
 			persistenceConfigurations.put(modelName, model.getConfigs());
 			defaultStrategies.put(modelName, model.getDefaults());
+			invalidateRoutingTable();
+			Set<Item> restoredItems = new LinkedHashSet<Item>();
 			for(PersistenceConfiguration config : model.getConfigs()) {
 				if(hasStrategy(modelName, config, GlobalStrategies.RESTORE)) {
 					for(Item item : getAllItems(config)) {
-						initialize(item);
+						restoredItems.add(item);
 					}
 				}
 			}
+			initialize(restoredItems);
 			createTimers(modelName);
 		}
 	}
@@ -199,6 +352,7 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	private void stopEventHandling(String modelName) {
 		persistenceConfigurations.remove(modelName);
 		defaultStrategies.remove(modelName);
+		invalidateRoutingTable();
 		removeTimers(modelName);
 	}
 
@@ -217,18 +371,9 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	 * @param onlyChanges true, if it has the change strategy, false otherwise
 	 */
 	private void handleStateEvent(Item item, boolean onlyChanges) {
-		synchronized (persistenceConfigurations) {
-			for(Entry<String, List<PersistenceConfiguration>> entry : persistenceConfigurations.entrySet()) {
-				String serviceName = entry.getKey();
-				if(persistenceServices.containsKey(serviceName)) {				
-					for(PersistenceConfiguration config : entry.getValue()) {
-						if(hasStrategy(serviceName, config, onlyChanges ? GlobalStrategies.CHANGE : GlobalStrategies.UPDATE)) {
-							if(appliesToItem(config, item)) {
-								persistenceServices.get(serviceName).store(item, config.getAlias());
-							}
-						}
-					}
-				}
+		for(PersistenceRoute route : getRoutingTable().getRoutes(item.getName())) {
+			if(onlyChanges ? route.onChange : route.onUpdate) {
+				store(route.serviceName, item, route.alias);
 			}
 		}
 	}
@@ -255,35 +400,75 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	}
 
 	/**
-	 * Checks if a given persistence configuration entry is relevant for an item
+	 * Returns the routing table, which maps the item names to the persistence configurations that apply to them.
+	 * If the table has been invalidated, it is rebuilt from the current persistence models and items.
 	 * 
-	 * @param config the persistence configuration entry
-	 * @param item to check if the configuration applies to
-	 * @return true, if the configuration applies to the item
+	 * @return the current routing table
 	 */
-	protected boolean appliesToItem(PersistenceConfiguration config, Item item) {
-		for(EObject itemCfg : config.getItems()) {
-			if (itemCfg instanceof AllConfig) {
-				return true;
-			}
-			if (itemCfg instanceof ItemConfig) {
-				ItemConfig singleItemConfig = (ItemConfig) itemCfg;
-				if(item.getName().equals(singleItemConfig.getItem())) {
-					return true;
+	private RoutingTable getRoutingTable() {
+		RoutingTable table = routingTable;
+		if(table==null) {
+			synchronized(routingTableLock) {
+				table = routingTable;
+				if(table==null) {
+					table = buildRoutingTable();
+					routingTable = table;
 				}
 			}
-			if (itemCfg instanceof GroupConfig) {
-				GroupConfig groupItemCfg = (GroupConfig) itemCfg;
-				String groupName = groupItemCfg.getGroup();
-				try {
-					Item gItem = itemRegistry.getItem(groupName);
-					if (gItem instanceof GroupItem) {
-						GroupItem groupItem = (GroupItem) gItem;
-						if(groupItem.getAllMembers().contains(item)) {
-							return true;
+		}
+		return table;
+	}
+
+	/**
+	 * Discards the routing table, so that it is rebuilt on its next use.
+	 * This must be called whenever a persistence model or the items change.
+	 */
+	private void invalidateRoutingTable() {
+		synchronized(routingTableLock) {
+			routingTable = null;
+		}
+	}
+
+	private RoutingTable buildRoutingTable() {
+		List<PersistenceRoute> allItemsRoutes = new ArrayList<PersistenceRoute>();
+		Map<String, List<PersistenceRoute>> itemRoutes = new HashMap<String, List<PersistenceRoute>>();
+		for(Entry<String, List<PersistenceConfiguration>> entry : persistenceConfigurations.entrySet()) {
+			String serviceName = entry.getKey();
+			if(!defaultStrategies.containsKey(serviceName)) {
+				continue;
+			}
+			for(PersistenceConfiguration config : entry.getValue()) {
+				PersistenceRoute route = new PersistenceRoute(serviceName, config.getAlias(),
+						hasStrategy(serviceName, config, GlobalStrategies.CHANGE),
+						hasStrategy(serviceName, config, GlobalStrategies.UPDATE),
+						hasStrategy(serviceName, config, GlobalStrategies.RESTORE));
+				if(appliesToAllItems(config)) {
+					allItemsRoutes.add(route);
+				} else if(itemRegistry!=null) {
+					for(Item item : getAllItems(config)) {
+						List<PersistenceRoute> routes = itemRoutes.get(item.getName());
+						if(routes==null) {
+							routes = new ArrayList<PersistenceRoute>();
+							itemRoutes.put(item.getName(), routes);
 						}
+						routes.add(route);
 					}
-				} catch (Exception e) {}
+				}
+			}
+		}
+		// the routes for all items apply to the specifically configured items as well
+		for(Entry<String, List<PersistenceRoute>> entry : itemRoutes.entrySet()) {
+			List<PersistenceRoute> routes = new ArrayList<PersistenceRoute>(allItemsRoutes);
+			routes.addAll(entry.getValue());
+			entry.setValue(routes);
+		}
+		return new RoutingTable(itemRoutes, allItemsRoutes);
+	}
+
+	private boolean appliesToAllItems(PersistenceConfiguration config) {
+		for(EObject itemCfg : config.getItems()) {
+			if (itemCfg instanceof AllConfig) {
+				return true;
 			}
 		}
 		return false;
@@ -333,13 +518,22 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	}
 
 	public void allItemsChanged(Collection<String> oldItemNames) {
-		for(Item item : itemRegistry.getItems()) {
-			itemAdded(item);
+		invalidateRoutingTable();
+		List<Item> items = new ArrayList<Item>(itemRegistry.getItems());
+		initialize(items);
+		for(Item item : items) {
+			addStateChangeListener(item);
 		}
 	}
 
 	public void itemAdded(Item item) {
-		initialize(item);
+		// the new item might also be a member of a configured group
+		invalidateRoutingTable();
+		initialize(Collections.singletonList(item));
+		addStateChangeListener(item);
+	}
+
+	private void addStateChangeListener(Item item) {
 		if (item instanceof GenericItem) {
 			GenericItem genericItem = (GenericItem) item;
 			genericItem.addStateChangeListener(this);
@@ -347,49 +541,91 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	}
 
 	/**
-	 * Handles the "restoreOnStartup" strategy for the item.
-	 * If the item state is still undefined when entering this method, all persistence configurations are checked,
-	 * if they have the "restoreOnStartup" strategy configured for the item. If so, the item state will be set
-	 * to its last persisted value.
+	 * Handles the "restoreOnStartup" strategy for the given items.
+	 * For all items whose state is still undefined, the persistence configurations with the "restoreOnStartup"
+	 * strategy are checked in their order. The state of each item is set to the last value that has been
+	 * persisted by the first of these services that knows the item. The items are looked up in bulk and
+	 * all services are queried in parallel.
 	 * 
-	 * @param item the item to restore the state for
+	 * @param items the items to restore the states for
 	 */
-	protected void initialize(Item item) {
-		// get the last persisted state from the persistence service if no state is yet set
-		if(item.getState().equals(UnDefType.NULL) && item instanceof GenericItem) {
-			for(Entry<String, List<PersistenceConfiguration>> entry : persistenceConfigurations.entrySet()) {
-				String serviceName = entry.getKey();
-				for(PersistenceConfiguration config : entry.getValue()) {
-					if(hasStrategy(serviceName, config, GlobalStrategies.RESTORE)) {
-						if(appliesToItem(config, item)) {
-							PersistenceService service = persistenceServices.get(serviceName);
-							if(service instanceof QueryablePersistenceService) {
-								QueryablePersistenceService queryService = (QueryablePersistenceService) service;
-								FilterCriteria filter = new FilterCriteria().setItemName(item.getName()).setPageSize(1);
-								Iterable<HistoricItem> result = queryService.query(filter);
-								Iterator<HistoricItem> it = result.iterator();
-								if(it.hasNext()) {
-									HistoricItem historicItem = it.next();
-									GenericItem genericItem = (GenericItem) item;
-									genericItem.removeStateChangeListener(this);
-									genericItem.setState(historicItem.getState());
-									genericItem.addStateChangeListener(this);
-									logger.debug("Restored item state from '{}' for item '{}' -> '{}'", 
-											new Object[] { DateFormat.getDateTimeInstance().format(historicItem.getTimestamp()), 
-											item.getName(), historicItem.getState().toString() } );
-									return;
-								}
-							} else if(service!=null) {
-								logger.warn("Failed to restore item states as persistence service '{}' can not be queried.", serviceName);
-							}
-						}
+	protected void initialize(Collection<Item> items) {
+		Map<String, GenericItem> pendingItems = new HashMap<String, GenericItem>();
+		Map<String, Iterator<PersistenceRoute>> pendingRoutes = new LinkedHashMap<String, Iterator<PersistenceRoute>>();
+		RoutingTable table = getRoutingTable();
+		for(Item item : items) {
+			// get the last persisted state from the persistence service if no state is yet set
+			if(item.getState().equals(UnDefType.NULL) && item instanceof GenericItem) {
+				pendingItems.put(item.getName(), (GenericItem) item);
+				pendingRoutes.put(item.getName(), table.getRoutes(item.getName()).iterator());
+			}
+		}
+
+		// in each round, the items which have not been restored yet are looked up in their next service
+		while(!pendingRoutes.isEmpty()) {
+			Map<QueryablePersistenceService, List<String>> requests = new LinkedHashMap<QueryablePersistenceService, List<String>>();
+			Iterator<Entry<String, Iterator<PersistenceRoute>>> it = pendingRoutes.entrySet().iterator();
+			while(it.hasNext()) {
+				Entry<String, Iterator<PersistenceRoute>> entry = it.next();
+				QueryablePersistenceService service = getNextRestoreService(entry.getValue());
+				if(service==null) {
+					it.remove();
+					continue;
+				}
+				List<String> itemNames = requests.get(service);
+				if(itemNames==null) {
+					itemNames = new ArrayList<String>();
+					requests.put(service, itemNames);
+				}
+				itemNames.add(entry.getKey());
+			}
+			if(requests.isEmpty()) {
+				break;
+			}
+
+			StateRestorer restorer = new StateRestorer(restoreThreads, restoreBatchSize);
+			for(Map<String, HistoricItem> results : restorer.queryLatest(requests).values()) {
+				for(Entry<String, HistoricItem> result : results.entrySet()) {
+					GenericItem genericItem = pendingItems.get(result.getKey());
+					if(genericItem!=null && pendingRoutes.remove(result.getKey())!=null) {
+						restore(genericItem, result.getValue());
 					}
 				}
-			}	
-		}		
+			}
+		}
+	}
+
+	/**
+	 * Returns the next service of the given routes which has the "restoreOnStartup" strategy.
+	 * 
+	 * @return the service or <code>null</code>, if there is none left
+	 */
+	private QueryablePersistenceService getNextRestoreService(Iterator<PersistenceRoute> routes) {
+		while(routes.hasNext()) {
+			PersistenceRoute route = routes.next();
+			if(route.onRestore) {
+				PersistenceService service = persistenceServices.get(route.serviceName);
+				if(service instanceof QueryablePersistenceService) {
+					return (QueryablePersistenceService) service;
+				} else if(service!=null) {
+					logger.warn("Failed to restore item states as persistence service '{}' can not be queried.", route.serviceName);
+				}
+			}
+		}
+		return null;
+	}
+
+	private void restore(GenericItem genericItem, HistoricItem historicItem) {
+		genericItem.removeStateChangeListener(this);
+		genericItem.setState(historicItem.getState());
+		genericItem.addStateChangeListener(this);
+		logger.debug("Restored item state from '{}' for item '{}' -> '{}'", 
+				new Object[] { DateFormat.getDateTimeInstance().format(historicItem.getTimestamp()), 
+				genericItem.getName(), historicItem.getState().toString() } );
 	}
 
 	public void itemRemoved(Item item) {
+		invalidateRoutingTable();
 		if (item instanceof GenericItem) {
 			GenericItem genericItem = (GenericItem) item;
 			genericItem.removeStateChangeListener(this);
@@ -458,6 +694,44 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 			logger.warn("Failed to delete cron jobs of group '{}'", persistModelName);
 		}
 	}
-		
+
+	/**
+	 * Maps item names to the persistence configurations that apply to them.
+	 */
+	private static class RoutingTable {
+
+		private final Map<String, List<PersistenceRoute>> itemRoutes;
+		private final List<PersistenceRoute> allItemsRoutes;
+
+		public RoutingTable(Map<String, List<PersistenceRoute>> itemRoutes, List<PersistenceRoute> allItemsRoutes) {
+			this.itemRoutes = itemRoutes;
+			this.allItemsRoutes = allItemsRoutes;
+		}
+
+		public List<PersistenceRoute> getRoutes(String itemName) {
+			List<PersistenceRoute> routes = itemRoutes.get(itemName);
+			return routes!=null ? routes : allItemsRoutes;
+		}
+	}
+
+	/**
+	 * A persistence configuration entry of a service, with its strategies already evaluated.
+	 */
+	private static class PersistenceRoute {
+
+		private final String serviceName;
+		private final String alias;
+		private final boolean onChange;
+		private final boolean onUpdate;
+		private final boolean onRestore;
+
+		public PersistenceRoute(String serviceName, String alias, boolean onChange, boolean onUpdate, boolean onRestore) {
+			this.serviceName = serviceName;
+			this.alias = alias;
+			this.onChange = onChange;
+			this.onUpdate = onUpdate;
+			this.onRestore = onRestore;
+		}
+	}
 
 }
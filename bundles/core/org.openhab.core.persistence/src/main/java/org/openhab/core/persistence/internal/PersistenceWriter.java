@@ -0,0 +1,349 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.core.persistence.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openhab.core.items.Item;
+import org.openhab.core.persistence.BatchPersistenceService;
+import org.openhab.core.persistence.CachingPersistenceService;
+import org.openhab.core.persistence.PersistenceEntry;
+import org.openhab.core.persistence.PersistenceService;
+import org.openhab.core.types.State;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decouples a {@link PersistenceService} from the threads that request item states to be stored.
+ *
+ * <p>Store requests are put into a bounded queue, which is drained by a dedicated thread for the service.
+ * A {@link BatchPersistenceService} is given the entries in batches as soon as the batch size is reached
+ * or the flush interval has elapsed since the first entry of the batch was taken from the queue. All other
+ * services only store the state an item has at the time they are called, so they are given a copy of the
+ * item with the state it had when the store was requested, see {@link ItemSnapshot}. Items which cannot be
+ * copied are stored right away by the thread which requests the store.</p>
+ *
+ * <p>If the queue is full, the configured {@link OverflowPolicy} decides which entry is dropped; queuing
+ * an item state therefore never blocks. The queue depth, the number of dropped entries and the write
+ * times are recorded and can be retrieved through {@link #getStatistics()}.</p>
+ *
+ * @since 1.6.0
+ */
+public class PersistenceWriter implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(PersistenceWriter.class);
+
+	public static final int DEFAULT_QUEUE_SIZE = 10000;
+	public static final int DEFAULT_BATCH_SIZE = 100;
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+	/** how long the writer thread waits for new entries before it checks whether it has been shut down */
+	private static final long IDLE_TIMEOUT = 1000;
+
+	/** a warning is logged for the first dropped entry and then for every n-th one */
+	private static final long DROP_WARNING_INTERVAL = 1000;
+
+	/**
+	 * Defines which entry is dropped if the queue is full.
+	 */
+	public enum OverflowPolicy {
+		/** drops the oldest queued entry to make room for the new one */
+		DROPOLDEST,
+		/** drops the new entry */
+		DROPNEWEST
+	}
+
+	private final PersistenceService service;
+	private final boolean batching;
+	private final BlockingQueue<PersistenceEntry> queue;
+	private final int maxQueueSize;
+	private final WriterStatistics statistics = new WriterStatistics();
+
+	private volatile int batchSize = DEFAULT_BATCH_SIZE;
+	private volatile long flushInterval = DEFAULT_FLUSH_INTERVAL;
+	private volatile OverflowPolicy overflowPolicy = OverflowPolicy.DROPOLDEST;
+
+	private volatile boolean running = false;
+	private Thread thread;
+
+	public PersistenceWriter(PersistenceService service) {
+		this(service, DEFAULT_QUEUE_SIZE);
+	}
+
+	/**
+	 * @param service the persistence service to write to
+	 * @param maxQueueSize the maximum number of entries which are queued for the service
+	 */
+	public PersistenceWriter(PersistenceService service, int maxQueueSize) {
+		this.service = service;
+		this.batching = service instanceof BatchPersistenceService;
+		this.maxQueueSize = maxQueueSize;
+		this.queue = new LinkedBlockingQueue<PersistenceEntry>(maxQueueSize);
+	}
+
+	public int getMaxQueueSize() {
+		return maxQueueSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public void setFlushInterval(long flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Starts the writer thread.
+	 */
+	public synchronized void start() {
+		if (thread == null) {
+			running = true;
+			thread = new Thread(this, "PersistenceWriter-" + service.getName());
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stops the writer thread after all queued entries have been written.
+	 *
+	 * @param timeout the maximum time in milliseconds to wait for the queue to be written
+	 */
+	public void shutdown(long timeout) {
+		Thread writerThread;
+		synchronized (this) {
+			running = false;
+			writerThread = thread;
+			thread = null;
+		}
+		if (writerThread != null) {
+			try {
+				writerThread.join(timeout);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (writerThread.isAlive()) {
+				logger.warn("Persistence service '{}' did not write its queue within {}ms, {} entries are lost",
+						new Object[] { service.getName(), timeout, queue.size() });
+			}
+		}
+	}
+
+	/**
+	 * Stores the current state of an item through the persistence service. The state is queued, unless
+	 * the service is not a {@link BatchPersistenceService} and the item cannot be copied.
+	 *
+	 * @param item the item to store
+	 * @param alias the alias under which the item should be stored, may be <code>null</code>
+	 * @return false, if the entry has been dropped because the queue is full
+	 */
+	public boolean store(Item item, String alias) {
+		State state = item.getState();
+		Date timestamp = new Date();
+		if (!batching) {
+			Item snapshot = ItemSnapshot.create(item, state);
+			if (snapshot == null) {
+				write(Collections.singletonList(new PersistenceEntry(item, alias, state, timestamp)));
+				return true;
+			}
+			item = snapshot;
+		}
+		PersistenceEntry entry = new PersistenceEntry(item, alias, state, timestamp);
+		while (!queue.offer(entry)) {
+			if (overflowPolicy == OverflowPolicy.DROPNEWEST) {
+				dropped();
+				return false;
+			}
+			if (queue.poll() != null) {
+				dropped();
+			}
+		}
+		statistics.enqueued(queue.size());
+		return true;
+	}
+
+	private void dropped() {
+		long dropped = statistics.dropped.incrementAndGet();
+		if (dropped % DROP_WARNING_INTERVAL == 1) {
+			logger.warn("Write queue of persistence service '{}' is full, {} entries have been dropped so far", service.getName(), dropped);
+		}
+	}
+
+	/**
+	 * @return the number of entries waiting to be written
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	public WriterStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Takes the queued entries and writes them until the writer is shut down and the queue is empty.
+	 */
+	public void run() {
+		List<PersistenceEntry> batch = new ArrayList<PersistenceEntry>();
+		while (running || !queue.isEmpty()) {
+			PersistenceEntry first = poll(IDLE_TIMEOUT);
+			if (first == null) {
+				continue;
+			}
+			batch.add(first);
+			int size = batchSize;
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushInterval);
+			while (batch.size() < size) {
+				queue.drainTo(batch, size - batch.size());
+				long remaining = deadline - System.nanoTime();
+				if (batch.size() >= size || remaining <= 0 || !running) {
+					break;
+				}
+				PersistenceEntry next = poll(TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+				if (next == null) {
+					break;
+				}
+				batch.add(next);
+			}
+			write(batch);
+			batch.clear();
+		}
+	}
+
+	private PersistenceEntry poll(long timeout) {
+		if (!running) {
+			return queue.poll();
+		}
+		try {
+			return queue.poll(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			return queue.poll();
+		}
+	}
+
+	private void write(List<PersistenceEntry> batch) {
+		long start = System.nanoTime();
+		long failed = 0;
+		if (batching) {
+			try {
+				((BatchPersistenceService) service).store(new ArrayList<PersistenceEntry>(batch));
+			} catch (RuntimeException e) {
+				failed = batch.size();
+				logger.error("Persistence service '{}' failed to store {} item states", new Object[] { service.getName(), batch.size(), e });
+			}
+		} else {
+			for (PersistenceEntry entry : batch) {
+				try {
+					service.store(entry.getItem(), entry.getAlias());
+				} catch (RuntimeException e) {
+					failed++;
+					logger.error("Persistence service '{}' failed to store item '{}'", new Object[] { service.getName(), entry.getItem().getName(), e });
+				}
+			}
+		}
+		long duration = System.nanoTime() - start;
+		// even failed writes may have stored some states, so cached queries of all items are stale
+		for (PersistenceEntry entry : batch) {
+			CachingPersistenceService.invalidate(service.getName(), entry.getName(), entry.getTimestamp());
+		}
+		statistics.written(batch.size() - failed, failed, duration);
+		logger.trace("Persistence service '{}' stored {} item states in {}ms, {} entries are still queued",
+				new Object[] { service.getName(), batch.size(), TimeUnit.NANOSECONDS.toMillis(duration), queue.size() });
+	}
+
+	/**
+	 * Counters of a {@link PersistenceWriter}.
+	 */
+	public static class WriterStatistics {
+
+		private final AtomicLong enqueued = new AtomicLong();
+		private final AtomicLong dropped = new AtomicLong();
+		private final AtomicLong written = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+		private final AtomicLong batches = new AtomicLong();
+		private final AtomicLong maxQueueDepth = new AtomicLong();
+		private final AtomicLong totalWriteTime = new AtomicLong();
+		private final AtomicLong maxWriteTime = new AtomicLong();
+
+		private void enqueued(int queueDepth) {
+			enqueued.incrementAndGet();
+			updateMax(maxQueueDepth, queueDepth);
+		}
+
+		private void written(long count, long failedCount, long writeTime) {
+			batches.incrementAndGet();
+			written.addAndGet(count);
+			failed.addAndGet(failedCount);
+			totalWriteTime.addAndGet(writeTime);
+			updateMax(maxWriteTime, writeTime);
+		}
+
+		private static void updateMax(AtomicLong max, long value) {
+			long current = max.get();
+			while (value > current && !max.compareAndSet(current, value)) {
+				current = max.get();
+			}
+		}
+
+		public long getEnqueued() {
+			return enqueued.get();
+		}
+
+		public long getDropped() {
+			return dropped.get();
+		}
+
+		public long getWritten() {
+			return written.get();
+		}
+
+		public long getFailed() {
+			return failed.get();
+		}
+
+		public long getBatches() {
+			return batches.get();
+		}
+
+		public long getMaxQueueDepth() {
+			return maxQueueDepth.get();
+		}
+
+		public long getTotalWriteTime() {
+			return totalWriteTime.get();
+		}
+
+		public long getMaxWriteTime() {
+			return maxWriteTime.get();
+		}
+
+		@Override
+		public String toString() {
+			long count = Math.max(1, batches.get());
+			return "enqueued=" + enqueued.get() + ", dropped=" + dropped.get()
+					+ ", written=" + written.get() + ", failed=" + failed.get()
+					+ ", batches=" + batches.get() + ", maxQueueDepth=" + maxQueueDepth.get()
+					+ ", avgWrite=" + TimeUnit.NANOSECONDS.toMillis(totalWriteTime.get() / count) + "ms"
+					+ ", maxWrite=" + TimeUnit.NANOSECONDS.toMillis(maxWriteTime.get()) + "ms";
+		}
+	}
+
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.core.persistence.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openhab.core.persistence.BulkQueryablePersistenceService;
+import org.openhab.core.persistence.FilterCriteria;
+import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.persistence.QueryablePersistenceService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Looks up the most recent states of many items from several persistence services in parallel.
+ *
+ * <p>The item names are split into batches, which are passed to
+ * {@link BulkQueryablePersistenceService#queryLatest(Collection)}. For all other services the
+ * items of a batch are queried one by one. The services are queried at the same time, each of
+ * them by at most <code>threadsPerService</code> threads.</p>
+ *
+ * @since 1.6.0
+ */
+class StateRestorer {
+
+	private static final Logger logger = LoggerFactory.getLogger(StateRestorer.class);
+
+	/** the default maximum number of threads which query a single persistence service */
+	public static final int DEFAULT_THREADS_PER_SERVICE = 4;
+
+	/** the default maximum number of items which are queried at once */
+	public static final int DEFAULT_BATCH_SIZE = 500;
+
+	private final int threadsPerService;
+	private final int batchSize;
+
+	/**
+	 * @param threadsPerService the maximum number of threads which query a single persistence service
+	 * @param batchSize the maximum number of items which are queried at once
+	 */
+	StateRestorer(int threadsPerService, int batchSize) {
+		this.threadsPerService = threadsPerService;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Queries the most recent states of the given items and waits until all services have answered.
+	 *
+	 * @param requests the names of the items to query per persistence service
+	 * @return the most recent states per service name and item name; items without a persisted
+	 *         state or whose query failed are not contained
+	 */
+	Map<String, Map<String, HistoricItem>> queryLatest(Map<QueryablePersistenceService, List<String>> requests) {
+		List<ServiceRestore> restores = new ArrayList<ServiceRestore>();
+		List<Callable<Object>> workers = new ArrayList<Callable<Object>>();
+		for (Entry<QueryablePersistenceService, List<String>> request : requests.entrySet()) {
+			ServiceRestore restore = new ServiceRestore(request.getKey(), request.getValue());
+			restores.add(restore);
+			int threads = Math.min(threadsPerService, restore.batches.size());
+			for (int i = 0; i < threads; i++) {
+				workers.add(restore);
+			}
+		}
+
+		if (workers.size() == 1) {
+			// a single batch, e.g. of an item which has been added, is not worth a thread
+			runQuietly(workers.get(0));
+		} else if (!workers.isEmpty()) {
+			ExecutorService executor = Executors.newFixedThreadPool(workers.size(), new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "PersistenceRestore-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			try {
+				executor.invokeAll(workers);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				logger.warn("Interrupted while restoring item states, some items might not be restored");
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+
+		Map<String, Map<String, HistoricItem>> results = new HashMap<String, Map<String, HistoricItem>>();
+		for (ServiceRestore restore : restores) {
+			results.put(restore.service.getName(), restore.results);
+			Object[] args = new Object[] { restore.results.size(), restore.itemCount, restore.service.getName(),
+					TimeUnit.NANOSECONDS.toMillis(restore.duration.get()) };
+			if (restore.itemCount > 1) {
+				logger.info("Restored {} of {} item states from persistence service '{}' in {}ms", args);
+			} else {
+				logger.debug("Restored {} of {} item states from persistence service '{}' in {}ms", args);
+			}
+		}
+		return results;
+	}
+
+	private static void runQuietly(Callable<Object> callable) {
+		try {
+			callable.call();
+		} catch (Exception e) {
+			logger.error("Error while restoring item states", e);
+		}
+	}
+
+	/**
+	 * The batches of item names of a single service, which are processed by one or more workers.
+	 */
+	private class ServiceRestore implements Callable<Object> {
+
+		private final QueryablePersistenceService service;
+		private final int itemCount;
+		private final Queue<List<String>> batches = new ConcurrentLinkedQueue<List<String>>();
+		private final Map<String, HistoricItem> results = new ConcurrentHashMap<String, HistoricItem>();
+		private final long start = System.nanoTime();
+		private final AtomicLong duration = new AtomicLong();
+
+		ServiceRestore(QueryablePersistenceService service, List<String> itemNames) {
+			this.service = service;
+			this.itemCount = itemNames.size();
+			for (int i = 0; i < itemNames.size(); i += batchSize) {
+				batches.add(itemNames.subList(i, Math.min(i + batchSize, itemNames.size())));
+			}
+		}
+
+		public Object call() {
+			List<String> batch;
+			while ((batch = batches.poll()) != null) {
+				try {
+					if (service instanceof BulkQueryablePersistenceService) {
+						Map<String, HistoricItem> latest = ((BulkQueryablePersistenceService) service).queryLatest(batch);
+						if (latest != null) {
+							results.putAll(latest);
+						}
+					} else {
+						for (String itemName : batch) {
+							HistoricItem historicItem = queryLatest(itemName);
+							if (historicItem != null) {
+								results.put(itemName, historicItem);
+							}
+						}
+					}
+				} catch (RuntimeException e) {
+					logger.error("Persistence service '{}' failed to look up the states of {} items",
+							new Object[] { service.getName(), batch.size(), e });
+				}
+			}
+			// the last worker to finish determines the duration of the restore
+			long elapsed = System.nanoTime() - start;
+			long current;
+			while ((current = duration.get()) < elapsed && !duration.compareAndSet(current, elapsed)) {
+				// retry
+			}
+			return null;
+		}
+
+		private HistoricItem queryLatest(String itemName) {
+			FilterCriteria filter = new FilterCriteria().setItemName(itemName).setPageSize(1);
+			Iterable<HistoricItem> result = service.query(filter);
+			if (result != null) {
+				Iterator<HistoricItem> it = result.iterator();
+				if (it.hasNext()) {
+					return it.next();
+				}
+			}
+			return null;
+		}
+	}
+
+}
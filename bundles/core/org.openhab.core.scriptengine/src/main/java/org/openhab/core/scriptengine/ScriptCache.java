@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.core.scriptengine;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.xtext.xbase.XExpression;
+import org.eclipse.xtext.xbase.interpreter.IEvaluationContext;
+
+/**
+ * This class caches ready-to-run {@link Script} instances together with the global
+ * evaluation context they have to be executed with, so that scripts which are executed
+ * very often (like rules) do not have to be set up again for every execution.
+ *
+ * <p>Entries are grouped by the name of the model they stem from. Every model has a
+ * revision, which is increased by {@link #invalidate(String)} whenever the model changes;
+ * all entries of older revisions are dropped at that moment. Additionally an entry is only
+ * returned if it was created for the very same {@link XExpression} instance, so that a
+ * reloaded model can never be served a stale script.</p>
+ *
+ * @since 1.6.0
+ *
+ */
+@SuppressWarnings("restriction")
+public class ScriptCache {
+
+	private final ConcurrentMap<String, ModelScripts> models = new ConcurrentHashMap<String, ModelScripts>();
+
+	/**
+	 * Returns the cached script for the given model and script name.
+	 *
+	 * @param modelName the name of the model that contains the script
+	 * @param scriptName the name of the script within the model (e.g. the rule name)
+	 * @param expression the expression the script must have been created for
+	 * @return the cached script or <code>null</code>, if there is no valid entry
+	 */
+	public CachedScript get(String modelName, String scriptName, XExpression expression) {
+		ModelScripts modelScripts = models.get(modelName);
+		if (modelScripts == null) {
+			return null;
+		}
+		CachedScript cachedScript = modelScripts.scripts.get(scriptName);
+		if (cachedScript == null || cachedScript.expression != expression) {
+			return null;
+		}
+		return cachedScript;
+	}
+
+	/**
+	 * Adds a script to the cache for the current revision of the given model.
+	 *
+	 * @param modelName the name of the model that contains the script
+	 * @param scriptName the name of the script within the model (e.g. the rule name)
+	 * @param expression the expression the script has been created for
+	 * @param script the ready-to-run script
+	 * @param globalContext the global evaluation context of the script, may be <code>null</code>
+	 * @return the cached script
+	 */
+	public CachedScript put(String modelName, String scriptName, XExpression expression, Script script, IEvaluationContext globalContext) {
+		ModelScripts modelScripts = getModelScripts(modelName);
+		CachedScript cachedScript = new CachedScript(expression, script, globalContext, modelScripts.revision);
+		modelScripts.scripts.put(scriptName, cachedScript);
+		return cachedScript;
+	}
+
+	/**
+	 * Drops all cached scripts of the given model and increases its revision.
+	 * This must be called whenever the model is modified or removed.
+	 *
+	 * @param modelName the name of the model that has changed
+	 */
+	public void invalidate(String modelName) {
+		ModelScripts oldScripts = models.get(modelName);
+		long revision = oldScripts == null ? 0 : oldScripts.revision + 1;
+		models.put(modelName, new ModelScripts(revision));
+	}
+
+	/**
+	 * Returns the current revision of the given model.
+	 *
+	 * @param modelName the name of the model
+	 * @return the revision of the model, starting with 0
+	 */
+	public long getRevision(String modelName) {
+		ModelScripts modelScripts = models.get(modelName);
+		return modelScripts == null ? 0 : modelScripts.revision;
+	}
+
+	/**
+	 * Drops all cached scripts of all models.
+	 */
+	public void clear() {
+		models.clear();
+	}
+
+	private ModelScripts getModelScripts(String modelName) {
+		ModelScripts modelScripts = models.get(modelName);
+		if (modelScripts == null) {
+			modelScripts = new ModelScripts(0);
+			ModelScripts existing = models.putIfAbsent(modelName, modelScripts);
+			if (existing != null) {
+				modelScripts = existing;
+			}
+		}
+		return modelScripts;
+	}
+
+	/**
+	 * Holds the cached scripts of a single revision of a model.
+	 */
+	private static class ModelScripts {
+
+		private final long revision;
+		private final ConcurrentMap<String, CachedScript> scripts = new ConcurrentHashMap<String, CachedScript>();
+
+		public ModelScripts(long revision) {
+			this.revision = revision;
+		}
+	}
+
+	/**
+	 * A cache entry, consisting of a script and the global context it is executed with.
+	 */
+	public static class CachedScript {
+
+		private final XExpression expression;
+		private final Script script;
+		private final IEvaluationContext globalContext;
+		private final long revision;
+
+		public CachedScript(XExpression expression, Script script, IEvaluationContext globalContext, long revision) {
+			this.expression = expression;
+			this.script = script;
+			this.globalContext = globalContext;
+			this.revision = revision;
+		}
+
+		public Script getScript() {
+			return script;
+		}
+
+		public IEvaluationContext getGlobalContext() {
+			return globalContext;
+		}
+
+		public long getRevision() {
+			return revision;
+		}
+	}
+
+}
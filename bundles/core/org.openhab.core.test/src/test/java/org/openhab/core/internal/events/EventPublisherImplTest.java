@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.core.internal.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.core.events.AbstractEventSubscriber;
+import org.openhab.core.events.ItemEvent;
+import org.openhab.core.events.ItemEventSubscriber;
+import org.openhab.core.types.Command;
+import org.openhab.core.types.EventType;
+import org.openhab.core.types.State;
+import org.openhab.core.types.UnDefType;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
+
+/**
+ * @since 1.6.0
+ */
+public class EventPublisherImplTest {
+
+	private static final Command TEST_COMMAND = new Command() {
+		public String format(String pattern) {
+			return toString();
+		}
+	};
+
+	private EventPublisherImpl publisher;
+	private TestEventAdmin eventAdmin;
+	private TestSubscriber subscriber;
+
+	@Before
+	public void setUp() {
+		publisher = new EventPublisherImpl();
+		eventAdmin = new TestEventAdmin();
+		subscriber = new TestSubscriber();
+		publisher.setEventAdmin(eventAdmin);
+		publisher.addItemEventSubscriber(subscriber);
+		publisher.activate();
+	}
+
+	@After
+	public void tearDown() {
+		publisher.deactivate();
+	}
+
+	@Test
+	public void testSentCommandIsDeliveredDirectly() {
+		publisher.sendCommand("item", TEST_COMMAND);
+
+		// sent commands are delivered on the calling thread
+		ItemEvent event = subscriber.events.poll();
+		assertEquals(EventType.COMMAND, event.getType());
+		assertEquals("item", event.getItemName());
+		assertSame(TEST_COMMAND, event.getCommand());
+		assertNull(event.getState());
+
+		Event osgiEvent = eventAdmin.sentEvents.get(0);
+		assertEquals("openhab/command/item", osgiEvent.getTopic());
+		assertSame(event, ItemEvent.fromEvent(osgiEvent));
+	}
+
+	@Test
+	public void testPostedEventsAreDeliveredInOrder() throws InterruptedException {
+		for (int i = 0; i < 100; i++) {
+			publisher.postUpdate("item" + i, UnDefType.UNDEF);
+		}
+		for (int i = 0; i < 100; i++) {
+			ItemEvent event = subscriber.events.poll(5, TimeUnit.SECONDS);
+			assertEquals("item" + i, event.getItemName());
+			assertEquals(UnDefType.UNDEF, event.getState());
+		}
+		assertEquals(100, eventAdmin.postedEvents.size());
+	}
+
+	@Test
+	public void testFullQueueBlocksPostingThreadAndKeepsOrder() throws InterruptedException {
+		publisher.deactivate();
+		publisher = new EventPublisherImpl(2);
+		publisher.setEventAdmin(eventAdmin);
+		BlockingSubscriber blocking = new BlockingSubscriber();
+		publisher.addItemEventSubscriber(blocking);
+		publisher.activate();
+
+		publisher.postUpdate("item0", UnDefType.UNDEF);
+		assertTrue(blocking.blocked.await(5, TimeUnit.SECONDS));
+		// the dispatcher is blocked, so that two events fill up the queue
+		publisher.postUpdate("item1", UnDefType.UNDEF);
+		publisher.postUpdate("item2", UnDefType.UNDEF);
+		Thread poster = new Thread("poster") {
+			@Override
+			public void run() {
+				publisher.postUpdate("item3", UnDefType.UNDEF);
+			}
+		};
+		poster.start();
+		// the posting thread must wait instead of overtaking the queued events
+		poster.join(100);
+		assertTrue(poster.isAlive());
+		assertNull(blocking.events.poll());
+
+		blocking.release.countDown();
+		poster.join(5000);
+		assertFalse(poster.isAlive());
+		for (int i = 0; i < 4; i++) {
+			assertEquals("item" + i, blocking.events.poll(5, TimeUnit.SECONDS).getItemName());
+		}
+		assertFalse(blocking.concurrent);
+		assertEquals(4, eventAdmin.postedEvents.size());
+	}
+
+	@Test
+	public void testRemovedSubscriberIsNotNotified() {
+		publisher.removeItemEventSubscriber(subscriber);
+		publisher.sendCommand("item", TEST_COMMAND);
+		assertEquals(0, subscriber.events.size());
+		assertEquals(1, eventAdmin.sentEvents.size());
+	}
+
+	@Test
+	public void testEventHandlersReceiveBridgedEvents() {
+		final List<String> received = new ArrayList<String>();
+		AbstractEventSubscriber handler = new AbstractEventSubscriber() {
+			@Override
+			public void receiveUpdate(String itemName, State newState) {
+				received.add(itemName + "=" + newState);
+			}
+		};
+		publisher.postUpdate("item", UnDefType.NULL);
+		handler.handleEvent(eventAdmin.postedEvents.get(0));
+
+		// events which have not been created by the publisher are still understood
+		Dictionary<String, Object> properties = new Hashtable<String, Object>();
+		properties.put("item", "other");
+		properties.put("state", UnDefType.UNDEF);
+		handler.handleEvent(new Event("openhab/update/other", properties));
+		handler.handleEvent(new Event("openhab/upd/other", properties));
+
+		assertEquals(2, received.size());
+		assertEquals("item=" + UnDefType.NULL, received.get(0));
+		assertEquals("other=" + UnDefType.UNDEF, received.get(1));
+	}
+
+	private static class TestSubscriber implements ItemEventSubscriber {
+
+		private final BlockingQueue<ItemEvent> events = new LinkedBlockingQueue<ItemEvent>();
+
+		public void receiveItemEvent(ItemEvent event) {
+			events.add(event);
+		}
+	}
+
+	/**
+	 * Blocks the dispatcher with the first event until it is released.
+	 */
+	private static class BlockingSubscriber implements ItemEventSubscriber {
+
+		private final CountDownLatch blocked = new CountDownLatch(1);
+		private final CountDownLatch release = new CountDownLatch(1);
+		private final BlockingQueue<ItemEvent> events = new LinkedBlockingQueue<ItemEvent>();
+		private final AtomicInteger active = new AtomicInteger();
+		private volatile boolean concurrent = false;
+
+		public void receiveItemEvent(ItemEvent event) {
+			if (active.incrementAndGet() > 1) {
+				concurrent = true;
+			}
+			if (blocked.getCount() > 0) {
+				blocked.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			events.add(event);
+			active.decrementAndGet();
+		}
+	}
+
+	private static class TestEventAdmin implements EventAdmin {
+
+		private final List<Event> sentEvents = new ArrayList<Event>();
+		private final List<Event> postedEvents = new ArrayList<Event>();
+
+		public void postEvent(Event event) {
+			postedEvents.add(event);
+		}
+
+		public void sendEvent(Event event) {
+			sentEvents.add(event);
+		}
+	}
+
+}
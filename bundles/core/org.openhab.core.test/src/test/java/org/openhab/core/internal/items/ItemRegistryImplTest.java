@@ -0,0 +1,233 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.core.internal.items;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.openhab.core.items.GenericItem;
+import org.openhab.core.items.Item;
+import org.openhab.core.items.ItemNotFoundException;
+import org.openhab.core.items.ItemProvider;
+import org.openhab.core.items.ItemsChangeListener;
+import org.openhab.core.types.Command;
+import org.openhab.core.types.State;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @since 1.6.0
+ */
+public class ItemRegistryImplTest {
+
+	private static final Logger logger = LoggerFactory.getLogger(ItemRegistryImplTest.class);
+
+	private static final int BENCHMARK_LOOKUPS = 20;
+
+	private ItemRegistryImpl registry;
+	private TestItemProvider provider;
+
+	@Before
+	public void setup() {
+		registry = new ItemRegistryImpl();
+		provider = new TestItemProvider();
+		provider.items.add(new TestItem("Item1"));
+		provider.items.add(new TestItem("Item2"));
+		registry.addItemProvider(provider);
+	}
+
+	@Test
+	public void testGetItem() throws ItemNotFoundException {
+		assertEquals("Item1", registry.getItem("Item1").getName());
+		assertEquals("Item2", registry.getItem("Item2").getName());
+		try {
+			registry.getItem("Item3");
+			fail("Item3 should not exist");
+		} catch (ItemNotFoundException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testItemAddedAndRemoved() throws ItemNotFoundException {
+		Collection<Item> itemsBefore = registry.getItems();
+		assertEquals(2, itemsBefore.size());
+
+		TestItem item3 = new TestItem("Item3");
+		registry.itemAdded(provider, item3);
+		assertSame(item3, registry.getItem("Item3"));
+		assertEquals(3, registry.getItems().size());
+		// a snapshot that has been handed out must not change
+		assertEquals(2, itemsBefore.size());
+
+		registry.itemRemoved(provider, item3);
+		assertEquals(2, registry.getItems().size());
+		try {
+			registry.getItem("Item3");
+			fail("Item3 should have been removed");
+		} catch (ItemNotFoundException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testAllItemsChanged() throws ItemNotFoundException {
+		provider.items.clear();
+		provider.items.add(new TestItem("Item4"));
+		registry.allItemsChanged(provider, null);
+
+		assertEquals(1, registry.getItems().size());
+		assertEquals("Item4", registry.getItem("Item4").getName());
+		try {
+			registry.getItem("Item1");
+			fail("Item1 should have been removed");
+		} catch (ItemNotFoundException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testSameNameFromAnotherProvider() throws ItemNotFoundException {
+		TestItemProvider otherProvider = new TestItemProvider();
+		TestItem otherItem1 = new TestItem("Item1");
+		otherProvider.items.add(otherItem1);
+		registry.addItemProvider(otherProvider);
+
+		registry.removeItemProvider(provider);
+		assertSame(otherItem1, registry.getItem("Item1"));
+	}
+
+	@Test(expected=UnsupportedOperationException.class)
+	public void testItemsAreUnmodifiable() {
+		registry.getItems().clear();
+	}
+
+	@Test
+	public void testGetItemsByPattern() {
+		provider.items.add(new TestItem("Temp_Living"));
+		provider.items.add(new TestItem("Temp_Kitchen"));
+		provider.items.add(new TestItem("Temperature"));
+		provider.items.add(new TestItem("Light_Living"));
+		registry.allItemsChanged(provider, null);
+
+		assertEquals(2, registry.getItems("Temp_*").size());
+		assertEquals(3, registry.getItems("Temp*").size());
+		assertEquals(2, registry.getItems("*_Living").size());
+		assertEquals(2, registry.getItems("Item?").size());
+		assertEquals(1, registry.getItems("Temp_Kitchen").size());
+		assertEquals(0, registry.getItems("Temp_").size());
+		assertEquals(6, registry.getItems("*").size());
+		// patterns are regular expressions, so quantifiers and alternatives have to work as well
+		assertEquals(1, registry.getItems("Tempe+rature").size());
+		assertEquals(3, registry.getItems("Item1|Temp_*").size());
+	}
+
+	@Test
+	public void testGetItemsByPatternAfterChange() {
+		assertEquals(2, registry.getItems("Item*").size());
+		TestItem item3 = new TestItem("Item3");
+		registry.itemAdded(provider, item3);
+		assertEquals(3, registry.getItems("Item*").size());
+		registry.itemRemoved(provider, item3);
+		assertEquals(2, registry.getItems("Item*").size());
+	}
+
+	@Ignore("benchmark, run manually")
+	@Test
+	public void benchmarkGetItemsByPattern() {
+		for (int size : new int[] { 1000, 10000, 100000 }) {
+			TestItemProvider benchmarkProvider = new TestItemProvider();
+			for (int i = 0; i < size; i++) {
+				benchmarkProvider.items.add(new TestItem("Group" + (i % 100) + "_Item" + i));
+			}
+			ItemRegistryImpl benchmarkRegistry = new ItemRegistryImpl();
+			benchmarkRegistry.addItemProvider(benchmarkProvider);
+			Collection<Item> allItems = benchmarkRegistry.getItems();
+
+			// warm up both variants, which must find the same items
+			assertEquals(scanWithRegex(allItems, "Group42_*"), benchmarkRegistry.getItems("Group42_*").size());
+			assertTrue(benchmarkRegistry.getItems("Group42_*").size() > 0);
+
+			long matches = 0;
+
+			long start = System.nanoTime();
+			for (int i = 0; i < BENCHMARK_LOOKUPS; i++) {
+				matches += scanWithRegex(allItems, "Group" + (i % 100) + "_*");
+			}
+			long regexDuration = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < BENCHMARK_LOOKUPS; i++) {
+				matches -= benchmarkRegistry.getItems("Group" + (i % 100) + "_*").size();
+			}
+			long indexDuration = System.nanoTime() - start;
+
+			logger.info("Pattern lookup with {} items: {}us per lookup with a regex scan, {}us per lookup with the index", new Object[] {
+					size, regexDuration / BENCHMARK_LOOKUPS / 1000, indexDuration / BENCHMARK_LOOKUPS / 1000 });
+			// both variants must have found the same number of items
+			assertEquals(0, matches);
+		}
+	}
+
+	/**
+	 * The way patterns have been matched before the name index existed.
+	 */
+	private static long scanWithRegex(Collection<Item> items, String pattern) {
+		String regex = pattern.replace("?", ".?").replace("*", ".*?");
+		long matches = 0;
+		for (Item item : items) {
+			if (item.getName().matches(regex)) {
+				matches++;
+			}
+		}
+		return matches;
+	}
+
+	class TestItemProvider implements ItemProvider {
+
+		List<Item> items = new ArrayList<Item>();
+
+		public Collection<Item> getItems() {
+			return new ArrayList<Item>(items);
+		}
+
+		public void addItemChangeListener(ItemsChangeListener listener) {
+		}
+
+		public void removeItemChangeListener(ItemsChangeListener listener) {
+		}
+	}
+
+	class TestItem extends GenericItem {
+
+		public TestItem(String name) {
+			super(name);
+		}
+
+		@Override
+		public List<Class<? extends State>> getAcceptedDataTypes() {
+			return null;
+		}
+
+		@Override
+		public List<Class<? extends Command>> getAcceptedCommandTypes() {
+			return null;
+		}
+	}
+
+}
@@ -53,6 +53,18 @@ public class GroupItemTest {
 		}
 	}
 	
+	@Test
+	public void testGetAllMembersAfterMembershipChange() {
+		GroupItem subGroup = (GroupItem) rootGroupItem.getMembers().get(3);
+		TestItem newMember = new TestItem("subGroup member 4");
+		subGroup.addMember(newMember);
+		Assert.assertEquals(6, rootGroupItem.getAllMembers().size());
+		Assert.assertTrue(rootGroupItem.getAllMembers().contains(newMember));
+		
+		subGroup.removeMember(newMember);
+		Assert.assertEquals(5, rootGroupItem.getAllMembers().size());
+	}
+	
 	
 	class TestItem extends GenericItem {
 
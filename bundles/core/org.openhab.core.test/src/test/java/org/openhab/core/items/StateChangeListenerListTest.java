@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.core.items;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.openhab.core.types.Command;
+import org.openhab.core.types.State;
+import org.openhab.core.types.UnDefType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests the listener notification of items and measures the throughput of
+ * {@link GenericItem#setState(State)} with 5, 50 and 500 listeners.
+ *
+ * @since 1.6.0
+ */
+public class StateChangeListenerListTest {
+
+	private static final Logger logger = LoggerFactory.getLogger(StateChangeListenerListTest.class);
+
+	private static final int BENCHMARK_UPDATES = 200000;
+
+	@Test
+	public void testNotification() {
+		TestItem item = new TestItem("item");
+		CountingListener listener = new CountingListener();
+		item.addStateChangeListener(listener);
+		// a listener is only registered once
+		item.addStateChangeListener(listener);
+		assertEquals(1, item.getStateChangeListeners().size());
+
+		item.setState(UnDefType.UNDEF);
+		item.setState(UnDefType.UNDEF);
+		assertEquals(2, listener.updates);
+		assertEquals(1, listener.changes);
+
+		item.removeStateChangeListener(listener);
+		item.setState(UnDefType.NULL);
+		assertEquals(2, listener.updates);
+		assertEquals(0, item.getStateChangeListeners().size());
+		assertEquals(2, item.getStateChangeListeners().getNotificationCount());
+	}
+
+	@Test
+	public void testCollectedListenersArePurged() {
+		TestItem item = new TestItem("item");
+		CountingListener listener = new CountingListener();
+		CountingListener collected = new CountingListener();
+		item.addStateChangeListener(listener);
+		item.addStateChangeListener(collected);
+
+		// the garbage collector clears the reference, but does not remove it from the list
+		item.getStateChangeListeners().clearReference(collected);
+		assertEquals(1, item.getStateChangeListeners().size());
+		assertEquals(2, item.getStateChangeListeners().getReferenceCount());
+
+		// the next notification purges the cleared reference
+		item.setState(UnDefType.UNDEF);
+		assertEquals(1, listener.updates);
+		assertEquals(0, collected.updates);
+		assertEquals(1, item.getStateChangeListeners().getReferenceCount());
+	}
+
+	@Ignore("benchmark, run manually")
+	@Test
+	public void benchmarkSetState() {
+		for (int listenerCount : new int[] { 5, 50, 500 }) {
+			int updates = BENCHMARK_UPDATES / listenerCount;
+			TestItem item = new TestItem("item");
+			List<CountingListener> listeners = new ArrayList<CountingListener>();
+			Set<StateChangeListener> copyOnWriteListeners = new CopyOnWriteArraySet<StateChangeListener>();
+			for (int i = 0; i < listenerCount; i++) {
+				CountingListener listener = new CountingListener();
+				listeners.add(listener);
+				item.addStateChangeListener(listener);
+				copyOnWriteListeners.add(listener);
+			}
+
+			// warm up both variants
+			runCopyingNotification(item, copyOnWriteListeners, updates);
+			runSetState(item, updates);
+
+			long start = System.nanoTime();
+			runCopyingNotification(item, copyOnWriteListeners, updates);
+			long copyingDuration = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			runSetState(item, updates);
+			long duration = System.nanoTime() - start;
+
+			logger.info("setState() with {} listeners: {} updates/s with copied listener sets, {} updates/s now", new Object[] {
+					listenerCount, updates * 1000000000L / copyingDuration, updates * 1000000000L / duration });
+			assertTrue(listeners.get(0).updates > 0);
+		}
+	}
+
+	private static void runSetState(TestItem item, int updates) {
+		for (int i = 0; i < updates; i++) {
+			item.setState(i % 2 == 0 ? UnDefType.UNDEF : UnDefType.NULL);
+		}
+	}
+
+	/**
+	 * The way listeners have been notified before, copying the listener set for every update.
+	 */
+	private static void runCopyingNotification(TestItem item, Set<StateChangeListener> listeners, int updates) {
+		for (int i = 0; i < updates; i++) {
+			State newState = i % 2 == 0 ? UnDefType.UNDEF : UnDefType.NULL;
+			State oldState = i % 2 == 0 ? UnDefType.NULL : UnDefType.UNDEF;
+			Set<StateChangeListener> clonedListeners = new CopyOnWriteArraySet<StateChangeListener>(listeners);
+			for (StateChangeListener listener : clonedListeners) {
+				listener.stateUpdated(item, newState);
+			}
+			for (StateChangeListener listener : clonedListeners) {
+				listener.stateChanged(item, oldState, newState);
+			}
+		}
+	}
+
+	private static class CountingListener implements StateChangeListener {
+
+		private int updates = 0;
+		private int changes = 0;
+
+		public void stateUpdated(Item item, State state) {
+			updates++;
+		}
+
+		public void stateChanged(Item item, State oldState, State newState) {
+			changes++;
+		}
+	}
+
+	private static class TestItem extends GenericItem {
+
+		public TestItem(String name) {
+			super(name);
+		}
+
+		@Override
+		public List<Class<? extends State>> getAcceptedDataTypes() {
+			return null;
+		}
+
+		@Override
+		public List<Class<? extends Command>> getAcceptedCommandTypes() {
+			return null;
+		}
+	}
+
+}
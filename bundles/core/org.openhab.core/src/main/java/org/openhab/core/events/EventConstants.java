@@ -19,5 +19,8 @@ public interface EventConstants {
 	public static final String TOPIC_PREFIX = "openhab";
 
 	public static final String TOPIC_SEPERATOR = "/";
-	
+
+	/** the property of an OSGi event which holds the {@link ItemEvent} it has been created from */
+	public static final String ITEM_EVENT_PROPERTY = "itemEvent";
+
 }
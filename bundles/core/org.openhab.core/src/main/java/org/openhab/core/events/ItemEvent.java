@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.core.events;
+
+import static org.openhab.core.events.EventConstants.ITEM_EVENT_PROPERTY;
+import static org.openhab.core.events.EventConstants.TOPIC_PREFIX;
+import static org.openhab.core.events.EventConstants.TOPIC_SEPERATOR;
+
+import org.openhab.core.types.Command;
+import org.openhab.core.types.EventType;
+import org.openhab.core.types.State;
+import org.openhab.core.types.Type;
+import org.osgi.service.event.Event;
+
+/**
+ * An immutable command or status update for an item, as it is sent on the openHAB event bus.
+ *
+ * <p>Item events are passed directly to all registered {@link ItemEventSubscriber}s. For all
+ * other event handlers they are additionally wrapped into an OSGi {@link Event}, which carries
+ * the item event in its {@link EventConstants#ITEM_EVENT_PROPERTY} property.</p>
+ *
+ * @since 1.6.0
+ */
+public final class ItemEvent {
+
+	private final EventType type;
+	private final String itemName;
+	private final Type payload;
+
+	private ItemEvent(EventType type, String itemName, Type payload) {
+		this.type = type;
+		this.itemName = itemName;
+		this.payload = payload;
+	}
+
+	/**
+	 * Creates a command event.
+	 *
+	 * @param itemName the item the command is sent to
+	 * @param command the command
+	 * @return the new event
+	 */
+	public static ItemEvent createCommandEvent(String itemName, Command command) {
+		return new ItemEvent(EventType.COMMAND, itemName, command);
+	}
+
+	/**
+	 * Creates a status update event.
+	 *
+	 * @param itemName the item which has been updated
+	 * @param newState the new state of the item
+	 * @return the new event
+	 */
+	public static ItemEvent createUpdateEvent(String itemName, State newState) {
+		return new ItemEvent(EventType.UPDATE, itemName, newState);
+	}
+
+	/**
+	 * Returns the item event of an OSGi event sent on the openHAB event bus. If the event
+	 * has not been created from an item event, it is recovered from the topic and the
+	 * properties of the OSGi event.
+	 *
+	 * @param event the OSGi event
+	 * @return the item event or <code>null</code>, if the event is no valid item event
+	 */
+	public static ItemEvent fromEvent(Event event) {
+		Object itemEvent = event.getProperty(ITEM_EVENT_PROPERTY);
+		if (itemEvent instanceof ItemEvent) {
+			return (ItemEvent) itemEvent;
+		}
+
+		// topics have the form "openhab/<operation>/<item name>"
+		String topic = event.getTopic();
+		int operationStart = TOPIC_PREFIX.length() + TOPIC_SEPERATOR.length();
+		if (!topic.startsWith(TOPIC_PREFIX + TOPIC_SEPERATOR)) {
+			return null; // we have received an event with an invalid topic
+		}
+		int operationEnd = topic.indexOf(TOPIC_SEPERATOR, operationStart);
+		if (operationEnd < 0) {
+			return null;
+		}
+		String itemName = (String) event.getProperty("item");
+		if (isOperation(topic, operationStart, operationEnd, EventType.UPDATE)) {
+			State newState = (State) event.getProperty("state");
+			return newState != null ? createUpdateEvent(itemName, newState) : null;
+		}
+		if (isOperation(topic, operationStart, operationEnd, EventType.COMMAND)) {
+			Command command = (Command) event.getProperty("command");
+			return command != null ? createCommandEvent(itemName, command) : null;
+		}
+		return null;
+	}
+
+	private static boolean isOperation(String topic, int start, int end, EventType type) {
+		String operation = type.toString();
+		return end - start == operation.length() && topic.startsWith(operation, start);
+	}
+
+	/**
+	 * @return whether this is a command or a status update
+	 */
+	public EventType getType() {
+		return type;
+	}
+
+	/**
+	 * @return the name of the item this event is about
+	 */
+	public String getItemName() {
+		return itemName;
+	}
+
+	/**
+	 * @return the command of a command event, <code>null</code> for status updates
+	 */
+	public Command getCommand() {
+		return type == EventType.COMMAND ? (Command) payload : null;
+	}
+
+	/**
+	 * @return the new state of a status update, <code>null</code> for command events
+	 */
+	public State getState() {
+		return type == EventType.UPDATE ? (State) payload : null;
+	}
+
+	@Override
+	public String toString() {
+		return type + " " + itemName + ": " + payload;
+	}
+
+}
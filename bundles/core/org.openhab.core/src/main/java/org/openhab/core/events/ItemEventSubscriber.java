@@ -0,0 +1,36 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.core.events;
+
+/**
+ * An ItemEventSubscriber receives the events of the openHAB event bus directly from the
+ * {@link EventPublisher}, without going through the OSGi EventAdmin service. Subscribers
+ * register themselves as an OSGi service under this interface; they must not be registered
+ * as an EventHandler for the openHAB topics at the same time, as they would receive every
+ * event twice then.
+ *
+ * <p>Commands which are sent synchronously are delivered on the thread of the sender, all
+ * posted events are delivered in order and one at a time, usually on a single dispatcher
+ * thread. If the subscribers cannot keep up and the queue of the dispatcher is full, the
+ * posting threads deliver the queued events and their own ones in turn, which slows them
+ * down. Subscribers should therefore hand any expensive processing over to their own
+ * threads.</p>
+ *
+ * @since 1.6.0
+ */
+public interface ItemEventSubscriber {
+
+	/**
+	 * Callback method for commands and status updates sent on the event bus
+	 *
+	 * @param event the event that was sent
+	 */
+	public void receiveItemEvent(ItemEvent event);
+
+}
@@ -11,10 +11,21 @@ package org.openhab.core.internal.events;
 import static org.openhab.core.events.EventConstants.TOPIC_PREFIX;
 import static org.openhab.core.events.EventConstants.TOPIC_SEPERATOR;
 
+import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.openhab.core.events.EventConstants;
 import org.openhab.core.events.EventPublisher;
+import org.openhab.core.events.ItemEvent;
+import org.openhab.core.events.ItemEventSubscriber;
 import org.openhab.core.types.Command;
 import org.openhab.core.types.EventType;
 import org.openhab.core.types.State;
@@ -27,18 +38,73 @@ import org.slf4j.LoggerFactory;
  * This is the main implementation of the {@link EventPublisher} interface.
  * Through it, openHAB events can be sent to the OSGi EventAdmin service
  * in order to broadcast them.
- * 
+ *
+ * <p>Registered {@link ItemEventSubscriber}s receive the events directly: commands
+ * which are sent synchronously are delivered on the calling thread, posted events
+ * are delivered in order by a single dispatcher thread. The EventAdmin service is
+ * still notified about every event, so that all other event handlers keep working.</p>
+ *
+ * <p>The queue of the dispatcher is bounded. If the subscribers cannot keep up and the
+ * queue is full, the posting thread takes over from the dispatcher: it delivers the queued
+ * events and then its own one, while the dispatcher waits. This slows down the producers
+ * rather than dropping events or letting the queue grow without limit, and the events are
+ * still delivered in order and one at a time. Only events which subscribers post themselves
+ * while the queue is full are delivered before the subscribers after them have received
+ * the current event.</p>
+ *
  * @author Kai Kreuzer
  *
  */
 public class EventPublisherImpl implements EventPublisher {
 
-	private static final Logger logger = 
+	private static final Logger logger =
 		LoggerFactory.getLogger(EventPublisherImpl.class);
-		
+
+	private static final ItemEventSubscriber[] NO_SUBSCRIBERS = new ItemEventSubscriber[0];
+
+	/** the default number of posted events, which may wait for the dispatcher */
+	static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+	/** how long in milliseconds a posting thread waits for the dispatcher before it tries to queue its event again */
+	private static final long OVERFLOW_RETRY_INTERVAL = 10;
+
 	private EventAdmin eventAdmin;
-	
-	
+
+	private volatile ItemEventSubscriber[] subscribers = NO_SUBSCRIBERS;
+
+	private volatile Dispatcher dispatcher;
+
+	/** the topics of the update and command events per item name, which are created only once */
+	private final ConcurrentMap<String, String> updateTopics = new ConcurrentHashMap<String, String>();
+	private final ConcurrentMap<String, String> commandTopics = new ConcurrentHashMap<String, String>();
+
+	private final int queueCapacity;
+
+	/** whether the queue of the dispatcher has been found full since it has been drained last */
+	private volatile boolean overflowing;
+
+
+	public EventPublisherImpl() {
+		this(DEFAULT_QUEUE_CAPACITY);
+	}
+
+	EventPublisherImpl(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	public void activate() {
+		dispatcher = new Dispatcher(queueCapacity);
+		dispatcher.start();
+	}
+
+	public void deactivate() {
+		Dispatcher oldDispatcher = dispatcher;
+		dispatcher = null;
+		if (oldDispatcher != null) {
+			oldDispatcher.shutdown();
+		}
+	}
+
 	public void setEventAdmin(EventAdmin eventAdmin) {
 		this.eventAdmin = eventAdmin;
 	}
@@ -46,14 +112,36 @@ public class EventPublisherImpl implements EventPublisher {
 	public void unsetEventAdmin(EventAdmin eventAdmin) {
 		this.eventAdmin = null;
 	}
-	
+
+	public synchronized void addItemEventSubscriber(ItemEventSubscriber subscriber) {
+		ItemEventSubscriber[] updated = new ItemEventSubscriber[subscribers.length + 1];
+		System.arraycopy(subscribers, 0, updated, 0, subscribers.length);
+		updated[subscribers.length] = subscriber;
+		subscribers = updated;
+	}
+
+	public synchronized void removeItemEventSubscriber(ItemEventSubscriber subscriber) {
+		for (int i = 0; i < subscribers.length; i++) {
+			if (subscribers[i] == subscriber) {
+				ItemEventSubscriber[] updated = new ItemEventSubscriber[subscribers.length - 1];
+				System.arraycopy(subscribers, 0, updated, 0, i);
+				System.arraycopy(subscribers, i + 1, updated, i, updated.length - i);
+				subscribers = updated;
+				return;
+			}
+		}
+	}
+
 
 	/* (non-Javadoc)
 	 * @see org.openhab.core.internal.events.EventPublisher#sendCommand(org.openhab.core.items.GenericItem, org.openhab.core.datatypes.DataType)
 	 */
 	public void sendCommand(String itemName, Command command) {
 		if (command != null) {
-			if(eventAdmin!=null) eventAdmin.sendEvent(createCommandEvent(itemName, command));
+			ItemEvent event = ItemEvent.createCommandEvent(itemName, command);
+			dispatch(event);
+			EventAdmin eventAdmin = this.eventAdmin;
+			if(eventAdmin!=null) eventAdmin.sendEvent(createEvent(event));
 		} else {
 			logger.warn("given command is NULL, couldn't send command to '{}'", itemName);
 		}
@@ -64,7 +152,7 @@ public class EventPublisherImpl implements EventPublisher {
 	 */
 	public void postCommand(String itemName, Command command) {
 		if (command != null) {
-			if(eventAdmin!=null) eventAdmin.postEvent(createCommandEvent(itemName, command));
+			post(ItemEvent.createCommandEvent(itemName, command));
 		} else {
 			logger.warn("given command is NULL, couldn't post command to '{}'", itemName);
 		}
@@ -75,29 +163,163 @@ public class EventPublisherImpl implements EventPublisher {
 	 */
 	public void postUpdate(String itemName, State newState) {
 		if (newState != null) {
-			if(eventAdmin!=null) eventAdmin.postEvent(createUpdateEvent(itemName, newState));
+			post(ItemEvent.createUpdateEvent(itemName, newState));
 		} else {
 			logger.warn("given new state is NULL, couldn't post update for '{}'", itemName);
 		}
 	}
-	
-	private Event createUpdateEvent(String itemName, State newState) {
-		Dictionary<String, Object> properties = new Hashtable<String, Object>();
-		properties.put("item", itemName);
-		properties.put("state", newState);
-		return new Event(createTopic(EventType.UPDATE, itemName), properties);
+
+	private void post(ItemEvent event) {
+		Dispatcher dispatcher = this.dispatcher;
+		if (subscribers.length > 0) {
+			if (dispatcher == null) {
+				dispatch(event);
+			} else if (!dispatcher.queue.offer(event)) {
+				if (!overflowing) {
+					overflowing = true;
+					logger.warn("The item event queue is full ({} events), the subscribers cannot keep up. "
+							+ "Events are delivered on the posting threads until the queue has been drained.",
+							queueCapacity);
+				}
+				dispatcher.overflow(event);
+			}
+		}
+		EventAdmin eventAdmin = this.eventAdmin;
+		if(eventAdmin!=null) eventAdmin.postEvent(createEvent(event));
+	}
+
+	/**
+	 * Passes an event to all registered {@link ItemEventSubscriber}s.
+	 */
+	private void dispatch(ItemEvent event) {
+		for (ItemEventSubscriber subscriber : subscribers) {
+			try {
+				subscriber.receiveItemEvent(event);
+			} catch (RuntimeException e) {
+				logger.error("Subscriber '{}' failed to process event '{}'", new Object[] { subscriber, event, e });
+			}
+		}
 	}
 
-	private Event createCommandEvent(String itemName, Command command) {
-		Dictionary<String, Object> properties = new Hashtable<String, Object>();
-		properties.put("item", itemName);
-		properties.put("command", command);
-		return new Event(createTopic(EventType.COMMAND, itemName) , properties);
+	/**
+	 * Creates the OSGi event for the EventAdmin bridge. Besides the item event itself, it
+	 * carries the item name and the state or command as separate properties, as they have
+	 * always been sent on the event bus.
+	 */
+	private Event createEvent(ItemEvent event) {
+		Dictionary<String, Object> properties = new Hashtable<String, Object>(4);
+		properties.put("item", event.getItemName());
+		properties.put(EventConstants.ITEM_EVENT_PROPERTY, event);
+		if (event.getType() == EventType.COMMAND) {
+			properties.put("command", event.getCommand());
+		} else {
+			properties.put("state", event.getState());
+		}
+		return new Event(getTopic(event.getType(), event.getItemName()), properties);
 	}
 
-	private String createTopic(EventType type, String itemName) {
-		return TOPIC_PREFIX + TOPIC_SEPERATOR + type + TOPIC_SEPERATOR + itemName;
+	private String getTopic(EventType type, String itemName) {
+		ConcurrentMap<String, String> topics = type == EventType.COMMAND ? commandTopics : updateTopics;
+		String topic = topics.get(itemName);
+		if (topic == null) {
+			topic = TOPIC_PREFIX + TOPIC_SEPERATOR + type + TOPIC_SEPERATOR + itemName;
+			topics.put(itemName, topic);
+		}
+		return topic;
 	}
-	
-	
+
+	/**
+	 * Delivers posted events to the {@link ItemEventSubscriber}s in the order they have been posted.
+	 */
+	private class Dispatcher extends Thread {
+
+		private final BlockingQueue<ItemEvent> queue;
+
+		/** held while events are taken from the queue and delivered, so that only one thread does so */
+		private final ReentrantLock lock = new ReentrantLock(true);
+
+		private volatile boolean running = true;
+
+		public Dispatcher(int capacity) {
+			super("ItemEventDispatcher");
+			setDaemon(true);
+			queue = new LinkedBlockingQueue<ItemEvent>(capacity);
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				// waiting for an event with the lock held is fine, it is only needed when the queue is full
+				lock.lock();
+				try {
+					ItemEvent event = queue.poll();
+					if (event == null) {
+						if (overflowing) {
+							overflowing = false;
+							logger.info("The item event queue has been drained.");
+						}
+						event = queue.take();
+					}
+					dispatch(event);
+				} catch (InterruptedException e) {
+					// check whether we have been shut down
+				} finally {
+					lock.unlock();
+				}
+			}
+			// deliver what has been posted before the shutdown
+			lock.lock();
+			try {
+				ItemEvent event;
+				while ((event = queue.poll()) != null) {
+					dispatch(event);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Delivers an event which does not fit into the full queue on the posting thread. The
+		 * queued events are delivered first, so that the events are still delivered in order.
+		 */
+		public void overflow(ItemEvent event) {
+			boolean interrupted = false;
+			try {
+				while (true) {
+					try {
+						if (lock.tryLock(OVERFLOW_RETRY_INTERVAL, TimeUnit.MILLISECONDS)) {
+							try {
+								List<ItemEvent> queued = new ArrayList<ItemEvent>(queue.size());
+								queue.drainTo(queued);
+								for (ItemEvent queuedEvent : queued) {
+									dispatch(queuedEvent);
+								}
+								dispatch(event);
+							} finally {
+								lock.unlock();
+							}
+							return;
+						}
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+					// the dispatcher may have made room in the meantime
+					if (queue.offer(event)) {
+						return;
+					}
+				}
+			} finally {
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		public void shutdown() {
+			running = false;
+			interrupt();
+		}
+	}
+
 }
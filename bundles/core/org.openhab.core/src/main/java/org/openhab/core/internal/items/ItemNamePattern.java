@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.core.internal.items;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled search pattern for item names, as it is used by
+ * {@link ItemRegistryImpl#getItems(String)}.
+ *
+ * <p>The pattern is translated into a regular expression in the same way as before
+ * ('?' matches at most one character, '*' any number of characters); additionally
+ * the literal prefix of the pattern is determined, so that only the items whose names
+ * start with this prefix have to be matched at all.</p>
+ *
+ * <p>Compiled patterns are kept in a small LRU cache, as the same patterns tend to be
+ * requested over and over again (e.g. by the REST API or by rules).</p>
+ *
+ * @since 1.6.0
+ *
+ */
+public class ItemNamePattern {
+
+	/** the maximum number of compiled patterns to cache */
+	private static final int CACHE_SIZE = 100;
+
+	private static final Map<String, ItemNamePattern> cache = new LinkedHashMap<String, ItemNamePattern>(CACHE_SIZE, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ItemNamePattern> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	private final Pattern regex;
+	private final String prefix;
+
+	private ItemNamePattern(String pattern) {
+		this.regex = Pattern.compile(pattern.replace("?", ".?").replace("*", ".*?"));
+		this.prefix = getLiteralPrefix(pattern);
+	}
+
+	/**
+	 * Returns the compiled version of the given search pattern.
+	 *
+	 * @param pattern the search pattern, e.g. "Temp_*"
+	 * @return the compiled pattern
+	 */
+	public static ItemNamePattern compile(String pattern) {
+		synchronized (cache) {
+			ItemNamePattern compiled = cache.get(pattern);
+			if (compiled == null) {
+				compiled = new ItemNamePattern(pattern);
+				cache.put(pattern, compiled);
+			}
+			return compiled;
+		}
+	}
+
+	/**
+	 * Returns the literal prefix, which all matching item names start with.
+	 *
+	 * @return the prefix of the pattern, an empty string if there is none
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
+
+	/**
+	 * Creates a matcher, which can be reused for matching several item names
+	 * within the same thread through {@link #matches(Matcher, String)}.
+	 *
+	 * @return a new matcher
+	 */
+	public Matcher newMatcher() {
+		return regex.matcher("");
+	}
+
+	/**
+	 * Checks whether an item name matches this pattern.
+	 *
+	 * @param matcher a matcher created by {@link #newMatcher()}
+	 * @param itemName the item name to check
+	 * @return true, if the whole name matches the pattern
+	 */
+	public boolean matches(Matcher matcher, String itemName) {
+		return itemName.startsWith(prefix) && matcher.reset(itemName).matches();
+	}
+
+	/**
+	 * Determines the characters at the start of the pattern, which every matching
+	 * name must start with. As the pattern is used as a regular expression, we stop
+	 * at the first character which is not valid in an item name, and we exclude a
+	 * character which is followed by a regular expression quantifier.
+	 */
+	private static String getLiteralPrefix(String pattern) {
+		if (pattern.indexOf('|') >= 0) {
+			// alternatives do not share a common prefix
+			return "";
+		}
+		int end = 0;
+		while (end < pattern.length() && isItemNameChar(pattern.charAt(end))) {
+			end++;
+		}
+		if (end < pattern.length()) {
+			char next = pattern.charAt(end);
+			if (end > 0 && (next == '+' || next == '{')) {
+				end--;
+			}
+		}
+		return pattern.substring(0, end);
+	}
+
+	private static boolean isItemNameChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+
+}
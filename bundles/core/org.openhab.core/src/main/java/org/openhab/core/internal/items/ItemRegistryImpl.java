@@ -9,12 +9,17 @@
 package org.openhab.core.internal.items;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.regex.Matcher;
 
 import org.openhab.core.events.EventPublisher;
 import org.openhab.core.items.GenericItem;
@@ -44,12 +49,27 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 	
 	private static final Logger logger = LoggerFactory.getLogger(ItemRegistryImpl.class);
 
+	private static final Comparator<Item> ITEM_NAME_COMPARATOR = new Comparator<Item>() {
+		public int compare(Item item1, Item item2) {
+			return item1.getName().compareTo(item2.getName());
+		}
+	};
+
 	/** if an EventPublisher service is available, we provide it to all items, so that they can communicate over the bus */
 	protected EventPublisher eventPublisher;
 	
 	/** this is our local map in which we store all our items */
 	protected Map<ItemProvider, Collection<Item>> itemMap = new ConcurrentHashMap<ItemProvider, Collection<Item>>();
 	
+	/** an index of all items by their name; it must only be modified while holding the lock on the registry */
+	protected Map<String, Item> itemsByName = new ConcurrentHashMap<String, Item>();
+	
+	/** an unmodifiable snapshot of all items, which is rebuilt on demand after the items have changed */
+	private volatile Collection<Item> itemsSnapshot = null;
+	
+	/** all items sorted by their name, which is rebuilt on demand for pattern lookups after the items have changed */
+	private volatile Item[] sortedItems = null;
+	
 	/** to keep track of all item change listeners */
 	protected Collection<ItemRegistryChangeListener> listeners = new CopyOnWriteArraySet<ItemRegistryChangeListener>();
 
@@ -62,7 +82,11 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 			provider.removeItemChangeListener(this);
 		}
 		// then release all items
-		itemMap.clear();
+		synchronized(this) {
+			itemMap.clear();
+			itemsByName.clear();
+			invalidateSnapshots();
+		}
     }
 
 	/* (non-Javadoc)
@@ -70,14 +94,11 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 	 */
     @Override
 	public Item getItem(String name) throws ItemNotFoundException {
-		for(Collection<Item> items : itemMap.values()) {
-			for(Item item : items) {
-				if(item.getName().equals(name)) {
-					return item;
-				}
-			}
+		Item item = name!=null ? itemsByName.get(name) : null;
+		if(item==null) {
+			throw new ItemNotFoundException(name);
 		}
-		throw new ItemNotFoundException(name);
+		return item;
 	}
 
 	/* (non-Javadoc)
@@ -104,11 +125,21 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 	 */
     @Override
 	public Collection<Item> getItems() {
-		Collection<Item> allItems = new ArrayList<Item>();
-		for(Collection<Item> items : itemMap.values()) {
-			allItems.addAll(items);
+		Collection<Item> snapshot = itemsSnapshot;
+		if(snapshot==null) {
+			synchronized(this) {
+				snapshot = itemsSnapshot;
+				if(snapshot==null) {
+					Collection<Item> allItems = new ArrayList<Item>();
+					for(Collection<Item> items : itemMap.values()) {
+						allItems.addAll(items);
+					}
+					snapshot = Collections.unmodifiableCollection(allItems);
+					itemsSnapshot = snapshot;
+				}
+			}
 		}
-		return allItems;
+		return snapshot;
 	}
 	
 	/* (non-Javadoc)
@@ -116,13 +147,19 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 	 */
     @Override
 	public Collection<Item> getItems(String pattern) {
-		String regex = pattern.replace("?", ".?").replace("*", ".*?");
+		ItemNamePattern namePattern = ItemNamePattern.compile(pattern);
+		Item[] items = getSortedItems();
 		Collection<Item> matchedItems = new ArrayList<Item>();
-		for(Collection<Item> items : itemMap.values()) {
-			for(Item item : items) {
-				if(item.getName().matches(regex)) {
-					matchedItems.add(item);
-				}
+		Matcher matcher = namePattern.newMatcher();
+		String prefix = namePattern.getPrefix();
+		// only the range of items starting with the literal prefix has to be checked
+		for(int i = findFirst(items, prefix); i < items.length; i++) {
+			String name = items[i].getName();
+			if(!name.startsWith(prefix)) {
+				break;
+			}
+			if(namePattern.matches(matcher, name)) {
+				matchedItems.add(items[i]);
 			}
 		}
         return matchedItems;
@@ -131,9 +168,12 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 	public void addItemProvider(ItemProvider itemProvider) {
 		// only add this provider if it does not already exist
 		if(!itemMap.containsKey(itemProvider)) {
-			Collection<Item> items = new CopyOnWriteArraySet<Item>(itemProvider.getItems());
+			Collection<Item> items = new CopyOnWriteArrayList<Item>(new LinkedHashSet<Item>(itemProvider.getItems()));
 			itemProvider.addItemChangeListener(this);
-        	itemMap.put(itemProvider, items);
+			synchronized(this) {
+				itemMap.put(itemProvider, items);
+				invalidateSnapshots();
+			}
 			logger.debug("Item provider '{}' has been added.", itemProvider.getClass().getSimpleName());
 			allItemsChanged(itemProvider, null);
 		}
@@ -148,12 +188,22 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 		if(itemMap.containsKey(itemProvider)) {
 			allItemsChanged(itemProvider, null);
 
-			for(Item item : itemMap.get(itemProvider)) {
-				if(item instanceof GenericItem) {
-					((GenericItem) item).dispose();
+			synchronized(this) {
+				Collection<Item> items = itemMap.remove(itemProvider);
+				if(items!=null) {
+					Collection<String> removedNames = new HashSet<String>();
+					for(Item item : items) {
+						if(item instanceof GenericItem) {
+							((GenericItem) item).dispose();
+						}
+						if(removeFromIndex(item)) {
+							removedNames.add(item.getName());
+						}
+					}
+					reindex(removedNames);
 				}
+				invalidateSnapshots();
 			}
-			itemMap.remove(itemProvider);
 
 			itemProvider.removeItemChangeListener(this);
 			logger.debug("Item provider '{}' has been removed.", itemProvider.getClass().getSimpleName());
@@ -176,25 +226,40 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 
     @Override
 	public void allItemsChanged(ItemProvider provider, Collection<String> oldItemNames) {
-		// if the provider did not provide any old item names, we check if we
-		// know them and pass them further on to our listeners
-		if(oldItemNames==null || oldItemNames.isEmpty()) {
-			oldItemNames = new HashSet<String>();
-            Collection<Item> oldItems;
-            oldItems = itemMap.get(provider);
-			if(oldItems!=null && oldItems.size() > 0) {
-				for(Item oldItem : oldItems) {
-					oldItemNames.add(oldItem.getName());
+		synchronized(this) {
+			Collection<Item> oldItems = itemMap.get(provider);
+			
+			// if the provider did not provide any old item names, we check if we
+			// know them and pass them further on to our listeners
+			if(oldItemNames==null || oldItemNames.isEmpty()) {
+				oldItemNames = new HashSet<String>();
+				if(oldItems!=null && oldItems.size() > 0) {
+					for(Item oldItem : oldItems) {
+						oldItemNames.add(oldItem.getName());
+					}
 				}
 			}
-		}
-
-		Collection<Item> items = new CopyOnWriteArrayList<Item>();
-    	itemMap.put(provider, items);
-		for(Item item : provider.getItems()) {
-			if(initializeItem(item)) {
-				items.add(item);
+	
+			// fill a plain list first, copying a CopyOnWriteArrayList on every add is quadratic
+			Collection<Item> items = new ArrayList<Item>();
+	    	itemMap.put(provider, items);
+			Collection<String> removedNames = new HashSet<String>();
+	    	if(oldItems!=null) {
+	    		for(Item oldItem : oldItems) {
+	    			if(removeFromIndex(oldItem)) {
+	    				removedNames.add(oldItem.getName());
+	    			}
+	    		}
+	    	}
+			invalidateSnapshots();
+			for(Item item : provider.getItems()) {
+				if(initializeItem(item)) {
+					items.add(item);
+					addToIndex(item);
+				}
 			}
+			itemMap.put(provider, new CopyOnWriteArrayList<Item>(items));
+			reindex(removedNames);
 		}
 
 		for(ItemRegistryChangeListener listener : listeners) {
@@ -204,13 +269,16 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 
     @Override
 	public void itemAdded(ItemProvider provider, Item item) {
-        Collection<Item> items;
-        items = itemMap.get(provider);
-		if(items!=null) {
-			if(initializeItem(item)) {
-				items.add(item);
-			} else {
-				return;
+		synchronized(this) {
+	        Collection<Item> items;
+	        items = itemMap.get(provider);
+			if(items!=null) {
+				if(initializeItem(item)) {
+					items.add(item);
+					addToIndex(item);
+				} else {
+					return;
+				}
 			}
 		}
 		for(ItemRegistryChangeListener listener : listeners) {
@@ -220,10 +288,15 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 
     @Override
 	public void itemRemoved(ItemProvider provider, Item item) {
-        Collection<Item> items;
-        items = itemMap.get(provider);
-		if(items!=null) {
-			items.remove(item);
+		synchronized(this) {
+	        Collection<Item> items;
+	        items = itemMap.get(provider);
+			if(items!=null) {
+				items.remove(item);
+				if(removeFromIndex(item)) {
+					reindex(Collections.singleton(item.getName()));
+				}
+			}
 		}
 		for(ItemRegistryChangeListener listener : listeners) {
 			listener.itemRemoved(item);
@@ -240,6 +313,105 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 		listeners.remove(listener);
 	}
 
+	/**
+	 * Invalidates the snapshot of all items and the sorted name index.
+	 * Must only be called while holding the lock on the registry.
+	 */
+	private void invalidateSnapshots() {
+		itemsSnapshot = null;
+		sortedItems = null;
+	}
+
+	/**
+	 * Returns all items sorted by their names, rebuilding the sorted index if necessary.
+	 * 
+	 * @return the sorted items
+	 */
+	private Item[] getSortedItems() {
+		Item[] sorted = sortedItems;
+		if(sorted==null) {
+			synchronized(this) {
+				sorted = sortedItems;
+				if(sorted==null) {
+					sorted = getItems().toArray(new Item[0]);
+					Arrays.sort(sorted, ITEM_NAME_COMPARATOR);
+					sortedItems = sorted;
+				}
+			}
+		}
+		return sorted;
+	}
+
+	/**
+	 * Performs a binary search for the first item whose name is not smaller than the given prefix.
+	 * 
+	 * @param sorted the items sorted by their names
+	 * @param prefix the name prefix to search for
+	 * @return the index of the first candidate item
+	 */
+	private static int findFirst(Item[] sorted, String prefix) {
+		int low = 0;
+		int high = sorted.length;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(sorted[mid].getName().compareTo(prefix) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Adds an item to the name index and invalidates the snapshot of all items.
+	 * If another provider already registered an item with the same name, that one is kept.
+	 * Must only be called while holding the lock on the registry.
+	 * 
+	 * @param item the item which has been added
+	 */
+	private void addToIndex(Item item) {
+		if(!itemsByName.containsKey(item.getName())) {
+			itemsByName.put(item.getName(), item);
+		}
+		invalidateSnapshots();
+	}
+
+	/**
+	 * Removes an item from the name index and invalidates the snapshot of all items.
+	 * Must only be called while holding the lock on the registry.
+	 * 
+	 * @param item the item which has been removed
+	 * @return true, if the item was indexed and has been removed from the index
+	 */
+	private boolean removeFromIndex(Item item) {
+		invalidateSnapshots();
+		if(itemsByName.get(item.getName())==item) {
+			itemsByName.remove(item.getName());
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Puts items of other providers into the name index, which have the same names as
+	 * removed items. Must only be called while holding the lock on the registry.
+	 * 
+	 * @param removedNames the names of the items that have been removed from the index
+	 */
+	private void reindex(Collection<String> removedNames) {
+		if(removedNames.isEmpty()) {
+			return;
+		}
+		for(Collection<Item> items : itemMap.values()) {
+			for(Item item : items) {
+				if(removedNames.contains(item.getName()) && !itemsByName.containsKey(item.getName())) {
+					itemsByName.put(item.getName(), item);
+				}
+			}
+		}
+	}
+
 	/**
 	 * an item should be initialized, which means that the event publisher is
 	 * injected and its implementation is notified that it has just been created,
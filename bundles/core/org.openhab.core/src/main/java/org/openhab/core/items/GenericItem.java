@@ -9,11 +9,7 @@
 package org.openhab.core.items;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.Set;
-import java.util.WeakHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
 
 import org.openhab.core.events.EventPublisher;
 import org.openhab.core.types.Command;
@@ -33,7 +29,7 @@ abstract public class GenericItem implements Item {
 	
 	protected EventPublisher eventPublisher;
 
-	protected Set<StateChangeListener> listeners = new CopyOnWriteArraySet<StateChangeListener>(Collections.newSetFromMap(new WeakHashMap<StateChangeListener, Boolean>()));
+	protected final StateChangeListenerList listeners = new StateChangeListenerList();
 	
 	protected List<String> groupNames = new ArrayList<String>();
 	
@@ -97,21 +93,7 @@ abstract public class GenericItem implements Item {
 	public void setState(State state) {
 		State oldState = this.state;
 		this.state = state;
-		notifyListeners(oldState, state);
-	}
-
-	private void notifyListeners(State oldState, State newState) {
-		// if nothing has changed, we send update notifications
-		Set<StateChangeListener> clonedListeners = null;
-		clonedListeners = new CopyOnWriteArraySet<StateChangeListener>(listeners);
-		for(StateChangeListener listener : clonedListeners) {
-			listener.stateUpdated(this, newState);
-		}
-		if(!oldState.equals(newState)) {
-			for(StateChangeListener listener : clonedListeners) {
-				listener.stateChanged(this, oldState, newState);
-			}
-		}
+		listeners.notifyListeners(this, oldState, state);
 	}
 		
 	/**
@@ -125,15 +107,21 @@ abstract public class GenericItem implements Item {
 	}
 
 	public void addStateChangeListener(StateChangeListener listener) {
-		synchronized(listeners) {
-			listeners.add(listener);
-		}
+		listeners.add(listener);
 	}
 	
 	public void removeStateChangeListener(StateChangeListener listener) {
-		synchronized(listeners) {
-			listeners.remove(listener);
-		}
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Returns the listeners of this item, which also provide the number of registered
+	 * listeners and statistics about the time spent in notifying them.
+	 * 
+	 * @return the state change listeners of this item
+	 */
+	public StateChangeListenerList getStateChangeListeners() {
+		return listeners;
 	}
 	
 
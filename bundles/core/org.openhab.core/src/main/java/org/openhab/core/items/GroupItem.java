@@ -9,10 +9,12 @@
 package org.openhab.core.items;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.collections.ListUtils;
 import org.openhab.core.types.Command;
@@ -24,11 +26,23 @@ public class GroupItem extends GenericItem implements StateChangeListener {
 	
 	private static final Logger logger = LoggerFactory.getLogger(GroupItem.class);
 	
+	/** 
+	 * is increased whenever the members of any group change; as groups do not know the groups 
+	 * they are contained in, this invalidates the cached members of all groups at once 
+	 */
+	private static final AtomicLong membershipVersion = new AtomicLong();
+	
 	protected final GenericItem baseItem;
 	
 	protected final List<Item> members;
 	
 	protected GroupFunction function;
+	
+	/** keeps the group state up to date, if the group function supports incremental calculation */
+	private final IncrementalGroupFunction.Aggregate aggregate;
+	
+	/** the cached result of {@link #getAllMembers()} */
+	private volatile AllMembers allMembers = null;
 
 	public GroupItem(String name) {
 		this(name, null);
@@ -43,6 +57,8 @@ public class GroupItem extends GenericItem implements StateChangeListener {
 		members = new CopyOnWriteArrayList<Item>();
 		this.function = function;
 		this.baseItem = baseItem;
+		this.aggregate = function instanceof IncrementalGroupFunction ? 
+				((IncrementalGroupFunction) function).createAggregate() : null;
 	}
 	
 	/**
@@ -70,13 +86,20 @@ public class GroupItem extends GenericItem implements StateChangeListener {
 	 * Returns the direct members of this {@link GroupItem} and recursively all
 	 * members of the potentially contained {@link GroupItem}s as well. The 
 	 * {@link GroupItem}s itself aren't contained. The returned items are unique.
+	 * The result is cached until the members of any group change and must not be modified.
 	 * 
 	 * @return all members of this and all contained {@link GroupItem}s
 	 */
 	public List<Item> getAllMembers() {
-		Set<Item> allMembers = new HashSet<Item>();
-		collectMembers(allMembers, members);
-		return new ArrayList<Item>(allMembers);
+		long version = membershipVersion.get();
+		AllMembers cached = allMembers;
+		if(cached==null || cached.version!=version) {
+			Set<Item> collectedMembers = new LinkedHashSet<Item>();
+			collectMembers(collectedMembers, members);
+			cached = new AllMembers(version, Collections.unmodifiableList(new ArrayList<Item>(collectedMembers)));
+			allMembers = cached;
+		}
+		return cached.items;
 	}
 	
 	private void collectMembers(Set<Item> allMembers, List<Item> members) {
@@ -92,6 +115,10 @@ public class GroupItem extends GenericItem implements StateChangeListener {
 
 	public void addMember(Item item) {
 		members.add(item);
+		membershipVersion.incrementAndGet();
+		if(aggregate!=null) {
+			aggregate.add(item);
+		}
 		if (item instanceof GenericItem) {
 			GenericItem genericItem = (GenericItem) item;
 			genericItem.addStateChangeListener(this);
@@ -99,7 +126,12 @@ public class GroupItem extends GenericItem implements StateChangeListener {
 	}
 	
 	public void removeMember(Item item) {
-		members.remove(item);
+		if(members.remove(item)) {
+			membershipVersion.incrementAndGet();
+			if(aggregate!=null) {
+				aggregate.remove(item);
+			}
+		}
 		if (item instanceof GenericItem) {
 			GenericItem genericItem = (GenericItem) item;
 			genericItem.removeStateChangeListener(this);
@@ -210,13 +242,36 @@ public class GroupItem extends GenericItem implements StateChangeListener {
 	 * @{inheritDoc
 	 */
 	public void stateChanged(Item item, State oldState, State newState) {
-		setState(function.calculate(members));
+		setState(calculateState(item));
 	}
 
 	/**
 	 * @{inheritDoc
 	 */
 	public void stateUpdated(Item item, State state) {
-		setState(function.calculate(members));
+		setState(calculateState(item));
+	}
+	
+	private State calculateState(Item updatedMember) {
+		if(aggregate!=null) {
+			aggregate.update(updatedMember);
+			return aggregate.getState();
+		} else {
+			return function.calculate(members);
+		}
+	}
+	
+	/**
+	 * The flattened members of a group together with the membership version they have been collected at.
+	 */
+	private static class AllMembers {
+		
+		private final long version;
+		private final List<Item> items;
+		
+		public AllMembers(long version, List<Item> items) {
+			this.version = version;
+			this.items = items;
+		}
 	}
 }
@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.core.items;
+
+import org.openhab.core.types.State;
+
+/**
+ * A group function which is able to keep its result up to date incrementally.
+ * Instead of calculating the group state over all members whenever a single member
+ * changes, a {@link GroupItem} keeps an {@link Aggregate} of the current member states,
+ * which only applies the difference caused by the changed member.
+ *
+ * @since 1.6.0
+ *
+ */
+public interface IncrementalGroupFunction extends GroupFunction {
+
+	/**
+	 * Creates a new, empty aggregate for a group item.
+	 *
+	 * @return the new aggregate
+	 */
+	public Aggregate createAggregate();
+
+	/**
+	 * Holds the contributions of the member items to the group state. The result of
+	 * {@link #getState()} must always be the same as the result of
+	 * {@link GroupFunction#calculate(java.util.List)} for the current members.
+	 * Implementations must be thread-safe.
+	 */
+	public interface Aggregate {
+
+		/**
+		 * Adds a member with its current state.
+		 *
+		 * @param item the new member
+		 */
+		public void add(Item item);
+
+		/**
+		 * Removes a member.
+		 *
+		 * @param item the removed member
+		 */
+		public void remove(Item item);
+
+		/**
+		 * Replaces the contribution of a member by the one of its current state.
+		 *
+		 * @param item the member which state has been updated
+		 */
+		public void update(Item item);
+
+		/**
+		 * @return the group state calculated from the current member states
+		 */
+		public State getState();
+	}
+
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.core.items;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openhab.core.types.State;
+
+/**
+ * Keeps the {@link StateChangeListener}s of an item and notifies them about state updates.
+ *
+ * <p>The listeners are only weakly referenced, so registering a listener does not keep it
+ * from being garbage collected. As listeners are added and removed rarely, but notified on
+ * every state update, the references are kept in an array which is copied on modification;
+ * notifying the listeners therefore does not allocate any objects.</p>
+ *
+ * <p>The number of notifications and the time spent in the listeners are recorded and can
+ * be retrieved for monitoring purposes.</p>
+ *
+ * @since 1.6.0
+ *
+ */
+public class StateChangeListenerList {
+
+	@SuppressWarnings("unchecked")
+	private static final WeakReference<StateChangeListener>[] EMPTY = new WeakReference[0];
+
+	private volatile WeakReference<StateChangeListener>[] listeners = EMPTY;
+
+	private final AtomicLong notifications = new AtomicLong();
+	private final AtomicLong totalNotificationTime = new AtomicLong();
+	private final AtomicLong maxNotificationTime = new AtomicLong();
+
+	/**
+	 * Adds a listener, if it has not been added before.
+	 *
+	 * @param listener the listener to add
+	 */
+	public synchronized void add(StateChangeListener listener) {
+		if (listener == null || indexOf(listener) >= 0) {
+			return;
+		}
+		WeakReference<StateChangeListener>[] current = purge(listeners);
+		WeakReference<StateChangeListener>[] updated = newArray(current.length + 1);
+		System.arraycopy(current, 0, updated, 0, current.length);
+		updated[current.length] = new WeakReference<StateChangeListener>(listener);
+		listeners = updated;
+	}
+
+	/**
+	 * Removes a listener.
+	 *
+	 * @param listener the listener to remove
+	 */
+	public synchronized void remove(StateChangeListener listener) {
+		int index = indexOf(listener);
+		if (index >= 0) {
+			listeners[index].clear();
+			listeners = purge(listeners);
+		}
+	}
+
+	/**
+	 * @return the number of registered listeners which have not been garbage collected yet
+	 */
+	public int size() {
+		int size = 0;
+		for (WeakReference<StateChangeListener> reference : listeners) {
+			if (reference.get() != null) {
+				size++;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Notifies all listeners about a state update and, if the state is different
+	 * from the old state, about the state change as well.
+	 *
+	 * @param item the item which state has been updated
+	 * @param oldState the previous state of the item
+	 * @param newState the new state of the item
+	 */
+	public void notifyListeners(Item item, State oldState, State newState) {
+		WeakReference<StateChangeListener>[] current = listeners;
+		if (current.length == 0) {
+			return;
+		}
+		long start = System.nanoTime();
+		boolean collected = false;
+		for (WeakReference<StateChangeListener> reference : current) {
+			StateChangeListener listener = reference.get();
+			if (listener != null) {
+				listener.stateUpdated(item, newState);
+			} else {
+				collected = true;
+			}
+		}
+		if (!oldState.equals(newState)) {
+			for (WeakReference<StateChangeListener> reference : current) {
+				StateChangeListener listener = reference.get();
+				if (listener != null) {
+					listener.stateChanged(item, oldState, newState);
+				}
+			}
+		}
+		if (collected) {
+			removeCollected();
+		}
+		long duration = System.nanoTime() - start;
+		notifications.incrementAndGet();
+		totalNotificationTime.addAndGet(duration);
+		long max = maxNotificationTime.get();
+		while (duration > max && !maxNotificationTime.compareAndSet(max, duration)) {
+			max = maxNotificationTime.get();
+		}
+	}
+
+	/**
+	 * @return the number of state updates the listeners have been notified about
+	 */
+	public long getNotificationCount() {
+		return notifications.get();
+	}
+
+	/**
+	 * @return the total time in nanoseconds spent in notifying the listeners
+	 */
+	public long getTotalNotificationTime() {
+		return totalNotificationTime.get();
+	}
+
+	/**
+	 * @return the longest time in nanoseconds a single notification of all listeners took
+	 */
+	public long getMaxNotificationTime() {
+		return maxNotificationTime.get();
+	}
+
+	/**
+	 * Clears the reference to a listener like the garbage collector does, but keeps the
+	 * reference in the list until it is purged. Only used by tests.
+	 */
+	synchronized void clearReference(StateChangeListener listener) {
+		int index = indexOf(listener);
+		if (index >= 0) {
+			listeners[index].clear();
+		}
+	}
+
+	/**
+	 * @return the number of references in the list, including cleared ones which have not been purged yet
+	 */
+	int getReferenceCount() {
+		return listeners.length;
+	}
+
+	private synchronized void removeCollected() {
+		listeners = purge(listeners);
+	}
+
+	private int indexOf(StateChangeListener listener) {
+		WeakReference<StateChangeListener>[] current = listeners;
+		for (int i = 0; i < current.length; i++) {
+			StateChangeListener registered = current[i].get();
+			if (registered != null && registered.equals(listener)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the given references without the ones whose listeners have been garbage collected.
+	 */
+	private static WeakReference<StateChangeListener>[] purge(WeakReference<StateChangeListener>[] references) {
+		WeakReference<StateChangeListener>[] alive = newArray(references.length);
+		int count = 0;
+		for (WeakReference<StateChangeListener> reference : references) {
+			if (reference.get() != null) {
+				alive[count++] = reference;
+			}
+		}
+		if (count == references.length) {
+			return references;
+		}
+		WeakReference<StateChangeListener>[] purged = newArray(count);
+		System.arraycopy(alive, 0, purged, 0, count);
+		return purged;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static WeakReference<StateChangeListener>[] newArray(int length) {
+		return length == 0 ? EMPTY : new WeakReference[length];
+	}
+
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.rest.internal.filter;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.atmosphere.cpr.AtmosphereResource;
+import org.junit.After;
+import org.junit.Test;
+import org.openhab.io.rest.internal.filter.DelayedBroadcaster.Statistics;
+
+/**
+ * @since 1.6.0
+ */
+public class DelayedBroadcasterTest {
+
+	@After
+	public void tearDown() {
+		DelayedBroadcaster.shutdown();
+	}
+
+	@Test
+	public void testCoalescePerConnection() throws InterruptedException {
+		Statistics statistics = DelayedBroadcaster.getStatistics();
+		long scheduled = statistics.getScheduled();
+		long coalesced = statistics.getCoalesced();
+
+		AtmosphereResource first = createResource("first");
+		AtmosphereResource second = createResource("second");
+		for (int i = 0; i < 10; i++) {
+			DelayedBroadcaster.schedule("/sitemaps/demo/demo", first, "page " + i);
+			DelayedBroadcaster.schedule("/sitemaps/demo/demo", second, "page " + i);
+		}
+		DelayedBroadcaster.schedule("/sitemaps/demo/other", first, "other page");
+
+		assertEquals(3, statistics.getPending());
+		assertEquals(scheduled + 3, statistics.getScheduled());
+		assertEquals(coalesced + 18, statistics.getCoalesced());
+
+		Thread.sleep(DelayedBroadcaster.DELAY + 500);
+		assertEquals(0, statistics.getPending());
+	}
+
+	@Test
+	public void testShutdownDiscardsPendingBroadcasts() {
+		DelayedBroadcaster.schedule("/sitemaps/demo/demo", createResource("first"), "page");
+		assertEquals(1, DelayedBroadcaster.getStatistics().getPending());
+
+		DelayedBroadcaster.shutdown();
+		assertEquals(0, DelayedBroadcaster.getStatistics().getPending());
+
+		// the scheduler is started again
+		DelayedBroadcaster.schedule("/sitemaps/demo/demo", createResource("first"), "page");
+		assertEquals(1, DelayedBroadcaster.getStatistics().getPending());
+	}
+
+	private static AtmosphereResource createResource(final String uuid) {
+		return (AtmosphereResource) Proxy.newProxyInstance(DelayedBroadcasterTest.class.getClassLoader(),
+				new Class<?>[] { AtmosphereResource.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						return method.getName().equals("uuid") ? uuid : null;
+					}
+				});
+	}
+
+}
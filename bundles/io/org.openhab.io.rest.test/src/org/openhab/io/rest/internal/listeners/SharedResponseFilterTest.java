@@ -0,0 +1,290 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.rest.internal.listeners;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.atmosphere.cache.BroadcastMessage;
+import org.atmosphere.cpr.AtmosphereRequest;
+import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.BroadcastFilter.BroadcastAction;
+import org.atmosphere.cpr.BroadcastFilter.BroadcastAction.ACTION;
+import org.atmosphere.cpr.PerRequestBroadcastFilter;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.openhab.core.items.Item;
+import org.openhab.core.library.items.NumberItem;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.io.rest.internal.filter.DuplicateBroadcastProtectionFilter;
+import org.openhab.io.rest.internal.filter.ResponseObjectFilter;
+import org.openhab.io.rest.internal.resources.beans.ItemBean;
+import org.openhab.io.rest.internal.resources.beans.PageBean;
+import org.openhab.io.rest.internal.resources.beans.WidgetBean;
+import org.openhab.io.rest.internal.resources.beans.WidgetListBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the filters of a sitemap page broadcast in the same way as Atmosphere does. The load
+ * test, which measures the CPU time per broadcast, is ignored and run manually.
+ *
+ * @since 1.6.0
+ */
+public class SharedResponseFilterTest {
+
+	private static final Logger logger = LoggerFactory.getLogger(SharedResponseFilterTest.class);
+
+	private static final int WIDGETS_PER_PAGE = 100;
+	private static final int BROADCASTS = 50;
+
+	private int renderCount;
+	private NumberItem item;
+	private List<PerRequestBroadcastFilter> filters;
+
+	@Before
+	public void setUp() {
+		renderCount = 0;
+		// the duplicate protection remembers the last response of each client
+		ResourceStateChangeListener.getMap().clear();
+		item = new NumberItem("Temperature");
+		ResourceStateChangeListener listener = new ResourceStateChangeListener() {
+			@Override
+			protected Object getResponseObject(HttpServletRequest request) {
+				renderCount++;
+				return createPage(item);
+			}
+
+			@Override
+			protected Object getSingleResponseObject(Item item, HttpServletRequest request) {
+				return null;
+			}
+
+			@Override
+			protected Set<String> getRelevantItemNames(String pathInfo) {
+				return null;
+			}
+		};
+		filters = new ArrayList<PerRequestBroadcastFilter>();
+		filters.add(new SharedResponseFilter(listener));
+		filters.add(new DuplicateBroadcastProtectionFilter());
+		filters.add(new ResponseObjectFilter());
+	}
+
+	@Test
+	public void testRenderOncePerMediaType() {
+		List<AtmosphereResource> resources = new ArrayList<AtmosphereResource>();
+		for (int i = 0; i < 10; i++) {
+			resources.add(createResource("json-" + i, "application/json", "streaming"));
+			resources.add(createResource("xml-" + i, "application/xml", "long-polling"));
+		}
+		item.setState(new DecimalType(1));
+		List<Object> responses = broadcast(item, resources);
+
+		assertEquals(2, renderCount);
+		for (int i = 2; i < responses.size(); i += 2) {
+			// all streaming clients receive the same delta of the changed widgets
+			assertTrue(responses.get(i) instanceof WidgetListBean);
+			assertSame(responses.get(0), responses.get(i));
+			// all polling clients receive the same page
+			assertTrue(responses.get(i + 1) instanceof PageBean);
+			assertSame(responses.get(1), responses.get(i + 1));
+		}
+		assertEquals(1, ((WidgetListBean) responses.get(0)).entries.size());
+	}
+
+	@Test
+	public void testRenderOncePerBroadcast() {
+		List<AtmosphereResource> resources = new ArrayList<AtmosphereResource>();
+		for (int i = 0; i < 40; i++) {
+			resources.add(createResource("client-" + i, "application/json", "streaming"));
+		}
+		for (int i = 0; i < BROADCASTS; i++) {
+			item.setState(new DecimalType(i));
+			broadcast(item, resources);
+		}
+
+		assertEquals(BROADCASTS, renderCount);
+	}
+
+	/**
+	 * Measures the CPU time per broadcast for a growing number of clients. As every page is
+	 * rendered once per broadcast, it should grow much slower than the number of clients.
+	 */
+	@Ignore("load test, run manually")
+	@Test
+	public void loadTestCpuTimePerBroadcast() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		boolean cpuTime = threads.isCurrentThreadCpuTimeSupported();
+		int state = 0;
+		for (int clients : new int[] { 1, 10, 40, 100, 400 }) {
+			List<AtmosphereResource> resources = new ArrayList<AtmosphereResource>();
+			for (int i = 0; i < clients; i++) {
+				resources.add(createResource(clients + "-" + i, "application/json", "streaming"));
+			}
+			renderCount = 0;
+			long start = cpuTime ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+			for (int i = 0; i < BROADCASTS; i++) {
+				item.setState(new DecimalType(++state));
+				broadcast(item, resources);
+			}
+			long duration = (cpuTime ? threads.getCurrentThreadCpuTime() : System.nanoTime()) - start;
+
+			assertEquals(BROADCASTS, renderCount);
+			logger.info("{} clients: {}us {} per broadcast", new Object[] { clients, duration / BROADCASTS / 1000,
+					cpuTime ? "CPU time" : "wall clock time" });
+		}
+	}
+
+	@Test
+	public void testReconnectReceivesCurrentState() {
+		AtmosphereResource resource = createResource("reconnect", "application/xml", "long-polling");
+		SharedResponseCache cache = new SharedResponseCache();
+		item.setState(new DecimalType(1));
+		Object message = filter(item);
+		// the broadcaster caches the message for the client, which has disconnected meanwhile
+		cache.addToCache("demo", resource, new BroadcastMessage(message));
+		List<Object> cached = cache.retrieveFromCache("demo", resource);
+		assertEquals(1, cached.size());
+		assertSame(item, cached.get(0));
+
+		item.setState(new DecimalType(2));
+		// replays the cached message on reconnect like DefaultBroadcaster.checkCachedAndPush()
+		Object replayed = cached.get(0);
+		PageBean page = (PageBean) filter(resource, replayed, filter(replayed));
+		assertEquals("2", page.widgets.get(0).item.state);
+	}
+
+	@Test
+	public void testStaleResponsesAreNotShared() {
+		AtmosphereResource resource = createResource("stale", "application/xml", "long-polling");
+		item.setState(new DecimalType(1));
+		Object message = filter(item);
+		assertEquals("1", ((PageBean) filter(resource, item, message)).widgets.get(0).item.state);
+
+		// the shared responses of an earlier broadcast are passed on as the message itself
+		item.setState(new DecimalType(2));
+		PageBean page = (PageBean) filter(resource, message, message);
+		assertEquals("2", page.widgets.get(0).item.state);
+		assertEquals(2, renderCount);
+	}
+
+	/**
+	 * Passes the message through the filters like DefaultBroadcaster: the broadcast filters are
+	 * called once, the per request filters once per resource.
+	 */
+	private List<Object> broadcast(Object originalMessage, List<AtmosphereResource> resources) {
+		Object message = filter(originalMessage);
+		List<Object> responses = new ArrayList<Object>();
+		for (AtmosphereResource resource : resources) {
+			responses.add(filter(resource, originalMessage, message));
+		}
+		return responses;
+	}
+
+	/**
+	 * Calls the broadcast filters.
+	 */
+	private Object filter(Object originalMessage) {
+		Object message = originalMessage;
+		for (PerRequestBroadcastFilter filter : filters) {
+			message = filter.filter(originalMessage, message).message();
+		}
+		return message;
+	}
+
+	/**
+	 * Calls the per request filters.
+	 */
+	private Object filter(AtmosphereResource resource, Object originalMessage, Object message) {
+		Object response = message;
+		for (PerRequestBroadcastFilter filter : filters) {
+			BroadcastAction action = filter.filter(resource, originalMessage, response);
+			response = action.message();
+			if (action.action() == ACTION.ABORT) {
+				return null;
+			}
+		}
+		return response;
+	}
+
+	private static PageBean createPage(Item item) {
+		PageBean page = new PageBean();
+		page.id = "demo";
+		page.title = "Demo";
+		for (int i = 0; i < WIDGETS_PER_PAGE; i++) {
+			WidgetBean widget = new WidgetBean();
+			widget.widgetId = "demo_" + i;
+			widget.type = "Text";
+			widget.item = new ItemBean();
+			widget.item.type = "NumberItem";
+			widget.item.name = i == 0 ? item.getName() : "Other" + i;
+			widget.item.state = i == 0 ? item.getState().toString() : "0";
+			widget.label = widget.item.name + " [" + widget.item.state + "]";
+			page.widgets.add(widget);
+		}
+		return page;
+	}
+
+	private static AtmosphereResource createResource(String trackingId, String accept, String transport) {
+		final Map<String, String> headers = new HashMap<String, String>();
+		headers.put("Accept", accept);
+		headers.put("X-Atmosphere-tracking-id", trackingId);
+		headers.put("X-Atmosphere-Transport", transport);
+		HttpServletRequest request = (HttpServletRequest) Proxy.newProxyInstance(
+				SharedResponseFilterTest.class.getClassLoader(), new Class<?>[] { HttpServletRequest.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						String name = method.getName();
+						if (name.equals("getHeader")) {
+							return headers.get(args[0]);
+						} else if (name.equals("getPathInfo")) {
+							return "/sitemaps/demo/demo";
+						} else if (name.equals("getScheme")) {
+							return "http";
+						} else if (name.equals("getServerName")) {
+							return "localhost";
+						} else if (name.equals("getServerPort")) {
+							return 8080;
+						} else if (name.equals("getContextPath")) {
+							return "";
+						} else if (name.equals("getQueryString")) {
+							return "X-Atmosphere-tracking-id=" + headers.get("X-Atmosphere-tracking-id");
+						}
+						return null;
+					}
+				});
+		final AtmosphereRequest atmosphereRequest = AtmosphereRequest.wrap(request);
+		return (AtmosphereResource) Proxy.newProxyInstance(SharedResponseFilterTest.class.getClassLoader(),
+				new Class<?>[] { AtmosphereResource.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("uuid")) {
+							return headers.get("X-Atmosphere-tracking-id");
+						}
+						return method.getName().equals("getRequest") ? atmosphereRequest : null;
+					}
+				});
+	}
+
+}
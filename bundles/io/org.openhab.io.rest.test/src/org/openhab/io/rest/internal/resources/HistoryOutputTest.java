@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.rest.internal.resources;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+import org.openhab.core.items.Item;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.library.types.StringType;
+import org.openhab.core.persistence.AggregatingPersistenceService.Aggregation;
+import org.openhab.core.persistence.FilterCriteria;
+import org.openhab.core.persistence.FilterCriteria.Ordering;
+import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.persistence.QueryablePersistenceService;
+import org.openhab.core.types.State;
+
+/**
+ * @since 1.6.0
+ */
+public class HistoryOutputTest {
+
+	@Test
+	public void testWritesAllPages() throws IOException {
+		// three states with the same time around the end of the first page
+		TestService service = new TestService();
+		for (int i = 0; i < 25000; i++) {
+			long time = i >= HistoryOutput.PAGE_SIZE - 1 && i <= HistoryOutput.PAGE_SIZE + 1 ? HistoryOutput.PAGE_SIZE : i;
+			service.add(time, new DecimalType(i));
+		}
+
+		String[] lines = write(service, createFilter(0, 30000), true, 0, null).split("\n");
+
+		assertEquals(25001, lines.length);
+		assertEquals("time,state", lines[0]);
+		for (int i = 0; i < 25000; i++) {
+			assertEquals(Integer.toString(i), lines[i + 1].substring(lines[i + 1].indexOf(',') + 1));
+		}
+		assertEquals(3, service.queries);
+	}
+
+	@Test
+	public void testWritesPagesWithSameTime() throws IOException {
+		// more than two pages of states with the same time, starting in the middle of the first page
+		TestService service = new TestService();
+		for (int i = 0; i < 30000; i++) {
+			service.add(i >= 5000 && i < 27000 ? 5000 : i, new DecimalType(i));
+		}
+
+		String[] lines = write(service, createFilter(0, 30000), true, 0, null).split("\n");
+
+		assertEquals(30001, lines.length);
+		for (int i = 0; i < 30000; i++) {
+			assertEquals(Integer.toString(i), lines[i + 1].substring(lines[i + 1].indexOf(',') + 1));
+		}
+	}
+
+	@Test
+	public void testWritesSinglePage() throws IOException {
+		TestService service = new TestService();
+		for (int i = 0; i < 100; i++) {
+			service.add(i, new DecimalType(i));
+		}
+		FilterCriteria filter = createFilter(0, 100).setPageSize(10).setPageNumber(2);
+
+		String[] lines = write(service, filter, true, 0, null).split("\n");
+
+		assertEquals(11, lines.length);
+		assertEquals("20,20", lines[1]);
+		assertEquals("29,29", lines[10]);
+		assertEquals(1, service.queries);
+	}
+
+	@Test
+	public void testAggregatesIntervals() throws IOException {
+		TestService service = new TestService();
+		for (int i = 0; i < 10000; i++) {
+			service.add(i, new DecimalType(i % 10));
+		}
+		service.add(10000, new StringType("not numeric"));
+
+		String[] lines = write(service, createFilter(0, 10000), true, 1000, Aggregation.AVERAGE).split("\n");
+		assertEquals(11, lines.length);
+		assertEquals("0,4.5", lines[1]);
+		assertEquals("9000,4.5", lines[10]);
+
+		lines = write(service, createFilter(0, 10000), true, 1000, Aggregation.MAXIMUM).split("\n");
+		assertEquals("1000,9", lines[2]);
+
+		lines = write(service, createFilter(0, 10000), true, 1000, Aggregation.COUNT).split("\n");
+		assertEquals("5000,1000", lines[6]);
+	}
+
+	@Test
+	public void testEscapesStates() throws IOException {
+		TestService service = new TestService();
+		service.add(1, new StringType("a, \"b\""));
+		service.add(2, new StringType("c"));
+
+		String[] lines = write(service, createFilter(0, 10), true, 0, null).split("\n");
+		assertEquals("1,\"a, \"\"b\"\"\"", lines[1]);
+		assertEquals("2,c", lines[2]);
+
+		JsonNode json = new ObjectMapper().readTree(write(service, createFilter(0, 10), false, 0, null));
+		assertEquals("Test", json.get("name").getTextValue());
+		assertEquals(2, json.get("datapoints").size());
+		assertEquals(1, json.get("datapoints").get(0).get("time").getLongValue());
+		assertEquals("a, \"b\"", json.get("datapoints").get(0).get("state").getTextValue());
+	}
+
+	private static FilterCriteria createFilter(long begin, long end) {
+		return new FilterCriteria().setItemName("Test").setBeginDate(new Date(begin)).setEndDate(new Date(end))
+				.setOrdering(Ordering.ASCENDING);
+	}
+
+	private static String write(QueryablePersistenceService service, FilterCriteria filter, boolean csv, long interval,
+			Aggregation aggregation) throws IOException {
+		HistoryOutput output = new HistoryOutput(service, filter, csv);
+		if (interval > 0) {
+			output.setBuckets(interval, aggregation);
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		output.write(bytes);
+		return bytes.toString("UTF-8");
+	}
+
+	/**
+	 * Returns the states in ascending order and supports paging.
+	 */
+	private static class TestService implements QueryablePersistenceService {
+
+		private final List<HistoricItem> states = new ArrayList<HistoricItem>();
+
+		int queries = 0;
+
+		void add(final long time, final State state) {
+			states.add(new HistoricItem() {
+				public Date getTimestamp() {
+					return new Date(time);
+				}
+
+				public State getState() {
+					return state;
+				}
+
+				public String getName() {
+					return "Test";
+				}
+			});
+		}
+
+		public String getName() {
+			return "test";
+		}
+
+		public void store(Item item) {
+		}
+
+		public void store(Item item, String alias) {
+		}
+
+		public Iterable<HistoricItem> query(FilterCriteria filter) {
+			queries++;
+			List<HistoricItem> result = new ArrayList<HistoricItem>();
+			int skip = filter.getPageNumber() * filter.getPageSize();
+			for (HistoricItem state : states) {
+				if (state.getTimestamp().before(filter.getBeginDate()) || state.getTimestamp().after(filter.getEndDate())) {
+					continue;
+				}
+				if (skip-- > 0) {
+					continue;
+				}
+				if (result.size() == filter.getPageSize()) {
+					break;
+				}
+				result.add(state);
+			}
+			return result;
+		}
+
+	}
+
+}
@@ -11,7 +11,9 @@ package org.openhab.io.rest;
 import java.util.Dictionary;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletException;
@@ -21,8 +23,12 @@ import javax.ws.rs.core.Application;
 import org.atmosphere.cpr.AtmosphereServlet;
 import org.openhab.core.events.EventPublisher;
 import org.openhab.core.items.ItemRegistry;
+import org.openhab.core.persistence.PersistenceService;
+import org.openhab.core.persistence.QueryablePersistenceService;
 import org.openhab.io.net.http.SecureHttpContext;
+import org.openhab.io.rest.internal.filter.DelayedBroadcaster;
 import org.openhab.io.rest.internal.resources.ItemResource;
+import org.openhab.io.rest.internal.resources.PersistenceResource;
 import org.openhab.io.rest.internal.resources.RootResource;
 import org.openhab.io.rest.internal.resources.SitemapResource;
 import org.openhab.io.servicediscovery.DiscoveryService;
@@ -68,6 +74,8 @@ public class RESTApplication extends Application {
 
 	static private ModelRepository modelRepository;
 
+	static private Map<String, QueryablePersistenceService> persistenceServices = new ConcurrentHashMap<String, QueryablePersistenceService>();
+
 	public void setHttpService(HttpService httpService) {
 		this.httpService = httpService;
 	}
@@ -112,6 +120,22 @@ public class RESTApplication extends Application {
 		return modelRepository;
 	}
 
+	public void addPersistenceService(PersistenceService service) {
+		// the services are not wrapped in a CachingPersistenceService, as the
+		// history resource streams large results which should not be cached
+		if (service instanceof QueryablePersistenceService) {
+			persistenceServices.put(service.getName(), (QueryablePersistenceService) service);
+		}
+	}
+
+	public void removePersistenceService(PersistenceService service) {
+		persistenceServices.remove(service.getName());
+	}
+
+	static public Map<String, QueryablePersistenceService> getPersistenceServices() {
+		return persistenceServices;
+	}
+
 	public void setDiscoveryService(DiscoveryService discoveryService) {
 		this.discoveryService = discoveryService;
 	}
@@ -159,6 +183,8 @@ public class RESTApplication extends Application {
             logger.info("Stopped REST API");
         }
         
+        DelayedBroadcaster.shutdown();
+        
         if (discoveryService != null) {
  			discoveryService.unregisterService(getDefaultServiceDescription());
 			discoveryService.unregisterService(getSSLServiceDescription()); 			
@@ -181,6 +207,7 @@ public class RESTApplication extends Application {
         result.add(RootResource.class);
         result.add(ItemResource.class);
         result.add(SitemapResource.class);
+        result.add(PersistenceResource.class);
         return result;
     }
 
@@ -0,0 +1,207 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.rest.internal.filter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.BroadcasterFactory;
+import org.openhab.io.rest.internal.broadcaster.GeneralBroadcaster;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends delayed broadcasts to single connections. The delay is necessary for the
+ * completion of group events.
+ *
+ * <p>All delayed broadcasts are sent by a single scheduler thread. If another
+ * broadcast for the same connection arrives while one is waiting, only the most
+ * recent message is sent. The number of waiting broadcasts is limited to
+ * {@link #MAX_PENDING}, further broadcasts are dropped.</p>
+ *
+ * @since 1.6.0
+ */
+public class DelayedBroadcaster {
+
+	private static final Logger logger = LoggerFactory.getLogger(DelayedBroadcaster.class);
+
+	/** the delay of a broadcast in milliseconds */
+	public static final long DELAY = 300;
+
+	/** the maximum number of waiting broadcasts */
+	public static final int MAX_PENDING = 1000;
+
+	/** the waiting broadcasts by broadcaster and connection; guarded by itself */
+	private static final Map<String, PendingBroadcast> pending = new HashMap<String, PendingBroadcast>();
+
+	/** guarded by pending */
+	private static ScheduledExecutorService scheduler;
+
+	private static final Statistics statistics = new Statistics();
+
+	private DelayedBroadcaster() {
+		// all methods are static
+	}
+
+	/**
+	 * Broadcasts a message to a single connection after {@link #DELAY} milliseconds.
+	 *
+	 * @param broadcasterName the name of the {@link GeneralBroadcaster} to use
+	 * @param resource the connection which receives the message
+	 * @param message the message, which replaces a message that is still waiting for the same connection
+	 */
+	public static void schedule(String broadcasterName, AtmosphereResource resource, Object message) {
+		final String key = broadcasterName + "|" + resource.uuid();
+		synchronized (pending) {
+			PendingBroadcast broadcast = pending.get(key);
+			if (broadcast != null) {
+				broadcast.message = message;
+				statistics.coalesced.incrementAndGet();
+				return;
+			}
+			if (pending.size() >= MAX_PENDING) {
+				statistics.dropped.incrementAndGet();
+				logger.debug("Dropping delayed broadcast to '{}', as {} broadcasts are waiting", broadcasterName,
+						MAX_PENDING);
+				return;
+			}
+			if (scheduler == null) {
+				scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "RESTDelayedBroadcast");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			}
+			try {
+				scheduler.schedule(new Runnable() {
+					public void run() {
+						send(key);
+					}
+				}, DELAY, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				logger.debug("Could not schedule delayed broadcast to '{}': {}", broadcasterName, e.getMessage());
+				return;
+			}
+			pending.put(key, new PendingBroadcast(broadcasterName, resource, message));
+			statistics.scheduled.incrementAndGet();
+		}
+	}
+
+	private static void send(String key) {
+		PendingBroadcast broadcast;
+		synchronized (pending) {
+			broadcast = pending.remove(key);
+		}
+		if (broadcast == null) {
+			return;
+		}
+		try {
+			GeneralBroadcaster broadcaster = (GeneralBroadcaster) BroadcasterFactory.getDefault().lookup(
+					GeneralBroadcaster.class, broadcast.broadcasterName);
+			if (broadcaster != null) {
+				broadcaster.broadcast(broadcast.message, broadcast.resource);
+				statistics.sent.incrementAndGet();
+			}
+		} catch (Exception e) {
+			logger.error(e.getMessage());
+		}
+	}
+
+	/**
+	 * Stops the scheduler and discards all waiting broadcasts. A new scheduler is started
+	 * with the next broadcast.
+	 */
+	public static void shutdown() {
+		synchronized (pending) {
+			if (scheduler != null) {
+				scheduler.shutdownNow();
+				scheduler = null;
+			}
+			pending.clear();
+		}
+		logger.debug("Statistics of delayed broadcasts: {}", statistics);
+	}
+
+	/**
+	 * @return the counters of the delayed broadcasts
+	 */
+	public static Statistics getStatistics() {
+		return statistics;
+	}
+
+	private static class PendingBroadcast {
+
+		final String broadcasterName;
+		final AtmosphereResource resource;
+		Object message;
+
+		PendingBroadcast(String broadcasterName, AtmosphereResource resource, Object message) {
+			this.broadcasterName = broadcasterName;
+			this.resource = resource;
+			this.message = message;
+		}
+
+	}
+
+	/**
+	 * Counters of the {@link DelayedBroadcaster}.
+	 */
+	public static class Statistics {
+
+		private final AtomicLong scheduled = new AtomicLong();
+		private final AtomicLong coalesced = new AtomicLong();
+		private final AtomicLong dropped = new AtomicLong();
+		private final AtomicLong sent = new AtomicLong();
+
+		/**
+		 * @return the number of broadcasts which are currently waiting
+		 */
+		public int getPending() {
+			synchronized (pending) {
+				return pending.size();
+			}
+		}
+
+		public long getScheduled() {
+			return scheduled.get();
+		}
+
+		/**
+		 * @return the number of messages which replaced a waiting message for the same connection
+		 */
+		public long getCoalesced() {
+			return coalesced.get();
+		}
+
+		public long getDropped() {
+			return dropped.get();
+		}
+
+		public long getSent() {
+			return sent.get();
+		}
+
+		@Override
+		public String toString() {
+			return "pending=" + getPending() + ", scheduled=" + scheduled.get() + ", coalesced=" + coalesced.get()
+					+ ", dropped=" + dropped.get() + ", sent=" + sent.get();
+		}
+
+	}
+
+}
@@ -9,6 +9,10 @@
 package org.openhab.io.rest.internal.filter;
 
 
+import java.io.IOException;
+import java.util.Map;
+import java.util.WeakHashMap;
+
 import javax.servlet.http.HttpServletRequest;
 
 import org.atmosphere.cpr.AtmosphereResource;
@@ -31,6 +35,11 @@ import org.slf4j.LoggerFactory;
 public class DuplicateBroadcastProtectionFilter implements PerRequestBroadcastFilter {
 
 	private static final Logger logger = LoggerFactory.getLogger(DuplicateBroadcastProtectionFilter.class);
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	// the JSON of the response objects, which are shared by all connections of a broadcast
+	private static final Map<Object, String> serializedResponses = new WeakHashMap<Object, String>();
 	
 	@Override
 	public BroadcastAction filter(Object arg0, Object message) {
@@ -63,10 +72,9 @@ public class DuplicateBroadcastProtectionFilter implements PerRequestBroadcastFi
 		if(clientId == null || clientId.isEmpty()){
 			return false;
 		}
-		ObjectMapper mapper = new ObjectMapper();
 		try{
-			String firedResponse =  mapper.writeValueAsString(ResourceStateChangeListener.getMap().put(clientId, responseEntity)); 
-			String responseValue =  mapper.writeValueAsString(responseEntity);
+			String firedResponse =  toJson(ResourceStateChangeListener.getMap().put(clientId, responseEntity)); 
+			String responseValue =  toJson(responseEntity);
             if(responseValue.equals(firedResponse)) {
             	return true;
 			}
@@ -76,4 +84,18 @@ public class DuplicateBroadcastProtectionFilter implements PerRequestBroadcastFi
         return false;
 	}
 
+	private static String toJson(Object entity) throws IOException {
+		if(entity == null) {
+			return mapper.writeValueAsString(null);
+		}
+		synchronized (serializedResponses) {
+			String json = serializedResponses.get(entity);
+			if(json == null) {
+				json = mapper.writeValueAsString(entity);
+				serializedResponses.put(entity, json);
+			}
+			return json;
+		}
+	}
+
 }
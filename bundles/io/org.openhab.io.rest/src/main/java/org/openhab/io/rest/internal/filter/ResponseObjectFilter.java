@@ -11,6 +11,8 @@ package org.openhab.io.rest.internal.filter;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -36,6 +38,9 @@ import org.slf4j.LoggerFactory;
 public class ResponseObjectFilter implements PerRequestBroadcastFilter {
 
 	private static final Logger logger = LoggerFactory.getLogger(ResponseObjectFilter.class);
+
+	// the changed widgets of the pages which are shared by all connections of a broadcast
+	private final Map<PageBean, WidgetListBean> changedWidgets = new WeakHashMap<PageBean, WidgetListBean>();
 	
 	@Override
 	public BroadcastAction filter(Object arg0, Object message) {
@@ -63,7 +68,14 @@ public class ResponseObjectFilter implements PerRequestBroadcastFilter {
 	private Object getSingleResponseObject(PageBean pageBean, Item item, HttpServletRequest request) {
 		WidgetListBean responseBeam ;
 		if(pageBean!=null) {
-			responseBeam = new WidgetListBean( getItemsOnPage(pageBean.widgets, item));
+			// a page is rendered for a single broadcast, i.e. for a single item
+			synchronized (changedWidgets) {
+				responseBeam = changedWidgets.get(pageBean);
+				if(responseBeam == null) {
+					responseBeam = new WidgetListBean( getItemsOnPage(pageBean.widgets, item));
+					changedWidgets.put(pageBean, responseBeam);
+				}
+			}
 	    	return responseBeam;
 	    	
     	}
@@ -16,10 +16,6 @@ import java.util.concurrent.ConcurrentMap;
 
 import javax.servlet.http.HttpServletRequest;
 
-import org.atmosphere.cache.UUIDBroadcasterCache;
-import org.atmosphere.cpr.AtmosphereResource;
-import org.atmosphere.cpr.BroadcastFilter.BroadcastAction.ACTION;
-import org.atmosphere.cpr.PerRequestBroadcastFilter;
 import org.openhab.core.items.GenericItem;
 import org.openhab.core.items.Item;
 import org.openhab.core.items.StateChangeListener;
@@ -67,29 +63,10 @@ abstract public class ResourceStateChangeListener {
 	}
 	
 	public void registerItems(){
-		broadcaster.getBroadcasterConfig().setBroadcasterCache(new UUIDBroadcasterCache());
+		broadcaster.getBroadcasterConfig().setBroadcasterCache(new SharedResponseCache());
 		
-		broadcaster.getBroadcasterConfig().addFilter(new PerRequestBroadcastFilter() {
-			
-			@Override
-			public BroadcastAction filter(Object originalMessage, Object message) {
-				return new BroadcastAction(ACTION.CONTINUE,  message);
-			}
-
-			@Override
-			public BroadcastAction filter(AtmosphereResource resource, Object originalMessage, Object message) {
-				HttpServletRequest request = null;
-				BroadcastAction result = null;
-				try {
-				 request = resource.getRequest();
-				 Object responce = getResponseObject(request);
-				 result = new BroadcastAction(ACTION.CONTINUE,  responce);
-				} catch (Exception e) {
-					result = new BroadcastAction(ACTION.ABORT,  getResponseObject(request));					
-				}
-				 return result;
-			}
-		});
+		// renders the response once per broadcast for all connections to the same resource
+		broadcaster.getBroadcasterConfig().addFilter(new SharedResponseFilter(this));
 		
 		broadcaster.getBroadcasterConfig().addFilter(new PollingDelayFilter());
 		broadcaster.getBroadcasterConfig().addFilter(new SendPageUpdateFilter());
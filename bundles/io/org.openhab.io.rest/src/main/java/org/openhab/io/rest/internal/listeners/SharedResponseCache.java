@@ -0,0 +1,34 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.rest.internal.listeners;
+
+import org.atmosphere.cache.BroadcastMessage;
+import org.atmosphere.cache.CacheMessage;
+import org.atmosphere.cache.UUIDBroadcasterCache;
+import org.atmosphere.cpr.AtmosphereResource;
+
+/**
+ * A broadcaster cache which never keeps the responses rendered by the {@link SharedResponseFilter}.
+ * A client which reconnects would otherwise receive a page rendered for an earlier state. The
+ * message which has been broadcast is cached instead, so that it is rendered again on replay.
+ *
+ * @since 1.6.0
+ */
+class SharedResponseCache extends UUIDBroadcasterCache {
+
+	@Override
+	public CacheMessage addToCache(String broadcasterId, AtmosphereResource r, BroadcastMessage e) {
+		Object originalMessage = SharedResponseFilter.getOriginalMessage(e.message);
+		if (originalMessage != e.message) {
+			e = new BroadcastMessage(e.id, originalMessage);
+		}
+		return super.addToCache(broadcasterId, r, e);
+	}
+
+}
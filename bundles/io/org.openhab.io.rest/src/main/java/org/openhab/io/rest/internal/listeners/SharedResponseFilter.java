@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.rest.internal.listeners;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.BroadcastFilter.BroadcastAction.ACTION;
+import org.atmosphere.cpr.PerRequestBroadcastFilter;
+import org.openhab.io.rest.internal.resources.ResponseTypeHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This Filter determines the response content of a broadcast for each connection.
+ * The content is rendered only once per broadcast for all connections which request
+ * the same resource with the same media type, all of them receive the same response object.
+ * Messages which are not passed on by the current broadcast, e.g. replayed ones, are rendered
+ * for each connection with the current state.
+ *
+ * @since 1.6.0
+ */
+class SharedResponseFilter implements PerRequestBroadcastFilter {
+
+	private static final Logger logger = LoggerFactory.getLogger(SharedResponseFilter.class);
+
+	private final ResourceStateChangeListener listener;
+
+	SharedResponseFilter(ResourceStateChangeListener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public BroadcastAction filter(Object originalMessage, Object message) {
+		// called once per broadcast, before the message is passed to the connections
+		return new BroadcastAction(ACTION.CONTINUE, new SharedResponses(originalMessage));
+	}
+
+	@Override
+	public BroadcastAction filter(AtmosphereResource resource, Object originalMessage, Object message) {
+		HttpServletRequest request = null;
+		try {
+			request = resource.getRequest();
+			Object response;
+			// the responses may only be shared with the connections of the broadcast they belong to
+			boolean shared = message instanceof SharedResponses
+					&& ((SharedResponses) message).originalMessage == originalMessage;
+			String key = shared ? getResponseKey(request) : null;
+			if (key != null) {
+				response = ((SharedResponses) message).get(key, request);
+			} else {
+				// e.g. a message which is replayed from the broadcaster cache
+				response = listener.getResponseObject(request);
+			}
+			return new BroadcastAction(ACTION.CONTINUE, response);
+		} catch (Exception e) {
+			logger.debug("Could not determine the response for a broadcast: {}", e.getMessage());
+			return new BroadcastAction(ACTION.ABORT, null);
+		}
+	}
+
+	/**
+	 * Returns the key of the response content for the given request. The query string is not
+	 * part of the key, as Atmosphere adds connection specific parameters to it.
+	 *
+	 * @param request the HttpServletRequest
+	 * @return the key or <code>null</code> if the response content has to be rendered for this request alone
+	 */
+	static String getResponseKey(HttpServletRequest request) {
+		String responseType;
+		try {
+			responseType = new ResponseTypeHelper().getResponseType(request);
+		} catch (RuntimeException e) {
+			// no or an invalid Accept header
+			return null;
+		}
+		return request.getScheme() + "://" + request.getServerName() + ":" + request.getServerPort()
+				+ request.getContextPath() + request.getPathInfo() + "|" + responseType;
+	}
+
+	/**
+	 * Returns the message which has been broadcast, if the given message holds the shared responses
+	 * of a broadcast.
+	 *
+	 * @param message a message as passed on by this filter
+	 * @return the message which has been broadcast originally
+	 */
+	static Object getOriginalMessage(Object message) {
+		return message instanceof SharedResponses ? ((SharedResponses) message).originalMessage : message;
+	}
+
+	/**
+	 * The responses of a single broadcast, which are rendered on first request.
+	 */
+	private class SharedResponses {
+
+		private final Object originalMessage;
+		private final Map<String, Object> responses = new HashMap<String, Object>();
+
+		SharedResponses(Object originalMessage) {
+			this.originalMessage = originalMessage;
+		}
+
+		synchronized Object get(String key, HttpServletRequest request) {
+			if (responses.containsKey(key)) {
+				return responses.get(key);
+			}
+			Object response = listener.getResponseObject(request);
+			responses.put(key, response);
+			return response;
+		}
+
+	}
+
+}
@@ -0,0 +1,316 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.rest.internal.resources;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.Date;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.persistence.AggregatingPersistenceService.Aggregation;
+import org.openhab.core.persistence.FilterCriteria;
+import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.persistence.QueryablePersistenceService;
+import org.openhab.core.types.State;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the states of an item, which are queried from a persistence service, as
+ * JSON or CSV.
+ *
+ * <p>Each state is written as soon as it has been read. If the filter does not ask
+ * for a single page, the states are queried in pages of {@link #PAGE_SIZE} states,
+ * each of which starts at the time of the last state of the page before. If a whole
+ * page has the same time, the next page number is queried instead. So at most one
+ * page is kept in memory, however many states are written.</p>
+ *
+ * <p>If an interval is set, the numeric states within each interval are aggregated
+ * to a single state, whose time is the begin of the interval. Intervals without
+ * numeric states are left out.</p>
+ *
+ * @since 1.6.0
+ */
+class HistoryOutput implements StreamingOutput {
+
+	private static final Logger logger = LoggerFactory.getLogger(HistoryOutput.class);
+
+	/** the number of states which are queried at once */
+	static final int PAGE_SIZE = 10000;
+
+	private static final JsonFactory jsonFactory = new JsonFactory();
+
+	private final QueryablePersistenceService service;
+	private final FilterCriteria filter;
+	private final boolean csv;
+
+	private long interval = 0;
+	private Aggregation aggregation;
+
+	private RowWriter writer;
+
+	// the numeric states of the current interval
+	private long bucket;
+	private long count = 0;
+	private double sum;
+	private State minimum, maximum, first, last;
+	private double minimumValue, maximumValue;
+
+	/**
+	 * @param service the persistence service to query
+	 * @param filter the item, the time range and optionally the page to write; the states must
+	 *            be ordered ascending
+	 * @param csv <code>true</code> to write CSV, <code>false</code> to write JSON
+	 */
+	HistoryOutput(QueryablePersistenceService service, FilterCriteria filter, boolean csv) {
+		this.service = service;
+		this.filter = filter;
+		this.csv = csv;
+	}
+
+	/**
+	 * Aggregates the numeric states within each interval.
+	 *
+	 * @param interval the length of the intervals in milliseconds, starting at the begin date of the filter
+	 * @param aggregation the aggregation to compute for each interval
+	 */
+	void setBuckets(long interval, Aggregation aggregation) {
+		this.interval = interval;
+		this.aggregation = aggregation;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void write(OutputStream output) throws IOException {
+		writer = csv ? new CsvWriter(output) : new JsonWriter(output, filter.getItemName());
+		writer.begin();
+		try {
+			if (filter.getPageSize() != Integer.MAX_VALUE) {
+				Iterable<HistoricItem> result = service.query(filter);
+				if (result != null) {
+					for (HistoricItem historicItem : result) {
+						add(historicItem);
+					}
+				}
+			} else {
+				writePages();
+			}
+		} catch (RuntimeException e) {
+			// the response has been started already, so it just ends early
+			logger.error("Could not query the states of item '" + filter.getItemName() + "' from persistence service '"
+					+ service.getName() + "'", e);
+		}
+		if (count > 0) {
+			flushBucket();
+		}
+		writer.end();
+	}
+
+	private void writePages() throws IOException {
+		FilterCriteria page = new FilterCriteria();
+		page.setItemName(filter.getItemName());
+		page.setBeginDate(filter.getBeginDate());
+		page.setEndDate(filter.getEndDate());
+		page.setOrdering(filter.getOrdering());
+		page.setPageSize(PAGE_SIZE);
+
+		// the time of the last written state and the number of written states with this time
+		long lastTime = Long.MIN_VALUE;
+		int lastTimeCount = 0;
+		while (true) {
+			Iterable<HistoricItem> result = service.query(page);
+			if (result == null) {
+				return;
+			}
+			int size = 0;
+			int written = 0;
+			// the pages before this one have the same begin date, all their states have the last time
+			int skip = lastTimeCount - page.getPageNumber() * PAGE_SIZE;
+			for (HistoricItem historicItem : result) {
+				size++;
+				long time = historicItem.getTimestamp().getTime();
+				if (time < lastTime || (time == lastTime && skip-- > 0)) {
+					// written with the page before
+					continue;
+				}
+				add(historicItem);
+				written++;
+				if (time == lastTime) {
+					lastTimeCount++;
+				} else {
+					lastTime = time;
+					lastTimeCount = 1;
+				}
+			}
+			if (size < PAGE_SIZE) {
+				return;
+			}
+			if (written == 0) {
+				throw new IllegalStateException("Page " + page.getPageNumber() + " starting at "
+						+ page.getBeginDate() + " only contains states which have been written already");
+			}
+			if (page.getBeginDate() != null && page.getBeginDate().getTime() == lastTime) {
+				// all states of the page have the same time, the next page may have more of them
+				page.setPageNumber(page.getPageNumber() + 1);
+			} else {
+				page.setBeginDate(new Date(lastTime));
+				page.setPageNumber(0);
+			}
+		}
+	}
+
+	private void add(HistoricItem historicItem) throws IOException {
+		State state = historicItem.getState();
+		long time = historicItem.getTimestamp().getTime();
+		if (interval <= 0) {
+			writer.row(time, state.toString());
+			return;
+		}
+		if (!(state instanceof DecimalType)) {
+			return;
+		}
+		long b = (long) Math.floor((double) (time - filter.getBeginDate().getTime()) / interval);
+		if (count > 0 && b != bucket) {
+			flushBucket();
+		}
+		double value = ((DecimalType) state).doubleValue();
+		if (count == 0) {
+			bucket = b;
+			sum = 0;
+			first = minimum = maximum = state;
+			minimumValue = maximumValue = value;
+		} else if (value < minimumValue) {
+			minimum = state;
+			minimumValue = value;
+		} else if (value > maximumValue) {
+			maximum = state;
+			maximumValue = value;
+		}
+		last = state;
+		sum += value;
+		count++;
+	}
+
+	private void flushBucket() throws IOException {
+		long time = filter.getBeginDate().getTime() + bucket * interval;
+		switch (aggregation) {
+			case MINIMUM:
+				writer.row(time, minimum.toString());
+				break;
+			case MAXIMUM:
+				writer.row(time, maximum.toString());
+				break;
+			case FIRST:
+				writer.row(time, first.toString());
+				break;
+			case LAST:
+				writer.row(time, last.toString());
+				break;
+			case SUM:
+				writer.row(time, new DecimalType(BigDecimal.valueOf(sum)).toString());
+				break;
+			case COUNT:
+				writer.row(time, new DecimalType(count).toString());
+				break;
+			default:
+				writer.row(time, new DecimalType(BigDecimal.valueOf(sum / count)).toString());
+		}
+		count = 0;
+	}
+
+	private interface RowWriter {
+
+		void begin() throws IOException;
+
+		void row(long time, String state) throws IOException;
+
+		void end() throws IOException;
+
+	}
+
+	/**
+	 * Writes <code>{"name":"...","datapoints":[{"time":...,"state":"..."},...]}</code>.
+	 */
+	private static class JsonWriter implements RowWriter {
+
+		private final JsonGenerator generator;
+		private final String itemName;
+
+		JsonWriter(OutputStream output, String itemName) throws IOException {
+			this.generator = jsonFactory.createJsonGenerator(output, JsonEncoding.UTF8);
+			this.itemName = itemName;
+		}
+
+		public void begin() throws IOException {
+			generator.writeStartObject();
+			generator.writeStringField("name", itemName);
+			generator.writeArrayFieldStart("datapoints");
+		}
+
+		public void row(long time, String state) throws IOException {
+			generator.writeStartObject();
+			generator.writeNumberField("time", time);
+			generator.writeStringField("state", state);
+			generator.writeEndObject();
+		}
+
+		public void end() throws IOException {
+			generator.writeEndArray();
+			generator.writeEndObject();
+			generator.flush();
+		}
+
+	}
+
+	/**
+	 * Writes a header line and one line with the time and the state per state.
+	 */
+	private static class CsvWriter implements RowWriter {
+
+		private final Writer writer;
+
+		CsvWriter(OutputStream output) throws IOException {
+			this.writer = new BufferedWriter(new OutputStreamWriter(output, "UTF-8"));
+		}
+
+		public void begin() throws IOException {
+			writer.write("time,state\n");
+		}
+
+		public void row(long time, String state) throws IOException {
+			writer.write(Long.toString(time));
+			writer.write(',');
+			if (state.indexOf(',') >= 0 || state.indexOf('"') >= 0 || state.indexOf('\n') >= 0
+					|| state.indexOf('\r') >= 0) {
+				writer.write('"');
+				writer.write(state.replace("\"", "\"\""));
+				writer.write('"');
+			} else {
+				writer.write(state);
+			}
+			writer.write('\n');
+		}
+
+		public void end() throws IOException {
+			writer.flush();
+		}
+
+	}
+
+}
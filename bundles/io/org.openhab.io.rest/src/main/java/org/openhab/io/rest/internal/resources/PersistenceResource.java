@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.rest.internal.resources;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.UriInfo;
+
+import org.openhab.core.persistence.AggregatingPersistenceService.Aggregation;
+import org.openhab.core.persistence.FilterCriteria;
+import org.openhab.core.persistence.FilterCriteria.Ordering;
+import org.openhab.core.persistence.QueryablePersistenceService;
+import org.openhab.io.rest.RESTApplication;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>This class acts as a REST resource for the history of items and provides the states
+ * which have been stored by a queryable persistence service as JSON or CSV.</p>
+ *
+ * <p>The states of <code>/rest/persistence/{service}/{item}</code> can be restricted by the
+ * following query parameters:
+ * <ul>
+ * <li>starttime, endtime: the time range, either in milliseconds since the epoch or as
+ * <code>yyyy-MM-dd'T'HH:mm:ss</code>. The default is the day before the end time, which is
+ * now by default.</li>
+ * <li>page, pagesize: returns only the given page of the states. Without them, all states of
+ * the time range are returned.</li>
+ * <li>interval, aggregation: aggregates the numeric states within each interval of the given
+ * number of milliseconds, starting at the start time. The aggregation is one of
+ * {@link Aggregation}, the average by default.</li>
+ * <li>type: either "json" or "csv", takes precedence over the accepted media types.</li>
+ * </ul></p>
+ *
+ * <p>The states are written to the response as they are read from the persistence service,
+ * so that even large exports do not have to be kept in memory.</p>
+ *
+ * <p>This resource is registered with the Jersey servlet.</p>
+ *
+ * @since 1.6.0
+ */
+@Path(PersistenceResource.PATH_PERSISTENCE)
+public class PersistenceResource {
+
+	private static final Logger logger = LoggerFactory.getLogger(PersistenceResource.class);
+
+	/** The URI path to this resource */
+	public static final String PATH_PERSISTENCE = "persistence";
+
+	public static final String TEXT_CSV = "text/csv";
+
+	private static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss";
+
+	private static final long DEFAULT_PERIOD = 86400000L;
+
+	@Context UriInfo uriInfo;
+
+	@GET @Path("/{servicename: [a-zA-Z_0-9]*}/{itemname: [a-zA-Z_0-9]*}")
+	@Produces( { MediaType.APPLICATION_JSON, TEXT_CSV })
+	public Response getHistory(
+			@Context HttpHeaders headers,
+			@PathParam("servicename") String servicename,
+			@PathParam("itemname") String itemname,
+			@QueryParam("type") String type,
+			@QueryParam("starttime") String starttime,
+			@QueryParam("endtime") String endtime,
+			@QueryParam("page") Integer page,
+			@QueryParam("pagesize") Integer pagesize,
+			@QueryParam("interval") Long interval,
+			@QueryParam("aggregation") String aggregation) {
+		logger.debug("Received HTTP GET request at '{}' for media type '{}'.", uriInfo.getPath(), type);
+
+		QueryablePersistenceService service = RESTApplication.getPersistenceServices().get(servicename);
+		if (service == null) {
+			logger.info("Received HTTP GET request at '{}' for the unknown persistence service '{}'.",
+					uriInfo.getPath(), servicename);
+			throw new WebApplicationException(404);
+		}
+
+		String responseType = getResponseMediaType(headers, type);
+		if (responseType == null) {
+			return Response.notAcceptable(null).build();
+		}
+
+		Date end = endtime != null ? parseDate(endtime) : new Date();
+		Date begin = starttime != null ? parseDate(starttime) : new Date(end.getTime() - DEFAULT_PERIOD);
+		if (begin.after(end)) {
+			throw badRequest("The start time must not be after the end time");
+		}
+
+		FilterCriteria filter = new FilterCriteria();
+		filter.setItemName(itemname);
+		filter.setBeginDate(begin);
+		filter.setEndDate(end);
+		filter.setOrdering(Ordering.ASCENDING);
+		if (pagesize != null || page != null) {
+			if (pagesize == null || pagesize <= 0 || (page != null && page < 0)) {
+				throw badRequest("The page size must be positive and the page must not be negative");
+			}
+			filter.setPageSize(pagesize);
+			filter.setPageNumber(page != null ? page : 0);
+		}
+
+		HistoryOutput output = new HistoryOutput(service, filter, TEXT_CSV.equals(responseType));
+		if (interval != null) {
+			if (interval <= 0) {
+				throw badRequest("The interval must be positive");
+			}
+			output.setBuckets(interval, parseAggregation(aggregation));
+		} else if (aggregation != null) {
+			throw badRequest("An aggregation requires an interval");
+		}
+		return Response.ok(output, responseType).build();
+	}
+
+	/**
+	 * Determines the response media type. The explicit type parameter takes precedence
+	 * over the accepted types.
+	 *
+	 * @return either CSV, JSON or <code>null</code>, if none of them is accepted
+	 */
+	private static String getResponseMediaType(HttpHeaders headers, String type) {
+		if ("csv".equals(type)) {
+			return TEXT_CSV;
+		} else if ("json".equals(type)) {
+			return MediaType.APPLICATION_JSON;
+		}
+		for (MediaType mediaType : headers.getAcceptableMediaTypes()) {
+			if (mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
+				return MediaType.APPLICATION_JSON;
+			} else if (mediaType.isCompatible(MediaType.valueOf(TEXT_CSV))) {
+				return TEXT_CSV;
+			}
+		}
+		return null;
+	}
+
+	private static Date parseDate(String date) {
+		try {
+			if (date.matches("\\d+")) {
+				return new Date(Long.parseLong(date));
+			}
+			return new SimpleDateFormat(DATE_FORMAT).parse(date);
+		} catch (ParseException e) {
+			throw badRequest("The time '" + date + "' is neither in milliseconds nor formatted as " + DATE_FORMAT);
+		} catch (NumberFormatException e) {
+			throw badRequest("The time '" + date + "' is out of range");
+		}
+	}
+
+	private static Aggregation parseAggregation(String aggregation) {
+		if (aggregation == null) {
+			return Aggregation.AVERAGE;
+		}
+		try {
+			return Aggregation.valueOf(aggregation.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw badRequest("Unknown aggregation '" + aggregation + "'");
+		}
+	}
+
+	private static WebApplicationException badRequest(String message) {
+		return new WebApplicationException(Response.status(Status.BAD_REQUEST).entity(message)
+				.type(MediaType.TEXT_PLAIN).build());
+	}
+
+}
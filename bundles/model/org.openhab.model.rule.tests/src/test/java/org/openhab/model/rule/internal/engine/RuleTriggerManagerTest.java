@@ -0,0 +1,239 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.model.rule.internal.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.openhab.model.rule.internal.engine.RuleTriggerManager.TriggerTypes.CHANGE;
+import static org.openhab.model.rule.internal.engine.RuleTriggerManager.TriggerTypes.COMMAND;
+import static org.openhab.model.rule.internal.engine.RuleTriggerManager.TriggerTypes.UPDATE;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.openhab.core.items.Item;
+import org.openhab.core.library.items.NumberItem;
+import org.openhab.core.library.items.SwitchItem;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.library.types.OnOffType;
+import org.openhab.core.types.Command;
+import org.openhab.core.types.State;
+import org.openhab.model.rule.rules.ChangedEventTrigger;
+import org.openhab.model.rule.rules.CommandEventTrigger;
+import org.openhab.model.rule.rules.Rule;
+import org.openhab.model.rule.rules.RuleModel;
+import org.openhab.model.rule.rules.RulesFactory;
+import org.openhab.model.rule.rules.UpdateEventTrigger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Tests the trigger lookup of the {@link RuleTriggerManager} and measures the
+ * latency of matching an event against 10.000 rules.
+ *
+ * @since 1.6.0
+ */
+public class RuleTriggerManagerTest {
+
+	private static final Logger logger = LoggerFactory.getLogger(RuleTriggerManagerTest.class);
+
+	private static final int BENCHMARK_ITEMS = 2000;
+	private static final int BENCHMARK_RULES = 10000;
+	private static final int BENCHMARK_EVENTS = 200000;
+
+	private RuleTriggerManager triggerManager;
+
+	@Before
+	public void setup() {
+		triggerManager = new RuleTriggerManager();
+	}
+
+	@After
+	public void tearDown() {
+		triggerManager.clearAll();
+	}
+
+	@Test
+	public void testUpdateTriggers() {
+		SwitchItem item = new SwitchItem("Switch1");
+		Rule anyUpdate = createRule("anyUpdate");
+		anyUpdate.getEventtrigger().add(createUpdateTrigger("Switch1", null));
+		Rule onUpdate = createRule("onUpdate");
+		onUpdate.getEventtrigger().add(createUpdateTrigger("Switch1", "ON"));
+		Rule otherItem = createRule("otherItem");
+		otherItem.getEventtrigger().add(createUpdateTrigger("Switch2", null));
+		triggerManager.addRule(anyUpdate);
+		triggerManager.addRule(onUpdate);
+		triggerManager.addRule(otherItem);
+
+		List<Rule> rules = Lists.newArrayList(triggerManager.getRules(UPDATE, item, (State) OnOffType.ON));
+		assertEquals(2, rules.size());
+		assertTrue(rules.contains(anyUpdate));
+		assertTrue(rules.contains(onUpdate));
+
+		rules = Lists.newArrayList(triggerManager.getRules(UPDATE, item, (State) OnOffType.OFF));
+		assertEquals(1, rules.size());
+		assertTrue(rules.contains(anyUpdate));
+	}
+
+	@Test
+	public void testChangedTriggers() {
+		SwitchItem item = new SwitchItem("Switch1");
+		Rule anyChange = createRule("anyChange");
+		anyChange.getEventtrigger().add(createChangedTrigger("Switch1", null, null));
+		Rule toOn = createRule("toOn");
+		toOn.getEventtrigger().add(createChangedTrigger("Switch1", null, "ON"));
+		Rule offToOn = createRule("offToOn");
+		offToOn.getEventtrigger().add(createChangedTrigger("Switch1", "OFF", "ON"));
+		triggerManager.addRule(anyChange);
+		triggerManager.addRule(toOn);
+		triggerManager.addRule(offToOn);
+
+		List<Rule> rules = Lists.newArrayList(triggerManager.getRules(CHANGE, item, OnOffType.OFF, OnOffType.ON));
+		assertEquals(3, rules.size());
+
+		rules = Lists.newArrayList(triggerManager.getRules(CHANGE, item, OnOffType.ON, OnOffType.OFF));
+		assertEquals(1, rules.size());
+		assertTrue(rules.contains(anyChange));
+	}
+
+	@Test
+	public void testCommandTriggers() {
+		NumberItem item = new NumberItem("Number1");
+		Rule anyCommand = createRule("anyCommand");
+		anyCommand.getEventtrigger().add(createCommandTrigger("Number1", null));
+		Rule fortyTwo = createRule("fortyTwo");
+		fortyTwo.getEventtrigger().add(createCommandTrigger("Number1", "42"));
+		triggerManager.addRule(anyCommand);
+		triggerManager.addRule(fortyTwo);
+
+		List<Rule> rules = Lists.newArrayList(triggerManager.getRules(COMMAND, item, (Command) new DecimalType(42)));
+		assertEquals(2, rules.size());
+
+		rules = Lists.newArrayList(triggerManager.getRules(COMMAND, item, (Command) new DecimalType(7)));
+		assertEquals(1, rules.size());
+		assertTrue(rules.contains(anyCommand));
+	}
+
+	@Test
+	public void testRuleIsReturnedOnceForSeveralMatchingTriggers() {
+		SwitchItem item = new SwitchItem("Switch1");
+		Rule rule = createRule("twoTriggers");
+		rule.getEventtrigger().add(createUpdateTrigger("Switch1", null));
+		rule.getEventtrigger().add(createUpdateTrigger("Switch1", "ON"));
+		triggerManager.addRule(rule);
+
+		List<Rule> rules = Lists.newArrayList(triggerManager.getRules(UPDATE, item, (State) OnOffType.ON));
+		assertEquals(1, rules.size());
+	}
+
+	@Test
+	public void testRemoveRuleModel() {
+		SwitchItem item = new SwitchItem("Switch1");
+		RuleModel model = RulesFactory.eINSTANCE.createRuleModel();
+		Rule rule = createRule("removed");
+		rule.getEventtrigger().add(createUpdateTrigger("Switch1", null));
+		model.getRules().add(rule);
+		triggerManager.addRuleModel(model);
+		assertEquals(1, Lists.newArrayList(triggerManager.getRules(UPDATE, item, (State) OnOffType.ON)).size());
+
+		triggerManager.removeRuleModel(model);
+		assertEquals(0, Lists.newArrayList(triggerManager.getRules(UPDATE, item, (State) OnOffType.ON)).size());
+	}
+
+	@Ignore("benchmark, run manually")
+	@Test
+	public void benchmarkEventToRuleMatching() {
+		List<Item> items = new ArrayList<Item>(BENCHMARK_ITEMS);
+		for (int i = 0; i < BENCHMARK_ITEMS; i++) {
+			items.add(new NumberItem("Number" + i));
+		}
+		for (int i = 0; i < BENCHMARK_RULES; i++) {
+			String itemName = "Number" + (i % BENCHMARK_ITEMS);
+			Rule rule = createRule("rule" + i);
+			switch (i % 4) {
+				case 0: rule.getEventtrigger().add(createUpdateTrigger(itemName, null)); break;
+				case 1: rule.getEventtrigger().add(createUpdateTrigger(itemName, String.valueOf(i % 10))); break;
+				case 2: rule.getEventtrigger().add(createChangedTrigger(itemName, null, String.valueOf(i % 10))); break;
+				default: rule.getEventtrigger().add(createCommandTrigger(itemName, String.valueOf(i % 10))); break;
+			}
+			triggerManager.addRule(rule);
+		}
+
+		// warm up, this also parses the triggers of all items
+		long matches = runEvents(items, BENCHMARK_EVENTS);
+
+		long start = System.nanoTime();
+		matches += runEvents(items, BENCHMARK_EVENTS);
+		long duration = System.nanoTime() - start;
+
+		logger.info("Matched {} events against {} rules in {}ms ({}ns per event, {} matches)", new Object[] {
+				3 * BENCHMARK_EVENTS, BENCHMARK_RULES, duration / 1000000, duration / (3 * BENCHMARK_EVENTS), matches });
+		assertTrue(matches > 0);
+	}
+
+	private long runEvents(List<Item> items, int events) {
+		long matches = 0;
+		for (int i = 0; i < events; i++) {
+			Item item = items.get(i % items.size());
+			DecimalType state = new DecimalType(i % 10);
+			matches += count(triggerManager.getRules(UPDATE, item, (State) state));
+			matches += count(triggerManager.getRules(CHANGE, item, state, state));
+			matches += count(triggerManager.getRules(COMMAND, item, (Command) state));
+		}
+		return matches;
+	}
+
+	/**
+	 * Iterates over all rules like the rule engine does when it executes them.
+	 */
+	private static int count(Iterable<Rule> rules) {
+		int count = 0;
+		for (Iterator<Rule> iterator = rules.iterator(); iterator.hasNext(); iterator.next()) {
+			count++;
+		}
+		return count;
+	}
+
+	private static Rule createRule(String name) {
+		Rule rule = RulesFactory.eINSTANCE.createRule();
+		rule.setName(name);
+		return rule;
+	}
+
+	private static UpdateEventTrigger createUpdateTrigger(String itemName, String state) {
+		UpdateEventTrigger trigger = RulesFactory.eINSTANCE.createUpdateEventTrigger();
+		trigger.setItem(itemName);
+		trigger.setState(state);
+		return trigger;
+	}
+
+	private static ChangedEventTrigger createChangedTrigger(String itemName, String oldState, String newState) {
+		ChangedEventTrigger trigger = RulesFactory.eINSTANCE.createChangedEventTrigger();
+		trigger.setItem(itemName);
+		trigger.setOldState(oldState);
+		trigger.setNewState(newState);
+		return trigger;
+	}
+
+	private static CommandEventTrigger createCommandTrigger(String itemName, String command) {
+		CommandEventTrigger trigger = RulesFactory.eINSTANCE.createCommandEventTrigger();
+		trigger.setItem(itemName);
+		trigger.setCommand(command);
+		return trigger;
+	}
+
+}
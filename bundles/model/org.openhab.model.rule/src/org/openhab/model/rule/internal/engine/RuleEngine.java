@@ -8,8 +8,6 @@
  */
 package org.openhab.model.rule.internal.engine;
 
-import static org.openhab.core.events.EventConstants.TOPIC_PREFIX;
-import static org.openhab.core.events.EventConstants.TOPIC_SEPERATOR;
 import static org.openhab.model.rule.internal.engine.RuleTriggerManager.TriggerTypes.CHANGE;
 import static org.openhab.model.rule.internal.engine.RuleTriggerManager.TriggerTypes.COMMAND;
 import static org.openhab.model.rule.internal.engine.RuleTriggerManager.TriggerTypes.SHUTDOWN;
@@ -18,10 +16,15 @@ import static org.openhab.model.rule.internal.engine.RuleTriggerManager.TriggerT
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Dictionary;
 import java.util.List;
+import java.util.Map.Entry;
 
+import org.apache.commons.lang.StringUtils;
 import org.eclipse.emf.ecore.EObject;
 import org.eclipse.xtext.naming.QualifiedName;
+import org.openhab.core.events.ItemEvent;
+import org.openhab.core.events.ItemEventSubscriber;
 import org.openhab.core.items.GenericItem;
 import org.openhab.core.items.Item;
 import org.openhab.core.items.ItemNotFoundException;
@@ -29,18 +32,21 @@ import org.openhab.core.items.ItemRegistry;
 import org.openhab.core.items.ItemRegistryChangeListener;
 import org.openhab.core.items.StateChangeListener;
 import org.openhab.core.scriptengine.Script;
+import org.openhab.core.scriptengine.ScriptCache;
+import org.openhab.core.scriptengine.ScriptCache.CachedScript;
 import org.openhab.core.scriptengine.ScriptEngine;
 import org.openhab.core.scriptengine.ScriptExecutionException;
-import org.openhab.core.scriptengine.ScriptExecutionThread;
 import org.openhab.core.types.Command;
 import org.openhab.core.types.EventType;
 import org.openhab.core.types.State;
 import org.openhab.model.core.ModelRepository;
 import org.openhab.model.core.ModelRepositoryChangeListener;
+import org.openhab.model.rule.internal.engine.RuleExecutor.RejectionPolicy;
+import org.openhab.model.rule.internal.engine.RuleExecutor.RuleStatistics;
 import org.openhab.model.rule.rules.Rule;
 import org.openhab.model.rule.rules.RuleModel;
-import org.osgi.service.event.Event;
-import org.osgi.service.event.EventHandler;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,18 +63,31 @@ import com.google.common.collect.Lists;
  *
  */
 @SuppressWarnings("restriction")
-public class RuleEngine implements EventHandler, ItemRegistryChangeListener, StateChangeListener, ModelRepositoryChangeListener {
+public class RuleEngine implements ItemEventSubscriber, ItemRegistryChangeListener, StateChangeListener, ModelRepositoryChangeListener, ManagedService {
 
 		static private final Logger logger = LoggerFactory.getLogger(RuleEngine.class);
 		
+		/** the time to wait for running rules when the rule engine is stopped (in milliseconds) */
+		private static final long SHUTDOWN_TIMEOUT = 5000L;
+
 		private ItemRegistry itemRegistry;
 		private ModelRepository modelRepository;
 		private ScriptEngine scriptEngine;
 
 		private RuleTriggerManager triggerManager;
+		
+		private RuleExecutor ruleExecutor;
+		
+		private final ScriptCache scriptCache = new ScriptCache();
+		
+		private int threads = RuleExecutor.DEFAULT_THREADS;
+		private int queueSize = RuleExecutor.DEFAULT_QUEUE_SIZE;
+		private RejectionPolicy rejectionPolicy = RejectionPolicy.CALLERRUNS;
 						
 		public void activate() {
 			triggerManager = new RuleTriggerManager();
+			ruleExecutor = new RuleExecutor();
+			configureRuleExecutor();
 
 			if(!isEnabled()) {
 				logger.info("Rule engine is disabled.");
@@ -100,6 +119,63 @@ public class RuleEngine implements EventHandler, ItemRegistryChangeListener, Sta
 			executeRules(triggerManager.getRules(SHUTDOWN));
 			triggerManager.clearAll();
 			triggerManager = null;
+			scriptCache.clear();
+			
+			ruleExecutor.shutdown(SHUTDOWN_TIMEOUT);
+			if(logger.isDebugEnabled()) {
+				for(Entry<String, RuleStatistics> entry : ruleExecutor.getStatistics().entrySet()) {
+					logger.debug("Statistics of rule '{}': {}", entry.getKey(), entry.getValue());
+				}
+			}
+			ruleExecutor = null;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		@SuppressWarnings("rawtypes")
+		public void updated(Dictionary config) throws ConfigurationException {
+			if (config != null) {
+				String threadsString = (String) config.get("threads");
+				if (StringUtils.isNotBlank(threadsString)) {
+					threads = parsePositiveInt("threads", threadsString);
+				}
+				String queueSizeString = (String) config.get("queuesize");
+				if (StringUtils.isNotBlank(queueSizeString)) {
+					queueSize = parsePositiveInt("queuesize", queueSizeString);
+				}
+				String rejectionPolicyString = (String) config.get("rejectionpolicy");
+				if (StringUtils.isNotBlank(rejectionPolicyString)) {
+					try {
+						rejectionPolicy = RejectionPolicy.valueOf(rejectionPolicyString.trim().toUpperCase());
+					} catch (IllegalArgumentException e) {
+						throw new ConfigurationException("rejectionpolicy", "Unknown rejection policy '" + rejectionPolicyString 
+								+ "', valid values are 'callerruns' and 'discard'");
+					}
+				}
+				configureRuleExecutor();
+			}
+		}
+		
+		private int parsePositiveInt(String key, String value) throws ConfigurationException {
+			try {
+				int result = Integer.parseInt(value.trim());
+				if (result > 0) {
+					return result;
+				}
+			} catch (NumberFormatException e) {
+				// handled below
+			}
+			throw new ConfigurationException(key, "The value '" + value + "' must be a positive number");
+		}
+		
+		private void configureRuleExecutor() {
+			RuleExecutor executor = ruleExecutor;
+			if (executor != null) {
+				executor.setThreads(threads);
+				executor.setMaxQueueSize(queueSize);
+				executor.setRejectionPolicy(rejectionPolicy);
+			}
 		}
 		
 		public void setItemRegistry(ItemRegistry itemRegistry) {
@@ -128,6 +204,7 @@ public class RuleEngine implements EventHandler, ItemRegistryChangeListener, Sta
 
 		public void unsetScriptEngine(ScriptEngine scriptEngine) {
 			this.scriptEngine = null;
+			scriptCache.clear();
 		}
 
 		/**
@@ -206,26 +283,18 @@ public class RuleEngine implements EventHandler, ItemRegistryChangeListener, Sta
 		/**
 		 * {@inheritDoc}
 		 */
-		public void handleEvent(Event event) {  
-			String itemName = (String) event.getProperty("item");
-			
-			String topic = event.getTopic();
-			String[] topicParts = topic.split(TOPIC_SEPERATOR);
-			
-			if(!(topicParts.length > 2) || !topicParts[0].equals(TOPIC_PREFIX)) {
-				return; // we have received an event with an invalid topic
-			}
-			String operation = topicParts[1];
-			
-			if(operation.equals(EventType.COMMAND.toString())) {
-				Command command = (Command) event.getProperty("command");
-				if(command!=null) receiveCommand(itemName, command);
+		public void receiveItemEvent(ItemEvent event) {
+			if(event.getType()==EventType.COMMAND) {
+				receiveCommand(event.getItemName(), event.getCommand());
 			}
 		}
 
 		public void modelChanged(String modelName, org.openhab.model.core.EventType type) {
 			if (triggerManager != null) {
 				if(isEnabled() && modelName.endsWith("rules")) {
+					// the rules of the model have been replaced, so their scripts must be rebuilt
+					scriptCache.invalidate(modelName);
+
 					RuleModel model = (RuleModel) modelRepository.getModel(modelName);
 	
 					// remove the rules from the trigger sets
@@ -253,11 +322,11 @@ public class RuleEngine implements EventHandler, ItemRegistryChangeListener, Sta
 				
 				for(Rule rule : startupRules) {
 					try {
-						Script script = scriptEngine.newScriptFromXExpression(rule.getScript());						
+						CachedScript cachedScript = getScript(rule);
 						logger.debug("Executing startup rule '{}'", rule.getName());
 						RuleEvaluationContext context = new RuleEvaluationContext();
-						context.setGlobalContext(RuleContextHelper.getContext(rule));
-						script.execute(context);
+						context.setGlobalContext(cachedScript.getGlobalContext());
+						cachedScript.getScript().execute(context);
 						executedRules.add(rule);
 					} catch (ScriptExecutionException e) {
 						if(e.getCause() instanceof ItemNotFoundException || e.getCause().getMessage().contains("cannot be resolved to an item or type")) {
@@ -280,14 +349,37 @@ public class RuleEngine implements EventHandler, ItemRegistryChangeListener, Sta
 		}
 			
 		protected synchronized void executeRule(Rule rule, RuleEvaluationContext context) {
-			Script script = scriptEngine.newScriptFromXExpression(rule.getScript());
+			CachedScript cachedScript = getScript(rule);
 			
 			logger.debug("Executing rule '{}'", rule.getName());
 			
-			context.setGlobalContext(RuleContextHelper.getContext(rule));
+			context.setGlobalContext(cachedScript.getGlobalContext());
 			
-			ScriptExecutionThread thread = new ScriptExecutionThread(rule.getName(), script, context);
-			thread.start();
+			ruleExecutor.execute(rule, cachedScript.getScript(), context);
+		}
+		
+		/**
+		 * Returns the script of a rule together with its global context. Both are taken from the 
+		 * script cache, if possible; otherwise they are created and added to the cache.
+		 * 
+		 * @param rule the rule to get the script for
+		 * @return the script and global context of the rule
+		 */
+		private CachedScript getScript(Rule rule) {
+			String modelName = rule.eResource()!=null ? rule.eResource().getURI().path() : null;
+			if(modelName!=null) {
+				CachedScript cachedScript = scriptCache.get(modelName, rule.getName(), rule.getScript());
+				if(cachedScript!=null) {
+					return cachedScript;
+				}
+			}
+			Script script = scriptEngine.newScriptFromXExpression(rule.getScript());
+			if(modelName!=null) {
+				return scriptCache.put(modelName, rule.getName(), rule.getScript(), script, RuleContextHelper.getContext(rule));
+			} else {
+				// the rule does not belong to a model (anymore), so we do not cache it
+				return new CachedScript(rule.getScript(), script, RuleContextHelper.getContext(rule), -1);
+			}
 		}
 
 		protected synchronized void executeRules(Iterable<Rule> rules) {
@@ -0,0 +1,384 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.model.rule.internal.engine;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.xtext.xbase.interpreter.IEvaluationContext;
+import org.openhab.core.scriptengine.Script;
+import org.openhab.core.scriptengine.ScriptExecutionException;
+import org.openhab.model.rule.rules.Rule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The rule executor runs triggered rules on a bounded pool of worker threads
+ * instead of starting a new thread for every single rule execution.
+ *
+ * <p>Executions of the same rule are serialized, i.e. a rule is never executed
+ * by two workers at the same time and its executions keep the order in which
+ * they were triggered. The number of pending (not yet started) executions is
+ * limited; if the limit is reached, the configured {@link RejectionPolicy}
+ * decides what happens to the new execution.</p>
+ *
+ * <p>For every rule the time spent in the queue and the time needed for the
+ * execution itself is recorded and can be retrieved through {@link #getStatistics()}.</p>
+ *
+ * @since 1.6.0
+ *
+ */
+@SuppressWarnings("restriction")
+public class RuleExecutor {
+
+	static private final Logger logger = LoggerFactory.getLogger(RuleExecutor.class);
+
+	/** the default number of worker threads */
+	public static final int DEFAULT_THREADS = 10;
+
+	/** the default maximum number of pending rule executions */
+	public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+	/** how long idle worker threads are kept alive (in seconds) */
+	private static final long KEEP_ALIVE_TIME = 60L;
+
+	public enum RejectionPolicy {
+		CALLERRUNS,		// executes the rule in the thread which triggered it (slows down the producer, but bypasses the serialization)
+		DISCARD			// drops the rule execution and logs a warning
+	}
+
+	private final ThreadPoolExecutor pool;
+
+	private int maxQueueSize = DEFAULT_QUEUE_SIZE;
+
+	private RejectionPolicy rejectionPolicy = RejectionPolicy.CALLERRUNS;
+
+	// the executions per rule, which are currently running or waiting (guarded by "this")
+	private final Map<Rule, LinkedList<RuleExecution>> ruleQueues = new HashMap<Rule, LinkedList<RuleExecution>>();
+
+	// the number of executions which have been accepted, but not yet started (guarded by "this")
+	private int pendingExecutions = 0;
+
+	private final ConcurrentHashMap<String, RuleStatistics> statistics = new ConcurrentHashMap<String, RuleStatistics>();
+
+	public RuleExecutor() {
+		pool = new ThreadPoolExecutor(DEFAULT_THREADS, DEFAULT_THREADS, KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new RuleThreadFactory());
+		pool.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Sets the maximum number of worker threads used for the rule execution.
+	 *
+	 * @param threads the number of worker threads (must be greater than 0)
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("The number of rule threads must be greater than 0");
+		}
+		if (threads > pool.getMaximumPoolSize()) {
+			pool.setMaximumPoolSize(threads);
+			pool.setCorePoolSize(threads);
+		} else {
+			pool.setCorePoolSize(threads);
+			pool.setMaximumPoolSize(threads);
+		}
+	}
+
+	/**
+	 * Sets the maximum number of rule executions that may wait for a free worker thread.
+	 *
+	 * @param maxQueueSize the maximum number of pending executions (must be greater than 0)
+	 */
+	public synchronized void setMaxQueueSize(int maxQueueSize) {
+		if (maxQueueSize < 1) {
+			throw new IllegalArgumentException("The rule queue size must be greater than 0");
+		}
+		this.maxQueueSize = maxQueueSize;
+	}
+
+	/**
+	 * Defines what happens to a rule execution if the queue is full.
+	 *
+	 * @param rejectionPolicy the policy to apply
+	 */
+	public synchronized void setRejectionPolicy(RejectionPolicy rejectionPolicy) {
+		this.rejectionPolicy = rejectionPolicy;
+	}
+
+	/**
+	 * Schedules a script for execution on behalf of the given rule. The call returns
+	 * immediately unless the queue is full and the rejection policy is {@link RejectionPolicy#CALLERRUNS}.
+	 *
+	 * @param rule the rule that the script belongs to
+	 * @param script the script to execute
+	 * @param context the evaluation context to execute the script with
+	 */
+	public void execute(Rule rule, Script script, IEvaluationContext context) {
+		RuleExecution execution = new RuleExecution(rule, script, context);
+		RuleExecution toStart = null;
+		RejectionPolicy rejectWith = null;
+
+		synchronized (this) {
+			if (pendingExecutions >= maxQueueSize) {
+				rejectWith = rejectionPolicy;
+			} else {
+				pendingExecutions++;
+				LinkedList<RuleExecution> queue = ruleQueues.get(rule);
+				if (queue == null) {
+					// the rule is not active, so it can be started right away
+					queue = new LinkedList<RuleExecution>();
+					ruleQueues.put(rule, queue);
+					toStart = execution;
+				}
+				queue.add(execution);
+			}
+		}
+
+		if (rejectWith != null) {
+			RuleStatistics ruleStatistics = getStatistics(execution.ruleName);
+			ruleStatistics.rejected.incrementAndGet();
+			if (rejectWith == RejectionPolicy.CALLERRUNS) {
+				logger.debug("Rule queue is full, executing rule '{}' in the calling thread", execution.ruleName);
+				execution.execute();
+			} else {
+				logger.warn("Rule queue is full, discarding execution of rule '{}'", execution.ruleName);
+			}
+		} else if (toStart != null) {
+			submit(toStart);
+		}
+	}
+
+	/**
+	 * Stops accepting new rule executions and waits for the running ones to terminate.
+	 *
+	 * @param timeout the maximum time to wait in milliseconds
+	 */
+	public void shutdown(long timeout) {
+		pool.shutdown();
+		try {
+			if (!pool.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+				logger.warn("Rule executions did not terminate within {}ms", timeout);
+				pool.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			pool.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			ruleQueues.clear();
+			pendingExecutions = 0;
+		}
+	}
+
+	/**
+	 * Returns the number of rule executions which are waiting for a worker thread.
+	 *
+	 * @return the number of pending rule executions
+	 */
+	public synchronized int getPendingExecutions() {
+		return pendingExecutions;
+	}
+
+	/**
+	 * Returns the execution statistics of all rules that have been executed so far.
+	 *
+	 * @return an unmodifiable map from rule name to statistics
+	 */
+	public Map<String, RuleStatistics> getStatistics() {
+		return Collections.unmodifiableMap(statistics);
+	}
+
+	private RuleStatistics getStatistics(String ruleName) {
+		RuleStatistics ruleStatistics = statistics.get(ruleName);
+		if (ruleStatistics == null) {
+			ruleStatistics = new RuleStatistics();
+			RuleStatistics existing = statistics.putIfAbsent(ruleName, ruleStatistics);
+			if (existing != null) {
+				ruleStatistics = existing;
+			}
+		}
+		return ruleStatistics;
+	}
+
+	/**
+	 * Called by a worker after it has finished an execution; schedules the next
+	 * pending execution of the same rule, if there is one.
+	 */
+	private void executionFinished(RuleExecution execution) {
+		RuleExecution next = null;
+		synchronized (this) {
+			LinkedList<RuleExecution> queue = ruleQueues.get(execution.rule);
+			if (queue != null) {
+				queue.remove(execution);
+				if (queue.isEmpty()) {
+					ruleQueues.remove(execution.rule);
+				} else {
+					next = queue.getFirst();
+				}
+			}
+		}
+		if (next != null) {
+			// we re-submit instead of looping, so that a busy rule cannot starve the others
+			submit(next);
+		}
+	}
+
+	private void submit(RuleExecution execution) {
+		try {
+			pool.execute(execution);
+		} catch (RejectedExecutionException e) {
+			logger.debug("Rule executor has been shut down, skipping execution of rule '{}'", execution.ruleName);
+		}
+	}
+
+	private synchronized void executionStarted() {
+		pendingExecutions--;
+	}
+
+	/**
+	 * A single execution of a rule script, which is queued for a worker thread.
+	 */
+	private class RuleExecution implements Runnable {
+
+		private final Rule rule;
+		private final String ruleName;
+		private final Script script;
+		private final IEvaluationContext context;
+		private final long createdAt = System.nanoTime();
+
+		public RuleExecution(Rule rule, Script script, IEvaluationContext context) {
+			this.rule = rule;
+			this.ruleName = rule.getName();
+			this.script = script;
+			this.context = context;
+		}
+
+		public void run() {
+			executionStarted();
+			try {
+				execute();
+			} finally {
+				executionFinished(this);
+			}
+		}
+
+		/**
+		 * Executes the script and records the timings, without touching the queues.
+		 */
+		public void execute() {
+			long startedAt = System.nanoTime();
+			try {
+				script.execute(context);
+			} catch (ScriptExecutionException e) {
+				String msg = e.getCause().getMessage();
+				if (msg == null) {
+					logger.error("Error during the execution of rule '{}'", ruleName, e.getCause());
+				} else {
+					logger.error("Error during the execution of rule '{}': {}", new String[] { ruleName, msg });
+				}
+			} catch (RuntimeException e) {
+				logger.error("Error during the execution of rule '{}'", ruleName, e);
+			} finally {
+				long waitTime = startedAt - createdAt;
+				long executionTime = System.nanoTime() - startedAt;
+				getStatistics(ruleName).record(waitTime, executionTime);
+				if (logger.isTraceEnabled()) {
+					logger.trace("Rule '{}' waited {}ms and executed in {}ms", new Object[] { ruleName,
+							TimeUnit.NANOSECONDS.toMillis(waitTime), TimeUnit.NANOSECONDS.toMillis(executionTime) });
+				}
+			}
+		}
+	}
+
+	private static class RuleThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "RuleExecutor-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	/**
+	 * Holds the accumulated queue wait and execution times of a single rule.
+	 * All times are given in nanoseconds.
+	 */
+	public static class RuleStatistics {
+
+		private final AtomicLong executions = new AtomicLong();
+		private final AtomicLong rejected = new AtomicLong();
+		private final AtomicLong totalWaitTime = new AtomicLong();
+		private final AtomicLong maxWaitTime = new AtomicLong();
+		private final AtomicLong totalExecutionTime = new AtomicLong();
+		private final AtomicLong maxExecutionTime = new AtomicLong();
+
+		private void record(long waitTime, long executionTime) {
+			executions.incrementAndGet();
+			totalWaitTime.addAndGet(waitTime);
+			totalExecutionTime.addAndGet(executionTime);
+			updateMax(maxWaitTime, waitTime);
+			updateMax(maxExecutionTime, executionTime);
+		}
+
+		private static void updateMax(AtomicLong max, long value) {
+			long current = max.get();
+			while (value > current && !max.compareAndSet(current, value)) {
+				current = max.get();
+			}
+		}
+
+		public long getExecutions() {
+			return executions.get();
+		}
+
+		public long getRejected() {
+			return rejected.get();
+		}
+
+		public long getTotalWaitTime() {
+			return totalWaitTime.get();
+		}
+
+		public long getMaxWaitTime() {
+			return maxWaitTime.get();
+		}
+
+		public long getTotalExecutionTime() {
+			return totalExecutionTime.get();
+		}
+
+		public long getMaxExecutionTime() {
+			return maxExecutionTime.get();
+		}
+
+		@Override
+		public String toString() {
+			long count = Math.max(1, executions.get());
+			return "executions=" + executions.get() + ", rejected=" + rejected.get()
+					+ ", avgWait=" + TimeUnit.NANOSECONDS.toMillis(totalWaitTime.get() / count) + "ms"
+					+ ", maxWait=" + TimeUnit.NANOSECONDS.toMillis(maxWaitTime.get()) + "ms"
+					+ ", avgExecution=" + TimeUnit.NANOSECONDS.toMillis(totalExecutionTime.get() / count) + "ms"
+					+ ", maxExecution=" + TimeUnit.NANOSECONDS.toMillis(maxExecutionTime.get()) + "ms";
+		}
+	}
+
+}
@@ -17,12 +17,16 @@ import static org.openhab.model.rule.internal.engine.RuleTriggerManager.TriggerT
 import static org.quartz.JobBuilder.newJob;
 import static org.quartz.TriggerBuilder.newTrigger;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.eclipse.emf.ecore.util.EcoreUtil;
 import org.openhab.core.items.Item;
@@ -51,9 +55,7 @@ import org.quartz.impl.matchers.GroupMatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 /**
@@ -61,6 +63,12 @@ import com.google.common.collect.Sets;
  * It keeps lists of which rule must be executed for which trigger and takes
  * over the evaluation of states and trigger conditions for the rule engine.
  * 
+ * <p>Event triggers are indexed by item name. The states and commands of the
+ * triggers of an item are parsed only once (as soon as the first event for the
+ * item arrives) and kept until the triggers or the accepted types of the item
+ * change, so that an event lookup is a single map access plus a comparison with
+ * the triggers of that very item.</p>
+ * 
  * @author Kai Kreuzer
  * @since 0.9.0
  *
@@ -78,10 +86,8 @@ public class RuleTriggerManager {
 		TIMER		// fires at a given time
 	}
 	
-	// lookup maps for different triggering conditions
-	private Map<String, Set<Rule>> updateEventTriggeredRules = Maps.newHashMap();
-	private Map<String, Set<Rule>> changedEventTriggeredRules = Maps.newHashMap();
-	private Map<String, Set<Rule>> commandEventTriggeredRules = Maps.newHashMap();
+	// lookup map for the item event triggers (update, change and command), keyed by item name
+	private Map<String, ItemTriggers> itemEventTriggers = new ConcurrentHashMap<String, ItemTriggers>();
 	private List<Rule> systemStartupTriggeredRules = Lists.newArrayList();
 	private List<Rule> systemShutdownTriggeredRules = Lists.newArrayList();
 	private List<Rule> timerEventTriggeredRules = Lists.newArrayList();
@@ -109,9 +115,9 @@ public class RuleTriggerManager {
 			case STARTUP:  result = systemStartupTriggeredRules; break;
 			case SHUTDOWN: result = systemShutdownTriggeredRules; break;
 			case TIMER:    result = timerEventTriggeredRules; break;
-			case UPDATE:   result = Iterables.concat(updateEventTriggeredRules.values()); break;
-			case CHANGE:   result = Iterables.concat(changedEventTriggeredRules.values()); break;
-			case COMMAND:  result = Iterables.concat(commandEventTriggeredRules.values()); break;
+			case UPDATE:   
+			case CHANGE:   
+			case COMMAND:  result = getAllEventTriggeredRules(type); break;
 			default:       result = Sets.newHashSet();
 		}
 		return result;
@@ -154,95 +160,65 @@ public class RuleTriggerManager {
 		return internalGetRules(triggerType, item, null, command);
 	}
 
-	private Iterable<Rule> getAllRules(TriggerTypes type, String itemName) {
-		switch(type) {
-			case STARTUP:  return systemStartupTriggeredRules;
-			case SHUTDOWN: return systemShutdownTriggeredRules;
-			case UPDATE:   return updateEventTriggeredRules.get(itemName);
-			case CHANGE:   return changedEventTriggeredRules.get(itemName);
-			case COMMAND:  return commandEventTriggeredRules.get(itemName);
-			default:       return Sets.newHashSet();
+	private synchronized Set<Rule> getAllEventTriggeredRules(TriggerTypes type) {
+		Set<Rule> result = new HashSet<Rule>();
+		for(ItemTriggers triggers : itemEventTriggers.values()) {
+			for(TriggeredRule triggeredRule : triggers.getTriggers(type)) {
+				result.add(triggeredRule.rule);
+			}
 		}
+		return result;
 	}
 
 	private Iterable<Rule> internalGetRules(TriggerTypes triggerType, Item item, Type oldType, Type newType) {
-		List<Rule> result = Lists.newArrayList();
-		Iterable<Rule> rules = getAllRules(triggerType, item.getName());
-		if(rules==null) {
-			rules = Lists.newArrayList();
+		switch(triggerType) {
+			case STARTUP:  return systemStartupTriggeredRules;
+			case SHUTDOWN: return systemShutdownTriggeredRules;
+			case TIMER :   return timerEventTriggeredRules;
+			default:       break;
+		}
+		ItemTriggers triggers = itemEventTriggers.get(item.getName());
+		if(triggers==null) {
+			return Collections.emptySet();
 		}
+		ParsedTriggers parsedTriggers = getParsedTriggers(triggers, item);
 		switch(triggerType) {
-		case STARTUP:  return systemStartupTriggeredRules;
-		case SHUTDOWN: return systemShutdownTriggeredRules;
-		case TIMER :   return timerEventTriggeredRules;
-		case UPDATE:   
-			if(newType instanceof State) {
-				State state = (State) newType;
-				for(Rule rule : rules) {
-					for(EventTrigger t : rule.getEventtrigger()) {
-						if (t instanceof UpdateEventTrigger) {
-							UpdateEventTrigger ut = (UpdateEventTrigger) t;
-							if(ut.getItem().equals(item.getName())) {
-								if(ut.getState()!=null) {
-									State triggerState = TypeParser.parseState(item.getAcceptedDataTypes(), ut.getState());
-									if(!state.equals(triggerState)) {
-										continue;
-									}
-								}
-								result.add(rule);
-							}
-						}
-					}
+			case UPDATE:
+				if(newType instanceof State) {
+					return parsedTriggers.updateMatcher.match(null, newType);
 				}
-			}
-			break;
-		case CHANGE:
-			if(newType instanceof State && oldType instanceof State) {
-				State newState = (State) newType;
-				State oldState = (State) oldType;
-				for(Rule rule : rules) {
-					for(EventTrigger t : rule.getEventtrigger()) {
-						if (t instanceof ChangedEventTrigger) {
-							ChangedEventTrigger ct = (ChangedEventTrigger) t;						
-							if(ct.getItem().equals(item.getName())) {
-								if(ct.getOldState()!=null) {
-									State triggerOldState = TypeParser.parseState(item.getAcceptedDataTypes(), ct.getOldState());
-									if(!oldState.equals(triggerOldState)) {
-										continue;
-									}								
-								}
-								if(ct.getNewState()!=null) {
-									State triggerNewState = TypeParser.parseState(item.getAcceptedDataTypes(), ct.getNewState());
-									if(!newState.equals(triggerNewState)) {
-										continue;
-									}								
-								}
-								result.add(rule);
-							}
-						}
-					}
+				break;
+			case CHANGE:
+				if(newType instanceof State && oldType instanceof State) {
+					return parsedTriggers.changeMatcher.match(oldType, newType);
 				}
-			}
-			break;
-		case COMMAND:  
-			if(newType instanceof Command) {
-				Command command = (Command) newType;
-				for(Rule rule : rules) {
-					for(EventTrigger t : rule.getEventtrigger()) {
-						if (t instanceof CommandEventTrigger) {
-							CommandEventTrigger ct = (CommandEventTrigger) t;
-							Command triggerCommand = TypeParser.parseCommand(item.getAcceptedCommandTypes(), ct.getCommand());
-							if(ct.getItem().equals(item.getName()) &&
-									(triggerCommand==null || command.equals(triggerCommand))) {
-								result.add(rule);
-							}
-						}
-					}
+				break;
+			case COMMAND:
+				if(newType instanceof Command) {
+					return parsedTriggers.commandMatcher.match(null, newType);
 				}
+				break;
+			default:
+				break;
+		}
+		return Collections.emptySet();
+	}
+
+	/**
+	 * Returns the parsed triggers of an item. They are only parsed again if the triggers have been
+	 * modified or if the item does not accept the same types as on the last parsing.
+	 */
+	private ParsedTriggers getParsedTriggers(ItemTriggers triggers, Item item) {
+		List<Class<? extends State>> dataTypes = item.getAcceptedDataTypes();
+		List<Class<? extends Command>> commandTypes = item.getAcceptedCommandTypes();
+		ParsedTriggers parsedTriggers = triggers.parsedTriggers;
+		if(parsedTriggers==null || !parsedTriggers.isParsedFor(dataTypes, commandTypes)) {
+			synchronized(this) {
+				parsedTriggers = new ParsedTriggers(triggers, dataTypes, commandTypes);
+				triggers.parsedTriggers = parsedTriggers;
 			}
-			break;
 		}
-		return result;
+		return parsedTriggers;
 	}
 
 	/**
@@ -250,13 +226,13 @@ public class RuleTriggerManager {
 	 * 
 	 * @param type the trigger type 
 	 */
-	public void clear(TriggerTypes type) {
+	public synchronized void clear(TriggerTypes type) {
 		switch(type) {
 			case STARTUP:  	systemStartupTriggeredRules.clear(); break;
 			case SHUTDOWN: 	systemShutdownTriggeredRules.clear(); break;
-			case UPDATE:   	updateEventTriggeredRules.clear(); break;
-			case CHANGE:   	changedEventTriggeredRules.clear(); break;
-			case COMMAND:  	commandEventTriggeredRules.clear(); break;
+			case UPDATE:   	
+			case CHANGE:   	
+			case COMMAND:  	clearEventTriggers(type); break;
 			case TIMER:    	for(Rule rule : timerEventTriggeredRules) {
 								removeTimerRule(rule);
 							}
@@ -290,28 +266,13 @@ public class RuleTriggerManager {
 				systemShutdownTriggeredRules.add(rule);
 			} else if(t instanceof CommandEventTrigger) {
 				CommandEventTrigger ceTrigger = (CommandEventTrigger) t;
-				Set<Rule> rules = commandEventTriggeredRules.get(ceTrigger.getItem());
-				if(rules==null) {
-					rules = new HashSet<Rule>();
-					commandEventTriggeredRules.put(ceTrigger.getItem(), rules);
-				}
-				rules.add(rule);
+				getItemTriggers(ceTrigger.getItem()).add(COMMAND, rule, ceTrigger);
 			} else if(t instanceof UpdateEventTrigger) {
 				UpdateEventTrigger ueTrigger = (UpdateEventTrigger) t;
-				Set<Rule> rules = updateEventTriggeredRules.get(ueTrigger.getItem());
-				if(rules==null) {
-					rules = new HashSet<Rule>();
-					updateEventTriggeredRules.put(ueTrigger.getItem(), rules);
-				}
-				rules.add(rule);
+				getItemTriggers(ueTrigger.getItem()).add(UPDATE, rule, ueTrigger);
 			} else if(t instanceof ChangedEventTrigger) {
 				ChangedEventTrigger ceTrigger = (ChangedEventTrigger) t;
-				Set<Rule> rules = changedEventTriggeredRules.get(ceTrigger.getItem());
-				if(rules==null) {
-					rules = new HashSet<Rule>();
-					changedEventTriggeredRules.put(ceTrigger.getItem(), rules);
-				}
-				rules.add(rule);
+				getItemTriggers(ceTrigger.getItem()).add(CHANGE, rule, ceTrigger);
 			} else if(t instanceof TimerTrigger) {
 				timerEventTriggeredRules.add(rule);
 				try {
@@ -323,19 +284,38 @@ public class RuleTriggerManager {
 		}
 	}
 		
+	private ItemTriggers getItemTriggers(String itemName) {
+		ItemTriggers triggers = itemEventTriggers.get(itemName);
+		if(triggers==null) {
+			triggers = new ItemTriggers();
+			itemEventTriggers.put(itemName, triggers);
+		}
+		return triggers;
+	}
+
+	private void clearEventTriggers(TriggerTypes type) {
+		for(ItemTriggers triggers : itemEventTriggers.values()) {
+			triggers.getTriggers(type).clear();
+			triggers.parsedTriggers = null;
+		}
+	}
+
 	/**
 	 * Removes a given rule from the mapping tables of a certain trigger type
 	 * 
 	 * @param type the trigger type for which the rule should be removed
 	 * @param rule the rule to add
 	 */
-	public void removeRule(TriggerTypes type, Rule rule) {
+	public synchronized void removeRule(TriggerTypes type, Rule rule) {
 		switch(type) {
 			case STARTUP:  	systemStartupTriggeredRules.remove(rule); break;
 			case SHUTDOWN: 	systemShutdownTriggeredRules.remove(rule); break;
-			case UPDATE:   	updateEventTriggeredRules.remove(rule); break;
-			case CHANGE:   	changedEventTriggeredRules.remove(rule); break;
-			case COMMAND:  	commandEventTriggeredRules.remove(rule); break;
+			case UPDATE:   	
+			case CHANGE:   	
+			case COMMAND:  	for(ItemTriggers triggers : itemEventTriggers.values()) {
+								triggers.remove(type, Collections.singleton(rule));
+							}
+							break;
 			case TIMER:    	timerEventTriggeredRules.remove(rule); 
 							removeTimerRule(rule);
 							break;
@@ -358,10 +338,13 @@ public class RuleTriggerManager {
 	 * 
 	 * @param ruleModel the rule model
 	 */
-	public void removeRuleModel(RuleModel ruleModel) {
-		removeRules(UPDATE, updateEventTriggeredRules.values(), ruleModel);
-		removeRules(CHANGE, changedEventTriggeredRules.values(), ruleModel);
-		removeRules(COMMAND, commandEventTriggeredRules.values(), ruleModel);
+	public synchronized void removeRuleModel(RuleModel ruleModel) {
+		Collection<Rule> modelRules = ruleModel!=null ? ruleModel.getRules() : Collections.<Rule>emptyList();
+		for(ItemTriggers triggers : itemEventTriggers.values()) {
+			triggers.remove(UPDATE, modelRules);
+			triggers.remove(CHANGE, modelRules);
+			triggers.remove(COMMAND, modelRules);
+		}
 		removeRules(STARTUP, Collections.singletonList(systemStartupTriggeredRules), ruleModel);
 		removeRules(SHUTDOWN, Collections.singletonList(systemShutdownTriggeredRules), ruleModel);		
 		removeRules(TIMER, Collections.singletonList(timerEventTriggeredRules), ruleModel);		
@@ -474,4 +457,196 @@ public class RuleTriggerManager {
 		}
 		return jobIdentity;
 	}
+
+	/**
+	 * A trigger of an item event together with the rule it belongs to.
+	 */
+	private static class TriggeredRule {
+		private final Rule rule;
+		private final EventTrigger trigger;
+
+		public TriggeredRule(Rule rule, EventTrigger trigger) {
+			this.rule = rule;
+			this.trigger = trigger;
+		}
+	}
+
+	/**
+	 * Holds all event triggers of a single item as they are defined in the rules
+	 * and the parsed version of them.
+	 * The trigger lists must only be accessed while holding the lock of the trigger manager.
+	 */
+	private static class ItemTriggers {
+		private final List<TriggeredRule> updateTriggers = new ArrayList<TriggeredRule>();
+		private final List<TriggeredRule> changeTriggers = new ArrayList<TriggeredRule>();
+		private final List<TriggeredRule> commandTriggers = new ArrayList<TriggeredRule>();
+
+		// the parsed triggers, null if they have to be parsed (again)
+		private volatile ParsedTriggers parsedTriggers;
+
+		public List<TriggeredRule> getTriggers(TriggerTypes type) {
+			switch(type) {
+				case UPDATE:  return updateTriggers;
+				case CHANGE:  return changeTriggers;
+				case COMMAND: return commandTriggers;
+				default:      throw new IllegalArgumentException("No item event trigger type: " + type);
+			}
+		}
+
+		public void add(TriggerTypes type, Rule rule, EventTrigger trigger) {
+			getTriggers(type).add(new TriggeredRule(rule, trigger));
+			parsedTriggers = null;
+		}
+
+		/**
+		 * Removes all triggers of the given rules and all triggers of proxified rules.
+		 */
+		public void remove(TriggerTypes type, Collection<Rule> rules) {
+			Iterator<TriggeredRule> it = getTriggers(type).iterator();
+			while(it.hasNext()) {
+				TriggeredRule triggeredRule = it.next();
+				if(triggeredRule.rule.eIsProxy() || rules.contains(triggeredRule.rule)) {
+					it.remove();
+					parsedTriggers = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The triggers of an item with the states and commands parsed for the types accepted by the item.
+	 */
+	private static class ParsedTriggers {
+		private final List<Class<? extends State>> dataTypes;
+		private final List<Class<? extends Command>> commandTypes;
+
+		private final TriggerMatcher updateMatcher;
+		private final TriggerMatcher changeMatcher;
+		private final TriggerMatcher commandMatcher;
+
+		public ParsedTriggers(ItemTriggers triggers, List<Class<? extends State>> dataTypes, List<Class<? extends Command>> commandTypes) {
+			this.dataTypes = dataTypes;
+			this.commandTypes = commandTypes;
+			
+			TriggerMatcherBuilder builder = new TriggerMatcherBuilder();
+			for(TriggeredRule triggeredRule : triggers.updateTriggers) {
+				UpdateEventTrigger ut = (UpdateEventTrigger) triggeredRule.trigger;
+				if(ut.getState()==null) {
+					builder.add(triggeredRule.rule);
+				} else {
+					State triggerState = TypeParser.parseState(dataTypes, ut.getState());
+					// a state that cannot be parsed can never match
+					if(triggerState!=null) {
+						builder.add(triggeredRule.rule, null, triggerState);
+					}
+				}
+			}
+			updateMatcher = builder.build();
+			
+			builder = new TriggerMatcherBuilder();
+			for(TriggeredRule triggeredRule : triggers.changeTriggers) {
+				ChangedEventTrigger ct = (ChangedEventTrigger) triggeredRule.trigger;
+				State triggerOldState = null;
+				State triggerNewState = null;
+				if(ct.getOldState()!=null) {
+					triggerOldState = TypeParser.parseState(dataTypes, ct.getOldState());
+					if(triggerOldState==null) continue;
+				}
+				if(ct.getNewState()!=null) {
+					triggerNewState = TypeParser.parseState(dataTypes, ct.getNewState());
+					if(triggerNewState==null) continue;
+				}
+				if(triggerOldState==null && triggerNewState==null) {
+					builder.add(triggeredRule.rule);
+				} else {
+					builder.add(triggeredRule.rule, triggerOldState, triggerNewState);
+				}
+			}
+			changeMatcher = builder.build();
+			
+			builder = new TriggerMatcherBuilder();
+			for(TriggeredRule triggeredRule : triggers.commandTriggers) {
+				CommandEventTrigger ct = (CommandEventTrigger) triggeredRule.trigger;
+				Command triggerCommand = TypeParser.parseCommand(commandTypes, ct.getCommand());
+				// as before, a trigger without a (valid) command matches all commands
+				if(triggerCommand==null) {
+					builder.add(triggeredRule.rule);
+				} else {
+					builder.add(triggeredRule.rule, null, triggerCommand);
+				}
+			}
+			commandMatcher = builder.build();
+		}
+
+		public boolean isParsedFor(List<Class<? extends State>> dataTypes, List<Class<? extends Command>> commandTypes) {
+			return sameTypes(this.dataTypes, dataTypes) && sameTypes(this.commandTypes, commandTypes);
+		}
+
+		private static boolean sameTypes(List<?> types, List<?> otherTypes) {
+			return types == otherTypes || (types != null && types.equals(otherTypes));
+		}
+	}
+
+	/**
+	 * Matches an event against the parsed triggers of one item and trigger type.
+	 * Rules without condition are kept in a prebuilt set, which is returned as is
+	 * if none of the conditional triggers matches, so that the common case does not
+	 * allocate any memory.
+	 */
+	private static class TriggerMatcher {
+		private final Set<Rule> unconditionalRules;
+		private final Rule[] conditionalRules;
+		private final Type[] expectedOldTypes;
+		private final Type[] expectedNewTypes;
+
+		public TriggerMatcher(Set<Rule> unconditionalRules, Rule[] conditionalRules, Type[] expectedOldTypes, Type[] expectedNewTypes) {
+			this.unconditionalRules = unconditionalRules;
+			this.conditionalRules = conditionalRules;
+			this.expectedOldTypes = expectedOldTypes;
+			this.expectedNewTypes = expectedNewTypes;
+		}
+
+		public Iterable<Rule> match(Type oldType, Type newType) {
+			Set<Rule> result = null;
+			for(int i = 0; i < conditionalRules.length; i++) {
+				if(expectedOldTypes[i]!=null && !oldType.equals(expectedOldTypes[i])) {
+					continue;
+				}
+				if(expectedNewTypes[i]!=null && !newType.equals(expectedNewTypes[i])) {
+					continue;
+				}
+				if(result==null) {
+					result = new LinkedHashSet<Rule>(unconditionalRules);
+				}
+				result.add(conditionalRules[i]);
+			}
+			return result!=null ? result : unconditionalRules;
+		}
+	}
+
+	private static class TriggerMatcherBuilder {
+		private final Set<Rule> unconditionalRules = new LinkedHashSet<Rule>();
+		private final List<Rule> conditionalRules = new ArrayList<Rule>();
+		private final List<Type> expectedOldTypes = new ArrayList<Type>();
+		private final List<Type> expectedNewTypes = new ArrayList<Type>();
+
+		public void add(Rule rule) {
+			unconditionalRules.add(rule);
+		}
+
+		public void add(Rule rule, Type expectedOldType, Type expectedNewType) {
+			conditionalRules.add(rule);
+			expectedOldTypes.add(expectedOldType);
+			expectedNewTypes.add(expectedNewType);
+		}
+
+		public TriggerMatcher build() {
+			return new TriggerMatcher(
+					Collections.unmodifiableSet(unconditionalRules),
+					conditionalRules.toArray(new Rule[conditionalRules.size()]),
+					expectedOldTypes.toArray(new Type[expectedOldTypes.size()]),
+					expectedNewTypes.toArray(new Type[expectedNewTypes.size()]));
+		}
+	}
+
 }
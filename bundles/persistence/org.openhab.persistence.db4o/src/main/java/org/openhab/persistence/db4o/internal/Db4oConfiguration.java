@@ -38,6 +38,12 @@ public class Db4oConfiguration implements ManagedService {
 
 	/** the amount of backup files allowed in DB_FOLDER_NAME (optional, defaults to '7') */
 	public static int maxBackups = 7;
+
+	/** the number of days item states are kept, 0 keeps them forever (optional, defaults to '0') */
+	public static int retentionDays = 0;
+
+	/** the interval of the retention job as Cron-Expression (optional, defaults to '0 30 1 * * ?' which means every morning at 1:30) */
+	public static String retentionInterval = "0 30 1 * * ?";
 	
 	
 	/**
@@ -70,6 +76,21 @@ public class Db4oConfiguration implements ManagedService {
 					logger.warn("couldn't parse '{}' to an integer");
 				}
 			}
+
+			String retentionDaysString = (String) config.get("retention");
+			if (StringUtils.isNotBlank(retentionDaysString)) {
+				try {
+					retentionDays = Integer.valueOf(retentionDaysString);
+				}
+				catch (IllegalArgumentException iae) {
+					logger.warn("couldn't parse '{}' to an integer", retentionDaysString);
+				}
+			}
+
+			String retentionIntervalString = (String) config.get("retentioninterval");
+			if (StringUtils.isNotBlank(retentionIntervalString)) {
+				retentionInterval = retentionIntervalString;
+			}
 		}
 	}
 	
@@ -0,0 +1,504 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.persistence.db4o.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openhab.core.persistence.FilterCriteria;
+import org.openhab.core.persistence.FilterCriteria.Ordering;
+import org.openhab.core.persistence.HistoricItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.db4o.Db4oEmbedded;
+import com.db4o.ObjectContainer;
+import com.db4o.ObjectSet;
+import com.db4o.config.EmbeddedConfiguration;
+import com.db4o.defragment.Defragment;
+import com.db4o.defragment.DefragmentConfig;
+import com.db4o.ext.Db4oException;
+import com.db4o.query.Query;
+
+/**
+ * Stores the item states in one db4o database file per month, so that queries for a time range
+ * only have to look at the files of the months in this range and old months can be dropped by
+ * simply deleting their files.
+ *
+ * <p>The file of the current month is kept open, the files of other months are opened when they
+ * are queried and closed again if more than <code>maxOpen</code> files are open. A database file
+ * from before the partitioning is still read, as a partition which covers all times.</p>
+ *
+ * @since 1.6.0
+ */
+public class Db4oPartitions {
+
+	private static final Logger logger = LoggerFactory.getLogger(Db4oPartitions.class);
+
+	private static final String MONTH_PATTERN = "yyyyMM";
+
+	private final File folder;
+	private final String baseName;
+	private final String extension;
+	private final int maxOpen;
+	private final Pattern partitionFilePattern;
+
+	/** all partitions by their month, the legacy partition has the key "" and comes first; guarded by this */
+	private final TreeMap<String, Partition> partitions = new TreeMap<String, Partition>();
+
+	/**
+	 * @param folder the folder of the database files
+	 * @param fileName the name of the database file before partitioning, e.g. "store.db4o";
+	 *        the partitions are named like "store-201410.db4o"
+	 * @param maxOpen the maximum number of database files which are kept open
+	 */
+	public Db4oPartitions(File folder, String fileName, int maxOpen) {
+		this.folder = folder;
+		int dot = fileName.lastIndexOf('.');
+		this.baseName = dot > 0 ? fileName.substring(0, dot) : fileName;
+		this.extension = dot > 0 ? fileName.substring(dot) : "";
+		this.maxOpen = Math.max(1, maxOpen);
+		this.partitionFilePattern = Pattern.compile(Pattern.quote(baseName) + "-(\\d{6})" + Pattern.quote(extension));
+
+		if (new File(folder, fileName).exists()) {
+			partitions.put("", new Partition("", new File(folder, fileName), Long.MIN_VALUE, Long.MAX_VALUE));
+		}
+		String[] fileNames = folder.list();
+		if (fileNames != null) {
+			for (String name : fileNames) {
+				Matcher matcher = partitionFilePattern.matcher(name);
+				if (matcher.matches()) {
+					getPartition(matcher.group(1));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stores an item state in the partition of its timestamp.
+	 */
+	public void store(Db4oItem item) {
+		Partition partition = getPartition(item.getTimestamp());
+		ObjectContainer db = partition.acquire();
+		try {
+			db.store(item);
+			partition.modified = true;
+		} catch (Db4oException e) {
+			db.rollback();
+			throw e;
+		} finally {
+			partition.release();
+			closeUnused();
+		}
+	}
+
+	/**
+	 * Queries all partitions which overlap the time range of the filter, in the order of the filter,
+	 * until the requested page is complete.
+	 */
+	public List<HistoricItem> query(FilterCriteria filter) {
+		long begin = filter.getBeginDate() != null ? filter.getBeginDate().getTime() : Long.MIN_VALUE;
+		long end = filter.getEndDate() != null ? filter.getEndDate().getTime() : Long.MAX_VALUE;
+		List<Partition> candidates = new ArrayList<Partition>();
+		synchronized (this) {
+			for (Partition partition : partitions.values()) {
+				if (partition.start <= end && partition.end >= begin) {
+					candidates.add(partition);
+				}
+			}
+		}
+		if (filter.getOrdering() != Ordering.ASCENDING) {
+			Collections.reverse(candidates);
+		}
+
+		List<HistoricItem> results = new ArrayList<HistoricItem>();
+		long skip = (long) filter.getPageNumber() * filter.getPageSize();
+		long remaining = filter.getPageSize();
+		for (Partition partition : candidates) {
+			if (remaining <= 0) {
+				break;
+			}
+			ObjectContainer db = partition.acquire();
+			try {
+				ObjectSet<HistoricItem> partitionResults = createQuery(db, filter).execute();
+				int size = partitionResults.size();
+				if (skip >= size) {
+					skip -= size;
+					continue;
+				}
+				int endIndex = (int) Math.min(size, skip + remaining);
+				// the results are activated here, as the partition might be closed afterwards
+				results.addAll(partitionResults.subList((int) skip, endIndex));
+				remaining -= endIndex - skip;
+				skip = 0;
+			} finally {
+				partition.release();
+			}
+		}
+		closeUnused();
+		return results;
+	}
+
+	private Query createQuery(ObjectContainer db, FilterCriteria filter) {
+		Query query = db.query();
+		query.constrain(Db4oItem.class);
+		if (filter.getBeginDate() != null) {
+			query.descend("timestamp").constrain(filter.getBeginDate()).greater().equal();
+		}
+		if (filter.getEndDate() != null) {
+			query.descend("timestamp").constrain(filter.getEndDate()).smaller().equal();
+		}
+		if (filter.getItemName() != null) {
+			query.descend("name").constrain(filter.getItemName()).equal();
+		}
+		if (filter.getState() != null && filter.getOperator() != null) {
+			switch (filter.getOperator()) {
+				case EQ : query.descend("state").constrain(filter.getState()).equal(); break;
+				case GT : query.descend("state").constrain(filter.getState()).greater(); break;
+				case LT : query.descend("state").constrain(filter.getState()).smaller(); break;
+				case NEQ : query.descend("state").constrain(filter.getState()).equal().not(); break;
+				case GTE : query.descend("state").constrain(filter.getState()).greater().equal(); break;
+				case LTE : query.descend("state").constrain(filter.getState()).smaller().equal(); break;
+			}
+		}
+		if (filter.getOrdering() == Ordering.ASCENDING) {
+			query.descend("timestamp").orderAscending();
+		} else {
+			query.descend("timestamp").orderDescending();
+		}
+		return query;
+	}
+
+	/**
+	 * Commits the transactions of all open partitions.
+	 */
+	public void commit() {
+		for (Partition partition : getPartitions()) {
+			if (partition.lock.readLock().tryLock()) {
+				try {
+					if (partition.db != null && !partition.db.ext().isClosed()) {
+						partition.db.commit();
+					}
+				} catch (Db4oException e) {
+					partition.db.rollback();
+					logger.warn("Error committing transaction of '{}': {}", partition.file.getName(), e.getMessage());
+				} finally {
+					partition.lock.readLock().unlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Backs up all partitions which have been modified since their last backup. The name of each
+	 * backup file is the name of the partition file with the given prefix and a ".bak" suffix.
+	 *
+	 * @return the number of partitions which have been backed up
+	 */
+	public int backup(String prefix) {
+		int count = 0;
+		for (Partition partition : getPartitions()) {
+			if (!partition.modified && hasBackup(partition)) {
+				// the partition has not changed since its last backup
+				continue;
+			}
+			ObjectContainer db = partition.acquire();
+			try {
+				db.ext().backup(new File(folder, prefix + partition.file.getName() + ".bak").getPath());
+				partition.modified = false;
+				count++;
+			} catch (Db4oException e) {
+				logger.warn("Error creating backup of '{}': {}", partition.file.getName(), e.getMessage());
+			} finally {
+				partition.release();
+			}
+		}
+		closeUnused();
+		return count;
+	}
+
+	private boolean hasBackup(Partition partition) {
+		final String suffix = "_" + partition.file.getName() + ".bak";
+		String[] names = folder.list();
+		if (names != null) {
+			for (String name : names) {
+				if (name.endsWith(suffix)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Removes all item states which are older than the given time. The files of partitions which
+	 * only contain older states are deleted, the other affected partitions are defragmented, so
+	 * that their files shrink.
+	 *
+	 * @param cutoff the time of the oldest item states to keep
+	 * @return the number of partitions which have been deleted or compacted
+	 */
+	public int deleteBefore(Date cutoff) {
+		int count = 0;
+		for (Partition partition : getPartitions()) {
+			if (partition.start >= cutoff.getTime()) {
+				continue;
+			}
+			if (partition.end < cutoff.getTime()) {
+				partition.lock.writeLock().lock();
+				try {
+					partition.close();
+					synchronized (this) {
+						partitions.remove(partition.key);
+					}
+					if (partition.file.delete()) {
+						logger.info("Deleted db4o partition '{}' as it is older than the retention period", partition.file.getName());
+						count++;
+					} else {
+						logger.warn("Could not delete db4o partition '{}'", partition.file.getName());
+					}
+				} finally {
+					partition.lock.writeLock().unlock();
+				}
+			} else if (deleteItems(partition, cutoff) > 0) {
+				compact(partition);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private int deleteItems(Partition partition, Date cutoff) {
+		ObjectContainer db = partition.acquire();
+		try {
+			Query query = db.query();
+			query.constrain(Db4oItem.class);
+			query.descend("timestamp").constrain(cutoff).smaller();
+			ObjectSet<Db4oItem> items = query.execute();
+			int count = 0;
+			for (Db4oItem item : items) {
+				db.delete(item);
+				count++;
+			}
+			db.commit();
+			logger.debug("Deleted {} item states from db4o partition '{}'", count, partition.file.getName());
+			return count;
+		} catch (Db4oException e) {
+			db.rollback();
+			logger.warn("Error deleting old item states from '{}': {}", partition.file.getName(), e.getMessage());
+			return 0;
+		} finally {
+			partition.release();
+		}
+	}
+
+	/**
+	 * Defragments a partition to release the space of deleted item states. Queries and stores of
+	 * this partition wait until it is done, all other partitions can still be used.
+	 */
+	private void compact(Partition partition) {
+		partition.lock.writeLock().lock();
+		try {
+			partition.close();
+			long before = partition.file.length();
+			long start = System.currentTimeMillis();
+			DefragmentConfig config = new DefragmentConfig(partition.file.getPath(), partition.file.getPath() + ".backup");
+			config.db4oConfig(createConfiguration());
+			config.forceBackupDelete(true);
+			Defragment.defrag(config);
+			new File(partition.file.getPath() + ".backup").delete();
+			logger.info("Compacted db4o partition '{}' from {} to {} bytes in {}ms", new Object[] {
+					partition.file.getName(), before, partition.file.length(), System.currentTimeMillis() - start });
+		} catch (IOException e) {
+			logger.warn("Error compacting db4o partition '{}': {}", partition.file.getName(), e.getMessage());
+		} catch (Db4oException e) {
+			logger.warn("Error compacting db4o partition '{}': {}", partition.file.getName(), e.getMessage());
+		} finally {
+			partition.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Commits and closes all partitions.
+	 */
+	public void close() {
+		for (Partition partition : getPartitions()) {
+			partition.lock.writeLock().lock();
+			try {
+				partition.close();
+			} finally {
+				partition.lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * @return all partitions, the legacy partition first and then ordered by time
+	 */
+	public synchronized List<Partition> getPartitions() {
+		return new ArrayList<Partition>(partitions.values());
+	}
+
+	private Partition getPartition(Date timestamp) {
+		return getPartition(new SimpleDateFormat(MONTH_PATTERN).format(timestamp));
+	}
+
+	private synchronized Partition getPartition(String month) {
+		Partition partition = partitions.get(month);
+		if (partition == null) {
+			Calendar calendar = Calendar.getInstance();
+			try {
+				calendar.setTime(new SimpleDateFormat(MONTH_PATTERN).parse(month));
+			} catch (ParseException e) {
+				throw new IllegalArgumentException("Invalid partition '" + month + "'");
+			}
+			long start = calendar.getTimeInMillis();
+			calendar.add(Calendar.MONTH, 1);
+			File file = new File(folder, baseName + "-" + month + extension);
+			partition = new Partition(month, file, start, calendar.getTimeInMillis() - 1);
+			partitions.put(month, partition);
+		}
+		return partition;
+	}
+
+	/**
+	 * Closes the least recently used partitions until at most <code>maxOpen</code> are open.
+	 * Partitions which are in use are skipped.
+	 */
+	private void closeUnused() {
+		List<Partition> open = new ArrayList<Partition>();
+		for (Partition partition : getPartitions()) {
+			if (partition.db != null) {
+				open.add(partition);
+			}
+		}
+		if (open.size() <= maxOpen) {
+			return;
+		}
+		Collections.sort(open, new Comparator<Partition>() {
+			public int compare(Partition p1, Partition p2) {
+				return p1.lastUsed < p2.lastUsed ? -1 : (p1.lastUsed == p2.lastUsed ? 0 : 1);
+			}
+		});
+		for (int i = 0; i < open.size() - maxOpen; i++) {
+			Partition partition = open.get(i);
+			if (partition.lock.writeLock().tryLock()) {
+				try {
+					partition.close();
+				} finally {
+					partition.lock.writeLock().unlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the configuration of the database files, which declares the indexes of the items
+	 */
+	static EmbeddedConfiguration createConfiguration() {
+		EmbeddedConfiguration config = Db4oEmbedded.newConfiguration();
+		Db4oItem.configure(config.common());
+		return config;
+	}
+
+	/**
+	 * A database file with the item states of a single month.
+	 */
+	public static final class Partition {
+
+		private final String key;
+		private final File file;
+		private final long start;
+		private final long end;
+
+		/** held for reading while the database is used and for writing while it is opened or closed */
+		private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+		private volatile ObjectContainer db;
+		private volatile long lastUsed;
+		private volatile boolean modified;
+
+		private Partition(String key, File file, long start, long end) {
+			this.key = key;
+			this.file = file;
+			this.start = start;
+			this.end = end;
+		}
+
+		/**
+		 * Opens the database if necessary and locks it, so that it is not closed while it is in use.
+		 */
+		private ObjectContainer acquire() {
+			lock.readLock().lock();
+			if (db == null || db.ext().isClosed()) {
+				lock.readLock().unlock();
+				lock.writeLock().lock();
+				try {
+					if (db == null || db.ext().isClosed()) {
+						db = Db4oEmbedded.openFile(createConfiguration(), file.getPath());
+						logger.debug("Opened db4o partition '{}'", file.getName());
+					}
+					// downgrade to the read lock
+					lock.readLock().lock();
+				} finally {
+					lock.writeLock().unlock();
+				}
+			}
+			lastUsed = System.currentTimeMillis();
+			return db;
+		}
+
+		private void release() {
+			lock.readLock().unlock();
+		}
+
+		/**
+		 * Commits and closes the database, the write lock must be held.
+		 */
+		private void close() {
+			if (db != null) {
+				try {
+					if (!db.ext().isClosed()) {
+						db.commit();
+						db.close();
+					}
+				} catch (Db4oException e) {
+					logger.warn("Error closing db4o partition '{}': {}", file.getName(), e.getMessage());
+				}
+				db = null;
+				logger.debug("Closed db4o partition '{}'", file.getName());
+			}
+		}
+
+		/**
+		 * @return the name of the database file
+		 */
+		public String getFileName() {
+			return file.getName();
+		}
+
+		@Override
+		public String toString() {
+			return file.getName();
+		}
+	}
+
+}
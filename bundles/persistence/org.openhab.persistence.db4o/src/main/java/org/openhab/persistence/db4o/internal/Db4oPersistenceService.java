@@ -11,6 +11,8 @@ package org.openhab.persistence.db4o.internal;
 import static org.openhab.persistence.db4o.internal.Db4oConfiguration.backupInterval;
 import static org.openhab.persistence.db4o.internal.Db4oConfiguration.commitInterval;
 import static org.openhab.persistence.db4o.internal.Db4oConfiguration.maxBackups;
+import static org.openhab.persistence.db4o.internal.Db4oConfiguration.retentionDays;
+import static org.openhab.persistence.db4o.internal.Db4oConfiguration.retentionInterval;
 import static org.quartz.JobBuilder.newJob;
 import static org.quartz.SimpleScheduleBuilder.repeatSecondlyForever;
 import static org.quartz.TriggerBuilder.newTrigger;
@@ -23,11 +25,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.openhab.core.items.Item;
 import org.openhab.core.persistence.FilterCriteria;
-import org.openhab.core.persistence.FilterCriteria.Ordering;
 import org.openhab.core.persistence.HistoricItem;
 import org.openhab.core.persistence.PersistenceService;
 import org.openhab.core.persistence.QueryablePersistenceService;
@@ -46,17 +50,12 @@ import org.quartz.impl.StdSchedulerFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.db4o.Db4oEmbedded;
-import com.db4o.ObjectContainer;
-import com.db4o.ObjectSet;
-import com.db4o.ext.DatabaseClosedException;
 import com.db4o.ext.Db4oException;
-import com.db4o.ext.ExtObjectContainer;
-import com.db4o.query.Query;
 
 
 /**
  * This is a {@link PersistenceService} implementation using the db4o database.
+ * The item states are stored in one database file per month, see {@link Db4oPartitions}.
  * 
  * @author Kai Kreuzer
  * @since 1.0.0
@@ -72,7 +71,10 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 
 	private static final String SCHEDULER_GROUP = "DB4O_SchedulerGroup";
 	
-	private static ObjectContainer db;
+	/** the maximum number of database files which are kept open */
+	private static final int MAX_OPEN_PARTITIONS = 3;
+	
+	private static Db4oPartitions partitions;
 	
 	
 	public String getName() {
@@ -84,8 +86,7 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 		if(!folder.exists()) {
 			folder.mkdir();
 		}
-	    openDbFile();
-	    Db4oItem.configure(db.ext().configure());
+		partitions = new Db4oPartitions(folder, DB_FILE_NAME, MAX_OPEN_PARTITIONS);
 	    
 	    scheduleJob();
 	}
@@ -93,9 +94,9 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 	public void deactivate() {
 		cancelAllJobs();
 		
-		if(db!=null) {
-			db.close();
-			db = null;
+		if(partitions!=null) {
+			partitions.close();
+			partitions = null;
 		}
 	}
 	
@@ -113,87 +114,23 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 		historicItem.setTimestamp(new Date());
 		
 		try {
-			db.store(historicItem);
+			partitions.store(historicItem);
 			logger.debug("Stored item state '{}' -> '{}'", new String[] {historicItem.getName(), historicItem.getState().toString() } );
 		} catch(Db4oException e) {
-			db.rollback();
 			logger.warn("Error storing state for item '{}' as '{}': {}", new String[] { item.getName(), alias, e.getMessage() });
 		}
 	}
 
 	public Iterable<HistoricItem> query(FilterCriteria filter) {
-		Query query = queryWithReconnect();
-		
-		if (query != null) {
-			query.constrain(Db4oItem.class);
-			
-			if (filter==null) {
-				filter = new FilterCriteria();
-			}
-			if (filter.getBeginDate()!=null) {
-				query.descend("timestamp").constrain(filter.getBeginDate()).greater().equal();
-			}
-			if (filter.getEndDate()!=null) {
-				query.descend("timestamp").constrain(filter.getEndDate()).smaller().equal();
-			}
-			if (filter.getItemName()!=null) {
-				query.descend("name").constrain(filter.getItemName()).equal();
-			}
-			if (filter.getState()!=null && filter.getOperator()!=null) {
-				switch(filter.getOperator()) {
-					case EQ : query.descend("state").constrain(filter.getState()).equal(); break;
-					case GT : query.descend("state").constrain(filter.getState()).greater(); break;
-					case LT : query.descend("state").constrain(filter.getState()).smaller(); break;
-					case NEQ : query.descend("state").constrain(filter.getState()).equal().not(); break;
-					case GTE : query.descend("state").constrain(filter.getState()).greater().equal(); break;
-					case LTE : query.descend("state").constrain(filter.getState()).smaller().equal(); break;
-				}
-			}
-			
-			if(filter.getOrdering()==Ordering.ASCENDING) {
-				query.descend("timestamp").orderAscending();
-			} else {
-				query.descend("timestamp").orderDescending();
-			}
-			ObjectSet<HistoricItem> results = query.execute();
-	
-			int startIndex = filter.getPageNumber() * filter.getPageSize();
-			if (startIndex < results.size()) {
-				int endIndex = startIndex + filter.getPageSize();
-				if(endIndex > results.size()) {
-					endIndex = results.size();
-				}
-				return results.subList(startIndex, endIndex);
-			}
+		if (filter==null) {
+			filter = new FilterCriteria();
 		}
-		
-		return Collections.emptyList();
-	}
-	
-	/**
-	 * Creates a new Query and returns it. In case the Database is closed for
-	 * some reason we'll try to reopen it again and try to create a query a
-	 * second time. If that fails too <code>null</code> is returned. 
-	 * 
-	 * @return a Query-Object or <code>null</code> if there are errors or the
-	 * Database couldn't be opened again.
-	 */
-	private Query queryWithReconnect() {
-		Query query = null;
-		try {
-			query = db.query();
-		} catch (DatabaseClosedException dce) {
-			logger.debug("Database '{}' is closed, we'll try to reopen it again ...");
-			openDbFile();
-			query = db.query();
+		Db4oPartitions partitions = Db4oPersistenceService.partitions;
+		if (partitions==null) {
+			return Collections.emptyList();
 		}
-		return query;
-	}
-
-	private static void openDbFile() {
-		db = Db4oEmbedded.openFile(Db4oEmbedded.newConfiguration(), DB_FOLDER_NAME + File.separator + DB_FILE_NAME);
+		return partitions.query(filter);
 	}
-	
 
 	/**
 	 * Schedules new quartz scheduler jobs for committing transactions and 
@@ -228,6 +165,21 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 
 			sched.scheduleJob(backupJob, backupTrigger);
 			logger.debug("Scheduled Backup-Job with cron expression '{}'", backupInterval);
+			
+			// schedule retention-job
+			if (retentionDays > 0) {
+				JobDetail retentionJob = newJob(RetentionJob.class)
+						.withIdentity("Retention_DB", SCHEDULER_GROUP)
+					    .build();
+	
+				CronTrigger retentionTrigger = newTrigger()
+					    .withIdentity("Retention_DB", SCHEDULER_GROUP)
+					    .withSchedule(CronScheduleBuilder.cronSchedule(retentionInterval))
+					    .build();
+	
+				sched.scheduleJob(retentionJob, retentionTrigger);
+				logger.debug("Scheduled Retention-Job with cron expression '{}' for {} days", retentionInterval, retentionDays);
+			}
 		} catch (SchedulerException e) {
 			logger.warn("Could not create Job: {}", e.getMessage());
 		}		
@@ -263,17 +215,10 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 		@Override
 		public void execute(JobExecutionContext context) throws JobExecutionException {
 			long startTime = System.currentTimeMillis();
-			try {
-				db.commit();
-				logger.trace("successfully commited db4o transaction in {}ms", System.currentTimeMillis() - startTime);
-			} catch(Db4oException e) {
-				try {
-					db.rollback();
-					logger.warn("Error committing transaction : {}", e.getMessage());
-				} catch(DatabaseClosedException dce) {
-					// ignore a failed rollback if database is closed (what happens regularly during shutdown)
-					logger.debug("Cannot roll back transaction because database is closed: {}", e.getMessage());
-				}
+			Db4oPartitions partitions = Db4oPersistenceService.partitions;
+			if (partitions!=null) {
+				partitions.commit();
+				logger.trace("successfully commited db4o transactions in {}ms", System.currentTimeMillis() - startTime);
 			}
 		}
 		
@@ -295,25 +240,21 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 		@Override
 		public void execute(JobExecutionContext context) throws JobExecutionException {
 			long startTime = System.currentTimeMillis();
-			String backupFileName = DB_FOLDER_NAME + File.separator + 
-				DATE_FORMATTER.format(System.currentTimeMillis()) + "_" + DB_FILE_NAME + ".bak";
+			String prefix = DATE_FORMATTER.format(System.currentTimeMillis()) + "_";
 			
 			removeObsoleteBackupFiles(DB_FOLDER_NAME);
-			try {
-				ExtObjectContainer extDb = db.ext();
-				if (!extDb.isClosed()) {
-					extDb.backup(backupFileName);
-					logger.debug("successfully created new DB4O backup '{}' in {}ms", backupFileName, System.currentTimeMillis() - startTime);
-				} else {
-					logger.debug("couldn't create DB4O backup '{}' because db is closed", backupFileName);
-				}
-			} catch(Db4oException e) {
-				logger.warn("Error creating backup '{}': {}", backupFileName, e.getMessage());
+			Db4oPartitions partitions = Db4oPersistenceService.partitions;
+			if (partitions!=null) {
+				// only the partitions which have changed are backed up, usually just the current month
+				int count = partitions.backup(prefix);
+				logger.debug("successfully created {} new DB4O backups in {}ms", count, System.currentTimeMillis() - startTime);
+			} else {
+				logger.debug("couldn't create DB4O backup because db is closed");
 			}
 		}
 		
 		/**
-		 * Removes the oldest x backup files from the file system.
+		 * Removes the oldest x backup files of each partition from the file system.
 		 * 
 		 * @param dbFolderName the name of the folder where the db4o date file
 		 * is stored
@@ -321,25 +262,42 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 		protected void removeObsoleteBackupFiles(String dbFolderName) {
 			File dbFolder = new File(dbFolderName);
 			if (dbFolder.exists() && dbFolder.isDirectory()) {
-				File[] backupFiles = dbFolder.listFiles(new FilenameFilter() {
+				File[] allBackupFiles = dbFolder.listFiles(new FilenameFilter() {
 					@Override
 					public boolean accept(File dir, String name) {
-						return name.endsWith(DB_FILE_NAME + ".bak");
+						return name.endsWith(".bak") && name.indexOf('_') > 0;
 					}
 				});
 				
-				Arrays.sort(backupFiles);
-				
-				if (backupFiles.length > maxBackups) {
-					logger.debug("found {} backup files but only {} are allowed. will remove the oldest {} file(s) now",
-						new Object[] { backupFiles.length, maxBackups, backupFiles.length - maxBackups });
-					for (int index = 0; index < backupFiles.length - maxBackups; index++) {
-						boolean successful = backupFiles[index].delete();
-						if (successful) {
-							logger.trace("successfully deleted file '{}'", backupFiles[index]);
-						} else {
-							logger.debug("couldn't delete file '{}'", backupFiles[index]);
-						}
+				// the backup files are named <timestamp>_<partition file>.bak
+				Map<String, List<File>> partitionBackupFiles = new HashMap<String, List<File>>();
+				for (File backupFile : allBackupFiles) {
+					String partitionFileName = backupFile.getName().substring(backupFile.getName().indexOf('_') + 1);
+					List<File> files = partitionBackupFiles.get(partitionFileName);
+					if (files == null) {
+						files = new ArrayList<File>();
+						partitionBackupFiles.put(partitionFileName, files);
+					}
+					files.add(backupFile);
+				}
+				for (List<File> files : partitionBackupFiles.values()) {
+					removeObsoleteBackupFiles(files.toArray(new File[files.size()]));
+				}
+			}
+		}
+		
+		private void removeObsoleteBackupFiles(File[] backupFiles) {
+			Arrays.sort(backupFiles);
+			
+			if (backupFiles.length > maxBackups) {
+				logger.debug("found {} backup files but only {} are allowed. will remove the oldest {} file(s) now",
+					new Object[] { backupFiles.length, maxBackups, backupFiles.length - maxBackups });
+				for (int index = 0; index < backupFiles.length - maxBackups; index++) {
+					boolean successful = backupFiles[index].delete();
+					if (successful) {
+						logger.trace("successfully deleted file '{}'", backupFiles[index]);
+					} else {
+						logger.debug("couldn't delete file '{}'", backupFiles[index]);
 					}
 				}
 			}
@@ -348,4 +306,29 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 	}
 	
 
+	/**
+	 * A quartz scheduler job to remove item states which are older than the
+	 * retention period. The files of months which have expired completely are
+	 * deleted, the other files with expired states are compacted.
+	 * 
+	 * @since 1.6.0
+	 */
+	@DisallowConcurrentExecution
+	public static class RetentionJob implements Job {
+
+		@Override
+		public void execute(JobExecutionContext context) throws JobExecutionException {
+			Db4oPartitions partitions = Db4oPersistenceService.partitions;
+			if (partitions==null || retentionDays <= 0) {
+				return;
+			}
+			long startTime = System.currentTimeMillis();
+			Date cutoff = new Date(startTime - retentionDays * 24L * 60 * 60 * 1000);
+			int count = partitions.deleteBefore(cutoff);
+			logger.debug("removed item states before {} from {} db4o partitions in {}ms", 
+				new Object[] { cutoff, count, System.currentTimeMillis() - startTime });
+		}
+		
+	}
+
 }
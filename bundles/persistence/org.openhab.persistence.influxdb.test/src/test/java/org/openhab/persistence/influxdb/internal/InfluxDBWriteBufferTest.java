@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.persistence.influxdb.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.influxdb.InfluxDBFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openhab.persistence.influxdb.internal.InfluxDBWriteBuffer.Point;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Writes points through an {@link InfluxDBWriteBuffer} to a {@link StubInfluxDBServer}.
+ *
+ * @since 1.6.0
+ */
+public class InfluxDBWriteBufferTest {
+
+  private static final int CAPACITY = 5;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private StubInfluxDBServer server;
+  private File spillFile;
+  private InfluxDBWriteBuffer buffer;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new StubInfluxDBServer();
+    server.start();
+    spillFile = new File(temporaryFolder.getRoot(), "influxdb.spill");
+    buffer = new InfluxDBWriteBuffer(InfluxDBFactory.connect(server.getUrl(), "openhab", "secret"),
+        "influxdb", "openhab", CAPACITY, spillFile);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.stop();
+  }
+
+  @Test
+  public void testWritesBatchWithOneRequest() {
+    assertTrue(buffer.write(Arrays.asList(point("Temperature", 1, 21.5), point("Switch", 1, 1),
+        point("Temperature", 2, 22))));
+
+    List<String> writes = server.getWrites();
+    assertEquals(1, writes.size());
+    JsonArray series = new JsonParser().parse(writes.get(0)).getAsJsonArray();
+    assertEquals(2, series.size());
+    assertEquals("Temperature", series.get(0).getAsJsonObject().get("name").getAsString());
+    assertEquals(Arrays.asList(1L, 2L), times(series.get(0)));
+    assertEquals("Switch", series.get(1).getAsJsonObject().get("name").getAsString());
+    assertEquals(Arrays.asList(1L), times(series.get(1)));
+    assertEquals(0, buffer.getPendingCount());
+  }
+
+  @Test
+  public void testSpillsPointsWhileServerIsDown() throws IOException {
+    server.stop();
+    for (int i = 0; i < 8; i++) {
+      assertFalse(buffer.write(Collections.singletonList(point("Temperature", i, i))));
+    }
+
+    // the oldest points which do not fit into memory have been moved to the spill file
+    assertEquals(CAPACITY, buffer.getPendingCount());
+    assertEquals(Arrays.asList(0L, 1L, 2L), spilledTimes());
+    assertEquals(0, buffer.getDroppedCount());
+
+    // the points in memory are spilled as well when the service is stopped
+    buffer.close();
+    assertEquals(0, buffer.getPendingCount());
+    assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L), spilledTimes());
+  }
+
+  @Test
+  public void testReplaysSpilledPointsInChunksWhenServerIsBack() throws IOException {
+    server.stop();
+    for (int i = 0; i < 12; i++) {
+      assertFalse(buffer.write(Collections.singletonList(point("Temperature", i, i))));
+    }
+    server.start();
+
+    assertTrue(buffer.write(Collections.singletonList(point("Temperature", 12, 12))));
+
+    // the pending points are written with the new one, then the spill file in chunks
+    List<List<Long>> requests = writtenTimes();
+    assertEquals(3, requests.size());
+    assertEquals(Arrays.asList(7L, 8L, 9L, 10L, 11L, 12L), requests.get(0));
+    assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L), requests.get(1));
+    assertEquals(Arrays.asList(5L, 6L), requests.get(2));
+    assertEquals(0, buffer.getPendingCount());
+    assertFalse(spillFile.exists());
+    assertFalse(new File(spillFile.getPath() + ".replay").exists());
+  }
+
+  @Test
+  public void testKeepsSpilledPointsWhichCouldNotBeReplayed() throws IOException {
+    server.stop();
+    for (int i = 0; i < 12; i++) {
+      buffer.write(Collections.singletonList(point("Temperature", i, i)));
+    }
+    server.start();
+    // the server fails after the pending points and the first chunk of the spill file
+    server.failAfter(2);
+
+    assertFalse(buffer.write(Collections.singletonList(point("Temperature", 12, 12))));
+
+    assertEquals(2, server.getWrites().size());
+    assertEquals(Arrays.asList(5L, 6L), spilledTimes());
+
+    server.failAfter(-1);
+    assertTrue(buffer.write(Collections.<Point> emptyList()));
+    assertEquals(Arrays.asList(5L, 6L), writtenTimes().get(2));
+    assertFalse(spillFile.exists());
+  }
+
+  private static Point point(String name, long time, Object value) {
+    return new Point(name, time, value);
+  }
+
+  /**
+   * @return the times of the points of all series per accepted request
+   */
+  private List<List<Long>> writtenTimes() {
+    List<List<Long>> requests = new ArrayList<List<Long>>();
+    for (String write : server.getWrites()) {
+      List<Long> times = new ArrayList<Long>();
+      for (JsonElement serie : new JsonParser().parse(write).getAsJsonArray()) {
+        times.addAll(times(serie));
+      }
+      requests.add(times);
+    }
+    return requests;
+  }
+
+  private static List<Long> times(JsonElement serie) {
+    JsonObject object = serie.getAsJsonObject();
+    assertEquals("time", object.get("columns").getAsJsonArray().get(0).getAsString());
+    List<Long> times = new ArrayList<Long>();
+    for (JsonElement point : object.get("points").getAsJsonArray()) {
+      times.add(point.getAsJsonArray().get(0).getAsLong());
+    }
+    return times;
+  }
+
+  private List<Long> spilledTimes() throws IOException {
+    List<Long> times = new ArrayList<Long>();
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(new FileInputStream(spillFile), "UTF-8"));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        times.add(Long.valueOf(line.split("\t")[1]));
+      }
+    } finally {
+      reader.close();
+    }
+    return times;
+  }
+
+}
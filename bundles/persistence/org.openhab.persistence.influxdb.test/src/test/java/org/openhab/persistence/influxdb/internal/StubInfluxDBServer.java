@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.persistence.influxdb.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A minimal HTTP server on the loopback interface, which accepts the series written to an InfluxDB
+ * database and records their JSON bodies. It can be stopped and started again on the same port to
+ * simulate an unreachable database.
+ *
+ * @since 1.6.0
+ */
+class StubInfluxDBServer {
+
+  private final List<String> writes = new ArrayList<String>();
+
+  private int port = 0;
+
+  private ServerSocket serverSocket;
+
+  /** the number of writes which are still accepted, a negative number for no limit */
+  private int acceptedWrites = -1;
+
+  /**
+   * Listens on the port of the last start or on a free port, if it has not been started before.
+   */
+  synchronized void start() throws IOException {
+    final ServerSocket socket = new ServerSocket();
+    socket.setReuseAddress(true);
+    socket.bind(new InetSocketAddress("127.0.0.1", port));
+    port = socket.getLocalPort();
+    serverSocket = socket;
+
+    Thread thread = new Thread("StubInfluxDBServer") {
+      @Override
+      public void run() {
+        while (!socket.isClosed()) {
+          try {
+            handle(socket.accept());
+          } catch (IOException e) {
+            // the server has been stopped
+          }
+        }
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Closes the server socket, so that connections are refused.
+   */
+  synchronized void stop() throws IOException {
+    if (serverSocket != null) {
+      serverSocket.close();
+      serverSocket = null;
+    }
+  }
+
+  /**
+   * @return the url of the server
+   */
+  String getUrl() {
+    return "http://127.0.0.1:" + port;
+  }
+
+  /**
+   * Lets the server answer all writes after the given number of writes with an error.
+   */
+  synchronized void failAfter(int writes) {
+    acceptedWrites = writes;
+  }
+
+  /**
+   * @return the bodies of the accepted writes
+   */
+  synchronized List<String> getWrites() {
+    return new ArrayList<String>(writes);
+  }
+
+  private void handle(Socket socket) throws IOException {
+    try {
+      InputStream input = socket.getInputStream();
+      String requestLine = readLine(input);
+      int contentLength = 0;
+      String header;
+      while ((header = readLine(input)) != null && header.length() > 0) {
+        int colon = header.indexOf(':');
+        if (colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+          contentLength = Integer.parseInt(header.substring(colon + 1).trim());
+        }
+      }
+      byte[] body = new byte[contentLength];
+      int read = 0;
+      while (read < contentLength) {
+        int count = input.read(body, read, contentLength - read);
+        if (count < 0) {
+          throw new IOException("request body is incomplete");
+        }
+        read += count;
+      }
+
+      boolean accepted = true;
+      if (requestLine != null && requestLine.startsWith("POST /db/")) {
+        synchronized (this) {
+          accepted = acceptedWrites != 0;
+          if (accepted) {
+            writes.add(new String(body, "UTF-8"));
+            if (acceptedWrites > 0) {
+              acceptedWrites--;
+            }
+          }
+        }
+      }
+
+      String status = accepted ? "200 OK" : "500 Internal Server Error";
+      OutputStream output = socket.getOutputStream();
+      output.write(("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+          .getBytes("US-ASCII"));
+      output.flush();
+    } finally {
+      socket.close();
+    }
+  }
+
+  private static String readLine(InputStream input) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int b;
+    while ((b = input.read()) >= 0 && b != '\n') {
+      if (b != '\r') {
+        line.write(b);
+      }
+    }
+    return b < 0 && line.size() == 0 ? null : line.toString("US-ASCII");
+  }
+
+}
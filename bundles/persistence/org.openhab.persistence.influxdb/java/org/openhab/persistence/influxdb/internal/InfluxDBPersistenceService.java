@@ -7,11 +7,14 @@
  */
 package org.openhab.persistence.influxdb.internal;
 
+import java.io.File;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Dictionary;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -26,19 +29,25 @@ import org.openhab.core.items.ItemNotFoundException;
 import org.openhab.core.items.ItemRegistry;
 import org.openhab.core.library.items.ContactItem;
 import org.openhab.core.library.items.DimmerItem;
+import org.openhab.core.library.items.NumberItem;
+import org.openhab.core.library.items.RollershutterItem;
 import org.openhab.core.library.items.SwitchItem;
 import org.openhab.core.library.types.DateTimeType;
 import org.openhab.core.library.types.DecimalType;
 import org.openhab.core.library.types.OnOffType;
 import org.openhab.core.library.types.OpenClosedType;
 import org.openhab.core.library.types.PercentType;
+import org.openhab.core.persistence.AggregatingPersistenceService;
+import org.openhab.core.persistence.BatchPersistenceService;
+import org.openhab.core.persistence.BulkQueryablePersistenceService;
 import org.openhab.core.persistence.FilterCriteria;
 import org.openhab.core.persistence.FilterCriteria.Ordering;
 import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.persistence.PersistenceEntry;
 import org.openhab.core.persistence.PersistenceService;
-import org.openhab.core.persistence.QueryablePersistenceService;
 import org.openhab.core.types.State;
 import org.openhab.core.types.UnDefType;
+import org.openhab.persistence.influxdb.internal.InfluxDBWriteBuffer.Point;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedService;
 import org.slf4j.Logger;
@@ -56,11 +65,17 @@ import retrofit.RetrofitError;
  * The defaults for the database name, the database user and the database url are "openhab",
  * "openhab" and "http://127.0.0.1:8086".
  * 
+ * The states are written in batches by an {@link InfluxDBWriteBuffer}, which sends the points
+ * of all items with a single request and keeps them if the database cannot be reached.
+ * 
+ * Minimum, maximum, average etc. of numeric items are computed by the database.
+ * 
  * @author Theo Weiss - Initial Contribution
  * @author Ben Jones - Upgraded influxdb-java version
  * @since 1.5.0
  */
-public class InfluxDBPersistenceService implements QueryablePersistenceService, ManagedService {
+public class InfluxDBPersistenceService implements AggregatingPersistenceService,
+    BulkQueryablePersistenceService, BatchPersistenceService, ManagedService {
 
   private static final String DEFAULT_URL = "http://127.0.0.1:8086";
   private static final String DEFAULT_DB = "openhab";
@@ -69,6 +84,8 @@ public class InfluxDBPersistenceService implements QueryablePersistenceService,
   private static final String DIGITAL_VALUE_OFF = "0";
   private static final String DIGITAL_VALUE_ON = "1";
   private static final String VALUE_COLUMN_NAME = "value";
+  /** the maximum number of series whose latest points are selected with one query */
+  private static final int LATEST_QUERY_SERIES = 100;
   private ItemRegistry itemRegistry;
   private InfluxDB influxDB;
   private static final Logger logger = LoggerFactory.getLogger(InfluxDBPersistenceService.class);
@@ -77,6 +94,9 @@ public class InfluxDBPersistenceService implements QueryablePersistenceService,
   private String url;
   private String user;
   private String password;
+  private int bufferSize;
+  private File spillFile;
+  private volatile InfluxDBWriteBuffer writeBuffer;
   private boolean isProperlyConfigured;
   private boolean connected;
 
@@ -103,6 +123,7 @@ public class InfluxDBPersistenceService implements QueryablePersistenceService,
       // connection
       influxDB = InfluxDBFactory.connect(url, user, password);
     }
+    writeBuffer = new InfluxDBWriteBuffer(influxDB, getName(), dbName, bufferSize, spillFile);
     connected = true;
   }
 
@@ -132,6 +153,10 @@ public class InfluxDBPersistenceService implements QueryablePersistenceService,
   }
 
   private void disconnect() {
+    if (writeBuffer != null) {
+      writeBuffer.close();
+      writeBuffer = null;
+    }
     influxDB = null;
     connected = false;
   }
@@ -155,39 +180,38 @@ public class InfluxDBPersistenceService implements QueryablePersistenceService,
    */
   @Override
   public void store(Item item, String alias) {
-    if (item.getState() instanceof UnDefType) {
-      return;
-    }
+    List<PersistenceEntry> entries = Collections.singletonList(new PersistenceEntry(item, alias,
+        item.getState(), new Date()));
+    store(entries);
+  }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void store(Collection<PersistenceEntry> entries) {
     if (!isProperlyConfigured) {
       logger.error("Configuration for influxdb not yet loaded or broken.");
       return;
     }
 
-    if (!isConnected()) {
+    InfluxDBWriteBuffer writeBuffer = this.writeBuffer;
+    if (!isConnected() || writeBuffer == null) {
       logger.error("InfluxDB is not yet connected");
       return;
     }
 
-    String realName = item.getName();
-    String name = (alias != null) ? alias : realName;
-    Object value = stateToObject(item.getState());
-    logger.trace("storing {} in influxdb {}", name, value);
-
-    // For now time is calculated by influxdb, may be this should be configurable?
-    Serie serie = new Serie.Builder(name)
-    		.columns(VALUE_COLUMN_NAME)
-    		.values(value)
-    		.build();
-    // serie.setColumns(new String[] {"time", VALUE_COLUMN_NAME});
-    // Object[] point = new Object[] {System.currentTimeMillis(), value};
-
-    try {
-      influxDB.write(dbName, TimeUnit.MILLISECONDS, serie);
-    } catch (RuntimeException e) {
-      logger.error("storing failed with exception for item: {}", name);
-      handleDatabaseException(e);
+    List<Point> points = new ArrayList<Point>(entries.size());
+    for (PersistenceEntry entry : entries) {
+      if (entry.getState() instanceof UnDefType) {
+        continue;
+      }
+      String name = entry.getName();
+      Object value = stateToObject(entry.getState());
+      logger.trace("storing {} in influxdb {}", name, value);
+      points.add(new Point(name, entry.getTimestamp().getTime(), value));
     }
+    writeBuffer.write(points);
   }
 
   private void handleDatabaseException(Exception e) {
@@ -236,6 +260,20 @@ public class InfluxDBPersistenceService implements QueryablePersistenceService,
       logger.debug("using default db name {}", DEFAULT_DB);
     }
 
+    bufferSize = InfluxDBWriteBuffer.DEFAULT_CAPACITY;
+    String bufferSizeString = (String) config.get("buffersize");
+    if (StringUtils.isNotBlank(bufferSizeString)) {
+      try {
+        bufferSize = Integer.parseInt(bufferSizeString.trim());
+      } catch (NumberFormatException e) {
+        throw new ConfigurationException("influxdb:buffersize",
+            "The buffer size must be a number: " + bufferSizeString);
+      }
+    }
+
+    String spillFileName = (String) config.get("spillfile");
+    spillFile = StringUtils.isNotBlank(spillFileName) ? new File(spillFileName.trim()) : null;
+
     isProperlyConfigured = true;
 
     connect();
@@ -371,6 +409,168 @@ public class InfluxDBPersistenceService implements QueryablePersistenceService,
     return historicItems;
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public HistoricItem aggregate(FilterCriteria filter, Aggregation aggregation) {
+    String name = filter.getItemName();
+    Item item = null;
+    try {
+      item = itemRegistry != null ? itemRegistry.getItem(name) : null;
+    } catch (ItemNotFoundException e) {
+      logger.debug("Could not find item '{}' in registry", name);
+    }
+    if (!(item instanceof NumberItem || item instanceof DimmerItem
+        || item instanceof RollershutterItem)) {
+      throw new UnsupportedOperationException("Only numeric items can be aggregated by influxdb");
+    }
+
+    if (!isProperlyConfigured || !isConnected()) {
+      logger.error("InfluxDB is not yet connected");
+      return null;
+    }
+
+    StringBuffer where = new StringBuffer();
+    if (filter.getBeginDate() != null) {
+      where.append(" and ").append(TIME_COLUMN_NAME).append(" > ")
+          .append(getTimeFilter(filter.getBeginDate()));
+    }
+    if (filter.getEndDate() != null) {
+      where.append(" and ").append(TIME_COLUMN_NAME).append(" < ")
+          .append(getTimeFilter(filter.getEndDate()));
+    }
+    String timeRange = where.length() > 0 ? " where" + where.substring(4) : "";
+    Date end = filter.getEndDate() != null ? filter.getEndDate() : new Date();
+
+    Map<String, Object> row;
+    switch (aggregation) {
+      case AVERAGE:
+        return createAggregatedItem(name, querySingleRow("select mean(" + VALUE_COLUMN_NAME
+            + ") from " + name + timeRange), "mean", end);
+      case SUM:
+        return createAggregatedItem(name, querySingleRow("select sum(" + VALUE_COLUMN_NAME
+            + ") from " + name + timeRange), "sum", end);
+      case COUNT:
+        return createAggregatedItem(name, querySingleRow("select count(" + VALUE_COLUMN_NAME
+            + ") from " + name + timeRange), "count", end);
+      case MINIMUM:
+      case MAXIMUM:
+        // influxdb returns the extreme value only, so its time has to be looked up separately
+        String function = aggregation == Aggregation.MINIMUM ? "min" : "max";
+        row = querySingleRow("select " + function + "(" + VALUE_COLUMN_NAME + ") from " + name
+            + timeRange);
+        if (row == null || !(row.get(function) instanceof Number)) {
+          return null;
+        }
+        String value = BigDecimal.valueOf(((Number) row.get(function)).doubleValue())
+            .stripTrailingZeros().toPlainString();
+        Map<String, Object> point = querySingleRow("select " + VALUE_COLUMN_NAME + " from " + name
+            + " where " + VALUE_COLUMN_NAME + " = " + value + where + " order asc limit 1");
+        return point != null ? createHistoricItem(name, point) : createAggregatedItem(name, row,
+            function, end);
+      case FIRST:
+        row = querySingleRow("select " + VALUE_COLUMN_NAME + " from " + name + timeRange
+            + " order asc limit 1");
+        return row != null ? createHistoricItem(name, row) : null;
+      default:
+        row = querySingleRow("select " + VALUE_COLUMN_NAME + " from " + name + timeRange
+            + " limit 1");
+        return row != null ? createHistoricItem(name, row) : null;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Map<String, HistoricItem> queryLatest(Collection<String> itemNames) {
+    Map<String, HistoricItem> historicItems = new HashMap<String, HistoricItem>();
+    if (!isProperlyConfigured || !isConnected()) {
+      logger.error("InfluxDB is not yet connected");
+      return historicItems;
+    }
+
+    // the series of several items are selected with a regular expression, the limit applies
+    // to each series
+    List<String> names = new ArrayList<String>(itemNames);
+    for (int i = 0; i < names.size(); i += LATEST_QUERY_SERIES) {
+      StringBuilder query = new StringBuilder();
+      query.append("select ").append(VALUE_COLUMN_NAME).append(" from /^(");
+      for (String name : names.subList(i, Math.min(i + LATEST_QUERY_SERIES, names.size()))) {
+        if (query.charAt(query.length() - 1) != '(') {
+          query.append('|');
+        }
+        appendEscaped(query, name);
+      }
+      query.append(")$/ limit 1");
+      logger.debug("query string: {}", query);
+
+      try {
+        for (Serie result : influxDB.query(dbName, query.toString(), TimeUnit.MILLISECONDS)) {
+          List<Map<String, Object>> rows = result.getRows();
+          if (!rows.isEmpty()) {
+            historicItems.put(result.getName(), createHistoricItem(result.getName(), rows.get(0)));
+          }
+        }
+      } catch (RuntimeException e) {
+        logger.error("query failed with database error");
+        handleDatabaseException(e);
+        break;
+      }
+    }
+    return historicItems;
+  }
+
+  /**
+   * Appends a series name to a regular expression, with all special characters escaped.
+   */
+  private void appendEscaped(StringBuilder regex, String name) {
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (!Character.isLetterOrDigit(c) && c != '_') {
+        regex.append('\\');
+      }
+      regex.append(c);
+    }
+  }
+
+  /**
+   * Runs a query and returns the first row of its result.
+   * 
+   * @return the first row or <code>null</code>, if there is none or the query failed
+   */
+  private Map<String, Object> querySingleRow(String query) {
+    logger.debug("query string: {}", query);
+    try {
+      for (Serie result : influxDB.query(dbName, query, TimeUnit.MILLISECONDS)) {
+        List<Map<String, Object>> rows = result.getRows();
+        if (!rows.isEmpty()) {
+          return rows.get(0);
+        }
+      }
+    } catch (RuntimeException e) {
+      logger.error("query failed with database error");
+      handleDatabaseException(e);
+    }
+    return null;
+  }
+
+  private HistoricItem createHistoricItem(String name, Map<String, Object> row) {
+    Double rawTime = (Double) row.get(TIME_COLUMN_NAME);
+    return new InfluxdbItem(name, objectToState(row.get(VALUE_COLUMN_NAME), name), new Date(
+        rawTime.longValue()));
+  }
+
+  private HistoricItem createAggregatedItem(String name, Map<String, Object> row, String column,
+      Date end) {
+    if (row == null || !(row.get(column) instanceof Number)) {
+      return null;
+    }
+    double value = ((Number) row.get(column)).doubleValue();
+    return new InfluxdbItem(name, new DecimalType(value), end);
+  }
+
   private String getTimeFilter(Date time) {
 	  // for some reason we need to query using 'seconds' only
 	  // passing milli seconds causes no results to be returned
@@ -0,0 +1,384 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.persistence.influxdb.internal;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.influxdb.InfluxDB;
+import org.influxdb.dto.Serie;
+import org.openhab.core.persistence.CachingPersistenceService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes points of many series to InfluxDB with a single request. Points which could not be
+ * written, e.g. because the database is unreachable, are kept and written together with the
+ * next points.
+ *
+ * At most <code>capacity</code> points are kept in memory. If more points are pending, the
+ * oldest ones are appended to the spill file, if one has been configured, and dropped otherwise.
+ * Spilled points are written back as soon as the database can be reached again.
+ *
+ * The persistence manager drops the cached query results of an item when it hands over a state,
+ * see {@link CachingPersistenceService}. Points which are written later than that invalidate the
+ * cached results of their series again once they are in the database.
+ *
+ * @since 1.6.0
+ */
+public class InfluxDBWriteBuffer {
+
+  private static final Logger logger = LoggerFactory.getLogger(InfluxDBWriteBuffer.class);
+
+  /** the default maximum number of points which are kept in memory */
+  public static final int DEFAULT_CAPACITY = 10000;
+
+  private static final String TIME_COLUMN_NAME = "time";
+  private static final String VALUE_COLUMN_NAME = "value";
+
+  private static final char NUMBER_TYPE = 'n';
+  private static final char STRING_TYPE = 's';
+
+  private final InfluxDB influxDB;
+  private final String serviceName;
+  private final String dbName;
+  private final int capacity;
+  private final File spillFile;
+
+  /** the points which have not been written yet, oldest first */
+  private final LinkedList<Point> pending = new LinkedList<Point>();
+
+  private long droppedPoints = 0;
+
+  /**
+   * Creates a new write buffer.
+   *
+   * @param influxDB the database client
+   * @param serviceName the name of the persistence service, whose cached results are invalidated
+   * @param dbName the name of the database
+   * @param capacity the maximum number of points to keep in memory
+   * @param spillFile the file to move the points to which do not fit into memory or
+   *        <code>null</code> to drop them
+   */
+  public InfluxDBWriteBuffer(InfluxDB influxDB, String serviceName, String dbName, int capacity,
+      File spillFile) {
+    this.influxDB = influxDB;
+    this.serviceName = serviceName;
+    this.dbName = dbName;
+    this.capacity = capacity;
+    this.spillFile = spillFile;
+  }
+
+  /**
+   * Writes the given points together with all points which are still pending.
+   *
+   * @param points the points to write
+   * @return <code>true</code> if all points have been written
+   */
+  public synchronized boolean write(Collection<Point> points) {
+    int deferred = pending.size();
+    pending.addAll(points);
+    if (!pending.isEmpty()) {
+      if (!send(pending)) {
+        limitPending();
+        return false;
+      }
+      invalidate(pending.subList(0, deferred));
+      pending.clear();
+    }
+    if (spillFile != null && spillFile.exists()) {
+      return replaySpillFile();
+    }
+    return true;
+  }
+
+  /**
+   * Moves all pending points to the spill file, so that they are not lost when the service is
+   * stopped. Without a spill file the pending points are dropped.
+   */
+  public synchronized void close() {
+    if (pending.isEmpty()) {
+      return;
+    }
+    if (spillFile != null && spill(pending)) {
+      logger.info("moved {} unwritten points to {}", pending.size(), spillFile);
+    } else {
+      logger.warn("dropping {} points which could not be written to influxdb", pending.size());
+    }
+    pending.clear();
+  }
+
+  /**
+   * @return the number of points which have not been written yet and are kept in memory
+   */
+  public synchronized int getPendingCount() {
+    return pending.size();
+  }
+
+  /**
+   * @return the number of points which have been dropped as they did not fit into the buffer
+   */
+  public synchronized long getDroppedCount() {
+    return droppedPoints;
+  }
+
+  /**
+   * Sends the given points as one request, with one {@link Serie} per series name.
+   */
+  private boolean send(List<Point> points) {
+    Map<String, Serie.Builder> builders = new LinkedHashMap<String, Serie.Builder>();
+    for (Point point : points) {
+      Serie.Builder builder = builders.get(point.name);
+      if (builder == null) {
+        builder = new Serie.Builder(point.name).columns(TIME_COLUMN_NAME, VALUE_COLUMN_NAME);
+        builders.put(point.name, builder);
+      }
+      builder.values(point.time, point.value);
+    }
+    Serie[] series = new Serie[builders.size()];
+    int i = 0;
+    for (Serie.Builder builder : builders.values()) {
+      series[i++] = builder.build();
+    }
+
+    try {
+      influxDB.write(dbName, TimeUnit.MILLISECONDS, series);
+      logger.trace("wrote {} points of {} series to influxdb", points.size(), series.length);
+      return true;
+    } catch (RuntimeException e) {
+      logger.error("writing {} points to influxdb failed, will retry: {}", points.size(),
+          e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Removes the oldest pending points until no more than <code>capacity</code> points are left.
+   */
+  private void limitPending() {
+    int overflow = pending.size() - capacity;
+    if (overflow <= 0) {
+      return;
+    }
+    List<Point> oldest = new ArrayList<Point>(pending.subList(0, overflow));
+    pending.subList(0, overflow).clear();
+    if (spillFile == null || !spill(oldest)) {
+      droppedPoints += overflow;
+      logger.warn("influxdb write buffer is full, dropped {} points", overflow);
+    }
+  }
+
+  private boolean spill(List<Point> points) {
+    File folder = spillFile.getAbsoluteFile().getParentFile();
+    if (folder != null && !folder.exists()) {
+      folder.mkdirs();
+    }
+    Writer writer = null;
+    try {
+      writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spillFile, true),
+          "UTF-8"));
+      for (Point point : points) {
+        writer.write(point.toLine());
+        writer.write('\n');
+      }
+      writer.flush();
+      return true;
+    } catch (IOException e) {
+      logger.error("could not write to spill file {}: {}", spillFile, e.getMessage());
+      return false;
+    } finally {
+      closeQuietly(writer);
+    }
+  }
+
+  /**
+   * Writes the points of the spill file in chunks of <code>capacity</code> points. If a chunk
+   * cannot be written, the points which are left are kept in the spill file.
+   */
+  private boolean replaySpillFile() {
+    logger.info("writing spilled points from {} to influxdb", spillFile);
+    File replayFile = new File(spillFile.getPath() + ".replay");
+    if (!spillFile.renameTo(replayFile)) {
+      logger.error("could not rename spill file {}", spillFile);
+      return false;
+    }
+
+    BufferedReader reader = null;
+    List<Point> chunk = new ArrayList<Point>();
+    boolean written = true;
+    try {
+      reader = new BufferedReader(new InputStreamReader(new FileInputStream(replayFile), "UTF-8"));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        Point point = Point.fromLine(line);
+        if (point != null) {
+          chunk.add(point);
+        }
+        if (chunk.size() >= capacity) {
+          written = replayChunk(chunk, written);
+        }
+      }
+      if (!chunk.isEmpty()) {
+        written = replayChunk(chunk, written);
+      }
+    } catch (IOException e) {
+      // keep the file, so that the points can be recovered manually
+      logger.error("could not read spill file {}: {}", replayFile, e.getMessage());
+      return false;
+    } finally {
+      closeQuietly(reader);
+    }
+    if (!replayFile.delete()) {
+      logger.warn("could not delete {}", replayFile);
+    }
+    return written;
+  }
+
+  /**
+   * Sends a chunk of spilled points, as long as the previous chunks could be sent. Otherwise the
+   * chunk is moved back to the spill file.
+   */
+  private boolean replayChunk(List<Point> chunk, boolean written) {
+    boolean sent = written && send(chunk);
+    if (sent) {
+      invalidate(chunk);
+    } else {
+      spill(chunk);
+    }
+    chunk.clear();
+    return sent;
+  }
+
+  /**
+   * Drops the cached results of the series of points which have been written later than they
+   * have been stored. The results are dropped from the time of the oldest point of each series.
+   */
+  private void invalidate(List<Point> points) {
+    Map<String, Long> oldest = new LinkedHashMap<String, Long>();
+    for (Point point : points) {
+      Long time = oldest.get(point.name);
+      if (time == null || point.time < time) {
+        oldest.put(point.name, point.time);
+      }
+    }
+    for (Map.Entry<String, Long> entry : oldest.entrySet()) {
+      CachingPersistenceService.invalidate(serviceName, entry.getKey(), new Date(entry.getValue()));
+    }
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        // nothing we can do about it
+      }
+    }
+  }
+
+  /**
+   * A value of a series at a certain time.
+   */
+  public static final class Point {
+
+    private final String name;
+    private final long time;
+    private final Object value;
+
+    /**
+     * @param name the name of the series
+     * @param time the time in milliseconds
+     * @param value a number or a string
+     */
+    public Point(String name, long time, Object value) {
+      this.name = name;
+      this.time = time;
+      this.value = value;
+    }
+
+    /**
+     * @return the point as a line of the spill file: type, time, name and value, separated by tabs
+     */
+    private String toLine() {
+      char type = value instanceof Number ? NUMBER_TYPE : STRING_TYPE;
+      return type + "\t" + time + "\t" + name + "\t" + escape(String.valueOf(value));
+    }
+
+    private static Point fromLine(String line) {
+      String[] fields = line.split("\t", 4);
+      if (fields.length != 4 || fields[0].length() != 1) {
+        logger.warn("ignoring invalid line in spill file: {}", line);
+        return null;
+      }
+      try {
+        long time = Long.parseLong(fields[1]);
+        String value = unescape(fields[3]);
+        if (fields[0].charAt(0) == NUMBER_TYPE) {
+          return new Point(fields[2], time, parseNumber(value));
+        }
+        return new Point(fields[2], time, value);
+      } catch (NumberFormatException e) {
+        logger.warn("ignoring invalid line in spill file: {}", line);
+        return null;
+      }
+    }
+
+    private static Number parseNumber(String value) {
+      try {
+        return new BigInteger(value);
+      } catch (NumberFormatException e) {
+        return Double.valueOf(value);
+      }
+    }
+
+    private static String escape(String value) {
+      return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n")
+          .replace("\r", "\\r");
+    }
+
+    private static String unescape(String value) {
+      if (value.indexOf('\\') < 0) {
+        return value;
+      }
+      StringBuilder result = new StringBuilder(value.length());
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        if (c == '\\' && i + 1 < value.length()) {
+          char next = value.charAt(++i);
+          result.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+        } else {
+          result.append(c);
+        }
+      }
+      return result.toString();
+    }
+
+    @Override
+    public String toString() {
+      return name + "@" + time + "=" + value;
+    }
+  }
+
+}
@@ -11,10 +11,13 @@ package org.openhab.persistence.mongodb.internal;
 import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Dictionary;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
 import org.bson.types.ObjectId;
@@ -35,12 +38,15 @@ import org.openhab.core.library.types.OnOffType;
 import org.openhab.core.library.types.OpenClosedType;
 import org.openhab.core.library.types.PercentType;
 import org.openhab.core.library.types.StringType;
+import org.openhab.core.persistence.AggregatingPersistenceService;
+import org.openhab.core.persistence.BatchPersistenceService;
+import org.openhab.core.persistence.BulkQueryablePersistenceService;
 import org.openhab.core.persistence.FilterCriteria;
 import org.openhab.core.persistence.FilterCriteria.Operator;
 import org.openhab.core.persistence.FilterCriteria.Ordering;
 import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.persistence.PersistenceEntry;
 import org.openhab.core.persistence.PersistenceService;
-import org.openhab.core.persistence.QueryablePersistenceService;
 import org.openhab.core.types.State;
 import org.openhab.core.types.UnDefType;
 import org.osgi.service.cm.ConfigurationException;
@@ -48,21 +54,32 @@ import org.osgi.service.cm.ManagedService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.mongodb.AggregationOutput;
 import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
 import com.mongodb.MongoClient;
 import com.mongodb.MongoClientURI;
+import com.mongodb.MongoException;
 
 /**
  * This is the implementation of the MongoDB {@link PersistenceService}.
  * 
+ * Minimum, maximum, average etc. of numeric items are computed by the database,
+ * so that the documents do not have to be loaded for this.
+ * 
+ * Item states are inserted in batches with unordered bulk writes. All queries
+ * are served by a compound index on item, timestamp and value, so that the
+ * documents themselves do not have to be read for them.
+ * 
  * @author Thorsten Hoeger
  * @since 1.5.0
  */
-public class MongoDBPersistenceService implements QueryablePersistenceService,
-		ManagedService {
+public class MongoDBPersistenceService implements AggregatingPersistenceService, BulkQueryablePersistenceService,
+		BatchPersistenceService, ManagedService {
 
 	private static final String FIELD_ID = "_id";
 	private static final String FIELD_ITEM = "item";
@@ -70,6 +87,13 @@ public class MongoDBPersistenceService implements QueryablePersistenceService,
 	private static final String FIELD_TIMESTAMP = "timestamp";
 	private static final String FIELD_VALUE = "value";
 
+	/** the name of the compound index which covers all queries */
+	private static final String INDEX_NAME = "item_timestamp_value";
+
+	/** the fields which are needed to create a {@link HistoricItem} from a document */
+	private static final DBObject HISTORIC_ITEM_FIELDS = new BasicDBObject(FIELD_ID, 0).append(FIELD_TIMESTAMP, 1)
+			.append(FIELD_VALUE, 1);
+
 	private static final Logger logger = LoggerFactory
 			.getLogger(MongoDBPersistenceService.class);
 
@@ -111,11 +135,13 @@ public class MongoDBPersistenceService implements QueryablePersistenceService,
 	 * @{inheritDoc
 	 */
 	public void store(Item item, String alias) {
-		// Don't log undefined/uninitialised data
-		if (item.getState() instanceof UnDefType) {
-			return;
-		}
+		store(Collections.singletonList(new PersistenceEntry(item, alias, item.getState(), new Date())));
+	}
 
+	/**
+	 * @{inheritDoc
+	 */
+	public void store(Collection<PersistenceEntry> entries) {
 		// If we've not initialised the bundle, then return
 		if (initialized == false) {
 			logger.warn("MongoDB not initialized");
@@ -130,24 +156,46 @@ public class MongoDBPersistenceService implements QueryablePersistenceService,
 		// If we still didn't manage to connect, then return!
 		if (!isConnected()) {
 			logger.warn(
-					"mongodb: No connection to database. Can not persist item '{}'! Will retry connecting to database next time.",
-					item);
+					"mongodb: No connection to database. Can not persist {} item states! Will retry connecting to database next time.",
+					entries.size());
 			return;
 		}
 
-		String realName = item.getName();
-		String name = (alias != null) ? alias : realName;
-		Object value = this.convertValue(item.getState());
+		// the documents are independent of each other, so the server may insert them in any order
+		BulkWriteOperation bulk = this.mongoCollection.initializeUnorderedBulkOperation();
+		int count = 0;
+		for (PersistenceEntry entry : entries) {
+			// Don't log undefined/uninitialised data
+			if (entry.getState() instanceof UnDefType) {
+				continue;
+			}
+
+			String name = entry.getName();
+			Object value = this.convertValue(entry.getState());
+
+			DBObject obj = new BasicDBObject();
+			obj.put(FIELD_ID, new ObjectId());
+			obj.put(FIELD_ITEM, name);
+			obj.put(FIELD_REALNAME, entry.getItem().getName());
+			obj.put(FIELD_TIMESTAMP, entry.getTimestamp());
+			obj.put(FIELD_VALUE, value);
+			bulk.insert(obj);
+			count++;
 
-		DBObject obj = new BasicDBObject();
-		obj.put(FIELD_ID, new ObjectId());
-		obj.put(FIELD_ITEM, name);
-		obj.put(FIELD_REALNAME, realName);
-		obj.put(FIELD_TIMESTAMP, new Date());
-		obj.put(FIELD_VALUE, value);
-		this.mongoCollection.save(obj);
+			logger.debug("MongoDB save {}={}", name, value);
+		}
+		if (count == 0) {
+			return;
+		}
 
-		logger.debug("MongoDB save {}={}", name, value);
+		try {
+			bulk.execute();
+		} catch (BulkWriteException e) {
+			logger.warn("MongoDB failed to insert {} of {} item states: {}", new Object[] {
+					e.getWriteErrors().size(), count, e.getMessage() });
+		} catch (MongoException e) {
+			logger.error("MongoDB failed to insert {} item states: {}", count, e.getMessage());
+		}
 	}
 
 	private Object convertValue(State state) {
@@ -188,10 +236,7 @@ public class MongoDBPersistenceService implements QueryablePersistenceService,
 			logger.debug("Connect MongoDB");
 			this.cl = new MongoClient(new MongoClientURI(this.url));
 			mongoCollection = cl.getDB(this.db).getCollection(this.collection);
-
-			BasicDBObject idx = new BasicDBObject();
-			idx.append(FIELD_TIMESTAMP, 1).append(FIELD_ITEM, 1);
-			this.mongoCollection.createIndex(idx);
+			createIndex();
 			logger.debug("Connect MongoDB ... done");
 		} catch (Exception e) {
 			logger.error("Failed to connect to database {}", this.url);
@@ -199,6 +244,35 @@ public class MongoDBPersistenceService implements QueryablePersistenceService,
 		}
 	}
 
+	/**
+	 * Creates the compound index on item, timestamp and value and checks that it exists.
+	 * <p>The item comes first, so that the time range of a single item is a contiguous
+	 * part of the index. As the value is contained as well, queries which only return
+	 * timestamps and values are answered from the index alone.</p>
+	 */
+	private void createIndex() {
+		DBObject keys = new BasicDBObject(FIELD_ITEM, 1).append(FIELD_TIMESTAMP, 1).append(FIELD_VALUE, 1);
+		this.mongoCollection.createIndex(keys, new BasicDBObject("name", INDEX_NAME));
+
+		// the index on timestamp and item of former versions is of no use for queries of a single item
+		DBObject legacyKeys = new BasicDBObject(FIELD_TIMESTAMP, 1).append(FIELD_ITEM, 1);
+		boolean created = false;
+		for (DBObject index : this.mongoCollection.getIndexInfo()) {
+			Object key = index.get("key");
+			if (keys.equals(key)) {
+				created = true;
+			} else if (legacyKeys.equals(key)) {
+				logger.info("Dropping obsolete MongoDB index '{}'", index.get("name"));
+				this.mongoCollection.dropIndex((String) index.get("name"));
+			}
+		}
+		if (created) {
+			logger.debug("MongoDB index '{}' is available", INDEX_NAME);
+		} else {
+			logger.warn("MongoDB index '{}' could not be created, queries will be slow", INDEX_NAME);
+		}
+	}
+
 	/**
 	 * Disconnects from the database
 	 */
@@ -272,49 +346,210 @@ public class MongoDBPersistenceService implements QueryablePersistenceService,
 			Object value = convertValue(filter.getState());
 			query.put(FIELD_VALUE, new BasicDBObject(op, value));
 		}
-		if (filter.getBeginDate() != null) {
-			query.put(FIELD_TIMESTAMP,
-					new BasicDBObject("$gte", filter.getBeginDate()));
-		}
-		if (filter.getEndDate() != null) {
-			query.put(FIELD_TIMESTAMP,
-					new BasicDBObject("$lte", filter.getEndDate()));
-		}
+		addTimeRange(query, filter);
 
 		Integer sortDir = (filter.getOrdering() == Ordering.ASCENDING) ? 1 : -1;
-		DBCursor cursor = this.mongoCollection.find(query)
+		DBCursor cursor = this.mongoCollection.find(query, HISTORIC_ITEM_FIELDS)
 				.sort(new BasicDBObject(FIELD_TIMESTAMP, sortDir))
 				.skip(filter.getPageNumber() * filter.getPageSize())
 				.limit(filter.getPageSize());
+		if (filter.getItemName() != null) {
+			cursor.hint(INDEX_NAME);
+		}
 
-		while (cursor.hasNext()) {
-			BasicDBObject obj = (BasicDBObject) cursor.next();
+		try {
+			while (cursor.hasNext()) {
+				BasicDBObject obj = (BasicDBObject) cursor.next();
+				items.add(new MongoDBItem(name, createState(item, obj), obj.getDate(FIELD_TIMESTAMP)));
+			}
+		} finally {
+			cursor.close();
+		}
+
+		return items;
+	}
+
+	/**
+	 * Converts the stored value of a document to the state of the given item.
+	 */
+	private State createState(Item item, BasicDBObject obj) {
+		if (item instanceof NumberItem) {
+			return new DecimalType(obj.getDouble(FIELD_VALUE));
+		} else if (item instanceof DimmerItem) {
+			return new PercentType(obj.getInt(FIELD_VALUE));
+		} else if (item instanceof SwitchItem) {
+			return OnOffType.valueOf(obj.getString(FIELD_VALUE));
+		} else if (item instanceof ContactItem) {
+			return OpenClosedType.valueOf(obj.getString(FIELD_VALUE));
+		} else if (item instanceof RollershutterItem) {
+			return new PercentType(obj.getInt(FIELD_VALUE));
+		} else if (item instanceof ColorItem) {
+			return new HSBType(obj.getString(FIELD_VALUE));
+		} else if (item instanceof DateTimeItem) {
+			Calendar cal = Calendar.getInstance();
+			cal.setTime(obj.getDate(FIELD_VALUE));
+			return new DateTimeType(cal);
+		} else {
+			return new StringType(obj.getString(FIELD_VALUE));
+		}
+	}
+
+	/**
+	 * @{inheritDoc
+	 */
+	public Map<String, HistoricItem> queryLatest(Collection<String> itemNames) {
+		Map<String, HistoricItem> results = new HashMap<String, HistoricItem>();
+		if (!initialized)
+			return results;
 
-			final State state;
-			if (item instanceof NumberItem) {
-				state = new DecimalType(obj.getDouble(FIELD_VALUE));
-			} else if (item instanceof DimmerItem) {
-				state = new PercentType(obj.getInt(FIELD_VALUE));
-			} else if (item instanceof SwitchItem) {
-				state = OnOffType.valueOf(obj.getString(FIELD_VALUE));
-			} else if (item instanceof ContactItem) {
-				state = OpenClosedType.valueOf(obj.getString(FIELD_VALUE));
-			} else if (item instanceof RollershutterItem) {
-				state = new PercentType(obj.getInt(FIELD_VALUE));
-			} else if (item instanceof ColorItem) {
-				state = new HSBType(obj.getString(FIELD_VALUE));
-			} else if (item instanceof DateTimeItem) {
-				Calendar cal = Calendar.getInstance();
-				cal.setTime(obj.getDate(FIELD_VALUE));
-				state = new DateTimeType(cal);
-			} else {
-				state = new StringType(obj.getString(FIELD_VALUE));
+		if (!isConnected())
+			connectToDatabase();
+
+		if (!isConnected())
+			return results;
+
+		// the most recent document of each item is picked in a single aggregation; both keys are
+		// sorted descending, so that the index is walked backwards instead of sorting in memory
+		DBObject match = new BasicDBObject(FIELD_ITEM, new BasicDBObject("$in", itemNames));
+		DBObject sort = new BasicDBObject(FIELD_ITEM, -1).append(FIELD_TIMESTAMP, -1);
+		DBObject group = new BasicDBObject(FIELD_ID, "$" + FIELD_ITEM)
+				.append(FIELD_VALUE, new BasicDBObject("$first", "$" + FIELD_VALUE))
+				.append(FIELD_TIMESTAMP, new BasicDBObject("$first", "$" + FIELD_TIMESTAMP));
+		try {
+			AggregationOutput output = this.mongoCollection.aggregate(new BasicDBObject("$match", match),
+					new BasicDBObject("$sort", sort), new BasicDBObject("$group", group));
+			for (DBObject result : output.results()) {
+				String name = (String) result.get(FIELD_ID);
+				try {
+					State state = createState(getItem(name), (BasicDBObject) result);
+					results.put(name, new MongoDBItem(name, state, (Date) result.get(FIELD_TIMESTAMP)));
+				} catch (IllegalArgumentException e) {
+					logger.warn("Unable to convert the latest value of '{}': {}", name, e.getMessage());
+				}
 			}
+		} catch (MongoException e) {
+			logger.warn("MongoDB failed to query the latest states in bulk, querying them item by item: {}",
+					e.getMessage());
+			return queryLatestOneByOne(itemNames);
+		}
+		return results;
+	}
 
-			items.add(new MongoDBItem(name, state, obj.getDate(FIELD_TIMESTAMP)));
+	/**
+	 * Looks up the most recent state of each item with a query of its own.
+	 */
+	private Map<String, HistoricItem> queryLatestOneByOne(Collection<String> itemNames) {
+		Map<String, HistoricItem> results = new HashMap<String, HistoricItem>();
+		for (String name : itemNames) {
+			FilterCriteria filter = new FilterCriteria();
+			filter.setItemName(name);
+			filter.setOrdering(Ordering.DESCENDING);
+			filter.setPageSize(1);
+			try {
+				for (HistoricItem historicItem : query(filter)) {
+					results.put(name, historicItem);
+				}
+			} catch (MongoException e) {
+				logger.warn("MongoDB failed to query the latest state of '{}': {}", name, e.getMessage());
+			} catch (IllegalArgumentException e) {
+				logger.warn("Unable to convert the latest value of '{}': {}", name, e.getMessage());
+			}
 		}
+		return results;
+	}
 
-		return items;
+	/**
+	 * Restricts a query to the time range of a filter.
+	 */
+	private void addTimeRange(DBObject query, FilterCriteria filter) {
+		BasicDBObject range = new BasicDBObject();
+		if (filter.getBeginDate() != null) {
+			range.put("$gte", filter.getBeginDate());
+		}
+		if (filter.getEndDate() != null) {
+			range.put("$lte", filter.getEndDate());
+		}
+		if (!range.isEmpty()) {
+			query.put(FIELD_TIMESTAMP, range);
+		}
+	}
+
+	/**
+	 * @{inheritDoc
+	 */
+	public HistoricItem aggregate(FilterCriteria filter, Aggregation aggregation) {
+		String name = filter.getItemName();
+		Item item = getItem(name);
+		if (!(item instanceof NumberItem || item instanceof DimmerItem || item instanceof RollershutterItem)) {
+			throw new UnsupportedOperationException("Only numeric items can be aggregated by MongoDB");
+		}
+
+		if (!initialized)
+			return null;
+
+		if (!isConnected())
+			connectToDatabase();
+
+		if (!isConnected())
+			return null;
+
+		DBObject query = new BasicDBObject(FIELD_ITEM, name);
+		addTimeRange(query, filter);
+
+		DBObject sort;
+		switch (aggregation) {
+		case AVERAGE:
+			return aggregate(name, query, "$avg", "$" + FIELD_VALUE, filter);
+		case SUM:
+			return aggregate(name, query, "$sum", "$" + FIELD_VALUE, filter);
+		case COUNT:
+			return aggregate(name, query, "$sum", 1, filter);
+		case MINIMUM:
+			sort = new BasicDBObject(FIELD_VALUE, 1).append(FIELD_TIMESTAMP, 1);
+			break;
+		case MAXIMUM:
+			sort = new BasicDBObject(FIELD_VALUE, -1).append(FIELD_TIMESTAMP, 1);
+			break;
+		case FIRST:
+			sort = new BasicDBObject(FIELD_TIMESTAMP, 1);
+			break;
+		default:
+			sort = new BasicDBObject(FIELD_TIMESTAMP, -1);
+			break;
+		}
+
+		DBCursor cursor = this.mongoCollection.find(query, HISTORIC_ITEM_FIELDS).sort(sort).limit(1)
+				.hint(INDEX_NAME);
+		try {
+			if (!cursor.hasNext()) {
+				return null;
+			}
+			BasicDBObject obj = (BasicDBObject) cursor.next();
+			State state = item instanceof NumberItem ? new DecimalType(obj.getDouble(FIELD_VALUE))
+					: new PercentType(obj.getInt(FIELD_VALUE));
+			return new MongoDBItem(name, state, obj.getDate(FIELD_TIMESTAMP));
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Groups all matching documents and applies the given accumulator to them.
+	 */
+	private HistoricItem aggregate(String name, DBObject query, String accumulator,
+			Object expression, FilterCriteria filter) {
+		DBObject group = new BasicDBObject(FIELD_ID, null).append("result",
+				new BasicDBObject(accumulator, expression));
+		AggregationOutput output = this.mongoCollection.aggregate(
+				new BasicDBObject("$match", query), new BasicDBObject("$group", group));
+		for (DBObject result : output.results()) {
+			Object value = result.get("result");
+			if (value instanceof Number) {
+				Date end = filter.getEndDate() != null ? filter.getEndDate() : new Date();
+				return new MongoDBItem(name, new DecimalType(((Number) value).doubleValue()), end);
+			}
+		}
+		return null;
 	}
 
 	private String convertOperator(Operator operator) {
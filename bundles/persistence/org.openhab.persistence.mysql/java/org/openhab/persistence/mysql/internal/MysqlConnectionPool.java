@@ -0,0 +1,228 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.persistence.mysql.internal;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A small pool of database connections, so that queries (e.g. for charts) do not have
+ * to wait for the items states being written and vice versa.
+ *
+ * Connections are created when they are needed, up to the configured maximum. Each
+ * connection caches the prepared insert statements of the item tables it has written to.
+ *
+ * @since 1.6.0
+ */
+public class MysqlConnectionPool {
+
+	private static final Logger logger = LoggerFactory.getLogger(MysqlConnectionPool.class);
+
+	/** the default maximum number of connections */
+	public static final int DEFAULT_SIZE = 3;
+
+	/** the time in seconds to wait for a free connection */
+	private static final int CONNECTION_TIMEOUT = 30;
+
+	private final String url;
+	private final Properties connectionProperties;
+	private final int waitTimeout;
+	private final int maxSize;
+
+	private final BlockingQueue<PooledConnection> idleConnections = new LinkedBlockingQueue<PooledConnection>();
+
+	/** the number of open connections, guarded by this pool */
+	private int size = 0;
+
+	private volatile boolean closed = false;
+
+	/**
+	 * Creates a new connection pool.
+	 *
+	 * @param url the database url
+	 * @param user the database user
+	 * @param password the password of the database user
+	 * @param waitTimeout the wait_timeout of the database sessions in seconds, -1 for the server default
+	 * @param maxSize the maximum number of connections
+	 */
+	public MysqlConnectionPool(String url, String user, String password, int waitTimeout, int maxSize) {
+		this.url = url;
+		this.waitTimeout = waitTimeout;
+		this.maxSize = maxSize;
+		connectionProperties = new Properties();
+		connectionProperties.put("user", user);
+		if (password != null) {
+			connectionProperties.put("password", password);
+		}
+		// let the driver send a batch of inserts as a single multi-row insert
+		connectionProperties.put("rewriteBatchedStatements", "true");
+	}
+
+	/**
+	 * Returns an idle connection or opens a new one, if the maximum number of connections
+	 * has not been reached yet. Otherwise waits for a connection to be released.
+	 * Every connection must be passed to {@link #release(PooledConnection)} or
+	 * {@link #discard(PooledConnection)} afterwards.
+	 *
+	 * @return the connection
+	 * @throws SQLException if no connection could be opened
+	 */
+	public PooledConnection getConnection() throws SQLException {
+		if (closed) {
+			throw new SQLException("mySQL: The connection pool has been closed");
+		}
+		PooledConnection connection = idleConnections.poll();
+		if (connection != null) {
+			return connection;
+		}
+
+		boolean create;
+		synchronized (this) {
+			create = size < maxSize;
+			if (create) {
+				size++;
+			}
+		}
+		if (create) {
+			try {
+				return new PooledConnection(openConnection());
+			} catch (SQLException e) {
+				synchronized (this) {
+					size--;
+				}
+				throw e;
+			}
+		}
+
+		try {
+			connection = idleConnections.poll(CONNECTION_TIMEOUT, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (connection == null) {
+			throw new SQLException("mySQL: Timeout while waiting for a free database connection");
+		}
+		return connection;
+	}
+
+	/**
+	 * Returns a connection to the pool.
+	 *
+	 * @param connection the connection which is not used anymore
+	 */
+	public void release(PooledConnection connection) {
+		if (closed) {
+			discard(connection);
+		} else {
+			idleConnections.add(connection);
+		}
+	}
+
+	/**
+	 * Closes a connection which should not be used anymore, e.g. after an error.
+	 *
+	 * @param connection the connection to close
+	 */
+	public void discard(PooledConnection connection) {
+		synchronized (this) {
+			size--;
+		}
+		connection.close();
+	}
+
+	/**
+	 * Closes all idle connections. Connections which are in use are closed when they are released.
+	 */
+	public void close() {
+		closed = true;
+		PooledConnection connection;
+		while ((connection = idleConnections.poll()) != null) {
+			discard(connection);
+		}
+	}
+
+	private Connection openConnection() throws SQLException {
+		logger.debug("mySQL: Attempting to connect to database {}", url);
+		Connection connection = DriverManager.getConnection(url, connectionProperties);
+		logger.debug("mySQL: Connected to database {}", url);
+
+		if (waitTimeout != -1) {
+			logger.debug("mySQL: Setting wait_timeout to {} seconds.", waitTimeout);
+			Statement st = connection.createStatement();
+			try {
+				st.executeUpdate("SET SESSION wait_timeout=" + waitTimeout);
+			} finally {
+				st.close();
+			}
+		}
+		return connection;
+	}
+
+	/**
+	 * A pooled connection, which keeps the prepared insert statements of the item tables.
+	 */
+	public static class PooledConnection {
+
+		private final Connection connection;
+
+		private final Map<String, PreparedStatement> insertStatements = new HashMap<String, PreparedStatement>();
+
+		private PooledConnection(Connection connection) {
+			this.connection = connection;
+		}
+
+		/**
+		 * @return the underlying database connection
+		 */
+		public Connection getConnection() {
+			return connection;
+		}
+
+		/**
+		 * Returns the prepared statement which inserts a value into an item table, or
+		 * updates it, if there is already a value for the given time. The parameters of
+		 * the statement are the time and the value.
+		 *
+		 * @param tableName the item table
+		 * @return the prepared statement
+		 * @throws SQLException if the statement could not be prepared
+		 */
+		public PreparedStatement getInsertStatement(String tableName) throws SQLException {
+			PreparedStatement statement = insertStatements.get(tableName);
+			if (statement == null) {
+				statement = connection.prepareStatement("INSERT INTO " + tableName
+						+ " (TIME, VALUE) VALUES(?,?) ON DUPLICATE KEY UPDATE VALUE=VALUES(VALUE)");
+				insertStatements.put(tableName, statement);
+			}
+			return statement;
+		}
+
+		private void close() {
+			try {
+				connection.close();
+				logger.debug("mySQL: Disconnected from database");
+			} catch (Exception e) {
+				logger.error("mySQL: Failed disconnecting from the SQL database {}", e);
+			}
+		}
+	}
+
+}
@@ -8,21 +8,25 @@
  */
 package org.openhab.persistence.mysql.internal;
 
-import java.text.SimpleDateFormat;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.Formatter;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -45,13 +49,17 @@ import org.openhab.core.library.types.OnOffType;
 import org.openhab.core.library.types.OpenClosedType;
 import org.openhab.core.library.types.PercentType;
 import org.openhab.core.library.types.StringType;
+import org.openhab.core.persistence.AggregatingPersistenceService;
+import org.openhab.core.persistence.BatchPersistenceService;
+import org.openhab.core.persistence.BulkQueryablePersistenceService;
 import org.openhab.core.persistence.FilterCriteria;
 import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.persistence.PersistenceEntry;
 import org.openhab.core.persistence.PersistenceService;
-import org.openhab.core.persistence.QueryablePersistenceService;
 import org.openhab.core.persistence.FilterCriteria.Ordering;
 import org.openhab.core.types.State;
 import org.openhab.core.types.UnDefType;
+import org.openhab.persistence.mysql.internal.MysqlConnectionPool.PooledConnection;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedService;
 import org.slf4j.Logger;
@@ -78,17 +86,29 @@ import org.slf4j.LoggerFactory;
  * keep the best resolution, we store as a number in SQL and convert to
  * DecimalType before persisting to MySQL.
  * 
+ * The item states are written in batches by the persistence manager, using
+ * cached prepared statements per item table. Connections are taken from a
+ * small {@link MysqlConnectionPool}, so that queries do not have to wait for
+ * the states being written.
+ * 
+ * Minimum, maximum, average etc. of numeric items are computed by the database,
+ * so that the states do not have to be loaded for this.
+ * 
  * @author Henrik Sjöstrand
  * @author Thomas.Eichstaedt-Engelen
  * @author Chris Jackson
  * @since 1.1.0
  */
-public class MysqlPersistenceService implements QueryablePersistenceService, ManagedService {
+public class MysqlPersistenceService implements AggregatingPersistenceService, BulkQueryablePersistenceService,
+		BatchPersistenceService, ManagedService {
 
 	private static final Pattern EXTRACT_CONFIG_PATTERN = Pattern.compile("^(.*?)\\.([0-9.a-zA-Z]+)$");
 
 	private static final Logger logger = LoggerFactory.getLogger(MysqlPersistenceService.class);
 
+	/** the maximum number of tables which are combined in one query for the latest values */
+	private static final int LATEST_QUERY_TABLES = 100;
+
 	private String driverClass = "com.mysql.jdbc.Driver";
 	private String url;
 	private String user;
@@ -98,14 +118,16 @@ public class MysqlPersistenceService implements QueryablePersistenceService, Man
 	protected ItemRegistry itemRegistry;
 
 	// Error counter - used to reconnect to database on error
-	private int errCnt;
+	private volatile int errCnt;
 	private int errReconnectThreshold = 0;
 	
 	private int waitTimeout = -1;
 
-	private Connection connection = null;
+	private int poolSize = MysqlConnectionPool.DEFAULT_SIZE;
 
-	private Map<String, String> sqlTables = new HashMap<String, String>();
+	private volatile MysqlConnectionPool pool = null;
+
+	private Map<String, String> sqlTables = new ConcurrentHashMap<String, String>();
 	private Map<String, String> sqlTypes = new HashMap<String, String>();
 
 	public void activate() {
@@ -141,11 +163,7 @@ public class MysqlPersistenceService implements QueryablePersistenceService, Man
 		return "mysql";
 	}
 
-	private String getTable(Item item) {
-		Statement statement = null;
-		String sqlCmd = null;
-		int rowId = 0;
-
+	private String getTable(Connection connection, Item item) {
 		String itemName = item.getName();
 
 		String tableName = sqlTables.get(itemName);
@@ -154,15 +172,33 @@ public class MysqlPersistenceService implements QueryablePersistenceService, Man
 		if (tableName != null)
 			return tableName;
 
+		// make sure that the table of an item is only created once
+		synchronized (sqlTables) {
+			tableName = sqlTables.get(itemName);
+			if (tableName != null)
+				return tableName;
+			return createTable(connection, item);
+		}
+	}
+
+	private String createTable(Connection connection, Item item) {
+		PreparedStatement preparedStatement = null;
+		Statement statement = null;
+		String sqlCmd = null;
+		int rowId = 0;
+
+		String itemName = item.getName();
+		String tableName = null;
+
 		// Create a new entry in the Items table. This is the translation of
 		// item name to table
 		try {
-			sqlCmd = new String("INSERT INTO Items (ItemName) VALUES ('" + itemName + "')");
+			preparedStatement = connection.prepareStatement("INSERT INTO Items (ItemName) VALUES (?)",
+					Statement.RETURN_GENERATED_KEYS);
+			preparedStatement.setString(1, itemName);
+			preparedStatement.executeUpdate();
 
-			statement = connection.createStatement();
-			statement.executeUpdate(sqlCmd, Statement.RETURN_GENERATED_KEYS);
-
-			ResultSet resultSet = statement.getGeneratedKeys();
+			ResultSet resultSet = preparedStatement.getGeneratedKeys();
 			if (resultSet != null && resultSet.next()) {
 				rowId = resultSet.getInt(1);
 			}
@@ -177,9 +213,9 @@ public class MysqlPersistenceService implements QueryablePersistenceService, Man
 		} catch (SQLException e) {
 			logger.error("mySQL: Could not create table for item '{}': ", itemName, e.getMessage());
 		} finally {
-			if (statement != null) {
+			if (preparedStatement != null) {
 				try {
-					statement.close();
+					preparedStatement.close();
 				} catch (SQLException logOrIgnore) {
 				}
 			}
@@ -228,23 +264,22 @@ public class MysqlPersistenceService implements QueryablePersistenceService, Man
 		// The item needs to be removed from the index table to avoid duplicates
 		if(sqlTables.get(itemName) == null) {
 			logger.error("mySQL: Item '{}' was not added to the table - removing index", itemName);
-			sqlCmd = new String("DELETE FROM Items WHERE ItemName='" + itemName+"'");
-			logger.debug("SQL: {}", sqlCmd);
 	
 			try {
-				statement = connection.createStatement();
-				statement.executeUpdate(sqlCmd);	
+				preparedStatement = connection.prepareStatement("DELETE FROM Items WHERE ItemName=?");
+				preparedStatement.setString(1, itemName);
+				preparedStatement.executeUpdate();	
 			} catch (Exception e) {
-				logger.error("mySQL: Could not remove index for item '" + itemName + "' with statement '" + sqlCmd + "': "
-						+ e.getMessage());			
+				logger.error("mySQL: Could not remove index for item '" + itemName + "': " + e.getMessage());			
 			} finally {
-				if (statement != null) {
+				if (preparedStatement != null) {
 					try {
-						statement.close();
+						preparedStatement.close();
 					} catch (Exception hidden) {
 					}
 				}
 			}
+			return null;
 		}			
 		
 		return tableName;
@@ -254,10 +289,13 @@ public class MysqlPersistenceService implements QueryablePersistenceService, Man
 	 * @{inheritDoc
 	 */
 	public void store(Item item, String alias) {
-		// Don't log undefined/uninitialised data
-		if(item.getState() instanceof UnDefType)
-			return;
+		store(Collections.singletonList(new PersistenceEntry(item, alias, item.getState(), new Date())));
+	}
 
+	/**
+	 * @{inheritDoc
+	 */
+	public void store(Collection<PersistenceEntry> entries) {
 		// If we've not initialised the bundle, then return
 		if (initialized == false)
 			return;
@@ -267,62 +305,59 @@ public class MysqlPersistenceService implements QueryablePersistenceService, Man
 			connectToDatabase();
 
 		// If we still didn't manage to connect, then return!
-		if (!isConnected()) {
+		MysqlConnectionPool pool = this.pool;
+		if (pool == null) {
 			logger.warn(
-					"mySQL: No connection to database. Can not persist item '{}'! Will retry connecting to database next time.",
-					item);
+					"mySQL: No connection to database. Can not persist {} item states! Will retry connecting to database next time.",
+					entries.size());
 			return;
 		}
 
-		// Get the table name for this item
-		String tableName = getTable(item);
-		if (tableName == null) {
-			logger.error("Unable to store item '{}'.", item.getName());
-			return;
-		}
+		PooledConnection connection = null;
+		boolean succeeded = false;
+		try {
+			connection = pool.getConnection();
 
-		// Do some type conversion to ensure we know the data type.
-		// This is necessary for items that have multiple types and may return their
-		// state in a format that's not preferred or compatible with the MySQL type.
-		// eg. DimmerItem can return OnOffType (ON, OFF), or PercentType (0-100).
-		// We need to make sure we cover the best type for serialisation.
-		String value;
-		if (item instanceof DimmerItem || item instanceof RollershutterItem) {
-			value = item.getStateAs(PercentType.class).toString();
-		} else if (item instanceof ColorItem) {
-			value = item.getStateAs(HSBType.class).toString();
-		} else {
-			// All other items should return the best format by default
-			value = item.getState().toString();
-		}
+			// the statements which have got values to insert, in the order of their first use
+			Map<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>();
+			for (PersistenceEntry entry : entries) {
+				Item item = entry.getItem();
 
-		String sqlCmd = null;
-		Statement statement = null;
-		try {
-			statement = connection.createStatement();
-			sqlCmd = new String("INSERT INTO " + tableName + " (TIME, VALUE) VALUES(NOW(),'"
-					+ item.getState().toString() + "') ON DUPLICATE KEY UPDATE VALUE='"
-					+ item.getState().toString() + "';");
-			statement.executeUpdate(sqlCmd);
+				// Don't log undefined/uninitialised data
+				if (entry.getState() instanceof UnDefType)
+					continue;
+
+				// Get the table name for this item
+				String tableName = getTable(connection.getConnection(), item);
+				if (tableName == null) {
+					logger.error("Unable to store item '{}'.", item.getName());
+					continue;
+				}
+
+				String value = entry.getState().toString();
+				PreparedStatement statement = connection.getInsertStatement(tableName);
+				statement.setTimestamp(1, new Timestamp(entry.getTimestamp().getTime()));
+				statement.setString(2, value);
+				statement.addBatch();
+				statements.put(tableName, statement);
 
-			logger.debug("mySQL: Stored item '{}' as '{}'[{}] in SQL database at {}.", item.getName(), item.getState()
-					.toString(), value, (new java.util.Date()).toString());
-			logger.debug("mySQL: {}", sqlCmd);
+				logger.debug("mySQL: Storing item '{}' as '{}' in SQL database at {}.", new Object[] { item.getName(), value,
+						entry.getTimestamp() });
+			}
+
+			for (PreparedStatement statement : statements.values()) {
+				statement.executeBatch();
+			}
 
 			// Success
 			errCnt = 0;
-		} catch (Exception e) {
+			succeeded = true;
+		} catch (SQLException e) {
 			errCnt++;
 
-			logger.error("mySQL: Could not store item '{}' in database with statement '{}': {}", item.getName(),
-					sqlCmd, e.getMessage());
+			logger.error("mySQL: Could not store {} item states in database: {}", entries.size(), e.getMessage());
 		} finally {
-			if (statement != null) {
-				try {
-					statement.close();
-				} catch (Exception hidden) {
-				}
-			}
+			returnConnection(pool, connection, succeeded);
 		}
 	}
 
@@ -345,32 +380,31 @@ public class MysqlPersistenceService implements QueryablePersistenceService, Man
 			logger.error("mySQL: Error count exceeded {}. Disconnecting database.", errReconnectThreshold);
 			disconnectFromDatabase();
 		}
-		return connection != null;
+		return pool != null;
 	}
 
 	/**
 	 * Connects to the database
 	 */
-	private void connectToDatabase() {
+	private synchronized void connectToDatabase() {
+		if (pool != null) {
+			return;
+		}
+		MysqlConnectionPool newPool = null;
+		PooledConnection pooledConnection = null;
 		try {
 			// Reset the error counter
 			errCnt = 0;
 
-			logger.debug("mySQL: Attempting to connect to database {}", url);
 			Class.forName(driverClass).newInstance();
-			connection = DriverManager.getConnection(url, user, password);
-			logger.debug("mySQL: Connected to database {}", url);
+			newPool = new MysqlConnectionPool(url, user, password, waitTimeout, poolSize);
+			pooledConnection = newPool.getConnection();
+			Connection connection = pooledConnection.getConnection();
 
 			Statement st = connection.createStatement();
 			int result = st.executeUpdate("SHOW TABLES LIKE 'Items'");
 			st.close();
 			
-			if(waitTimeout != -1) {
-				logger.debug("mySQL: Setting wait_timeout to {} seconds.", waitTimeout);
-				st = connection.createStatement();
-				st.executeUpdate("SET SESSION wait_timeout="+waitTimeout);
-				st.close();
-			}
 			if (result == 0) {
 				st = connection.createStatement();
 				st.executeUpdate(
@@ -379,35 +413,43 @@ public class MysqlPersistenceService implements QueryablePersistenceService, Man
 				st.close();
 			}
 
-			// Retrieve the table array
+			// Retrieve the table array, so that the tables of the items are known
+			// without asking the database again
 			st = connection.createStatement();
 
 			// Turn use of the cursor on.
 			st.setFetchSize(50);
 			ResultSet rs = st.executeQuery("SELECT ItemId, ItemName FROM Items");
+			Map<String, String> tables = new HashMap<String, String>();
 			while (rs.next()) {
-				sqlTables.put(rs.getString(2), "Item" + rs.getInt(1));
+				tables.put(rs.getString(2), "Item" + rs.getInt(1));
 			}
 			rs.close();
 			st.close();
+			sqlTables.putAll(tables);
+
+			newPool.release(pooledConnection);
+			pool = newPool;
 		} catch (Exception e) {
 			logger.error("mySQL: Failed connecting to the SQL database using: driverClass=" + driverClass + ", url="
 					+ url + ", user=" + user + ", password=" + password, e);
+			if (newPool != null) {
+				if (pooledConnection != null) {
+					newPool.discard(pooledConnection);
+				}
+				newPool.close();
+			}
 		}
 	}
 
 	/**
 	 * Disconnects from the database
 	 */
-	private void disconnectFromDatabase() {
-		if (connection != null) {
-			try {
-				connection.close();
-				logger.debug("mySQL: Disconnected from database {}", url);
-			} catch (Exception e) {
-				logger.error("mySQL: Failed disconnecting from the SQL database {}", e);
-			}
-			connection = null;
+	private synchronized void disconnectFromDatabase() {
+		if (pool != null) {
+			pool.close();
+			logger.debug("mySQL: Disconnected from database {}", url);
+			pool = null;
 		}
 	}
 
@@ -484,6 +526,11 @@ public class MysqlPersistenceService implements QueryablePersistenceService, Man
 				waitTimeout = Integer.parseInt(tmpString);
 			}
 
+			tmpString = (String) config.get("poolSize");
+			if (StringUtils.isNotBlank(tmpString)) {
+				poolSize = Integer.parseInt(tmpString);
+			}
+
 			disconnectFromDatabase();
 			connectToDatabase();
 
@@ -504,28 +551,11 @@ public class MysqlPersistenceService implements QueryablePersistenceService, Man
 		if (!isConnected())
 			return Collections.emptyList();
 
-		SimpleDateFormat mysqlDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-
 		// Get the item name from the filter
 		// Also get the Item object so we can determine the type
-		Item item = null;
 		String itemName = filter.getItemName();
 		logger.debug("mySQL query: item is {}", itemName);
-		try {
-			if (itemRegistry != null) {
-				item = itemRegistry.getItem(itemName);
-			}
-		} catch (ItemNotFoundException e1) {
-			logger.error("Unable to get item type for {}", itemName);
-
-			// Set type to null - data will be returned as StringType
-			item = null;
-		}
-                   
-                if(item instanceof GroupItem){
-                    // For Group Items is BaseItem needed to get correct Type of Value.
-                    item = GroupItem.class.cast(item).getBaseItem();
-                }
+		Item item = getQueryItem(itemName);
 
 		String table = sqlTables.get(itemName);
 		if (table == null) {
@@ -540,14 +570,14 @@ public class MysqlPersistenceService implements QueryablePersistenceService, Man
 				filterString += " WHERE";
 			else
 				filterString += " AND";
-			filterString += " TIME>'" + mysqlDateFormat.format(filter.getBeginDate()) + "'";
+			filterString += " TIME>?";
 		}
 		if (filter.getEndDate() != null) {
 			if (filterString.isEmpty())
 				filterString += " WHERE";
 			else
 				filterString += " AND";
-			filterString += " TIME<'" + mysqlDateFormat.format(filter.getEndDate().getTime()) + "'";
+			filterString += " TIME<?";
 		}
 
 		if (filter.getOrdering() == Ordering.ASCENDING) {
@@ -557,13 +587,18 @@ public class MysqlPersistenceService implements QueryablePersistenceService, Man
 		}
 
 		if (filter.getPageSize() != 0x7fffffff)
-			filterString += " LIMIT " + filter.getPageNumber() * filter.getPageSize() + "," + filter.getPageSize();
+			filterString += " LIMIT ?,?";
+
+		MysqlConnectionPool pool = this.pool;
+		if (pool == null)
+			return Collections.emptyList();
 
+		PooledConnection connection = null;
+		boolean succeeded = false;
 		try {
 			long timerStart = System.currentTimeMillis();
 
-			// Retrieve the table array
-			Statement st = connection.createStatement();
+			connection = pool.getConnection();
 
 			String queryString = new String();
 			queryString = "SELECT Time, Value FROM " + table;
@@ -572,10 +607,21 @@ public class MysqlPersistenceService implements QueryablePersistenceService, Man
 
 			logger.debug("mySQL: " + queryString);
 
+			PreparedStatement st = connection.getConnection().prepareStatement(queryString);
+			int parameter = 1;
+			if (filter.getBeginDate() != null)
+				st.setTimestamp(parameter++, new Timestamp(filter.getBeginDate().getTime()));
+			if (filter.getEndDate() != null)
+				st.setTimestamp(parameter++, new Timestamp(filter.getEndDate().getTime()));
+			if (filter.getPageSize() != 0x7fffffff) {
+				st.setInt(parameter++, filter.getPageNumber() * filter.getPageSize());
+				st.setInt(parameter++, filter.getPageSize());
+			}
+
 			// Turn use of the cursor on.
 			st.setFetchSize(50);
 
-			ResultSet rs = st.executeQuery(queryString);
+			ResultSet rs = st.executeQuery();
 
 			long count = 0;
 			List<HistoricItem> items = new ArrayList<HistoricItem>();
@@ -583,24 +629,7 @@ public class MysqlPersistenceService implements QueryablePersistenceService, Man
 			while (rs.next()) {
 				count++;
 
-				if (item instanceof NumberItem)
-					state = new DecimalType(rs.getDouble(2));
-				else if (item instanceof ColorItem)
-					state = new HSBType(rs.getString(2));
-				else if (item instanceof DimmerItem)
-					state = new PercentType(rs.getInt(2));
-				else if (item instanceof SwitchItem)
-					state = OnOffType.valueOf(rs.getString(2));
-				else if (item instanceof ContactItem)
-					state = OpenClosedType.valueOf(rs.getString(2));
-				else if (item instanceof RollershutterItem)
-					state = new PercentType(rs.getInt(2));
-				else if (item instanceof DateTimeItem) {
-					Calendar calendar = Calendar.getInstance();
-					calendar.setTimeInMillis(rs.getTimestamp(2).getTime());
-					state = new DateTimeType(calendar);
-				} else
-					state = new StringType(rs.getString(2));
+				state = createState(item, rs, 2);
 
 				MysqlItem mysqlItem = new MysqlItem(itemName, state, rs.getTimestamp(1));
 				items.add(mysqlItem);
@@ -608,6 +637,7 @@ public class MysqlPersistenceService implements QueryablePersistenceService, Man
 
 			rs.close();
 			st.close();
+			succeeded = true;
 
 			long timerStop = System.currentTimeMillis();
 			logger.debug("mySQL: query returned {} rows in {}ms", count, timerStop - timerStart);
@@ -619,7 +649,241 @@ public class MysqlPersistenceService implements QueryablePersistenceService, Man
 		} catch (SQLException e) {
 			errCnt++;
 			logger.error("mySQL: Error running querying : " + e.getMessage());
+		} finally {
+			returnConnection(pool, connection, succeeded);
 		}
 		return null;
 	}
+
+	/**
+	 * Converts a stored value to the state of the given item.
+	 * 
+	 * @param item the item, or <code>null</code> to return the value as a StringType
+	 * @param rs the result set which is positioned at the value
+	 * @param column the column of the value
+	 */
+	private State createState(Item item, ResultSet rs, int column) throws SQLException {
+		if (item instanceof NumberItem)
+			return new DecimalType(rs.getDouble(column));
+		else if (item instanceof ColorItem)
+			return new HSBType(rs.getString(column));
+		else if (item instanceof DimmerItem)
+			return new PercentType(rs.getInt(column));
+		else if (item instanceof SwitchItem)
+			return OnOffType.valueOf(rs.getString(column));
+		else if (item instanceof ContactItem)
+			return OpenClosedType.valueOf(rs.getString(column));
+		else if (item instanceof RollershutterItem)
+			return new PercentType(rs.getInt(column));
+		else if (item instanceof DateTimeItem) {
+			Calendar calendar = Calendar.getInstance();
+			calendar.setTimeInMillis(rs.getTimestamp(column).getTime());
+			return new DateTimeType(calendar);
+		} else
+			return new StringType(rs.getString(column));
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public Map<String, HistoricItem> queryLatest(Collection<String> itemNames) {
+		Map<String, HistoricItem> results = new HashMap<String, HistoricItem>();
+		if (!initialized)
+			return results;
+
+		if (!isConnected())
+			connectToDatabase();
+
+		MysqlConnectionPool pool = this.pool;
+		if (pool == null)
+			return results;
+
+		List<String> names = new ArrayList<String>();
+		for (String itemName : itemNames) {
+			if (sqlTables.containsKey(itemName))
+				names.add(itemName);
+		}
+
+		PooledConnection connection = null;
+		boolean succeeded = false;
+		try {
+			long timerStart = System.currentTimeMillis();
+			connection = pool.getConnection();
+			for (int i = 0; i < names.size(); i += LATEST_QUERY_TABLES) {
+				List<String> chunk = names.subList(i, Math.min(i + LATEST_QUERY_TABLES, names.size()));
+
+				// the tables of the items have different value types, so the values are combined as strings
+				StringBuilder queryString = new StringBuilder();
+				for (int j = 0; j < chunk.size(); j++) {
+					if (j > 0)
+						queryString.append(" UNION ALL ");
+					queryString.append("(SELECT ").append(j).append(" AS Item, Time, CAST(Value AS CHAR) FROM ")
+							.append(sqlTables.get(chunk.get(j))).append(" ORDER BY Time DESC LIMIT 1)");
+				}
+
+				Statement st = connection.getConnection().createStatement();
+				ResultSet rs = st.executeQuery(queryString.toString());
+				while (rs.next()) {
+					String itemName = chunk.get(rs.getInt(1));
+					try {
+						State state = createState(getQueryItem(itemName), rs, 3);
+						results.put(itemName, new MysqlItem(itemName, state, rs.getTimestamp(2)));
+					} catch (IllegalArgumentException e) {
+						logger.warn("mySQL: Unable to convert the latest value of '{}': {}", itemName, e.getMessage());
+					}
+				}
+				rs.close();
+				st.close();
+			}
+			succeeded = true;
+
+			logger.debug("mySQL: looked up the latest values of {} items in {}ms", names.size(),
+					System.currentTimeMillis() - timerStart);
+			errCnt = 0;
+		} catch (SQLException e) {
+			errCnt++;
+			logger.error("mySQL: Error looking up the latest values : " + e.getMessage());
+		} finally {
+			returnConnection(pool, connection, succeeded);
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the item whose type determines the type of the stored values.
+	 * 
+	 * @return the item or <code>null</code>, if it is unknown
+	 */
+	private Item getQueryItem(String itemName) {
+		Item item = null;
+		try {
+			if (itemRegistry != null) {
+				item = itemRegistry.getItem(itemName);
+			}
+		} catch (ItemNotFoundException e1) {
+			logger.error("Unable to get item type for {}", itemName);
+
+			// Set type to null - data will be returned as StringType
+			item = null;
+		}
+
+		if (item instanceof GroupItem) {
+			// For Group Items is BaseItem needed to get correct Type of Value.
+			item = GroupItem.class.cast(item).getBaseItem();
+		}
+		return item;
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public HistoricItem aggregate(FilterCriteria filter, Aggregation aggregation) {
+		String itemName = filter.getItemName();
+		Item item = getQueryItem(itemName);
+		if (!(item instanceof NumberItem || item instanceof DimmerItem || item instanceof RollershutterItem)) {
+			throw new UnsupportedOperationException("mySQL: Only numeric items can be aggregated");
+		}
+
+		if (!isConnected())
+			connectToDatabase();
+
+		MysqlConnectionPool pool = this.pool;
+		String table = sqlTables.get(itemName);
+		if (pool == null || table == null) {
+			return null;
+		}
+
+		String filterString = " WHERE VALUE IS NOT NULL";
+		if (filter.getBeginDate() != null)
+			filterString += " AND TIME>?";
+		if (filter.getEndDate() != null)
+			filterString += " AND TIME<?";
+
+		String queryString;
+		switch (aggregation) {
+		case AVERAGE:
+			queryString = "SELECT AVG(Value), COUNT(*) FROM " + table + filterString;
+			break;
+		case SUM:
+			queryString = "SELECT SUM(Value), COUNT(*) FROM " + table + filterString;
+			break;
+		case COUNT:
+			queryString = "SELECT COUNT(*), COUNT(*) FROM " + table + filterString;
+			break;
+		case MINIMUM:
+			queryString = "SELECT Time, Value FROM " + table + filterString + " ORDER BY Value ASC, Time ASC LIMIT 1";
+			break;
+		case MAXIMUM:
+			queryString = "SELECT Time, Value FROM " + table + filterString + " ORDER BY Value DESC, Time ASC LIMIT 1";
+			break;
+		case FIRST:
+			queryString = "SELECT Time, Value FROM " + table + filterString + " ORDER BY Time ASC LIMIT 1";
+			break;
+		default:
+			queryString = "SELECT Time, Value FROM " + table + filterString + " ORDER BY Time DESC LIMIT 1";
+			break;
+		}
+		logger.debug("mySQL: " + queryString);
+
+		PooledConnection connection = null;
+		boolean succeeded = false;
+		try {
+			connection = pool.getConnection();
+			PreparedStatement st = connection.getConnection().prepareStatement(queryString);
+			int parameter = 1;
+			if (filter.getBeginDate() != null)
+				st.setTimestamp(parameter++, new Timestamp(filter.getBeginDate().getTime()));
+			if (filter.getEndDate() != null)
+				st.setTimestamp(parameter++, new Timestamp(filter.getEndDate().getTime()));
+
+			ResultSet rs = st.executeQuery();
+			HistoricItem result = null;
+			if (rs.next()) {
+				if (aggregation == Aggregation.AVERAGE || aggregation == Aggregation.SUM
+						|| aggregation == Aggregation.COUNT) {
+					if (rs.getLong(2) > 0) {
+						Date end = filter.getEndDate() != null ? filter.getEndDate() : new Date();
+						result = new MysqlItem(itemName, new DecimalType(rs.getDouble(1)), end);
+					}
+				} else {
+					State state;
+					if (item instanceof NumberItem)
+						state = new DecimalType(rs.getDouble(2));
+					else
+						state = new PercentType(rs.getInt(2));
+					result = new MysqlItem(itemName, state, rs.getTimestamp(1));
+				}
+			}
+
+			rs.close();
+			st.close();
+			succeeded = true;
+			errCnt = 0;
+			return result;
+		} catch (SQLException e) {
+			errCnt++;
+			logger.error("mySQL: Error running aggregation : " + e.getMessage());
+		} finally {
+			returnConnection(pool, connection, succeeded);
+		}
+		return null;
+	}
+
+	/**
+	 * Returns a connection to the pool after it has been used. If the connection has not
+	 * been used successfully, e.g. because of an SQLException or a RuntimeException, its
+	 * state is unknown and it is discarded.
+	 * 
+	 * @param pool the pool of the connection
+	 * @param connection the connection or <code>null</code>, if none has been obtained
+	 * @param succeeded whether the connection has been used successfully
+	 */
+	private static void returnConnection(MysqlConnectionPool pool, PooledConnection connection, boolean succeeded) {
+		if (connection == null)
+			return;
+		if (succeeded)
+			pool.release(connection);
+		else
+			pool.discard(connection);
+	}
 }
@@ -0,0 +1,292 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.persistence.rrd4j.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.rrd4j.core.RrdBackendFactory;
+import org.rrd4j.core.RrdDb;
+import org.rrd4j.core.RrdDef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the rrd4j databases of the persisted items open, so that they do not have to be
+ * opened and closed for every sample. Each database is guarded by its own lock, so that
+ * different databases can be written in parallel.
+ *
+ * <p>At most <code>capacity</code> databases are kept open; if more are needed, the least
+ * recently used database which is not in use is closed.</p>
+ *
+ * <p>The pool is reconfigured in place, so that there is never more than one open
+ * {@link RrdDb} per file. Databases which have been opened with another backend are
+ * reopened the next time they are acquired.</p>
+ *
+ * @since 1.6.0
+ */
+public class RRD4jDatabasePool {
+
+	private static final Logger logger = LoggerFactory.getLogger(RRD4jDatabasePool.class);
+
+	/** the default number of databases which are kept open */
+	public static final int DEFAULT_CAPACITY = 100;
+
+	private final String folder;
+
+	/** the databases in the order of their last use, guarded by itself */
+	private final Map<String, Handle> handles = new LinkedHashMap<String, Handle>(16, 0.75f, true);
+
+	/** guarded by handles */
+	private int capacity;
+
+	/** guarded by handles */
+	private RrdBackendFactory backendFactory;
+
+	private boolean closed = false;
+
+	/**
+	 * Creates a new pool.
+	 *
+	 * @param folder the folder of the database files
+	 * @param capacity the maximum number of databases to keep open
+	 * @param backendFactory the rrd4j backend to use or <code>null</code> for the default backend
+	 */
+	public RRD4jDatabasePool(String folder, int capacity, RrdBackendFactory backendFactory) {
+		this.folder = folder;
+		this.capacity = capacity;
+		this.backendFactory = backendFactory;
+	}
+
+	/**
+	 * Locks and returns the database with the given name. The database is opened or, if it
+	 * does not exist yet, created from the definition of the given {@link DefinitionFactory}.
+	 * Every handle which has been acquired must be released afterwards.
+	 *
+	 * @param name the name of the database
+	 * @param definitionFactory creates the definition of new databases
+	 * @return the locked handle of the database or <code>null</code>, if the database could not be opened
+	 */
+	public Handle acquire(String name, DefinitionFactory definitionFactory) {
+		Handle handle;
+		RrdBackendFactory backendFactory;
+		synchronized (handles) {
+			if (closed) {
+				return null;
+			}
+			backendFactory = this.backendFactory;
+			handle = handles.get(name);
+			if (handle == null) {
+				handle = new Handle(name);
+				handles.put(name, handle);
+			}
+			handle.users++;
+		}
+
+		handle.lock.lock();
+		boolean opened = false;
+		try {
+			if (handle.db != null && handle.backendFactory != backendFactory) {
+				// the pool has been reconfigured while the database has been in use
+				close(handle);
+			}
+			if (handle.db == null || handle.db.isClosed()) {
+				handle.db = open(name, definitionFactory, backendFactory);
+				handle.backendFactory = backendFactory;
+			}
+			opened = handle.db != null;
+		} finally {
+			if (!opened) {
+				handle.release();
+			}
+		}
+		return opened ? handle : null;
+	}
+
+	/**
+	 * Unlocks a database which has been returned by {@link #acquire(String, DefinitionFactory)}.
+	 * If there are more open databases than allowed, the least recently used ones are closed.
+	 */
+	private void release(Handle handle) {
+		handle.lock.unlock();
+		synchronized (handles) {
+			handle.users--;
+			if (handles.size() > capacity || closed) {
+				closeUnused(closed ? 0 : capacity);
+			}
+		}
+	}
+
+	/**
+	 * Changes the configuration of the pool. The databases which are not in use are closed
+	 * if the backend changes or if there are more of them than the new capacity allows.
+	 *
+	 * @param capacity the maximum number of databases to keep open
+	 * @param backendFactory the rrd4j backend to use or <code>null</code> for the default backend
+	 */
+	public void configure(int capacity, RrdBackendFactory backendFactory) {
+		synchronized (handles) {
+			boolean backendChanged = backendFactory != this.backendFactory;
+			this.capacity = capacity;
+			this.backendFactory = backendFactory;
+			if (!closed) {
+				closeUnused(backendChanged ? 0 : capacity);
+			}
+		}
+	}
+
+	/**
+	 * Closes all databases. Databases which are still in use are closed when they are released.
+	 */
+	public void close() {
+		synchronized (handles) {
+			closed = true;
+			closeUnused(0);
+		}
+	}
+
+	/**
+	 * @param name the name of the database
+	 * @return <code>true</code>, if the database is open or its file exists
+	 */
+	public boolean exists(String name) {
+		synchronized (handles) {
+			if (handles.containsKey(name)) {
+				return true;
+			}
+		}
+		return getFile(name).exists();
+	}
+
+	/**
+	 * @return the number of databases which are currently kept open
+	 */
+	public int size() {
+		synchronized (handles) {
+			return handles.size();
+		}
+	}
+
+	/**
+	 * Closes the least recently used databases which are not in use until at most
+	 * <code>maxOpen</code> databases are left. As nobody else can acquire a database
+	 * while the lock on the pool is held, the databases can be closed safely.
+	 */
+	private void closeUnused(int maxOpen) {
+		List<Handle> unused = new ArrayList<Handle>();
+		Iterator<Handle> iterator = handles.values().iterator();
+		while (iterator.hasNext() && handles.size() > maxOpen) {
+			Handle handle = iterator.next();
+			if (handle.users == 0) {
+				iterator.remove();
+				unused.add(handle);
+			}
+		}
+		for (Handle handle : unused) {
+			close(handle);
+		}
+	}
+
+	private void close(Handle handle) {
+		if (handle.db != null) {
+			try {
+				handle.db.close();
+			} catch (IOException e) {
+				logger.debug("Error closing rrd4j database '{}': {}", handle.name, e.getMessage());
+			}
+			handle.db = null;
+		}
+	}
+
+	private RrdDb open(String name, DefinitionFactory definitionFactory, RrdBackendFactory backendFactory) {
+		File file = getFile(name);
+		try {
+			if (file.exists()) {
+				// recreate the RrdDb instance from the file
+				return backendFactory != null ? new RrdDb(file.getAbsolutePath(), backendFactory) : new RrdDb(
+						file.getAbsolutePath());
+			} else {
+				File dbFolder = new File(folder);
+				if (!dbFolder.exists()) {
+					dbFolder.mkdir();
+				}
+				// create a new database file
+				RrdDef rrdDef = definitionFactory.createDefinition(file.getAbsolutePath());
+				return backendFactory != null ? new RrdDb(rrdDef, backendFactory) : new RrdDb(rrdDef);
+			}
+		} catch (IOException e) {
+			logger.error("Could not create rrd4j database file '{}': {}", new String[] { file.getAbsolutePath(), e.getMessage() });
+		} catch (RejectedExecutionException e) {
+			// this happens if the system is shut down
+			logger.debug("Could not create rrd4j database file '{}': {}", new String[] { file.getAbsolutePath(), e.getMessage() });
+		}
+		return null;
+	}
+
+	private File getFile(String name) {
+		return new File(folder + File.separator + name + ".rrd");
+	}
+
+	/**
+	 * Creates the definition of a database which does not exist yet.
+	 */
+	public interface DefinitionFactory {
+
+		/**
+		 * @param path the path of the new database file
+		 * @return the definition of the new database
+		 */
+		public RrdDef createDefinition(String path);
+	}
+
+	/**
+	 * An open database, which is locked by the thread which has acquired it.
+	 */
+	public final class Handle {
+
+		private final String name;
+
+		private final ReentrantLock lock = new ReentrantLock();
+
+		/** the number of threads which have acquired or wait for this handle, guarded by the pool */
+		private int users = 0;
+
+		/** the open database, guarded by the lock */
+		private RrdDb db;
+
+		/** the backend which the database has been opened with, guarded by the lock */
+		private RrdBackendFactory backendFactory;
+
+		private Handle(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * @return the database, which may only be used until the handle is released
+		 */
+		public RrdDb getDb() {
+			return db;
+		}
+
+		/**
+		 * Unlocks the database and returns it to the pool.
+		 */
+		public void release() {
+			RRD4jDatabasePool.this.release(this);
+		}
+	}
+
+}
@@ -8,18 +8,24 @@
  */
 package org.openhab.persistence.rrd4j.internal;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Map.Entry;
+import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.lang.StringUtils;
 import org.openhab.core.items.Item;
 import org.openhab.core.items.ItemNotFoundException;
 import org.openhab.core.items.ItemRegistry;
@@ -30,16 +36,24 @@ import org.openhab.core.library.items.SwitchItem;
 import org.openhab.core.library.types.DecimalType;
 import org.openhab.core.library.types.OnOffType;
 import org.openhab.core.library.types.OpenClosedType;
+import org.openhab.core.persistence.AggregatingPersistenceService;
+import org.openhab.core.persistence.BulkQueryablePersistenceService;
+import org.openhab.core.persistence.CachingPersistenceService;
 import org.openhab.core.persistence.FilterCriteria;
 import org.openhab.core.persistence.FilterCriteria.Ordering;
 import org.openhab.core.persistence.HistoricItem;
 import org.openhab.core.persistence.PersistenceService;
 import org.openhab.core.persistence.QueryablePersistenceService;
 import org.openhab.core.types.State;
+import org.openhab.persistence.rrd4j.internal.RRD4jDatabasePool.DefinitionFactory;
+import org.openhab.persistence.rrd4j.internal.RRD4jDatabasePool.Handle;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
 import org.rrd4j.ConsolFun;
 import org.rrd4j.DsType;
 import org.rrd4j.core.FetchData;
 import org.rrd4j.core.FetchRequest;
+import org.rrd4j.core.RrdBackendFactory;
 import org.rrd4j.core.RrdDb;
 import org.rrd4j.core.RrdDef;
 import org.rrd4j.core.Sample;
@@ -51,10 +65,20 @@ import org.slf4j.LoggerFactory;
  * This is the implementation of the RRD4j {@link PersistenceService}. To learn
  * more about RRD4j please visit their <a href="http://code.google.com/p/rrd4j/">website</a>.
  * 
+ * <p>The databases are kept open in a {@link RRD4jDatabasePool}, which locks each database
+ * separately, so that the states of different items can be stored in parallel.</p>
+ * 
+ * <p>rrd4j accepts at most one sample per second. If an item is updated more often, it is
+ * remembered and its state is stored again when the second has passed; all these retries
+ * are handled by a single scheduler thread and only the latest state of an item is stored.</p>
+ * 
+ * <p>Aggregations are computed over the consolidated values of the archive which is used
+ * for the requested time range, just like the values which are returned by queries.</p>
+ * 
  * @author Kai Kreuzer
  * @since 1.0.0
  */
-public class RRD4jService implements QueryablePersistenceService {
+public class RRD4jService implements AggregatingPersistenceService, BulkQueryablePersistenceService, ManagedService {
 
 	private static final String DATASOURCE_STATE = "state";
 
@@ -62,10 +86,29 @@ public class RRD4jService implements QueryablePersistenceService {
 	
 	private static final Logger logger = LoggerFactory.getLogger(RRD4jService.class);
 
-	private Map<String,Timer> timers = new HashMap<String,Timer>();
+	/** the items which have to be stored again, by database name; guarded by itself */
+	private final Map<String, Item> pendingRetries = new LinkedHashMap<String, Item>();
+
+	/** whether the retry of the pending items has been scheduled; guarded by pendingRetries */
+	private boolean retryScheduled = false;
+
+	private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "RRD4jRetry");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	private final RRD4jDatabasePool pool = new RRD4jDatabasePool(DB_FOLDER, RRD4jDatabasePool.DEFAULT_CAPACITY, null);
 	
 	protected ItemRegistry itemRegistry;
 	
+	public void deactivate() {
+		retryScheduler.shutdownNow();
+		pool.close();
+	}
+	
 	public void setItemRegistry(ItemRegistry itemRegistry) {
 		this.itemRegistry = itemRegistry;
 	}
@@ -84,69 +127,106 @@ public class RRD4jService implements QueryablePersistenceService {
 	/**
 	 * @{inheritDoc}
 	 */
-	public synchronized void store(final Item item, final String alias) {
-		final String name = alias==null ? item.getName() : alias;
+	public void store(final Item item, final String alias) {
+		storeState(item, alias==null ? item.getName() : alias);
+	}
+
+	/**
+	 * Stores the state of an item, or schedules a retry if the database has been updated
+	 * within the last second.
+	 * 
+	 * @return <code>true</code>, if the state has been stored
+	 */
+	private boolean storeState(Item item, String name) {
 		ConsolFun function = getConsolidationFunction(item);
-		RrdDb db = getDB(name, function);
-		if(db!=null) {
-			long now = System.currentTimeMillis()/1000;
-			if(function!=ConsolFun.AVERAGE) {
-				try {
-					// we store the last value again, so that the value change in the database is not interpolated, but
-					// happens right at this spot
-					if(now - 1 > db.getLastUpdateTime()) {
-						// only do it if there is not already a value
-						double lastValue = db.getLastDatasourceValue(DATASOURCE_STATE);
-						if(!Double.isNaN(lastValue)) {
-							Sample sample = db.createSample();
-				            sample.setTime(now - 1);
-				            sample.setValue(DATASOURCE_STATE, lastValue);
-				            sample.update();
-		                    logger.debug("Stored '{}' with state '{}' in rrd4j database", name, mapToState(lastValue, item.getName()));
+		Handle handle = getDB(name, function);
+		if(handle!=null) {
+			RrdDb db = handle.getDb();
+			try {
+				long now = System.currentTimeMillis()/1000;
+				if(function!=ConsolFun.AVERAGE) {
+					try {
+						// we store the last value again, so that the value change in the database is not interpolated, but
+						// happens right at this spot
+						if(now - 1 > db.getLastUpdateTime()) {
+							// only do it if there is not already a value
+							double lastValue = db.getLastDatasourceValue(DATASOURCE_STATE);
+							if(!Double.isNaN(lastValue)) {
+								Sample sample = db.createSample();
+					            sample.setTime(now - 1);
+					            sample.setValue(DATASOURCE_STATE, lastValue);
+					            sample.update();
+			                    logger.debug("Stored '{}' with state '{}' in rrd4j database", name, mapToState(lastValue, item.getName()));
+							}
 						}
+					} catch (IOException e) {
+						logger.debug("Error re-storing last value: {}", e.getMessage());
 					}
-				} catch (IOException e) {
-					logger.debug("Error re-storing last value: {}", e.getMessage());
 				}
-			}
-			try {
-				Sample sample = db.createSample();
-	            sample.setTime(now);
+				try {
+					Sample sample = db.createSample();
+		            sample.setTime(now);
 	            
-	            DecimalType state = (DecimalType) item.getStateAs(DecimalType.class);
-	            if (state!=null) {
-                    double value = state.toBigDecimal().doubleValue();
-                    sample.setValue(DATASOURCE_STATE, value);
-                    sample.update();
-                    logger.debug("Stored '{}' with state '{}' in rrd4j database", name, item.getState());
-	            }
-			} catch (IllegalArgumentException e) {
-				if(e.getMessage().contains("at least one second step is required")) {
+		            DecimalType state = (DecimalType) item.getStateAs(DecimalType.class);
+		            if (state!=null) {
+	                    double value = state.toBigDecimal().doubleValue();
+	                    sample.setValue(DATASOURCE_STATE, value);
+	                    sample.update();
+	                    logger.debug("Stored '{}' with state '{}' in rrd4j database", name, item.getState());
+	                    return true;
+		            }
+				} catch (IllegalArgumentException e) {
+					if(e.getMessage().contains("at least one second step is required")) {
+						// we try to store the value one second later
+						scheduleRetry(item, name);
+					} else {
+						logger.warn("Could not persist '{}' to rrd4j database: {}", new String[] { name, e.getMessage() });
+					}
+				} catch (Exception e) {
+					logger.warn("Could not persist '{}' to rrd4j database: {}", new String[] { name, e.getMessage() });
+				}
+			} finally {
+				handle.release();
+			}
+		}
+		return false;
+	}
 
-					// we try to store the value one second later
-					TimerTask task = new TimerTask() {
+	/**
+	 * Remembers an item to be stored again one second later. If the item is already waiting
+	 * for its retry, it is not scheduled again, as its latest state is stored anyway.
+	 */
+	private void scheduleRetry(Item item, String name) {
+		synchronized(pendingRetries) {
+			pendingRetries.put(name, item);
+			if(!retryScheduled) {
+				try {
+					retryScheduler.schedule(new Runnable() {
 						public void run() {
-							store(item, name);
+							storePendingRetries();
 						}
-					};
-					Timer timer = timers.get(name);
-					if(timer!=null) {
-						timer.cancel();
-						timers.remove(name);
-					}
-					timer = new Timer();
-					timers.put(name, timer);
-					timer.schedule(task, 1000);
-				} else {
-					logger.warn("Could not persist '{}' to rrd4j database: {}", new String[] { name, e.getMessage() });
+					}, 1, TimeUnit.SECONDS);
+					retryScheduled = true;
+				} catch (RejectedExecutionException e) {
+					// this happens if the service has been deactivated
+					pendingRetries.clear();
 				}
-			} catch (Exception e) {
-				logger.warn("Could not persist '{}' to rrd4j database: {}", new String[] { name, e.getMessage() });
 			}
-            try {
-				db.close();
-			} catch (IOException e) {
-				logger.debug("Error closing rrd4j database: {}", e.getMessage());
+		}
+	}
+
+	private void storePendingRetries() {
+		Map<String, Item> retries;
+		synchronized(pendingRetries) {
+			retries = new LinkedHashMap<String, Item>(pendingRetries);
+			pendingRetries.clear();
+			retryScheduled = false;
+		}
+		for(Entry<String, Item> retry : retries.entrySet()) {
+			if(storeState(retry.getValue(), retry.getKey())) {
+				// the persistence manager has dropped the cached results when the state has been
+				// handed over, but it is only now in the database
+				CachingPersistenceService.invalidate(getName(), retry.getKey(), new Date());
 			}
 		}
 	}
@@ -162,8 +242,9 @@ public class RRD4jService implements QueryablePersistenceService {
 	public Iterable<HistoricItem> query(FilterCriteria filter) {
 		String itemName = filter.getItemName();
 		ConsolFun consolidationFunction = getConsolidationFunction(itemName);
-		RrdDb db = getDB(itemName, consolidationFunction);
-		if(db!=null) {
+		Handle handle = getDB(itemName, consolidationFunction);
+		if(handle!=null) {
+			RrdDb db = handle.getDb();
 			long start = 0L;
 			long end = filter.getEndDate()==null ? System.currentTimeMillis()/1000 - 1 : filter.getEndDate().getTime()/1000;
 
@@ -208,37 +289,120 @@ public class RRD4jService implements QueryablePersistenceService {
 				return items;
 			} catch (IOException e) {
 				logger.warn("Could not query rrd4j database for item '{}': {}", new String[] { itemName, e.getMessage() });
-			}	
+			} finally {
+				handle.release();
+			}
 		}
 		return Collections.emptyList();
 	}
 
-	protected synchronized RrdDb getDB(String alias, ConsolFun function) {
-		RrdDb db = null;
-        File file = new File(DB_FOLDER + File.separator + alias + ".rrd");
-    	try {
-            if (file.exists()) {
-            	// recreate the RrdDb instance from the file
-            	db = new RrdDb(file.getAbsolutePath());
-            } else {
-            	File folder = new File(DB_FOLDER);
-            	if(!folder.exists()) {
-            		folder.mkdir();
-            	}
-            	// create a new database file
-                db = new RrdDb(getRrdDef(function, file));
-            }
+	/**
+	 * @{inheritDoc}
+	 */
+	public Map<String, HistoricItem> queryLatest(Collection<String> itemNames) {
+		Map<String, HistoricItem> results = new HashMap<String, HistoricItem>();
+		for(String itemName : itemNames) {
+			// do not create databases for items which have never been stored
+			if(!pool.exists(itemName)) {
+				continue;
+			}
+			Handle handle = getDB(itemName, getConsolidationFunction(itemName));
+			if(handle==null) {
+				continue;
+			}
+			try {
+				RrdDb db = handle.getDb();
+				double lastValue = db.getLastDatasourceValue(DATASOURCE_STATE);
+				if(!Double.isNaN(lastValue)) {
+					results.put(itemName, new RRD4jItem(itemName, mapToState(lastValue, itemName), new Date(db.getLastArchiveUpdateTime() * 1000)));
+				}
+			} catch (IOException e) {
+				logger.warn("Could not query rrd4j database for item '{}': {}", new String[] { itemName, e.getMessage() });
+			} finally {
+				handle.release();
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public HistoricItem aggregate(FilterCriteria filter, Aggregation aggregation) {
+		if(filter.getBeginDate()==null) {
+			throw new UnsupportedOperationException("rrd4j does not allow aggregations without a begin date");
+		}
+		String itemName = filter.getItemName();
+		ConsolFun consolidationFunction = getConsolidationFunction(itemName);
+		Handle handle = getDB(itemName, consolidationFunction);
+		if(handle==null) {
+			return null;
+		}
+		try {
+			long start = filter.getBeginDate().getTime()/1000;
+			long end = filter.getEndDate()==null ? System.currentTimeMillis()/1000 - 1 : filter.getEndDate().getTime()/1000;
+			FetchData result = handle.getDb().createFetchRequest(consolidationFunction, start, end, 1).fetchData();
+			double[] values = result.getValues(DATASOURCE_STATE);
+
+			// only the index of the selected value is remembered, so that no items have to be created
+			int selected = -1;
+			int count = 0;
+			double sum = 0;
+			for(int i = 0; i < values.length; i++) {
+				double value = values[i];
+				if(Double.isNaN(value)) {
+					continue;
+				}
+				if(selected<0 || aggregation==Aggregation.LAST
+						|| (aggregation==Aggregation.MINIMUM && value<values[selected])
+						|| (aggregation==Aggregation.MAXIMUM && value>values[selected])) {
+					selected = i;
+				}
+				sum += value;
+				count++;
+			}
+			if(count==0) {
+				return null;
+			}
+
+			Date endDate = new Date(end * 1000);
+			switch(aggregation) {
+				case AVERAGE:
+					return new RRD4jItem(itemName, new DecimalType(sum / count), endDate);
+				case SUM:
+					return new RRD4jItem(itemName, new DecimalType(sum), endDate);
+				case COUNT:
+					return new RRD4jItem(itemName, new DecimalType(count), endDate);
+				default:
+					long step = result.getRowCount() > 1 ? result.getStep() : 0;
+					Date timestamp = new Date((result.getFirstTimestamp() + selected * step) * 1000);
+					return new RRD4jItem(itemName, mapToState(values[selected], itemName), timestamp);
+			}
 		} catch (IOException e) {
-			logger.error("Could not create rrd4j database file '{}': {}", new String[] { file.getAbsolutePath(), e.getMessage() });
-		} catch(RejectedExecutionException e) {
-			// this happens if the system is shut down
-			logger.debug("Could not create rrd4j database file '{}': {}", new String[] { file.getAbsolutePath(), e.getMessage() });
+			logger.warn("Could not query rrd4j database for item '{}': {}", new String[] { itemName, e.getMessage() });
+			return null;
+		} finally {
+			handle.release();
 		}
-		return db;
 	}
 
-	private RrdDef getRrdDef(ConsolFun function, File file) {
-    	RrdDef rrdDef = new RrdDef(file.getAbsolutePath());
+	/**
+	 * Acquires the database of an item from the pool, which has to be released after use.
+	 * 
+	 * @param alias the name of the database
+	 * @param function the consolidation function to use if the database has to be created
+	 * @return the locked database or <code>null</code>, if it could not be opened
+	 */
+	protected Handle getDB(String alias, final ConsolFun function) {
+		return pool.acquire(alias, new DefinitionFactory() {
+			public RrdDef createDefinition(String path) {
+				return getRrdDef(function, path);
+			}
+		});
+	}
+
+	private RrdDef getRrdDef(ConsolFun function, String path) {
+    	RrdDef rrdDef = new RrdDef(path);
     	if(function==ConsolFun.AVERAGE) {
     		// for measurement values, we define archives that are suitable for charts
     		rrdDef.setStep(60);
@@ -287,6 +451,34 @@ public class RRD4jService implements QueryablePersistenceService {
 		return ConsolFun.MAX;
 	}
 
+	/**
+	 * @{inheritDoc}
+	 */
+	public void updated(Dictionary<String, ?> config) throws ConfigurationException {
+		int poolSize = RRD4jDatabasePool.DEFAULT_CAPACITY;
+		RrdBackendFactory backendFactory = null;
+		if (config != null) {
+			String poolSizeString = (String) config.get("poolsize");
+			if (StringUtils.isNotBlank(poolSizeString)) {
+				try {
+					poolSize = Integer.parseInt(poolSizeString.trim());
+				} catch (NumberFormatException e) {
+					throw new ConfigurationException("rrd4j:poolsize", "The value '" + poolSizeString + "' is not a valid number");
+				}
+			}
+			String backendString = (String) config.get("backend");
+			if (StringUtils.isNotBlank(backendString)) {
+				try {
+					backendFactory = RrdBackendFactory.getFactory(backendString.trim().toUpperCase());
+				} catch (IllegalArgumentException e) {
+					throw new ConfigurationException("rrd4j:backend", "The rrd4j backend '" + backendString + "' is unknown");
+				}
+			}
+		}
+		// the pool is reconfigured in place, as databases may be in use by other threads
+		pool.configure(poolSize, backendFactory);
+	}
+
 	private State mapToState(double value, String itemName) {
 		if(itemRegistry!=null) {
 			try {
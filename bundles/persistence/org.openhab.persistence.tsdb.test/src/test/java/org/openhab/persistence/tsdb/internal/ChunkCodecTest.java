@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.persistence.tsdb.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Round trips of the {@link ChunkWriter} and {@link ChunkReader}.
+ *
+ * @since 1.6.0
+ */
+public class ChunkCodecTest {
+
+	private static final long START = 1400000000000L;
+
+	@Test
+	public void testDeltaOfDeltaBuckets() {
+		assertDeltaOfDelta(0, "0");
+		assertDeltaOfDelta(1, "10");
+		assertDeltaOfDelta(-63, "10");
+		assertDeltaOfDelta(64, "10");
+		assertDeltaOfDelta(-64, "110");
+		assertDeltaOfDelta(65, "110");
+		assertDeltaOfDelta(-255, "110");
+		assertDeltaOfDelta(256, "110");
+		assertDeltaOfDelta(-256, "1110");
+		assertDeltaOfDelta(257, "1110");
+		assertDeltaOfDelta(-2047, "1110");
+		assertDeltaOfDelta(2048, "1110");
+		assertDeltaOfDelta(-2048, "11110");
+		assertDeltaOfDelta(2049, "11110");
+		assertDeltaOfDelta(-Integer.MAX_VALUE, "11110");
+		assertDeltaOfDelta(1L + Integer.MAX_VALUE, "11110");
+		assertDeltaOfDelta(-1L - Integer.MAX_VALUE, "11111");
+		assertDeltaOfDelta(2L + Integer.MAX_VALUE, "11111");
+		assertDeltaOfDelta(1L << 40, "11111");
+		assertDeltaOfDelta(-(1L << 40), "11111");
+	}
+
+	/**
+	 * Encodes two samples, so that the delta of delta is the time difference between them, and
+	 * checks the prefix of the delta of delta, which follows the 64 bits of the first value.
+	 */
+	private void assertDeltaOfDelta(long deltaOfDelta, String prefix) {
+		ChunkWriter writer = new ChunkWriter();
+		writer.append(START, 1.0);
+		writer.append(START + deltaOfDelta, 1.0);
+		assertEquals("prefix of " + deltaOfDelta, prefix, bits(writer.toByteBuffer(), 64, prefix.length()));
+		assertRoundTrip(writer, new long[] { START, START + deltaOfDelta }, new double[] { 1.0, 1.0 });
+	}
+
+	@Test
+	public void testDeltaOfDeltaSequence() {
+		long[] deltas = { 0, 1, -63, 64, -64, 65, -255, 256, -256, 257, -2047, 2048, -2048, 2049,
+				-Integer.MAX_VALUE, 1L + Integer.MAX_VALUE, -1L - Integer.MAX_VALUE, 2L + Integer.MAX_VALUE };
+		long[] times = new long[deltas.length * 2 + 1];
+		double[] values = new double[times.length];
+		times[0] = START;
+		long delta = 10000;
+		for (int i = 0; i < deltas.length; i++) {
+			// each delta of delta is followed by its negation, so that the times keep increasing
+			times[2 * i + 1] = times[2 * i] + delta + deltas[i];
+			times[2 * i + 2] = times[2 * i + 1] + delta;
+		}
+		assertRoundTrip(times, values);
+	}
+
+	@Test
+	public void testValueWithoutLeadingZeros() {
+		// only the sign bit changes
+		assertValues(1.0, -1.0, 1.0);
+	}
+
+	@Test
+	public void testValueWith64MeaningfulBits() {
+		// the lowest and the highest bit change, which is stored with a length of 0
+		double value = Double.longBitsToDouble(0x8000000000000001L);
+		assertValues(0.0, value, 0.0, value);
+	}
+
+	@Test
+	public void testValueWithMoreThan31LeadingZeros() {
+		// only the lowest bit changes, the number of leading zeros is limited to 31
+		double value = Double.longBitsToDouble(Double.doubleToLongBits(21.5) ^ 1L);
+		assertValues(21.5, value, 21.5, Double.longBitsToDouble(Double.doubleToLongBits(21.5) ^ 3L));
+	}
+
+	@Test
+	public void testValueInPreviousWindow() {
+		// the second change fits into the bits of the first one, the third does not
+		assertValues(21.5, 21.75, 21.625, 1e100, -1e-100);
+	}
+
+	@Test
+	public void testSpecialValues() {
+		assertValues(Double.NaN, 0.0, -0.0, 0.0, Double.NaN, Double.NaN, Double.POSITIVE_INFINITY,
+				Double.NEGATIVE_INFINITY, Double.MIN_VALUE, -Double.MAX_VALUE, -0.0);
+	}
+
+	@Test
+	public void testRandomSamples() {
+		Random random = new Random(42);
+		long[] times = new long[5000];
+		double[] values = new double[times.length];
+		long time = START;
+		for (int i = 0; i < times.length; i++) {
+			time += 10000 + random.nextInt(100);
+			times[i] = time;
+			switch (random.nextInt(4)) {
+			case 0:
+				values[i] = i > 0 ? values[i - 1] : 0.0;
+				break;
+			case 1:
+				values[i] = random.nextInt(100) / 10.0;
+				break;
+			case 2:
+				values[i] = random.nextDouble() * 1000;
+				break;
+			default:
+				values[i] = Double.longBitsToDouble(random.nextLong());
+			}
+		}
+		assertRoundTrip(times, values);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testTruncatedChunk() {
+		long[] times = new long[100];
+		double[] values = new double[times.length];
+		for (int i = 0; i < times.length; i++) {
+			times[i] = START + i * 1000L + (i % 3);
+			values[i] = i * 1.5;
+		}
+		ChunkWriter writer = write(times, values);
+		ByteBuffer chunk = writer.toByteBuffer();
+		// cut off the last bytes, as if the system stopped while the chunk was written
+		chunk.limit(chunk.limit() - 3);
+		ByteBuffer truncated = chunk.slice();
+
+		ChunkReader.decode(truncated, ChunkWriter.HEADER_SIZE, writer.getStartTime(), new long[times.length],
+				new double[times.length], times.length);
+	}
+
+	private void assertValues(double... values) {
+		long[] times = new long[values.length];
+		for (int i = 0; i < times.length; i++) {
+			times[i] = START + i * 60000L;
+		}
+		assertRoundTrip(times, values);
+	}
+
+	private void assertRoundTrip(long[] times, double[] values) {
+		assertRoundTrip(write(times, values), times, values);
+	}
+
+	private void assertRoundTrip(ChunkWriter writer, long[] times, double[] values) {
+		assertEquals(times.length, writer.getCount());
+		assertEquals(times[0], writer.getStartTime());
+		assertEquals(times[times.length - 1], writer.getEndTime());
+
+		ByteBuffer chunk = writer.toByteBuffer();
+		assertEquals(writer.getCount(), chunk.getInt(0));
+		assertEquals(writer.getDataLength(), chunk.getInt(20));
+		long[] decodedTimes = new long[times.length];
+		double[] decodedValues = new double[times.length];
+		ChunkReader.decode(chunk, ChunkWriter.HEADER_SIZE, chunk.getLong(4), decodedTimes, decodedValues, times.length);
+		for (int i = 0; i < times.length; i++) {
+			assertEquals("time of sample " + i, times[i], decodedTimes[i]);
+			// compares the bits, so that 0.0 and -0.0 are distinguished
+			assertEquals("value of sample " + i, Double.doubleToLongBits(values[i]),
+					Double.doubleToLongBits(decodedValues[i]));
+		}
+	}
+
+	private static ChunkWriter write(long[] times, double[] values) {
+		ChunkWriter writer = new ChunkWriter();
+		for (int i = 0; i < times.length; i++) {
+			writer.append(times[i], values[i]);
+		}
+		return writer;
+	}
+
+	/**
+	 * Returns bits of the compressed data of a chunk as a string of 0s and 1s.
+	 */
+	private static String bits(ByteBuffer chunk, int position, int length) {
+		StringBuilder bits = new StringBuilder();
+		for (int i = position; i < position + length; i++) {
+			int b = chunk.get(ChunkWriter.HEADER_SIZE + (i >>> 3));
+			bits.append((b >>> (7 - (i & 7))) & 1);
+		}
+		return bits.toString();
+	}
+
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.persistence.tsdb.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Writing, reading and recovering a {@link TsdbSeries}.
+ *
+ * @since 1.6.0
+ */
+public class TsdbSeriesTest {
+
+	private static final int CHUNK_SIZE = 10;
+	private static final long START = 1400000000000L;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private File folder;
+
+	@Before
+	public void init() {
+		folder = temporaryFolder.getRoot();
+	}
+
+	@Test
+	public void testReadChunksAndHead() throws IOException {
+		TsdbSeries series = open();
+		append(series, 0, 25);
+		series.flush();
+		assertEquals(range(0, 25), readTimes(series, true));
+
+		TsdbSeries reopened = open();
+		assertEquals(range(0, 25), readTimes(reopened, true));
+		assertEquals(reverse(range(0, 25)), readTimes(reopened, false));
+		assertEquals(range(8, 22), readTimes(reopened, time(8), time(21)));
+	}
+
+	@Test
+	public void testOlderSamplesAreIgnored() throws IOException {
+		TsdbSeries series = open();
+		append(series, 0, 12);
+		assertFalse(series.append(time(5), 1.0));
+		assertTrue(series.append(time(11), 2.0));
+	}
+
+	@Test
+	public void testIncompleteChunkIsRemoved() throws IOException {
+		TsdbSeries series = open();
+		append(series, 0, 25);
+		series.flush();
+		File dataFile = new File(folder, "Item.tsdb");
+		long length = dataFile.length();
+		// the second chunk has only been written partly
+		truncate(dataFile, length - 5);
+
+		TsdbSeries reopened = open();
+		List<Long> expected = range(0, 10);
+		expected.addAll(range(20, 25));
+		assertEquals(expected, readTimes(reopened, true));
+		assertTrue(dataFile.length() < length - 5);
+
+		// new chunks are appended behind the first one
+		append(reopened, 25, 35);
+		reopened.flush();
+		expected.addAll(range(25, 35));
+		assertEquals(expected, readTimes(open(), true));
+	}
+
+	@Test
+	public void testIncompleteHeadIsIgnored() throws IOException {
+		TsdbSeries series = open();
+		append(series, 0, 15);
+		series.flush();
+		File headFile = new File(folder, "Item.head");
+		truncate(headFile, headFile.length() - 1);
+
+		assertEquals(range(0, 10), readTimes(open(), true));
+	}
+
+	@Test
+	public void testStaleHeadIsIgnored() throws IOException {
+		TsdbSeries series = open();
+		append(series, 0, 9);
+		series.flush();
+		File headFile = new File(folder, "Item.head");
+		byte[] staleHead = read(headFile);
+		// the tenth sample completes the chunk, which is appended to the data file
+		append(series, 9, 10);
+		// the system stopped before the head has been cleared
+		write(headFile, staleHead);
+
+		assertEquals(range(0, 10), readTimes(open(), true));
+	}
+
+	private TsdbSeries open() throws IOException {
+		return new TsdbSeries(folder, "Item", CHUNK_SIZE);
+	}
+
+	private static long time(int sample) {
+		return START + sample * 60000L;
+	}
+
+	private static void append(TsdbSeries series, int from, int to) throws IOException {
+		for (int i = from; i < to; i++) {
+			assertTrue(series.append(time(i), i * 0.5));
+		}
+	}
+
+	private static List<Long> range(int from, int to) {
+		List<Long> times = new ArrayList<Long>();
+		for (int i = from; i < to; i++) {
+			times.add(time(i));
+		}
+		return times;
+	}
+
+	private static List<Long> reverse(List<Long> times) {
+		List<Long> reversed = new ArrayList<Long>();
+		for (int i = times.size() - 1; i >= 0; i--) {
+			reversed.add(times.get(i));
+		}
+		return reversed;
+	}
+
+	private static List<Long> readTimes(TsdbSeries series, boolean ascending) throws IOException {
+		return readTimes(series, Long.MIN_VALUE, Long.MAX_VALUE, ascending);
+	}
+
+	private static List<Long> readTimes(TsdbSeries series, long begin, long end) throws IOException {
+		return readTimes(series, begin, end, true);
+	}
+
+	private static List<Long> readTimes(TsdbSeries series, long begin, long end, boolean ascending)
+			throws IOException {
+		final List<Long> times = new ArrayList<Long>();
+		series.read(begin, end, ascending, new TsdbSeries.SampleVisitor() {
+			public boolean visit(long time, double value) {
+				// the values are derived from the times, see append()
+				assertEquals((time - START) / 60000L * 0.5, value, 0.0);
+				times.add(time);
+				return true;
+			}
+		});
+		return times;
+	}
+
+	private static void truncate(File file, long length) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(length);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static byte[] read(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			byte[] bytes = new byte[(int) raf.length()];
+			raf.readFully(bytes);
+			return bytes;
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static void write(File file, byte[] bytes) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			raf.write(bytes);
+		} finally {
+			raf.close();
+		}
+	}
+
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.persistence.tsdb.internal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decompresses the samples of a chunk which has been written by a {@link ChunkWriter}.
+ *
+ * <p>The data is read with absolute positions only, so that several readers can
+ * share the same (memory-mapped) buffer.</p>
+ *
+ * @since 1.6.0
+ */
+class ChunkReader {
+
+	private final ByteBuffer data;
+	private final int offset;
+	private long bitPosition = 0;
+
+	private ChunkReader(ByteBuffer data, int offset) {
+		this.data = data;
+		this.offset = offset;
+	}
+
+	/**
+	 * Decodes all samples of a chunk.
+	 *
+	 * @param data the buffer which contains the chunk
+	 * @param offset the position of the compressed data in the buffer, i.e. behind the header
+	 * @param startTime the time of the first sample, as stored in the chunk header
+	 * @param times receives the times of the samples
+	 * @param values receives the values of the samples
+	 * @param count the number of samples in the chunk
+	 */
+	static void decode(ByteBuffer data, int offset, long startTime, long[] times, double[] values, int count) {
+		if (count == 0) {
+			return;
+		}
+		ChunkReader reader = new ChunkReader(data, offset);
+		long time = startTime;
+		long valueBits = reader.readBits(64);
+		times[0] = time;
+		values[0] = Double.longBitsToDouble(valueBits);
+
+		long delta = 0;
+		int leadingZeros = 0;
+		int trailingZeros = 0;
+		for (int i = 1; i < count; i++) {
+			delta += reader.readDeltaOfDelta();
+			time += delta;
+
+			if (reader.readBits(1) != 0) {
+				if (reader.readBits(1) != 0) {
+					leadingZeros = (int) reader.readBits(5);
+					int significantBits = (int) reader.readBits(6);
+					if (significantBits == 0) {
+						significantBits = 64;
+					}
+					trailingZeros = 64 - leadingZeros - significantBits;
+				}
+				long xor = reader.readBits(64 - leadingZeros - trailingZeros);
+				valueBits ^= xor << trailingZeros;
+			}
+			times[i] = time;
+			values[i] = Double.longBitsToDouble(valueBits);
+		}
+	}
+
+	private long readDeltaOfDelta() {
+		if (readBits(1) == 0) {
+			return 0;
+		}
+		if (readBits(1) == 0) {
+			return readBits(7) - 63;
+		}
+		if (readBits(1) == 0) {
+			return readBits(9) - 255;
+		}
+		if (readBits(1) == 0) {
+			return readBits(12) - 2047;
+		}
+		if (readBits(1) == 0) {
+			return readBits(32) - Integer.MAX_VALUE;
+		}
+		return readBits(64);
+	}
+
+	/**
+	 * Reads the given number of bits, starting with the most significant one.
+	 */
+	private long readBits(int bits) {
+		long value = 0;
+		while (bits > 0) {
+			int current = data.get(offset + (int) (bitPosition >>> 3)) & 0xff;
+			int available = 8 - (int) (bitPosition & 7);
+			int n = Math.min(available, bits);
+			value = (value << n) | ((current >>> (available - n)) & ((1 << n) - 1));
+			bitPosition += n;
+			bits -= n;
+		}
+		return value;
+	}
+
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.persistence.tsdb.internal;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compresses a chunk of samples as described in the paper about Facebook's
+ * Gorilla time series database.
+ *
+ * <p>The time of the first sample is stored in the chunk header, its value with
+ * all 64 bits. For all further samples, the difference between the current and
+ * the previous time difference ("delta of delta") is stored with 1 to 69 bits,
+ * so that samples at regular intervals take a single bit. The value is XORed with
+ * the previous value and only the bits in between the leading and trailing zeros
+ * of the result are stored. An unchanged value takes a single bit.</p>
+ *
+ * <p>A chunk is stored as a header of {@link #HEADER_SIZE} bytes (number of
+ * samples, time of the first and the last sample, length of the data) which is
+ * followed by the compressed data, see {@link ChunkReader}.</p>
+ *
+ * @since 1.6.0
+ */
+class ChunkWriter {
+
+	/** the size of the chunk header in bytes */
+	static final int HEADER_SIZE = 24;
+
+	private byte[] buffer = new byte[64];
+	private int bitPosition = 0;
+
+	private int count = 0;
+	private long startTime;
+	private long lastTime;
+	private long lastDelta;
+	private long lastValue;
+	private int lastLeadingZeros = -1;
+	private int lastTrailingZeros;
+
+	/**
+	 * Appends a sample to the chunk. The time must not be before the time of the
+	 * previous sample.
+	 */
+	void append(long time, double value) {
+		long valueBits = Double.doubleToLongBits(value);
+		if (count == 0) {
+			startTime = time;
+			writeBits(valueBits, 64);
+		} else {
+			long delta = time - lastTime;
+			writeDeltaOfDelta(delta - lastDelta);
+			writeValue(valueBits);
+			lastDelta = delta;
+		}
+		lastTime = time;
+		lastValue = valueBits;
+		count++;
+	}
+
+	private void writeDeltaOfDelta(long deltaOfDelta) {
+		if (deltaOfDelta == 0) {
+			writeBits(0, 1);
+		} else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+			writeBits(0x2, 2);
+			writeBits(deltaOfDelta + 63, 7);
+		} else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+			writeBits(0x6, 3);
+			writeBits(deltaOfDelta + 255, 9);
+		} else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+			writeBits(0xe, 4);
+			writeBits(deltaOfDelta + 2047, 12);
+		} else if (deltaOfDelta >= -Integer.MAX_VALUE && deltaOfDelta <= 1L + Integer.MAX_VALUE) {
+			writeBits(0x1e, 5);
+			writeBits(deltaOfDelta + Integer.MAX_VALUE, 32);
+		} else {
+			writeBits(0x1f, 5);
+			writeBits(deltaOfDelta, 64);
+		}
+	}
+
+	private void writeValue(long valueBits) {
+		long xor = valueBits ^ lastValue;
+		if (xor == 0) {
+			writeBits(0, 1);
+			return;
+		}
+		int leadingZeros = Math.min(Long.numberOfLeadingZeros(xor), 31);
+		int trailingZeros = Long.numberOfTrailingZeros(xor);
+		if (lastLeadingZeros >= 0 && leadingZeros >= lastLeadingZeros && trailingZeros >= lastTrailingZeros) {
+			// the changed bits fit into the window of the previous value
+			writeBits(0x2, 2);
+			writeBits(xor >>> lastTrailingZeros, 64 - lastLeadingZeros - lastTrailingZeros);
+		} else {
+			int significantBits = 64 - leadingZeros - trailingZeros;
+			writeBits(0x3, 2);
+			writeBits(leadingZeros, 5);
+			// 64 significant bits are written as 0, as there are never 0 significant bits
+			writeBits(significantBits & 0x3f, 6);
+			writeBits(xor >>> trailingZeros, significantBits);
+			lastLeadingZeros = leadingZeros;
+			lastTrailingZeros = trailingZeros;
+		}
+	}
+
+	/**
+	 * Writes the lowest bits of the given value, starting with the most significant one.
+	 */
+	private void writeBits(long value, int bits) {
+		int required = (bitPosition + bits + 7) >>> 3;
+		if (required > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(required, buffer.length * 2));
+		}
+		while (bits > 0) {
+			int free = 8 - (bitPosition & 7);
+			int n = Math.min(free, bits);
+			int part = (int) (value >>> (bits - n)) & ((1 << n) - 1);
+			buffer[bitPosition >>> 3] |= part << (free - n);
+			bitPosition += n;
+			bits -= n;
+		}
+	}
+
+	/**
+	 * @return the number of samples in this chunk
+	 */
+	int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the time of the first sample in this chunk
+	 */
+	long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return the time of the last sample in this chunk
+	 */
+	long getEndTime() {
+		return lastTime;
+	}
+
+	/**
+	 * @return the number of bytes of the compressed data, without the header
+	 */
+	int getDataLength() {
+		return (bitPosition + 7) >>> 3;
+	}
+
+	/**
+	 * Returns the chunk as it is written to a file, i.e. the header followed by the compressed data.
+	 */
+	ByteBuffer toByteBuffer() {
+		int dataLength = getDataLength();
+		ByteBuffer chunk = ByteBuffer.allocate(HEADER_SIZE + dataLength);
+		chunk.putInt(count).putLong(startTime).putLong(lastTime).putInt(dataLength);
+		chunk.put(buffer, 0, dataLength);
+		chunk.flip();
+		return chunk;
+	}
+
+}
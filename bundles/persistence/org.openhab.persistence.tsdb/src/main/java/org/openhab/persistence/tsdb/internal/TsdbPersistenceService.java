@@ -0,0 +1,328 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.persistence.tsdb.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.openhab.core.items.Item;
+import org.openhab.core.items.ItemNotFoundException;
+import org.openhab.core.items.ItemRegistry;
+import org.openhab.core.library.items.ContactItem;
+import org.openhab.core.library.items.DimmerItem;
+import org.openhab.core.library.items.RollershutterItem;
+import org.openhab.core.library.items.SwitchItem;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.library.types.OnOffType;
+import org.openhab.core.library.types.OpenClosedType;
+import org.openhab.core.library.types.PercentType;
+import org.openhab.core.persistence.BatchPersistenceService;
+import org.openhab.core.persistence.FilterCriteria;
+import org.openhab.core.persistence.FilterCriteria.Ordering;
+import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.persistence.PersistenceEntry;
+import org.openhab.core.persistence.PersistenceService;
+import org.openhab.core.persistence.QueryablePersistenceService;
+import org.openhab.core.types.State;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This is a {@link PersistenceService} implementation which stores every single
+ * sample of numeric items in compressed, append-only files, see {@link TsdbSeries}.
+ * Unlike rrd4j, the samples are not consolidated, and unlike db4o, a sample takes
+ * only a few bits on average.
+ *
+ * <p>Besides numbers, ON/OFF and OPEN/CLOSED states are stored as 1 and 0. All
+ * other states cannot be stored.</p>
+ *
+ * <p>The files are kept in the folder {@link #DEFAULT_FOLDER} below the runtime
+ * directory, unless another folder is configured.</p>
+ *
+ * @since 1.6.0
+ */
+public class TsdbPersistenceService implements QueryablePersistenceService, BatchPersistenceService, ManagedService {
+
+	private static final Logger logger = LoggerFactory.getLogger(TsdbPersistenceService.class);
+
+	/** the default folder of the series files, relative to the runtime directory */
+	protected final static String DEFAULT_FOLDER = "userdata/tsdb";
+
+	/** the default number of samples per chunk */
+	public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+	private final Map<String, TsdbSeries> series = new HashMap<String, TsdbSeries>();
+
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	private File folder = new File(DEFAULT_FOLDER);
+
+	protected ItemRegistry itemRegistry;
+
+	public void deactivate() {
+		closeSeries();
+	}
+
+	/**
+	 * Writes the open chunks of all series and forgets them, so that they are opened again on next access.
+	 */
+	private void closeSeries() {
+		synchronized (series) {
+			for (TsdbSeries s : series.values()) {
+				flush(s);
+			}
+			series.clear();
+		}
+	}
+
+	public void setItemRegistry(ItemRegistry itemRegistry) {
+		this.itemRegistry = itemRegistry;
+	}
+
+	public void unsetItemRegistry(ItemRegistry itemRegistry) {
+		this.itemRegistry = null;
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public String getName() {
+		return "tsdb";
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public void store(Item item) {
+		store(item, null);
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public void store(Item item, String alias) {
+		store(Collections.singletonList(new PersistenceEntry(item, alias, item.getState(), new Date())));
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public void store(Collection<PersistenceEntry> entries) {
+		Set<TsdbSeries> modified = new LinkedHashSet<TsdbSeries>();
+		for (PersistenceEntry entry : entries) {
+			Double value = toDouble(entry.getState());
+			if (value == null) {
+				logger.debug("Cannot store state '{}' of item '{}', only numeric states are supported",
+						entry.getState(), entry.getName());
+				continue;
+			}
+			TsdbSeries s = getSeries(entry.getName(), true);
+			if (s == null) {
+				continue;
+			}
+			try {
+				if (s.append(entry.getTimestamp().getTime(), value)) {
+					modified.add(s);
+				} else {
+					logger.debug("Ignoring state of item '{}' at {}, as there is a more recent one",
+							entry.getName(), entry.getTimestamp());
+				}
+			} catch (IOException e) {
+				logger.warn("Could not store state of item '{}' in tsdb: {}", entry.getName(), e.getMessage());
+			}
+		}
+		for (TsdbSeries s : modified) {
+			flush(s);
+		}
+	}
+
+	private static void flush(TsdbSeries s) {
+		try {
+			s.flush();
+		} catch (IOException e) {
+			logger.warn("Could not write the recent states of item '{}' to tsdb: {}", s, e.getMessage());
+		}
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public Iterable<HistoricItem> query(FilterCriteria filter) {
+		final String itemName = filter.getItemName();
+		if (itemName == null) {
+			logger.debug("tsdb only supports queries for a single item");
+			return Collections.emptyList();
+		}
+		TsdbSeries s = getSeries(itemName, false);
+		if (s == null) {
+			return Collections.emptyList();
+		}
+
+		long begin = filter.getBeginDate() != null ? filter.getBeginDate().getTime() : Long.MIN_VALUE;
+		long end = filter.getEndDate() != null ? filter.getEndDate().getTime() : Long.MAX_VALUE;
+		final Double compareValue = filter.getState() != null && filter.getOperator() != null ? toDouble(filter
+				.getState()) : null;
+		final FilterCriteria.Operator operator = filter.getOperator();
+		final int skip = filter.getPageNumber() * filter.getPageSize();
+		final int pageSize = filter.getPageSize();
+		final Item item = getItem(itemName);
+		final List<HistoricItem> items = new ArrayList<HistoricItem>();
+
+		try {
+			s.read(begin, end, filter.getOrdering() == Ordering.ASCENDING, new TsdbSeries.SampleVisitor() {
+				private int skipped = 0;
+
+				public boolean visit(long time, double value) {
+					if (compareValue != null && !matches(value, operator, compareValue)) {
+						return true;
+					}
+					if (skipped < skip) {
+						skipped++;
+						return true;
+					}
+					items.add(new TsdbItem(itemName, mapToState(value, item), new Date(time)));
+					return items.size() < pageSize;
+				}
+			});
+		} catch (IOException e) {
+			logger.warn("Could not query tsdb for item '{}': {}", itemName, e.getMessage());
+		}
+		return items;
+	}
+
+	private static boolean matches(double value, FilterCriteria.Operator operator, double compareValue) {
+		switch (operator) {
+		case EQ:
+			return value == compareValue;
+		case NEQ:
+			return value != compareValue;
+		case GT:
+			return value > compareValue;
+		case GTE:
+			return value >= compareValue;
+		case LT:
+			return value < compareValue;
+		case LTE:
+			return value <= compareValue;
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the series of the given item, which is opened on first access.
+	 *
+	 * @param name the name of the item
+	 * @param create whether a series should be created if there is none yet
+	 * @return the series or <code>null</code>, if there is none or it could not be opened
+	 */
+	private TsdbSeries getSeries(String name, boolean create) {
+		synchronized (series) {
+			TsdbSeries s = series.get(name);
+			if (s == null) {
+				if (!create && !new File(folder, name + ".tsdb").exists() && !new File(folder, name + ".head").exists()) {
+					return null;
+				}
+				if (!folder.exists()) {
+					folder.mkdirs();
+				}
+				try {
+					s = new TsdbSeries(folder, name, chunkSize);
+					series.put(name, s);
+				} catch (IOException e) {
+					logger.warn("Could not open tsdb series of item '{}': {}", name, e.getMessage());
+				}
+			}
+			return s;
+		}
+	}
+
+	private Item getItem(String itemName) {
+		if (itemRegistry != null) {
+			try {
+				return itemRegistry.getItem(itemName);
+			} catch (ItemNotFoundException e) {
+				logger.debug("Could not find item '{}' in registry", itemName);
+			}
+		}
+		return null;
+	}
+
+	private static Double toDouble(State state) {
+		if (state instanceof DecimalType) {
+			return ((DecimalType) state).toBigDecimal().doubleValue();
+		} else if (state instanceof OnOffType) {
+			return state == OnOffType.ON ? 1.0d : 0.0d;
+		} else if (state instanceof OpenClosedType) {
+			return state == OpenClosedType.OPEN ? 1.0d : 0.0d;
+		}
+		return null;
+	}
+
+	private static State mapToState(double value, Item item) {
+		if (item instanceof DimmerItem || item instanceof RollershutterItem) {
+			if (value >= 0.0d && value <= 100.0d) {
+				return new PercentType(BigDecimal.valueOf(value));
+			}
+		} else if (item instanceof SwitchItem) {
+			return value == 0.0d ? OnOffType.OFF : OnOffType.ON;
+		} else if (item instanceof ContactItem) {
+			return value == 0.0d ? OpenClosedType.CLOSED : OpenClosedType.OPEN;
+		}
+		// the shortest decimal representation, e.g. 21.3 instead of 21.300000000000000710...
+		return new DecimalType(BigDecimal.valueOf(value));
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public void updated(Dictionary<String, ?> config) throws ConfigurationException {
+		if (config != null) {
+			String folderString = (String) config.get("folder");
+			File newFolder = new File(StringUtils.isNotBlank(folderString) ? folderString.trim() : DEFAULT_FOLDER);
+			synchronized (series) {
+				if (!newFolder.equals(folder)) {
+					closeSeries();
+					folder = newFolder;
+					logger.debug("tsdb stores its files in '{}'", folder.getAbsolutePath());
+				}
+			}
+			String chunkSizeString = (String) config.get("chunksize");
+			if (StringUtils.isNotBlank(chunkSizeString)) {
+				try {
+					int size = Integer.parseInt(chunkSizeString.trim());
+					if (size <= 1) {
+						throw new NumberFormatException();
+					}
+					synchronized (series) {
+						chunkSize = size;
+					}
+				} catch (NumberFormatException e) {
+					throw new ConfigurationException("tsdb:chunksize", "The value '" + chunkSizeString
+							+ "' is not a valid number of samples per chunk");
+				}
+			}
+		}
+	}
+
+}
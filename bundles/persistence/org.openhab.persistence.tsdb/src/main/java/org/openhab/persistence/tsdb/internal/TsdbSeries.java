@@ -0,0 +1,372 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.persistence.tsdb.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The persisted samples of a single item.
+ *
+ * <p>The samples are collected in an open chunk, which is written to the file
+ * <code>&lt;name&gt;.head</code> whenever the series is flushed. As soon as the
+ * chunk is full, it is appended to the file <code>&lt;name&gt;.tsdb</code> and a
+ * new chunk is started. The data file is never rewritten, it is read through a
+ * read-only memory mapping. The time range of each chunk is kept in an index in
+ * memory, so that a query only decodes the chunks which overlap its time range.</p>
+ *
+ * <p>The times of the samples must not decrease, older samples are ignored.</p>
+ *
+ * @since 1.6.0
+ */
+class TsdbSeries {
+
+	private static final Logger logger = LoggerFactory.getLogger(TsdbSeries.class);
+
+	/** "TSDB" */
+	private static final int MAGIC = 0x54534442;
+	private static final int VERSION = 1;
+	private static final int FILE_HEADER_SIZE = 8;
+
+	/**
+	 * Receives the samples of a query.
+	 */
+	interface SampleVisitor {
+
+		/**
+		 * @return <code>false</code> if no more samples are needed
+		 */
+		boolean visit(long time, double value);
+
+	}
+
+	private final String name;
+	private final File dataFile;
+	private final File headFile;
+	private final int chunkSize;
+
+	// the index of the chunks in the data file
+	private int chunks = 0;
+	private long[] chunkOffsets = new long[16];
+	private long[] chunkStartTimes = new long[16];
+	private long[] chunkEndTimes = new long[16];
+	private int[] chunkCounts = new int[16];
+	private long dataLength = 0;
+
+	private MappedByteBuffer mappedData;
+
+	private ChunkWriter head = new ChunkWriter();
+	private boolean headModified = false;
+
+	/**
+	 * Opens the series of the given name, which is created on the first flush if it does not exist yet.
+	 *
+	 * @param folder the folder of the series files
+	 * @param name the name of the series
+	 * @param chunkSize the number of samples per chunk
+	 * @throws IOException if the files cannot be read
+	 */
+	TsdbSeries(File folder, String name, int chunkSize) throws IOException {
+		this.name = name;
+		this.dataFile = new File(folder, name + ".tsdb");
+		this.headFile = new File(folder, name + ".head");
+		this.chunkSize = chunkSize;
+		if (dataFile.exists()) {
+			readIndex();
+		}
+		if (headFile.exists()) {
+			readHead();
+		}
+	}
+
+	/**
+	 * Reads the headers of all chunks in the data file. An incomplete chunk at the end of the file,
+	 * which is left if the system stopped while it was appended, is removed.
+	 */
+	private void readIndex() throws IOException {
+		RandomAccessFile file = new RandomAccessFile(dataFile, "rw");
+		try {
+			FileChannel channel = file.getChannel();
+			long fileLength = channel.size();
+			ByteBuffer header = ByteBuffer.allocate(ChunkWriter.HEADER_SIZE);
+			if (fileLength < FILE_HEADER_SIZE) {
+				dataLength = 0;
+			} else {
+				header.limit(FILE_HEADER_SIZE);
+				channel.read(header, 0);
+				if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+					throw new IOException("'" + dataFile + "' is not a TSDB file of version " + VERSION);
+				}
+				long position = FILE_HEADER_SIZE;
+				while (position + ChunkWriter.HEADER_SIZE <= fileLength) {
+					header.clear();
+					channel.read(header, position);
+					int count = header.getInt(0);
+					int length = header.getInt(20);
+					long end = position + ChunkWriter.HEADER_SIZE + length;
+					if (count <= 0 || length < 0 || end > fileLength) {
+						break;
+					}
+					addChunk(position, count, header.getLong(4), header.getLong(12));
+					position = end;
+				}
+				dataLength = position;
+			}
+			if (dataLength < fileLength) {
+				logger.warn("Removing {} bytes of an incomplete chunk from '{}'", fileLength - dataLength, dataFile);
+				channel.truncate(dataLength);
+			}
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Reads the open chunk and continues it.
+	 */
+	private void readHead() throws IOException {
+		RandomAccessFile file = new RandomAccessFile(headFile, "r");
+		ByteBuffer chunk;
+		try {
+			chunk = ByteBuffer.allocate((int) file.length());
+			file.getChannel().read(chunk, 0);
+		} finally {
+			file.close();
+		}
+		if (chunk.capacity() < ChunkWriter.HEADER_SIZE) {
+			return;
+		}
+		int count = chunk.getInt(0);
+		long startTime = chunk.getLong(4);
+		if (count <= 0 || chunk.capacity() < ChunkWriter.HEADER_SIZE + chunk.getInt(20)) {
+			logger.warn("Ignoring the incomplete chunk in '{}'", headFile);
+			return;
+		}
+		if (chunks > 0 && (startTime < chunkEndTimes[chunks - 1]
+				|| (startTime == chunkStartTimes[chunks - 1] && count <= chunkCounts[chunks - 1]))) {
+			// the system stopped after the chunk has been appended to the data file, but before the head
+			// was cleared, so the head still contains the beginning of the last chunk
+			return;
+		}
+		long[] times = new long[count];
+		double[] values = new double[count];
+		ChunkReader.decode(chunk, ChunkWriter.HEADER_SIZE, startTime, times, values, count);
+		for (int i = 0; i < count; i++) {
+			head.append(times[i], values[i]);
+		}
+	}
+
+	private void addChunk(long offset, int count, long startTime, long endTime) {
+		if (chunks == chunkOffsets.length) {
+			int capacity = chunks * 2;
+			chunkOffsets = Arrays.copyOf(chunkOffsets, capacity);
+			chunkStartTimes = Arrays.copyOf(chunkStartTimes, capacity);
+			chunkEndTimes = Arrays.copyOf(chunkEndTimes, capacity);
+			chunkCounts = Arrays.copyOf(chunkCounts, capacity);
+		}
+		chunkOffsets[chunks] = offset;
+		chunkStartTimes[chunks] = startTime;
+		chunkEndTimes[chunks] = endTime;
+		chunkCounts[chunks] = count;
+		chunks++;
+	}
+
+	/**
+	 * Adds a sample to the open chunk. A full chunk is appended to the data file.
+	 *
+	 * @return <code>false</code> if the sample has been ignored, as it is older than the last sample
+	 * @throws IOException if a full chunk could not be written
+	 */
+	synchronized boolean append(long time, double value) throws IOException {
+		long lastTime = head.getCount() > 0 ? head.getEndTime() : (chunks > 0 ? chunkEndTimes[chunks - 1] : Long.MIN_VALUE);
+		if (time < lastTime) {
+			return false;
+		}
+		head.append(time, value);
+		headModified = true;
+		if (head.getCount() >= chunkSize) {
+			appendChunk();
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the open chunk to the file system, if it has been changed.
+	 *
+	 * @throws IOException if the chunk could not be written
+	 */
+	synchronized void flush() throws IOException {
+		if (headModified) {
+			writeHead();
+		}
+	}
+
+	private void appendChunk() throws IOException {
+		ByteBuffer chunk = head.toByteBuffer();
+		RandomAccessFile file = new RandomAccessFile(dataFile, "rw");
+		try {
+			FileChannel channel = file.getChannel();
+			if (dataLength == 0) {
+				ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+				header.putInt(MAGIC).putInt(VERSION).flip();
+				channel.write(header, 0);
+				dataLength = FILE_HEADER_SIZE;
+			}
+			long offset = dataLength;
+			while (chunk.hasRemaining()) {
+				channel.write(chunk, offset + chunk.position());
+			}
+			dataLength = offset + chunk.limit();
+			addChunk(offset, head.getCount(), head.getStartTime(), head.getEndTime());
+		} finally {
+			file.close();
+		}
+		head = new ChunkWriter();
+		writeHead();
+	}
+
+	private void writeHead() throws IOException {
+		RandomAccessFile file = new RandomAccessFile(headFile, "rw");
+		try {
+			if (head.getCount() == 0) {
+				file.setLength(0);
+			} else {
+				ByteBuffer chunk = head.toByteBuffer();
+				FileChannel channel = file.getChannel();
+				while (chunk.hasRemaining()) {
+					channel.write(chunk, chunk.position());
+				}
+				file.setLength(chunk.limit());
+			}
+		} finally {
+			file.close();
+		}
+		headModified = false;
+	}
+
+	/**
+	 * Passes all samples between the given times (inclusive) to the visitor.
+	 *
+	 * @param begin the time of the oldest sample to read
+	 * @param end the time of the newest sample to read
+	 * @param ascending whether the oldest or the newest samples are read first
+	 * @param visitor receives the samples until it returns <code>false</code>
+	 * @throws IOException if the data file cannot be read
+	 */
+	synchronized void read(long begin, long end, boolean ascending, SampleVisitor visitor) throws IOException {
+		if (begin > end) {
+			return;
+		}
+		// the first chunk which ends at or after the begin
+		int first = binarySearch(chunkEndTimes, begin);
+		// the last chunk which starts at or before the end
+		int last = binarySearch(chunkStartTimes, end + 1) - 1;
+		if (end == Long.MAX_VALUE) {
+			last = chunks - 1;
+		}
+
+		if (ascending) {
+			for (int i = first; i <= last; i++) {
+				if (!visitChunk(i, begin, end, true, visitor)) {
+					return;
+				}
+			}
+			visitHead(begin, end, true, visitor);
+		} else {
+			if (!visitHead(begin, end, false, visitor)) {
+				return;
+			}
+			for (int i = last; i >= first; i--) {
+				if (!visitChunk(i, begin, end, false, visitor)) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the index of the first chunk whose time is not before the given one
+	 */
+	private int binarySearch(long[] times, long time) {
+		int low = 0;
+		int high = chunks;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (times[middle] < time) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private boolean visitChunk(int chunk, long begin, long end, boolean ascending, SampleVisitor visitor)
+			throws IOException {
+		int count = chunkCounts[chunk];
+		long[] times = new long[count];
+		double[] values = new double[count];
+		ChunkReader.decode(getMappedData(), (int) chunkOffsets[chunk] + ChunkWriter.HEADER_SIZE,
+				chunkStartTimes[chunk], times, values, count);
+		return visit(times, values, count, begin, end, ascending, visitor);
+	}
+
+	private boolean visitHead(long begin, long end, boolean ascending, SampleVisitor visitor) {
+		int count = head.getCount();
+		if (count == 0 || head.getStartTime() > end || head.getEndTime() < begin) {
+			return true;
+		}
+		long[] times = new long[count];
+		double[] values = new double[count];
+		ChunkReader.decode(head.toByteBuffer(), ChunkWriter.HEADER_SIZE, head.getStartTime(), times, values, count);
+		return visit(times, values, count, begin, end, ascending, visitor);
+	}
+
+	private static boolean visit(long[] times, double[] values, int count, long begin, long end, boolean ascending,
+			SampleVisitor visitor) {
+		for (int j = 0; j < count; j++) {
+			int i = ascending ? j : count - 1 - j;
+			if (times[i] >= begin && times[i] <= end && !visitor.visit(times[i], values[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a read-only mapping of the data file, which is renewed if chunks have been appended since.
+	 */
+	private ByteBuffer getMappedData() throws IOException {
+		if (mappedData == null || mappedData.capacity() < dataLength) {
+			RandomAccessFile file = new RandomAccessFile(dataFile, "r");
+			try {
+				// the mapping stays valid after the file has been closed
+				mappedData = file.getChannel().map(MapMode.READ_ONLY, 0, dataLength);
+			} finally {
+				file.close();
+			}
+		}
+		return mappedData;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.ui.internal.chart;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * @since 1.6.0
+ */
+public class ChartCacheTest {
+
+	@Test
+	public void testInvalidation() {
+		ChartCache cache = new ChartCache();
+		byte[] image = new byte[] { 1, 2, 3 };
+		cache.put("chart", "Temperature=1,", image, 60000);
+
+		assertEquals(image, cache.get("chart", "Temperature=1,"));
+		// a new state has been stored
+		assertNull(cache.get("chart", "Temperature=2,"));
+		assertNull(cache.get("chart", "Temperature=1,"));
+
+		cache.put("chart", "Temperature=2,", image, 0);
+		assertNull(cache.get("chart", "Temperature=2,"));
+
+		cache.setSize(1);
+		cache.put("first", "", image, 60000);
+		cache.put("second", "", image, 60000);
+		assertNull(cache.get("first", ""));
+		assertEquals(image, cache.get("second", ""));
+	}
+
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.ui.internal.chart;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @since 1.6.0
+ */
+public class SeriesDownsamplerTest {
+
+	@Test
+	public void testKeepsExtremesPerPixel() {
+		// 10 pixels of 1000ms each, 100 samples per pixel
+		SeriesDownsampler samples = new SeriesDownsampler(new Date(0), new Date(10000), 10);
+		for (int i = 0; i < 1000; i++) {
+			double value = i == 250 ? 100 : (i == 260 ? -100 : i % 7);
+			samples.add(new Date(i * 10), value);
+		}
+		List<Date> xData = samples.getXData();
+		List<Number> yData = samples.getYData();
+
+		assertEquals(xData.size(), yData.size());
+		assertTrue(xData.size() <= 4 * 10);
+		assertTrue(yData.contains(100.0d));
+		assertTrue(yData.contains(-100.0d));
+		assertEquals(0, xData.get(0).getTime());
+		assertEquals(9990, xData.get(xData.size() - 1).getTime());
+		for (int i = 1; i < xData.size(); i++) {
+			assertTrue(xData.get(i - 1).getTime() <= xData.get(i).getTime());
+		}
+	}
+
+	@Test
+	public void testKeepsSparseSamples() {
+		SeriesDownsampler samples = new SeriesDownsampler(new Date(0), new Date(10000), 480);
+		samples.add(new Date(0), 1);
+		samples.add(new Date(4999), 1);
+		samples.add(new Date(5000), 0);
+		samples.add(new Date(10000), 0);
+
+		assertEquals(4, samples.getXData().size());
+		assertEquals(1.0d, samples.getYData().get(1));
+		assertEquals(0.0d, samples.getYData().get(2));
+	}
+
+}
@@ -12,6 +12,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.text.DecimalFormatSymbols;
@@ -306,6 +308,44 @@ public class ItemUIRegistryImplTest {
 		assertNull(w);
 	}
 	
+	@Test
+	public void getLabel_labelIsRenderedOncePerState() throws ItemNotFoundException {
+		String testLabel = "Label [%d]";
+		Widget w = mock(Widget.class);
+		Item item = mock(Item.class);
+		when(w.getLabel()).thenReturn(testLabel);
+		when(w.getItem()).thenReturn("Item");
+		when(registry.getItem("Item")).thenReturn(item);
+		when(item.getState()).thenReturn(OnOffType.ON);
+		when(item.getStateAs(DecimalType.class)).thenReturn(new DecimalType(1));
+		assertEquals("Label [1]", uiRegistry.getLabel(w));
+		assertEquals("Label [1]", uiRegistry.getLabel(w));
+		verify(item, times(1)).getStateAs(DecimalType.class);
+
+		when(item.getState()).thenReturn(OnOffType.OFF);
+		when(item.getStateAs(DecimalType.class)).thenReturn(new DecimalType(0));
+		assertEquals("Label [0]", uiRegistry.getLabel(w));
+	}
+
+	@Test
+	public void getLabel_labelIsRenderedAgainForReplacedItem() throws ItemNotFoundException {
+		String testLabel = "Label [%s]";
+		Widget w = mock(Widget.class);
+		Item item = mock(Item.class);
+		when(w.getLabel()).thenReturn(testLabel);
+		when(w.getItem()).thenReturn("Item");
+		when(registry.getItem("Item")).thenReturn(item);
+		when(item.getState()).thenReturn(OnOffType.ON);
+		assertEquals("Label [ON]", uiRegistry.getLabel(w));
+
+		Item replacement = mock(Item.class);
+		when(registry.getItem("Item")).thenReturn(replacement);
+		when(replacement.getState()).thenReturn(OnOffType.ON);
+		when(replacement.getStateAs(DecimalType.class)).thenReturn(new DecimalType(1));
+		when(w.getLabel()).thenReturn("Label [%d]");
+		assertEquals("Label [1]", uiRegistry.getLabel(w));
+	}
+
 	@Test
 	public void testFormatDefault() {
 		Assert.assertEquals("Server [(-)]", uiRegistry.formatUndefined("Server [(%d)]"));
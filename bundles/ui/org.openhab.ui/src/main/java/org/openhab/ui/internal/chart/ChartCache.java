@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.ui.internal.chart;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Keeps the encoded images of recently requested charts.
+ *
+ * <p>An image is identified by the parameters of its request. It is valid for a
+ * limited time only, as a chart of a period which ends now moves on, and as long
+ * as no new states of the charted items have been stored, which is checked by
+ * comparing the data version given to {@link #get(String, String)} with the one
+ * given to {@link #put(String, String, byte[], long)}. The least recently used
+ * images are dropped when the cache is full.</p>
+ *
+ * @since 1.6.0
+ */
+class ChartCache {
+
+	/** the default maximum number of cached images */
+	static final int DEFAULT_SIZE = 100;
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	private int size = DEFAULT_SIZE;
+
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * Returns a cached image.
+	 *
+	 * @param key the parameters of the chart request
+	 * @param dataVersion the current version of the charted data
+	 * @return the encoded image or <code>null</code> if it is not cached or not valid anymore
+	 */
+	synchronized byte[] get(String key, String dataVersion) {
+		Entry entry = entries.get(key);
+		if (entry != null && (entry.expires - System.currentTimeMillis() <= 0 || !entry.dataVersion.equals(dataVersion))) {
+			entries.remove(key);
+			entry = null;
+		}
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.image;
+	}
+
+	/**
+	 * Caches an image.
+	 *
+	 * @param key the parameters of the chart request
+	 * @param dataVersion the version of the charted data the image has been created from
+	 * @param image the encoded image
+	 * @param timeToLive the time in milliseconds the image is valid
+	 */
+	synchronized void put(String key, String dataVersion, byte[] image, long timeToLive) {
+		if (size <= 0) {
+			return;
+		}
+		entries.put(key, new Entry(dataVersion, image, System.currentTimeMillis() + timeToLive));
+		while (entries.size() > size) {
+			entries.remove(entries.keySet().iterator().next());
+		}
+	}
+
+	/**
+	 * Changes the maximum number of cached images, 0 disables the cache.
+	 */
+	synchronized void setSize(int size) {
+		this.size = size;
+		while (entries.size() > Math.max(0, size)) {
+			entries.remove(entries.keySet().iterator().next());
+		}
+	}
+
+	synchronized void clear() {
+		entries.clear();
+	}
+
+	synchronized long getHits() {
+		return hits;
+	}
+
+	synchronized long getMisses() {
+		return misses;
+	}
+
+	private static class Entry {
+
+		final String dataVersion;
+		final byte[] image;
+		final long expires;
+
+		Entry(String dataVersion, byte[] image, long expires) {
+			this.dataVersion = dataVersion;
+			this.image = image;
+			this.expires = expires;
+		}
+
+	}
+
+}
@@ -10,6 +10,7 @@ package org.openhab.ui.internal.chart;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.ParseException;
@@ -27,7 +28,10 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.openhab.core.items.GroupItem;
+import org.openhab.core.items.Item;
 import org.openhab.core.items.ItemNotFoundException;
+import org.openhab.core.persistence.CachingPersistenceService;
 import org.openhab.io.net.http.SecureHttpContext;
 import org.openhab.ui.chart.ChartProvider;
 import org.openhab.ui.items.ItemUIRegistry;
@@ -54,6 +58,10 @@ import org.slf4j.LoggerFactory;
  * <li>service: The persistence service name. If not supplied the first service found will be used.</li>
  * </ul>
  * 
+ * <p>The encoded images are kept in a {@link ChartCache}, so that a chart which is shown
+ * on several clients or reloaded is only rendered again if new states of its items have
+ * been stored or if its period has moved on by more than a pixel.</p>
+ * 
  * @author Chris Jackson
  * @since 1.4.0
  * 
@@ -106,6 +114,8 @@ public class ChartServlet extends HttpServlet implements ManagedService {
 	protected ItemUIRegistry itemUIRegistry;
 	static protected Map<String, ChartProvider> chartProviders = new HashMap<String, ChartProvider>();
 
+	protected final ChartCache cache = new ChartCache();
+
 	public void setHttpService(HttpService httpService) {
 		this.httpService = httpService;
 	}
@@ -150,6 +160,8 @@ public class ChartServlet extends HttpServlet implements ManagedService {
 
 	protected void deactivate() {
 		httpService.unregister(SERVLET_NAME);
+		logger.debug("Chart cache statistics: {} hits, {} misses", cache.getHits(), cache.getMisses());
+		cache.clear();
 	}
 
 	@Override
@@ -241,15 +253,70 @@ public class ChartServlet extends HttpServlet implements ManagedService {
 
 		// Set the content type to that provided by the chart provider
 		res.setContentType("image/" + provider.getChartType());
+
+		String items = req.getParameter("items");
+		String groups = req.getParameter("groups");
+		String cacheKey = providerName + "|" + serviceName + "|" + items + "|" + groups + "|" + width + "x" + height
+				+ "|" + req.getParameter("period") + "|" + req.getParameter("begin") + "|" + req.getParameter("end");
+		String dataVersion = getDataVersion(items, groups);
+		byte[] image = dataVersion != null ? cache.get(cacheKey, dataVersion) : null;
+		if (image == null) {
+			try {
+				BufferedImage chart = provider.createChart(serviceName, null, timeBegin, timeEnd, height, width,
+						items, groups);
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				ImageIO.write(chart, provider.getChartType().toString(), out);
+				image = out.toByteArray();
+			} catch (ItemNotFoundException e) {
+				logger.debug("Item not found error while generating chart.");
+				return;
+			} catch (IllegalArgumentException e) {
+				logger.debug("Illegal argument in chart: {}", e);
+				return;
+			}
+			if (dataVersion != null) {
+				// the image is valid until the period has moved on by a pixel
+				long timeToLive = Math.max(1000, (timeEnd.getTime() - timeBegin.getTime()) / Math.max(1, width));
+				cache.put(cacheKey, dataVersion, image, timeToLive);
+			}
+		}
+		res.setContentLength(image.length);
+		res.getOutputStream().write(image);
+	}
+
+	/**
+	 * Returns the version of the persisted data of the charted items, which changes whenever a new
+	 * state of one of the items has been stored.
+	 * 
+	 * @return the version or <code>null</code> if an item cannot be found
+	 */
+	private String getDataVersion(String items, String groups) {
+		if (itemUIRegistry == null) {
+			return null;
+		}
+		StringBuilder version = new StringBuilder();
 		try {
-			BufferedImage chart = provider.createChart(serviceName, null, timeBegin, timeEnd, height, width,
-					req.getParameter("items"), req.getParameter("groups"));
-			ImageIO.write(chart, provider.getChartType().toString(), res.getOutputStream());
+			if (items != null) {
+				for (String itemName : items.split(",")) {
+					version.append(itemName).append('=').append(CachingPersistenceService.getStoredStates(itemName)).append(',');
+				}
+			}
+			if (groups != null) {
+				for (String groupName : groups.split(",")) {
+					Item item = itemUIRegistry.getItem(groupName);
+					if (!(item instanceof GroupItem)) {
+						return null;
+					}
+					for (Item member : ((GroupItem) item).getMembers()) {
+						version.append(member.getName()).append('=')
+								.append(CachingPersistenceService.getStoredStates(member.getName())).append(',');
+					}
+				}
+			}
 		} catch (ItemNotFoundException e) {
-			logger.debug("Item not found error while generating chart.");
-		} catch (IllegalArgumentException e) {
-			logger.debug("Illegal argument in chart: {}", e);
+			return null;
 		}
+		return version.toString();
 	}
 
 	/**
@@ -307,6 +374,9 @@ public class ChartServlet extends HttpServlet implements ManagedService {
 		if(properties.get("defaultWidth") != null) {
 			defaultWidth = Integer.parseInt((String)properties.get("defaultWidth"));
 		}
+		if(properties.get("cachesize") != null) {
+			cache.setSize(Integer.parseInt((String)properties.get("cachesize")));
+		}
 		if(properties.get("scale") != null) {
 			scale = Double.parseDouble((String)properties.get("scale"));
 			if(scale < 0.5)
@@ -18,6 +18,7 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -28,6 +29,7 @@ import org.openhab.core.items.ItemNotFoundException;
 import org.openhab.core.library.types.DecimalType;
 import org.openhab.core.library.types.OnOffType;
 import org.openhab.core.library.types.OpenClosedType;
+import org.openhab.core.persistence.CachingPersistenceService;
 import org.openhab.core.persistence.FilterCriteria;
 import org.openhab.core.persistence.FilterCriteria.Ordering;
 import org.openhab.core.persistence.HistoricItem;
@@ -92,11 +94,13 @@ public class DefaultChartProvider implements ChartProvider {
 
 	public void addPersistenceService(PersistenceService service) {
 		if (service instanceof QueryablePersistenceService)
-			persistenceServices.put(service.getName(), (QueryablePersistenceService) service);
+			persistenceServices.put(service.getName(),
+					CachingPersistenceService.getInstance((QueryablePersistenceService) service));
 	}
 
 	public void removePersistenceService(PersistenceService service) {
 		persistenceServices.remove(service.getName());
+		CachingPersistenceService.removeInstance(service);
 	}
 
 	static public Map<String, QueryablePersistenceService> getPersistenceServices() {
@@ -279,9 +283,8 @@ public class DefaultChartProvider implements ChartProvider {
 		Iterable<HistoricItem> result;
 		FilterCriteria filter;
 
-		// Generate data collections
-		Collection<Date> xData = new ArrayList<Date>();
-		Collection<Number> yData = new ArrayList<Number>();
+		// Generate data collections, which are reduced to the samples visible at the width of the chart
+		SeriesDownsampler samples = new SeriesDownsampler(timeBegin, timeEnd, chart.getWidth());
 		
 		// Declare state here so it will hold the last value at the end of the process
 		org.openhab.core.types.State state = null;
@@ -299,8 +302,7 @@ public class DefaultChartProvider implements ChartProvider {
 			HistoricItem historicItem = result.iterator().next();
 
 			state = historicItem.getState();
-			xData.add(timeBegin);
-			yData.add(convertData(state));
+			samples.add(timeBegin, convertData(state));
 		}
 
 		// Now, get all the data between the start and end time
@@ -323,20 +325,19 @@ public class DefaultChartProvider implements ChartProvider {
 				Calendar cal = Calendar.getInstance();
 				cal.setTime(historicItem.getTimestamp());
 				cal.add(Calendar.MILLISECOND, -1);
-				xData.add(cal.getTime());
-				yData.add(convertData(state));
+				samples.add(cal.getTime(), convertData(state));
 			}
 
 			state = historicItem.getState();
-			xData.add(historicItem.getTimestamp());
-			yData.add(convertData(state));
+			samples.add(historicItem.getTimestamp(), convertData(state));
 		}
 
 		// Lastly, add the final state at the endtime
 		if (state != null) {
-			xData.add(timeEnd);
-			yData.add(convertData(state));
+			samples.add(timeEnd, convertData(state));
 		}
+		List<Date> xData = samples.getXData();
+		List<Number> yData = samples.getYData();
 
 		// Add the new series to the chart - only if there's data elements to display
 		// The chart engine will throw an exception if there's no data
@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.ui.internal.chart;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Reduces the samples of a chart series to those which are visible at the
+ * width of the chart.
+ *
+ * <p>The time range of the chart is divided into one bucket per pixel. Of all
+ * samples within a bucket, only the first, the last, the minimum and the maximum
+ * are kept, in the order of their times. A line through these samples covers
+ * the same pixels as a line through all samples, so the chart looks the same,
+ * but it is drawn from at most four samples per pixel. The samples are added one
+ * by one, so that the full data never has to be kept in memory.</p>
+ *
+ * @since 1.6.0
+ */
+class SeriesDownsampler {
+
+	private final long begin;
+	private final double bucketWidth;
+
+	private final List<Date> xData = new ArrayList<Date>();
+	private final List<Number> yData = new ArrayList<Number>();
+
+	// the samples of the current bucket
+	private long bucket;
+	private int count = 0;
+	private long firstTime, minTime, maxTime, lastTime;
+	private double first, min, max, last;
+
+	/**
+	 * @param begin the begin of the time range of the chart
+	 * @param end the end of the time range of the chart
+	 * @param buckets the number of buckets, i.e. the width of the chart in pixels
+	 */
+	SeriesDownsampler(Date begin, Date end, int buckets) {
+		this.begin = begin.getTime();
+		this.bucketWidth = Math.max(1.0d, (double) (end.getTime() - begin.getTime()) / Math.max(1, buckets));
+	}
+
+	/**
+	 * Adds a sample. The samples must be added in the order of their times.
+	 */
+	void add(Date time, double value) {
+		long t = time.getTime();
+		long b = (long) Math.floor((t - begin) / bucketWidth);
+		if (count > 0 && b != bucket) {
+			flushBucket();
+		}
+		if (count == 0) {
+			bucket = b;
+			firstTime = minTime = maxTime = t;
+			first = min = max = value;
+		} else if (value < min) {
+			minTime = t;
+			min = value;
+		} else if (value > max) {
+			maxTime = t;
+			max = value;
+		}
+		lastTime = t;
+		last = value;
+		count++;
+	}
+
+	private void flushBucket() {
+		addPoint(firstTime, first);
+		if (minTime <= maxTime) {
+			addPoint(minTime, min);
+			addPoint(maxTime, max);
+		} else {
+			addPoint(maxTime, max);
+			addPoint(minTime, min);
+		}
+		addPoint(lastTime, last);
+		count = 0;
+	}
+
+	private void addPoint(long time, double value) {
+		int size = xData.size();
+		if (size > 0 && xData.get(size - 1).getTime() == time && yData.get(size - 1).doubleValue() == value) {
+			// the same sample has been kept for more than one reason
+			return;
+		}
+		xData.add(new Date(time));
+		yData.add(value);
+	}
+
+	/**
+	 * @return the times of the kept samples
+	 */
+	List<Date> getXData() {
+		if (count > 0) {
+			flushBucket();
+		}
+		return xData;
+	}
+
+	/**
+	 * @return the values of the kept samples
+	 */
+	List<Number> getYData() {
+		if (count > 0) {
+			flushBucket();
+		}
+		return yData;
+	}
+
+}
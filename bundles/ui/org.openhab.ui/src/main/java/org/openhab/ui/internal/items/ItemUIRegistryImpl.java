@@ -88,14 +88,21 @@ public class ItemUIRegistryImpl implements ItemUIRegistry {
 
 	protected ItemRegistry itemRegistry;
 
+	/* the parsed and rendered labels of the widgets */
+	private final LabelCache labelCache = new LabelCache();
+
 	public ItemUIRegistryImpl() {}
 
 	public void setItemRegistry(ItemRegistry itemRegistry) {
 		this.itemRegistry = itemRegistry;
+		labelCache.clear();
+		itemRegistry.addItemRegistryChangeListener(labelCache);
 	}
 
 	public void unsetItemRegistry(ItemRegistry itemRegistry) {
+		itemRegistry.removeItemRegistryChangeListener(labelCache);
 		this.itemRegistry = null;
+		labelCache.clear();
 	}
 
 	public void addItemUIProvider(ItemUIProvider itemUIProvider) {
@@ -212,39 +219,51 @@ public class ItemUIRegistryImpl implements ItemUIRegistry {
 	 */
 	public String getLabel(Widget w) {
 		String label = getLabelFromWidget(w);
+		LabelTemplate template = labelCache.getTemplate(w, label);
 		
 		// now insert the value, if the state is a string or decimal value and there is some formatting pattern defined in the label 
 		// (i.e. it contains at least a %)
 		String itemName = w.getItem();
-		if(itemName!=null && label.contains("[")) {
-			
-			int indexOpenBracket = label.indexOf("[");
-			int indexCloseBracket = label.indexOf("]");
+		if(itemName!=null && template.hasValue()) {
 			
+			Item item = null;
+			State itemState = null;
 			State state = null;
-			String formatPattern = label.substring(indexOpenBracket + 1, indexCloseBracket);
+			String formatPattern = template.getFormatPattern();
 			try {
-				Item item = getItem(itemName);
+				item = getItem(itemName);
+				itemState = item.getState();
+				state = itemState;
+
+				// the label is rendered only once per state of the item
+				String renderedLabel = labelCache.getRenderedLabel(item, itemState, label);
+				if(renderedLabel!=null) {
+					return renderedLabel;
+				}
+
 				// TODO: TEE: we should find a more generic solution here! When
 				// using indexes in formatString this 'contains' will fail again
 				// and will cause an 'java.util.IllegalFormatConversionException:
 				// d != java.lang.String' later on when trying to format a String
 				// as %d (number).
-				if (label.contains("%d")) {
+				if (template.isNumberRequested()) {
 					// a number is requested
-					state = item.getState();
 					if(!(state instanceof DecimalType)) {
 						state = item.getStateAs(DecimalType.class);
 					}
-				} else {
-					state = item.getState();
 				}
 			} catch (ItemNotFoundException e) {
 				logger.error("Cannot retrieve item for widget {}", w.eClass().getInstanceTypeName());
 			}
 
 			if (state==null || state instanceof UnDefType) {
-				formatPattern = formatUndefined(formatPattern);
+				// the undefined value depends on the format pattern only
+				String undefinedValue = template.getUndefinedValue();
+				if(undefinedValue==null) {
+					undefinedValue = formatUndefined(formatPattern);
+					template.setUndefinedValue(undefinedValue);
+				}
+				formatPattern = undefinedValue;
 			} else if (state instanceof Type) {
 				// The following exception handling has been added to work around a Java bug with formatting
 				// numbers. See http://bugs.sun.com/view_bug.do?bug_id=6476425
@@ -261,12 +280,16 @@ public class ItemUIRegistryImpl implements ItemUIRegistry {
 				}
 			}
 
-			label = label.substring(0, indexOpenBracket + 1) + formatPattern + label.substring(indexCloseBracket);
+			String renderedLabel = transform(template.format(formatPattern));
+			
+			// transformations are not cached, as their configuration may change at any time
+			if(item!=null && !template.isTransformation()) {
+				labelCache.putRenderedLabel(item, itemState, label, renderedLabel);
+			}
+			return renderedLabel;
 		}
 		
-		label = transform(label);
-		
-		return label;
+		return template.isTransformation() ? transform(label) : label;
 	}
 
 	private String getLabelFromWidget(Widget w) {
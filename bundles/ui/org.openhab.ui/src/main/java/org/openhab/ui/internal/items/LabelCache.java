@@ -0,0 +1,157 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.ui.internal.items;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.openhab.core.items.GenericItem;
+import org.openhab.core.items.Item;
+import org.openhab.core.items.ItemRegistryChangeListener;
+import org.openhab.core.items.StateChangeListener;
+import org.openhab.core.types.State;
+import org.openhab.model.sitemap.Widget;
+
+/**
+ * Caches the parsed labels of widgets and the labels which have been rendered
+ * for the current states of items.
+ *
+ * <p>The {@link LabelTemplate}s are kept per widget for as long as the widget
+ * exists, i.e. until its sitemap is reloaded. The rendered labels are kept per
+ * item and are dropped as soon as the state of the item changes or the item is
+ * replaced.</p>
+ *
+ * @since 1.6.0
+ */
+class LabelCache implements StateChangeListener, ItemRegistryChangeListener {
+
+	private final Map<Widget, LabelTemplate> templates = new WeakHashMap<Widget, LabelTemplate>();
+
+	private final Map<String, RenderedLabels> renderedLabels = new HashMap<String, RenderedLabels>();
+
+	/**
+	 * Returns the template of a widget label, which is created if the widget
+	 * has no template yet or its label has changed.
+	 *
+	 * @param widget the widget
+	 * @param label the current label of the widget
+	 * @return the template of the label
+	 */
+	synchronized LabelTemplate getTemplate(Widget widget, String label) {
+		LabelTemplate template = templates.get(widget);
+		if (template == null || !template.getLabel().equals(label)) {
+			template = new LabelTemplate(label);
+			templates.put(widget, template);
+		}
+		return template;
+	}
+
+	/**
+	 * Returns a label which has been rendered for the given state of an item.
+	 *
+	 * @param item the item whose state is displayed
+	 * @param state the current state of the item
+	 * @param label the unrendered label
+	 * @return the rendered label or <code>null</code>, if it has not been rendered for this state
+	 */
+	synchronized String getRenderedLabel(Item item, State state, String label) {
+		RenderedLabels rendered = renderedLabels.get(item.getName());
+		if (rendered == null || !rendered.isFor(item, state)) {
+			return null;
+		}
+		return rendered.labels.get(label);
+	}
+
+	/**
+	 * Caches a label which has been rendered for the given state of an item.
+	 *
+	 * @param item the item whose state is displayed
+	 * @param state the state of the item the label has been rendered for
+	 * @param label the unrendered label
+	 * @param renderedLabel the rendered label
+	 */
+	synchronized void putRenderedLabel(Item item, State state, String label, String renderedLabel) {
+		RenderedLabels rendered = renderedLabels.get(item.getName());
+		if (rendered == null || !rendered.isFor(item, state)) {
+			rendered = new RenderedLabels(item, state);
+			renderedLabels.put(item.getName(), rendered);
+			if (item instanceof GenericItem) {
+				((GenericItem) item).addStateChangeListener(this);
+			}
+		}
+		rendered.labels.put(label, renderedLabel);
+	}
+
+	synchronized void clear() {
+		templates.clear();
+		renderedLabels.clear();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public synchronized void stateChanged(Item item, State oldState, State newState) {
+		renderedLabels.remove(item.getName());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void stateUpdated(Item item, State state) {
+		// the state has not changed
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public synchronized void allItemsChanged(Collection<String> oldItemNames) {
+		renderedLabels.clear();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public synchronized void itemAdded(Item item) {
+		renderedLabels.remove(item.getName());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public synchronized void itemRemoved(Item item) {
+		renderedLabels.remove(item.getName());
+	}
+
+	/**
+	 * The labels which have been rendered for a single state of an item.
+	 */
+	private static class RenderedLabels {
+
+		final Item item;
+		final State state;
+		final Map<String, String> labels = new HashMap<String, String>();
+
+		RenderedLabels(Item item, State state) {
+			this.item = item;
+			this.state = state;
+		}
+
+		/**
+		 * States are compared by identity, as equal states may be formatted differently,
+		 * e.g. the decimals 1 and 1.0.
+		 */
+		boolean isFor(Item item, State state) {
+			return this.item == item && this.state == state;
+		}
+
+	}
+
+}
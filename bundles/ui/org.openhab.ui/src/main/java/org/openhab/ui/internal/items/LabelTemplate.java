@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.ui.internal.items;
+
+/**
+ * A widget label, which has been split into the text before the value, the
+ * format pattern of the value and the text after it.
+ *
+ * <p>A label like <code>Temperature [%.1f °C]</code> is parsed once, when it is
+ * rendered for the first time, instead of on every rendering.</p>
+ *
+ * @since 1.6.0
+ */
+class LabelTemplate {
+
+	private final String label;
+
+	private final int indexOpenBracket;
+	private final int indexCloseBracket;
+	private final String formatPattern;
+
+	private final boolean numberRequested;
+	private final boolean transformation;
+
+	private volatile String undefinedValue;
+
+	/**
+	 * @param label the label of the widget, as defined in the sitemap or by an item ui provider
+	 */
+	LabelTemplate(String label) {
+		this.label = label;
+		this.indexOpenBracket = label.indexOf("[");
+		this.indexCloseBracket = label.indexOf("]");
+		this.formatPattern = hasValue() ? label.substring(indexOpenBracket + 1, indexCloseBracket) : null;
+		this.numberRequested = label.contains("%d");
+		this.transformation = label.contains("[") && label.endsWith("]")
+				&& ItemUIRegistryImpl.EXTRACT_TRANSFORMFUNCTION_PATTERN.matcher(label).find();
+	}
+
+	/**
+	 * @return the label this template has been created from
+	 */
+	String getLabel() {
+		return label;
+	}
+
+	/**
+	 * @return <code>true</code>, if the label contains a value in square brackets
+	 */
+	boolean hasValue() {
+		return indexOpenBracket >= 0 && indexCloseBracket > indexOpenBracket;
+	}
+
+	/**
+	 * @return the format pattern between the square brackets
+	 */
+	String getFormatPattern() {
+		return formatPattern;
+	}
+
+	/**
+	 * @return <code>true</code>, if the format pattern requests a number
+	 */
+	boolean isNumberRequested() {
+		return numberRequested;
+	}
+
+	/**
+	 * @return <code>true</code>, if the value is passed to a transformation service
+	 */
+	boolean isTransformation() {
+		return transformation;
+	}
+
+	/**
+	 * @return the formatted value for an undefined state or <code>null</code>, if it has not been set yet
+	 */
+	String getUndefinedValue() {
+		return undefinedValue;
+	}
+
+	void setUndefinedValue(String undefinedValue) {
+		this.undefinedValue = undefinedValue;
+	}
+
+	/**
+	 * Replaces the format pattern with the formatted value.
+	 *
+	 * @param value the formatted value
+	 * @return the label with the value in square brackets
+	 */
+	String format(String value) {
+		return label.substring(0, indexOpenBracket + 1) + value + label.substring(indexCloseBracket);
+	}
+
+}